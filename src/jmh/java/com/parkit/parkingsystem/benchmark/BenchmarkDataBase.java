@@ -0,0 +1,55 @@
+package com.parkit.parkingsystem.benchmark;
+
+import com.parkit.parkingsystem.integration.config.EmbeddedDataBaseTestConfig;
+
+import java.sql.Connection;
+import java.sql.Statement;
+
+/**
+ * embedded H2 database in MySQL mode standing in for the production database, created with the application migrations
+ */
+class BenchmarkDataBase extends EmbeddedDataBaseTestConfig {
+
+    BenchmarkDataBase(String databaseName) throws Exception {
+        super(databaseName);
+        createSchema();
+    }
+
+    /**
+     * empty the parking and create available spots, car spots first then bike spots
+     */
+    void resetSpots(int carSpots, int bikeSpots) throws Exception {
+        execute("delete from ticket");
+        execute("delete from parking");
+        execute("insert into parking(PARKING_NUMBER, AVAILABLE, TYPE) select X, true, case when X <= " + carSpots
+                + " then 'CAR' else 'BIKE' end from system_range(1, " + (carSpots + bikeSpots) + ")");
+    }
+
+    /**
+     * add closed tickets of past visits, spread over the given number of vehicles named P0, P1...
+     */
+    void addClosedTickets(int tickets, int vehicles) throws Exception {
+        execute("insert into ticket(PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME) "
+                + "select 1, concat('P', mod(X, " + vehicles + ")), 1.5, "
+                + "dateadd('SECOND', -X * 60 - 3600, current_timestamp), dateadd('SECOND', -X * 60, current_timestamp) "
+                + "from system_range(1, " + tickets + ")");
+    }
+
+    /**
+     * park the vehicles O1, O2... on the first spots, an hour ago
+     */
+    void parkVehicles(int vehicles) throws Exception {
+        execute("insert into ticket(PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME) "
+                + "select X, concat('O', X), 0, dateadd('HOUR', -1, current_timestamp) from system_range(1, " + vehicles + ")");
+        execute("update parking set AVAILABLE = false where PARKING_NUMBER <= " + vehicles);
+    }
+
+    void execute(String sql) throws Exception {
+        Connection con = getConnection();
+        try (Statement st = con.createStatement()) {
+            st.execute(sql);
+        } finally {
+            closeConnection(con);
+        }
+    }
+}
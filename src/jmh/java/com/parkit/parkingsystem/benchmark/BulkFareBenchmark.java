@@ -0,0 +1,90 @@
+package com.parkit.parkingsystem.benchmark;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.service.BulkFareCalculator;
+import com.parkit.parkingsystem.service.FareCalculatorService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * re-pricing a batch of tickets: calculateFare on one Ticket per row against BulkFareCalculator
+ * on columns, by the calling thread alone and split over the common fork-join pool
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class BulkFareBenchmark {
+
+    @Param({"1000000"})
+    public int tickets;
+
+    private final FareCalculatorService fareCalculatorService = new FareCalculatorService();
+    private BulkFareCalculator sequential;
+    private BulkFareCalculator parallel;
+    private long[] inTimes;
+    private long[] outTimes;
+    private byte[] parkingTypes;
+    private boolean[] discounts;
+    private double[] prices;
+
+    @Setup
+    public void setUp() {
+        sequential = new BulkFareCalculator(ForkJoinPool.commonPool(), Integer.MAX_VALUE);
+        parallel = new BulkFareCalculator();
+        Random random = new Random(42);
+        inTimes = new long[tickets];
+        outTimes = new long[tickets];
+        parkingTypes = new byte[tickets];
+        discounts = new boolean[tickets];
+        prices = new double[tickets];
+        for (int i = 0; i < tickets; i++) {
+            inTimes[i] = 1_500_000_000_000L + random.nextInt(1_000_000_000);
+            outTimes[i] = inTimes[i] + random.nextInt(24 * 3_600_000);
+            parkingTypes[i] = (byte) random.nextInt(ParkingType.values().length);
+            discounts[i] = random.nextBoolean();
+        }
+    }
+
+    @Benchmark
+    public double[] perTicket() {
+        ParkingType[] types = ParkingType.values();
+        for (int i = 0; i < tickets; i++) {
+            Ticket ticket = new Ticket();
+            ticket.setParkingSpot(new ParkingSpot(1, types[parkingTypes[i]], false));
+            ticket.setInTime(new Date(inTimes[i]));
+            ticket.setOutTime(new Date(outTimes[i]));
+            fareCalculatorService.calculateFare(ticket, discounts[i]);
+            prices[i] = ticket.getPrice();
+        }
+        return prices;
+    }
+
+    @Benchmark
+    public double[] bulkSequential() {
+        sequential.calculateFares(inTimes, outTimes, parkingTypes, discounts, prices);
+        return prices;
+    }
+
+    @Benchmark
+    public double[] bulkParallel() {
+        parallel.calculateFares(inTimes, outTimes, parkingTypes, discounts, prices);
+        return prices;
+    }
+}
@@ -0,0 +1,151 @@
+package com.parkit.parkingsystem.benchmark;
+
+import com.parkit.parkingsystem.config.DataBaseConfig;
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.ParkingSpotDAO;
+import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * each public method of TicketDAO and ParkingSpotDAO against the embedded database,
+ * with and without the in-memory indexes, on 1000 spots, 200000 past tickets of 20000 vehicles and 500 parked vehicles
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class DaoBenchmark {
+
+    private static final int SPOTS = 1000;
+    private static final int PARKED = 500;
+    private static final int VEHICLES = 20_000;
+
+    @Param({"false", "true"})
+    public boolean inMemoryIndexes;
+
+    private BenchmarkDataBase dataBase;
+    private ParkingSpotDAO parkingSpotDAO;
+    private TicketDAO ticketDAO;
+    private Ticket closedTicket;
+    private int counter;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dataBase = new BenchmarkDataBase("dao");
+        dataBase.resetSpots(SPOTS / 2, SPOTS / 2);
+        dataBase.addClosedTickets(200_000, VEHICLES);
+        dataBase.parkVehicles(PARKED);
+        parkingSpotDAO = new ParkingSpotDAO();
+        parkingSpotDAO.dataBaseConfig = dataBase;
+        ticketDAO = new TicketDAO();
+        ticketDAO.dataBaseConfig = dataBase;
+        if (inMemoryIndexes) {
+            parkingSpotDAO.loadParkingSpotIndex();
+            ticketDAO.loadOpenTicketIndex(SPOTS);
+            ticketDAO.loadVisitedVehicles();
+        }
+        closedTicket = ticketDAO.getTicket("P1");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        DataBaseConfig.shutdownAll();
+    }
+
+    private int next(int bound) {
+        counter = (counter + 1) % bound;
+        return counter + 1;
+    }
+
+    @Benchmark
+    public int getNextAvailableSlot() {
+        return parkingSpotDAO.getNextAvailableSlot(ParkingType.CAR);
+    }
+
+    @Benchmark
+    public boolean claimNextAvailableSlotAndUpdateParking() {
+        int parkingNumber = parkingSpotDAO.claimNextAvailableSlot(ParkingType.CAR);
+        return parkingSpotDAO.updateParking(new ParkingSpot(parkingNumber, ParkingType.CAR, true));
+    }
+
+    @Benchmark
+    public boolean loadParkingSpotIndex() {
+        return parkingSpotDAO.loadParkingSpotIndex();
+    }
+
+    @Benchmark
+    public boolean saveTicket() {
+        Ticket ticket = new Ticket();
+        ticket.setParkingSpot(new ParkingSpot(PARKED + 1, ParkingType.CAR, false));
+        ticket.setVehicleRegNumber("S" + next(VEHICLES));
+        ticket.setInTime(new Date());
+        ticket.setOutTime(new Date());
+        return ticketDAO.saveTicket(ticket);
+    }
+
+    @Benchmark
+    public boolean saveTickets() {
+        List<Ticket> tickets = new ArrayList<>(10);
+        for (int i = 0; i < 10; i++) {
+            Ticket ticket = new Ticket();
+            ticket.setParkingSpot(new ParkingSpot(PARKED + 1, ParkingType.CAR, false));
+            ticket.setVehicleRegNumber("B" + next(VEHICLES));
+            ticket.setInTime(new Date());
+            ticket.setOutTime(new Date());
+            tickets.add(ticket);
+        }
+        return ticketDAO.saveTickets(tickets);
+    }
+
+    @Benchmark
+    public Ticket getTicket() {
+        return ticketDAO.getTicket("O" + next(PARKED));
+    }
+
+    @Benchmark
+    public boolean updateTicket() {
+        closedTicket.setPrice(next(100));
+        return ticketDAO.updateTicket(closedTicket);
+    }
+
+    @Benchmark
+    public int getNbTicket() {
+        return ticketDAO.getNbTicket("P" + next(VEHICLES));
+    }
+
+    @Benchmark
+    public boolean hasVisitedBefore() {
+        // half returning vehicles, half first visits
+        int n = next(2 * VEHICLES);
+        return ticketDAO.hasVisitedBefore((n % 2 == 0 ? "P" : "N") + (n / 2));
+    }
+
+    @Benchmark
+    public boolean loadOpenTicketIndex() {
+        return ticketDAO.loadOpenTicketIndex(SPOTS);
+    }
+
+    @Benchmark
+    public boolean loadVisitedVehicles() {
+        return ticketDAO.loadVisitedVehicles();
+    }
+}
@@ -0,0 +1,59 @@
+package com.parkit.parkingsystem.benchmark;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.service.FareCalculatorService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FareCalculatorService.calculateFare for each parking type, discount flag and a range of durations:
+ * inside the free half hour, under an hour, a few hours and a full day
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class FareCalculatorBenchmark {
+
+    @Param({"20", "45", "180", "1440"})
+    public long durationMinutes;
+
+    @Param({"CAR", "BIKE"})
+    public ParkingType parkingType;
+
+    @Param({"false", "true"})
+    public boolean discount;
+
+    private final FareCalculatorService fareCalculatorService = new FareCalculatorService();
+    private Ticket ticket;
+
+    @Setup
+    public void setUp() {
+        long outTime = System.currentTimeMillis();
+        ticket = new Ticket();
+        ticket.setParkingSpot(new ParkingSpot(1, parkingType, false));
+        ticket.setVehicleRegNumber("ABCDEF");
+        ticket.setInTime(new Date(outTime - durationMinutes * 60_000));
+        ticket.setOutTime(new Date(outTime));
+    }
+
+    @Benchmark
+    public double calculateFare() {
+        fareCalculatorService.calculateFare(ticket, discount);
+        return ticket.getPrice();
+    }
+}
@@ -0,0 +1,40 @@
+package com.parkit.parkingsystem.benchmark;
+
+import com.parkit.parkingsystem.metrics.Metrics;
+import com.parkit.parkingsystem.metrics.OperationMetrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * the cost added to each instrumented operation: timing and recording one call,
+ * by one thread and by four threads sharing the operation
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MetricsBenchmark {
+
+    private final OperationMetrics operation = Metrics.operation("MetricsBenchmark.record");
+
+    @Benchmark
+    public boolean record() {
+        return operation.record(operation.start(), true);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean recordShared() {
+        return operation.record(operation.start(), true);
+    }
+}
@@ -0,0 +1,115 @@
+package com.parkit.parkingsystem.benchmark;
+
+import com.parkit.parkingsystem.config.DataBaseConfig;
+import com.parkit.parkingsystem.dao.ParkingSpotDAO;
+import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.service.ParkingService;
+import com.parkit.parkingsystem.util.InputReaderUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * a vehicle entering and a vehicle exiting through ParkingService against the embedded database,
+ * with and without the in-memory spot index, open ticket cache and visited vehicles filter.
+ * Each iteration starts from a half full parking with a history of past tickets.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ParkingServiceBenchmark {
+
+    private static final int SPOTS = 200_000;
+    private static final int PARKED = SPOTS / 2;
+
+    @Param({"false", "true"})
+    public boolean inMemoryIndexes;
+
+    private BenchmarkDataBase dataBase;
+    private ParkingService parkingService;
+    private PrintStream console;
+    private int entries;
+    private int exits;
+    private String vehicleRegNumber;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() throws Exception {
+        dataBase = new BenchmarkDataBase("parkingservice");
+        console = System.out;
+        // the service prints to the console on every entry and exit
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpIteration() throws Exception {
+        dataBase.resetSpots(SPOTS, 0);
+        dataBase.addClosedTickets(100_000, 10_000);
+        dataBase.parkVehicles(PARKED);
+        ParkingSpotDAO parkingSpotDAO = new ParkingSpotDAO();
+        parkingSpotDAO.dataBaseConfig = dataBase;
+        TicketDAO ticketDAO = new TicketDAO();
+        ticketDAO.dataBaseConfig = dataBase;
+        if (inMemoryIndexes) {
+            parkingSpotDAO.loadParkingSpotIndex();
+            ticketDAO.loadOpenTicketIndex(SPOTS);
+            ticketDAO.loadVisitedVehicles();
+        }
+        InputReaderUtil inputReaderUtil = new InputReaderUtil() {
+            @Override
+            public int readSelection() {
+                return 1;
+            }
+
+            @Override
+            public String readVehicleRegistrationNumber() {
+                return vehicleRegNumber;
+            }
+        };
+        parkingService = new ParkingService(inputReaderUtil, parkingSpotDAO, ticketDAO);
+        entries = 0;
+        exits = 0;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() {
+        System.setOut(console);
+        DataBaseConfig.shutdownAll();
+    }
+
+    @Benchmark
+    public void processIncomingVehicle() {
+        if (++entries > SPOTS - PARKED) {
+            throw new IllegalStateException("Parking full, shorten the iterations");
+        }
+        vehicleRegNumber = "E" + entries;
+        parkingService.processIncomingVehicle();
+    }
+
+    @Benchmark
+    public void processExitingVehicle() {
+        if (++exits > PARKED) {
+            throw new IllegalStateException("No vehicle left to exit, shorten the iterations");
+        }
+        vehicleRegNumber = "O" + exits;
+        parkingService.processExitingVehicle();
+    }
+}
@@ -1,26 +1,262 @@
 package com.parkit.parkingsystem.config;
 
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class DataBaseConfig {
 
     private static final Logger logger = LogManager.getLogger("DataBaseConfig");
 
+    private static final String DEFAULT_URL = "jdbc:mysql://localhost:3306/prod?serverTimezone=UTC";
+
+    /**
+     * one pool per url and user, shared by every DataBaseConfig pointing at the same database
+     * so that the DAOs do not each open their own set of connections
+     */
+    private static final ConcurrentMap<String, HikariDataSource> pools = new ConcurrentHashMap<>();
+    private static final AtomicInteger poolCounter = new AtomicInteger();
+    /**
+     * the replicas of each primary, by pool key, shared like the pools
+     */
+    private static final ConcurrentMap<String, ReplicaSet> replicaSets = new ConcurrentHashMap<>();
+
+    private final String jdbcUrl;
+    private final String user;
+    private final String password;
+    private final List<String> replicaUrls;
+    private final boolean readOnly;
+
+    /**
+     * the database of parking.db.url, with the read replicas listed by parking.db.replicas if any
+     */
+    public DataBaseConfig() {
+        this(System.getProperty("parking.db.url", DEFAULT_URL),
+                System.getProperty("parking.db.user", "root"),
+                System.getProperty("parking.db.password", "rootroot"),
+                parseUrls(System.getProperty("parking.db.replicas", "")));
+    }
+
+    public DataBaseConfig(String jdbcUrl, String user, String password) {
+        this(jdbcUrl, user, password, Collections.<String>emptyList());
+    }
+
+    /**
+     * @param replicaUrls the read replicas of the database, with the same user and password
+     */
+    public DataBaseConfig(String jdbcUrl, String user, String password, List<String> replicaUrls) {
+        this(jdbcUrl, user, password, replicaUrls, false);
+    }
+
+    private DataBaseConfig(String jdbcUrl, String user, String password, List<String> replicaUrls, boolean readOnly) {
+        this.jdbcUrl = jdbcUrl;
+        this.user = user;
+        this.password = password;
+        this.replicaUrls = Collections.unmodifiableList(new ArrayList<>(replicaUrls));
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * @param urls jdbc urls separated by commas, blank for none
+     */
+    public static List<String> parseUrls(String urls) {
+        List<String> parsed = new ArrayList<>();
+        for (String url : urls.split(",")) {
+            if (!url.trim().isEmpty()) {
+                parsed.add(url.trim());
+            }
+        }
+        return parsed;
+    }
+
+    /**
+     * borrow a connection from the pool, or the connection of the current unit of work if any
+     * @return the connection, to be given back with closeConnection
+     */
     public Connection getConnection() throws ClassNotFoundException, SQLException {
-        logger.info("Create DB connection");
-        Class.forName("com.mysql.cj.jdbc.Driver");
-        return DriverManager.getConnection(
-                "jdbc:mysql://localhost:3306/prod?serverTimezone=UTC","root","rootroot");
+        return UnitOfWork.getConnection(getDataSource());
+    }
+
+    /**
+     * borrow a connection for reads only, from a replica lagging at most the given staleness behind the primary.
+     * The primary is used when no replica is recent enough, when there is no replica, or when the current
+     * unit of work already uses the primary: what it may have written is then read back.
+     * Replica connections are never part of the unit of work.
+     * @param maxStalenessMillis how old the data read may be, 0 to read from the primary
+     * @return the connection, to be given back with closeConnection
+     */
+    public Connection getReadConnection(long maxStalenessMillis) throws ClassNotFoundException, SQLException {
+        if (maxStalenessMillis <= 0 || replicaUrls.isEmpty() || UnitOfWork.isUsing(getDataSource())) {
+            return getConnection();
+        }
+        DataBaseConfig replica = getReplicaSet().choose(maxStalenessMillis);
+        if (replica == null) {
+            return getConnection();
+        }
+        return replica.getDataSource().getConnection();
+    }
+
+    /**
+     * @return true if reads may go to replicas
+     */
+    public boolean hasReplicas() {
+        return !replicaUrls.isEmpty();
+    }
+
+    /**
+     * write a replication heartbeat on the primary and read how far each replica has got, as the monitor does
+     * every parking.db.replica.heartbeatMs
+     */
+    public void checkReplicas() {
+        if (hasReplicas()) {
+            getReplicaSet().check();
+        }
+    }
+
+    private ReplicaSet getReplicaSet() {
+        return replicaSets.computeIfAbsent(poolKey(), key -> {
+            List<DataBaseConfig> replicas = new ArrayList<>();
+            for (String replicaUrl : replicaUrls) {
+                replicas.add(new DataBaseConfig(replicaUrl, user, password, Collections.<String>emptyList(), true));
+            }
+            ReplicaSet replicaSet = new ReplicaSet(this, replicas);
+            replicaSet.startMonitoring(Long.getLong("parking.db.replica.heartbeatMs", 1_000L));
+            return replicaSet;
+        });
+    }
+
+    /**
+     * get the pool backing this configuration, creating it on first use
+     * @return the pooled data source
+     */
+    public HikariDataSource getDataSource() {
+        return pools.computeIfAbsent(poolKey(), key -> {
+            logger.info("Create DB connection pool for {}", jdbcUrl);
+            return new HikariDataSource(createPoolConfig());
+        });
+    }
+
+    /**
+     * pool metrics: active, idle and total connections and the number of threads waiting for one
+     * @return the pool MX bean, also registered in JMX under the pool name
+     */
+    public HikariPoolMXBean getPoolMetrics() {
+        return getDataSource().getHikariPoolMXBean();
+    }
+
+    public String getJdbcUrl() {
+        return jdbcUrl;
+    }
+
+    /**
+     * fetch size for reading a large result row by row instead of loading it whole,
+     * Connector/J only streams with Integer.MIN_VALUE
+     * @return the fetch size to set on a forward-only, read-only statement
+     */
+    public int getStreamingFetchSize() {
+        return jdbcUrl.startsWith("jdbc:mysql:") ? Integer.MIN_VALUE : 1000;
+    }
+
+    /**
+     * pool settings, every value can be overridden with a -Dparking.db.pool.* system property
+     * @return the configuration used to build the pool
+     */
+    protected HikariConfig createPoolConfig() {
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("parking-pool-" + poolCounter.incrementAndGet());
+        config.setJdbcUrl(jdbcUrl);
+        config.setUsername(user);
+        config.setPassword(password);
+        config.setReadOnly(readOnly);
+        // bounded size
+        config.setMaximumPoolSize(Integer.getInteger("parking.db.pool.maxSize", 10));
+        config.setMinimumIdle(Integer.getInteger("parking.db.pool.minIdle", 2));
+        // idle eviction and recycling of long lived connections
+        config.setIdleTimeout(Long.getLong("parking.db.pool.idleTimeoutMs", 600_000L));
+        config.setMaxLifetime(Long.getLong("parking.db.pool.maxLifetimeMs", 1_800_000L));
+        // validation on borrow (Connection.isValid) bounded by this timeout
+        config.setValidationTimeout(Long.getLong("parking.db.pool.validationTimeoutMs", 3_000L));
+        config.setConnectionTimeout(Long.getLong("parking.db.pool.connectionTimeoutMs", 5_000L));
+        // a connection held longer than this is reported with the stack of the borrower
+        config.setLeakDetectionThreshold(Long.getLong("parking.db.pool.leakDetectionMs", 10_000L));
+        int statementCacheSize = Integer.getInteger("parking.db.statementCacheSize", 64);
+        if (jdbcUrl.startsWith("jdbc:mysql:")) {
+            // send JDBC batches as multi-row statements
+            config.addDataSourceProperty("rewriteBatchedStatements", "true");
+            // each query of DBConstants is parsed by the server once per connection: closing a statement
+            // returns it to the LRU cache of its connection, evicted statements are deallocated on the server
+            if (Boolean.parseBoolean(System.getProperty("parking.db.serverPreparedStatements", "true"))) {
+                config.addDataSourceProperty("useServerPrepStmts", "true");
+            }
+            config.addDataSourceProperty("cachePrepStmts", String.valueOf(statementCacheSize > 0));
+            config.addDataSourceProperty("prepStmtCacheSize", String.valueOf(statementCacheSize));
+            config.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+            config.addDataSourceProperty("cacheResultSetMetadata", "true");
+        } else if (jdbcUrl.startsWith("jdbc:h2:") && statementCacheSize > 0) {
+            // parsed commands cached by each session
+            config.addDataSourceProperty("QUERY_CACHE_SIZE", String.valueOf(statementCacheSize));
+        }
+        // metrics published as JMX beans
+        config.setRegisterMbeans(true);
+        // start even if the database is not reachable yet, connections are retried on borrow
+        config.setInitializationFailTimeout(-1);
+        return config;
+    }
+
+    /**
+     * close the pool of this configuration, the next getConnection creates a new one
+     */
+    public void shutdown() {
+        ReplicaSet replicaSet = replicaSets.remove(poolKey());
+        if (replicaSet != null) {
+            replicaSet.stopMonitoring();
+        }
+        HikariDataSource dataSource = pools.remove(poolKey());
+        if (dataSource != null) {
+            dataSource.close();
+            logger.info("Closed DB connection pool for {}", jdbcUrl);
+        }
+    }
+
+    /**
+     * close every pool opened by this process
+     */
+    public static void shutdownAll() {
+        for (String key : replicaSets.keySet()) {
+            ReplicaSet replicaSet = replicaSets.remove(key);
+            if (replicaSet != null) {
+                replicaSet.stopMonitoring();
+            }
+        }
+        for (String key : pools.keySet()) {
+            HikariDataSource dataSource = pools.remove(key);
+            if (dataSource != null) {
+                dataSource.close();
+            }
+        }
+    }
+
+    private String poolKey() {
+        return user + "@" + jdbcUrl;
     }
 
     public void closeConnection(Connection con){
-        if(con!=null){
+        if(con!=null && !UnitOfWork.isEnlisted(con)){
             try {
                 con.close();
-                logger.info("Closing DB connection");
+                if(logger.isDebugEnabled()){
+                    logger.debug("Closing DB connection");
+                }
             } catch (SQLException e) {
                 logger.error("Error while closing connection",e);
             }
@@ -31,7 +267,9 @@ public class DataBaseConfig {
         if(ps!=null){
             try {
                 ps.close();
-                logger.info("Closing Prepared Statement");
+                if(logger.isDebugEnabled()){
+                    logger.debug("Closing Prepared Statement");
+                }
             } catch (SQLException e) {
                 logger.error("Error while closing prepared statement",e);
             }
@@ -42,7 +280,9 @@ public class DataBaseConfig {
         if(rs!=null){
             try {
                 rs.close();
-                logger.info("Closing Result Set");
+                if(logger.isDebugEnabled()){
+                    logger.debug("Closing Result Set");
+                }
             } catch (SQLException e) {
                 logger.error("Error while closing result set",e);
             }
@@ -0,0 +1,252 @@
+package com.parkit.parkingsystem.config;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the units of work of concurrent callers on one transaction per group so that a single commit,
+ * and a single log flush on the database side, is paid for the whole group.
+ * A unit of work registering before commit actions, the writes of the stores other than the database, is rolled back
+ * from the group and run again alone, so that a failing action still rolls back its database writes.
+ * A group only writes to one database, so that its commit is atomic: a unit of work reaching another database,
+ * such as the one of another lot, is rolled back from the group and run in the next one.
+ * Enabled through UnitOfWork.enableGroupCommit.
+ */
+public class GroupCommit {
+
+    private static final Logger logger = LogManager.getLogger("GroupCommit");
+
+    private static final Pending<Object> STOP = new Pending<>(() -> null);
+
+    private final long windowNanos;
+    private final int maxGroupSize;
+    private final BlockingQueue<Pending<?>> queue = new LinkedBlockingQueue<>();
+    private final Thread committer;
+    private volatile boolean closed;
+
+    private final AtomicLong groups = new AtomicLong();
+    private final AtomicLong unitsOfWork = new AtomicLong();
+
+    private static class Pending<T> {
+        private final UnitOfWork.Work<T> work;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private final List<UnitOfWork.Work<?>> beforeCommit = new ArrayList<>();
+        private final List<Runnable> afterCommit = new ArrayList<>();
+        private final List<Runnable> afterRollback = new ArrayList<>();
+        private T value;
+        private boolean done;
+
+        private Pending(UnitOfWork.Work<T> work) {
+            this.work = work;
+        }
+
+        private void run() throws Exception {
+            value = work.execute();
+            done = true;
+        }
+
+        /**
+         * forget a run rolled back from its group, to be run in another one
+         */
+        private void reset() {
+            beforeCommit.clear();
+            afterCommit.clear();
+            afterRollback.clear();
+            value = null;
+            done = false;
+        }
+
+        private void runAlone() {
+            try {
+                result.complete(UnitOfWork.executeAlone(work));
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        }
+    }
+
+    GroupCommit(long windowMillis, int maxGroupSize) {
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.maxGroupSize = maxGroupSize;
+        committer = new Thread(this::commitLoop, "group-commit");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    <T> T execute(UnitOfWork.Work<T> work) throws Exception {
+        Pending<T> pending = new Pending<>(work);
+        queue.add(pending);
+        if (closed && queue.remove(pending)) {
+            // closed while queuing, the committer may be gone already
+            pending.runAlone();
+        }
+        try {
+            return pending.result.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw (Error) cause;
+        }
+    }
+
+    /**
+     * @return the number of commits issued so far
+     */
+    public long getGroupCount() {
+        return groups.get();
+    }
+
+    /**
+     * @return the number of units of work run through the groups so far
+     */
+    public long getUnitOfWorkCount() {
+        return unitsOfWork.get();
+    }
+
+    void close() {
+        closed = true;
+        queue.add(STOP);
+        try {
+            committer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // late arrivals queued behind the stop marker
+        Pending<?> pending;
+        while ((pending = queue.poll()) != null) {
+            if (pending != STOP) {
+                pending.runAlone();
+            }
+        }
+    }
+
+    private void commitLoop() {
+        List<Pending<?>> group = new ArrayList<>(maxGroupSize);
+        List<Pending<?>> deferred = new ArrayList<>();
+        boolean stop = false;
+        while (!stop || !deferred.isEmpty()) {
+            // the units of work left out of the last group, for another database, start the next one
+            group.addAll(deferred);
+            deferred.clear();
+            try {
+                if (group.isEmpty()) {
+                    Pending<?> first = queue.take();
+                    stop = (first == STOP);
+                    if (!stop) {
+                        group.add(first);
+                    }
+                }
+                long deadline = System.nanoTime() + windowNanos;
+                while (!stop && group.size() < maxGroupSize) {
+                    Pending<?> next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    stop = (next == STOP);
+                    if (!stop) {
+                        group.add(next);
+                    }
+                }
+            } catch (InterruptedException e) {
+                stop = true;
+            }
+            if (!group.isEmpty()) {
+                runGroup(group, deferred);
+                group.clear();
+            }
+        }
+    }
+
+    /**
+     * @param deferred receives the units of work rolled back from this group for using another database
+     */
+    private void runGroup(List<Pending<?>> group, List<Pending<?>> deferred) {
+        // rolled back from this group for having before commit actions, run alone once it is committed
+        List<Pending<?>> alone = new ArrayList<>();
+        UnitOfWork unitOfWork = UnitOfWork.begin();
+        boolean committed = false;
+        try {
+            for (Pending<?> pending : group) {
+                Map<Connection, Savepoint> savepoints = unitOfWork.beginSegment(pending.beforeCommit,
+                        pending.afterCommit, pending.afterRollback);
+                try {
+                    try {
+                        pending.run();
+                    } catch (Exception e) {
+                        throw unitOfWork.failure(e);
+                    }
+                    unitOfWork.checkConnections();
+                } catch (Throwable t) {
+                    unitOfWork.rollbackSegment(savepoints);
+                    runAll(pending.afterRollback);
+                    pending.result.completeExceptionally(t);
+                    continue;
+                }
+                if (!pending.beforeCommit.isEmpty()) {
+                    unitOfWork.releaseSegment(savepoints);
+                    runAll(pending.afterRollback);
+                    pending.reset();
+                    alone.add(pending);
+                } else if (!savepoints.isEmpty() && unitOfWork.spansSeveralDatabases()) {
+                    unitOfWork.releaseSegment(savepoints);
+                    runAll(pending.afterRollback);
+                    pending.reset();
+                    deferred.add(pending);
+                }
+            }
+            unitOfWork.end(true);
+            committed = true;
+        } catch (Exception e) {
+            logger.error("Error while committing a group of {} units of work, retrying them one by one", group.size(), e);
+            try {
+                unitOfWork.end(false);
+            } catch (Exception rollbackError) {
+                logger.error("Error while rolling back group", rollbackError);
+            }
+        }
+        groups.incrementAndGet();
+        unitsOfWork.addAndGet(group.size() - deferred.size() - alone.size());
+        for (Pending<?> pending : group) {
+            if (pending.result.isDone() || deferred.contains(pending) || alone.contains(pending)) {
+                // failed on its own and already rolled back to its savepoint, left for the next group or run below
+                continue;
+            }
+            if (committed) {
+                runAll(pending.afterCommit);
+                complete(pending);
+            } else {
+                if (pending.done) {
+                    runAll(pending.afterRollback);
+                }
+                pending.runAlone();
+            }
+        }
+        for (Pending<?> pending : alone) {
+            pending.runAlone();
+        }
+    }
+
+    private static <T> void complete(Pending<T> pending) {
+        pending.result.complete(pending.value);
+    }
+
+    private static void runAll(List<Runnable> callbacks) {
+        for (Runnable callback : callbacks) {
+            callback.run();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.parkit.parkingsystem.config;
+
+import com.parkit.parkingsystem.constants.DBConstants;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The read replicas of a primary database and how far each one has replicated.
+ * Every heartbeat the time is written to the replication_heartbeat row of the primary, then that row is read on each replica:
+ * a replica holding the time t when the heartbeat written at w is read back is w - t behind. That lag is kept until the next
+ * heartbeat, so that a replica keeping up stays eligible between heartbeats whatever the staleness allowed; a replica which
+ * stops replicating is noticed at the next heartbeat.
+ */
+class ReplicaSet {
+
+    private static final Logger logger = LogManager.getLogger("ReplicaSet");
+
+    private final DataBaseConfig primary;
+    private final List<DataBaseConfig> replicas;
+    /**
+     * per replica, how far behind the primary it was at the last heartbeat, Long.MAX_VALUE until known or when unreachable
+     */
+    private final AtomicLongArray lag;
+    /**
+     * the time of the last heartbeat written on the primary, 0 until one is
+     */
+    private volatile long lastBeat;
+    private final AtomicInteger next = new AtomicInteger();
+    private ScheduledExecutorService monitor;
+
+    ReplicaSet(DataBaseConfig primary, List<DataBaseConfig> replicas) {
+        this.primary = primary;
+        this.replicas = replicas;
+        this.lag = new AtomicLongArray(replicas.size());
+        for (int i = 0; i < replicas.size(); i++) {
+            lag.set(i, Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * @param maxStalenessMillis how far behind the primary the replica may be
+     * @return a replica recent enough, taken in turn among them, null if none is
+     */
+    DataBaseConfig choose(long maxStalenessMillis) {
+        int first = next.getAndIncrement();
+        for (int i = 0; i < replicas.size(); i++) {
+            int replica = Math.floorMod(first + i, replicas.size());
+            if (lag.get(replica) <= maxStalenessMillis) {
+                return replicas.get(replica);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * write a heartbeat on the primary, then read how far each replica has got
+     */
+    void check() {
+        try {
+            Connection con = primary.getDataSource().getConnection();
+            try (PreparedStatement ps = con.prepareStatement(DBConstants.UPDATE_REPLICATION_HEARTBEAT)) {
+                long beat = System.currentTimeMillis();
+                ps.setLong(1, beat);
+                ps.executeUpdate();
+                lastBeat = beat;
+            } finally {
+                con.close();
+            }
+        } catch (Exception e) {
+            logger.error("Unable to write the replication heartbeat on {}", primary.getJdbcUrl(), e);
+        }
+        for (int i = 0; i < replicas.size(); i++) {
+            DataBaseConfig replica = replicas.get(i);
+            try (Connection con = replica.getDataSource().getConnection();
+                 PreparedStatement ps = con.prepareStatement(DBConstants.GET_REPLICATION_HEARTBEAT);
+                 ResultSet rs = ps.executeQuery()) {
+                long beat = lastBeat;
+                if (rs.next() && beat > 0) {
+                    lag.set(i, Math.max(0, beat - rs.getLong(1)));
+                }
+            } catch (Exception e) {
+                lag.set(i, Long.MAX_VALUE);
+                logger.warn("Unable to read the replication heartbeat of {}: {}", replica.getJdbcUrl(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * check the replicas every period, from now on
+     */
+    synchronized void startMonitoring(long periodMillis) {
+        if (monitor != null) {
+            return;
+        }
+        monitor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "replica-monitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        monitor.scheduleWithFixedDelay(() -> {
+            try {
+                check();
+            } catch (RuntimeException e) {
+                logger.error("Replica check failed", e);
+            }
+        }, 0, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized void stopMonitoring() {
+        if (monitor != null) {
+            monitor.shutdownNow();
+            monitor = null;
+        }
+    }
+}
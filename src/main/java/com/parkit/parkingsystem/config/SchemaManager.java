@@ -0,0 +1,314 @@
+package com.parkit.parkingsystem.config;
+
+import com.parkit.parkingsystem.constants.DBConstants;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Brings the database schema to the version of the application at startup.
+ * The scripts of db/migration are applied in version order, each one recorded with the SHA-256 of its content
+ * in the schema_version table so that it is applied once, and a script changed after being applied is reported.
+ * Scripts are idempotent: tables are created if not exists and an index already present is not created again,
+ * so that a script interrupted half way (DDL is not transactional on MySQL) can simply be run again.
+ */
+public class SchemaManager {
+
+    private static final Logger logger = LogManager.getLogger("SchemaManager");
+
+    /**
+     * the migration scripts, in the order they are applied. A released script is never edited, changes go in a new one.
+     */
+    static final List<String> MIGRATIONS = Collections.unmodifiableList(Arrays.asList(
+            "V1__create_tables.sql",
+            "V2__query_indexes.sql",
+            "V3__ticket_archive.sql",
+            "V4__revenue_summary.sql",
+            "V5__replication_heartbeat.sql"));
+
+    /**
+     * queries reading whole tables on purpose, once at startup or for an export
+     */
+    private static final Set<String> FULL_READS = new HashSet<>(Arrays.asList("GET_PARKING_SPOTS", "EXPORT_TICKETS"));
+
+    private static final String CREATE_SCHEMA_VERSION = "create table if not exists schema_version("
+            + "VERSION int PRIMARY KEY, SCRIPT varchar(100) NOT NULL, CHECKSUM varchar(64) NOT NULL, INSTALLED_ON DATETIME NOT NULL)";
+    private static final String GET_SCHEMA_VERSIONS = "select VERSION, CHECKSUM from schema_version";
+    private static final String SAVE_SCHEMA_VERSION = "insert into schema_version(VERSION, SCRIPT, CHECKSUM, INSTALLED_ON) values(?,?,?,?)";
+
+    private static final Pattern CREATE_INDEX = Pattern.compile("^create\\s+index\\s+(\\w+)\\s+on\\s+(\\w+)", Pattern.CASE_INSENSITIVE);
+
+    private final DataBaseConfig dataBaseConfig;
+
+    public SchemaManager(DataBaseConfig dataBaseConfig) {
+        this.dataBaseConfig = dataBaseConfig;
+    }
+
+    /**
+     * apply the scripts not yet applied
+     * @return the number of scripts applied
+     * @throws IllegalStateException if an applied script has been changed since
+     */
+    public int migrate() throws Exception {
+        Connection con = dataBaseConfig.getConnection();
+        try {
+            try (Statement st = con.createStatement()) {
+                st.execute(CREATE_SCHEMA_VERSION);
+            }
+            Map<Integer, String> applied = new HashMap<>();
+            try (Statement st = con.createStatement(); ResultSet rs = st.executeQuery(GET_SCHEMA_VERSIONS)) {
+                while (rs.next()) {
+                    applied.put(rs.getInt(1), rs.getString(2));
+                }
+            }
+            int count = 0;
+            for (String script : MIGRATIONS) {
+                int version = versionOf(script);
+                String content = readScript(script);
+                String checksum = checksum(content);
+                String appliedChecksum = applied.get(version);
+                if (appliedChecksum != null) {
+                    if (!appliedChecksum.equals(checksum)) {
+                        throw new IllegalStateException("Migration " + script + " has been changed after being applied");
+                    }
+                    continue;
+                }
+                apply(con, script, content, version, checksum);
+                count++;
+            }
+            return count;
+        } finally {
+            dataBaseConfig.closeConnection(con);
+        }
+    }
+
+    /**
+     * run EXPLAIN on every query of DBConstants and warn about the ones reading a whole table
+     * @return the names of the constants whose plan has a full table scan
+     */
+    public List<String> checkQueryPlans() throws Exception {
+        List<String> fullScans = new ArrayList<>();
+        Connection con = dataBaseConfig.getConnection();
+        try {
+            for (Field field : DBConstants.class.getFields()) {
+                if (!Modifier.isStatic(field.getModifiers()) || field.getType() != String.class
+                        || FULL_READS.contains(field.getName())) {
+                    continue;
+                }
+                String sql = (String) field.get(null);
+                if (!isExplainable(sql)) {
+                    continue;
+                }
+                try {
+                    if (hasFullScan(con, sql)) {
+                        logger.warn("Query {} reads a whole table, an index is missing: {}", field.getName(), sql);
+                        fullScans.add(field.getName());
+                    }
+                } catch (SQLException e) {
+                    logger.warn("Unable to explain query {}", field.getName(), e);
+                }
+            }
+        } finally {
+            dataBaseConfig.closeConnection(con);
+        }
+        return fullScans;
+    }
+
+    private void apply(Connection con, String script, String content, int version, String checksum) throws SQLException {
+        logger.info("Applying migration {}", script);
+        boolean autoCommit = con.getAutoCommit();
+        con.setAutoCommit(false);
+        try (Statement st = con.createStatement()) {
+            for (String sql : splitStatements(content)) {
+                Matcher index = CREATE_INDEX.matcher(sql);
+                if (index.find() && indexExists(con, index.group(2), index.group(1))) {
+                    continue;
+                }
+                st.execute(sql);
+            }
+            try (PreparedStatement ps = con.prepareStatement(SAVE_SCHEMA_VERSION)) {
+                ps.setInt(1, version);
+                ps.setString(2, script);
+                ps.setString(3, checksum);
+                ps.setTimestamp(4, new Timestamp(System.currentTimeMillis()));
+                ps.executeUpdate();
+            }
+            con.commit();
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            con.setAutoCommit(autoCommit);
+        }
+    }
+
+    private static boolean indexExists(Connection con, String table, String indexName) throws SQLException {
+        DatabaseMetaData metaData = con.getMetaData();
+        for (String name : new String[]{table, table.toUpperCase(Locale.ROOT), table.toLowerCase(Locale.ROOT)}) {
+            try (ResultSet rs = metaData.getIndexInfo(con.getCatalog(), con.getSchema(), name, false, true)) {
+                while (rs.next()) {
+                    if (indexName.equalsIgnoreCase(rs.getString("INDEX_NAME"))) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isExplainable(String sql) {
+        String statement = sql.trim().toLowerCase(Locale.ROOT);
+        return statement.startsWith("select") || statement.startsWith("update")
+                || (statement.startsWith("insert") && statement.contains(" select "));
+    }
+
+    private static boolean hasFullScan(Connection con, String sql) throws SQLException {
+        try (PreparedStatement ps = con.prepareStatement("explain " + sql)) {
+            bindSampleParameters(ps, sql);
+            try (ResultSet rs = ps.executeQuery()) {
+                ResultSetMetaData metaData = rs.getMetaData();
+                int typeColumn = 0;
+                for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                    if ("type".equalsIgnoreCase(metaData.getColumnLabel(i))) {
+                        typeColumn = i;
+                    }
+                }
+                while (rs.next()) {
+                    if (typeColumn > 0) {
+                        // MySQL: one row per table, ALL is a full table scan
+                        if ("ALL".equals(rs.getString(typeColumn))) {
+                            return true;
+                        }
+                    } else if (rs.getString(1).contains(".tableScan")) {
+                        // H2: the plan as text, the access method of each table as a comment
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * bind a value of the right type to each parameter when the driver knows it (H2),
+     * a string otherwise: MySQL converts it to the column type
+     */
+    private static void bindSampleParameters(PreparedStatement ps, String sql) throws SQLException {
+        ParameterMetaData metaData = null;
+        try {
+            metaData = ps.getParameterMetaData();
+        } catch (SQLException e) {
+            // client side prepared statements of Connector/J have no parameter types
+        }
+        int parameterCount = (int) sql.chars().filter(c -> c == '?').count();
+        for (int i = 1; i <= parameterCount; i++) {
+            int type;
+            try {
+                type = (metaData == null) ? Types.VARCHAR : metaData.getParameterType(i);
+            } catch (SQLException e) {
+                type = Types.VARCHAR;
+            }
+            switch (type) {
+                case Types.INTEGER:
+                case Types.BIGINT:
+                case Types.SMALLINT:
+                case Types.TINYINT:
+                    ps.setInt(i, 1);
+                    break;
+                case Types.DOUBLE:
+                case Types.DECIMAL:
+                case Types.NUMERIC:
+                    ps.setDouble(i, 1);
+                    break;
+                case Types.BOOLEAN:
+                case Types.BIT:
+                    ps.setBoolean(i, true);
+                    break;
+                case Types.TIMESTAMP:
+                case Types.DATE:
+                    ps.setTimestamp(i, new Timestamp(System.currentTimeMillis()));
+                    break;
+                default:
+                    ps.setString(i, "1");
+            }
+        }
+    }
+
+    static List<String> splitStatements(String content) {
+        StringBuilder withoutComments = new StringBuilder(content.length());
+        for (String line : content.split("\r?\n")) {
+            if (!line.trim().startsWith("--")) {
+                withoutComments.append(line).append('\n');
+            }
+        }
+        List<String> statements = new ArrayList<>();
+        for (String statement : withoutComments.toString().split(";")) {
+            if (!statement.trim().isEmpty()) {
+                statements.add(statement.trim());
+            }
+        }
+        return statements;
+    }
+
+    static int versionOf(String script) {
+        return Integer.parseInt(script.substring(1, script.indexOf("__")));
+    }
+
+    private static String readScript(String script) throws IOException {
+        try (InputStream in = SchemaManager.class.getResourceAsStream("/db/migration/" + script)) {
+            if (in == null) {
+                throw new IOException("Migration " + script + " not found");
+            }
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                content.write(buffer, 0, read);
+            }
+            // the same checksum whatever the line endings of the checkout
+            return new String(content.toByteArray(), StandardCharsets.UTF_8).replace("\r\n", "\n");
+        }
+    }
+
+    private static String checksum(String content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(64);
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
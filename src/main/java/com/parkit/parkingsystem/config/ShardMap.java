@@ -0,0 +1,23 @@
+package com.parkit.parkingsystem.config;
+
+import java.util.List;
+
+/**
+ * Where the data of each parking lot lives. Every lot has its own database, or its own schema on a shared server,
+ * holding the tables of the migrations, and its own connection pool; lots are spread over servers by the map
+ * and a lot is moved by pointing it at another database.
+ */
+public interface ShardMap {
+
+    /**
+     * @return the lots served, the first one being the default lot
+     */
+    List<String> getLotIds();
+
+    /**
+     * @param lotId a lot of getLotIds
+     * @return the database of the lot
+     * @throws IllegalArgumentException if the lot is unknown
+     */
+    DataBaseConfig getShard(String lotId);
+}
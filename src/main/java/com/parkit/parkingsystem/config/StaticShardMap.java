@@ -0,0 +1,74 @@
+package com.parkit.parkingsystem.config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A shard map fixed at startup, by default from the system properties:
+ * parking.lots lists the lot ids, each lot being configured by parking.lot.&lt;id&gt;.url, .user, .password and .replicas,
+ * the user and password defaulting to parking.db.user and parking.db.password.
+ * Without parking.lots there is a single lot, DEFAULT_LOT, in the database of parking.db.url.
+ */
+public class StaticShardMap implements ShardMap {
+
+    public static final String DEFAULT_LOT = "default";
+
+    private final Map<String, DataBaseConfig> shards;
+
+    /**
+     * @param shards the database of each lot, in the order of the lots, the first one being the default lot
+     * @throws IllegalArgumentException if there is no lot or if two lots share a database
+     */
+    public StaticShardMap(Map<String, DataBaseConfig> shards) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("No parking lot configured");
+        }
+        Map<String, String> lotByUrl = new HashMap<>();
+        for (Map.Entry<String, DataBaseConfig> shard : shards.entrySet()) {
+            String other = lotByUrl.put(shard.getValue().getJdbcUrl(), shard.getKey());
+            if (other != null) {
+                throw new IllegalArgumentException("Lots " + other + " and " + shard.getKey() + " share the database "
+                        + shard.getValue().getJdbcUrl() + ", each lot needs its own database or schema");
+            }
+        }
+        this.shards = Collections.unmodifiableMap(new LinkedHashMap<>(shards));
+    }
+
+    public static StaticShardMap fromSystemProperties() {
+        Map<String, DataBaseConfig> shards = new LinkedHashMap<>();
+        String lots = System.getProperty("parking.lots", "").trim();
+        if (lots.isEmpty()) {
+            shards.put(DEFAULT_LOT, new DataBaseConfig());
+            return new StaticShardMap(shards);
+        }
+        for (String lotId : lots.split("\\s*,\\s*")) {
+            String url = System.getProperty("parking.lot." + lotId + ".url");
+            if (url == null || url.isEmpty()) {
+                throw new IllegalArgumentException("No database configured for lot " + lotId + ", parking.lot." + lotId + ".url is missing");
+            }
+            shards.put(lotId, new DataBaseConfig(url,
+                    System.getProperty("parking.lot." + lotId + ".user", System.getProperty("parking.db.user", "root")),
+                    System.getProperty("parking.lot." + lotId + ".password", System.getProperty("parking.db.password", "rootroot")),
+                    DataBaseConfig.parseUrls(System.getProperty("parking.lot." + lotId + ".replicas", ""))));
+        }
+        return new StaticShardMap(shards);
+    }
+
+    @Override
+    public List<String> getLotIds() {
+        return new ArrayList<>(shards.keySet());
+    }
+
+    @Override
+    public DataBaseConfig getShard(String lotId) {
+        DataBaseConfig shard = shards.get(lotId);
+        if (shard == null) {
+            throw new IllegalArgumentException("Unknown lot " + lotId);
+        }
+        return shard;
+    }
+}
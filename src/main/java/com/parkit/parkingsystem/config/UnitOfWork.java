@@ -0,0 +1,357 @@
+package com.parkit.parkingsystem.config;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Ambient transaction bound to the current thread.
+ * While a unit of work runs, DataBaseConfig.getConnection hands every DAO the same connection per database,
+ * opened on first use with auto-commit off, and closeConnection leaves it open.
+ * The work is committed once at the end, or rolled back if it throws.
+ * A unit of work in which a DAO could not get a connection fails with that error, even if the DAO only logged it,
+ * so that callers can tell an unreachable database from the other failures.
+ * A unit of work never spans the databases of several lots: their connections would be committed one after
+ * the other, without atomicity.
+ */
+public class UnitOfWork {
+
+    private static final Logger logger = LogManager.getLogger("UnitOfWork");
+
+    private static final ThreadLocal<UnitOfWork> current = new ThreadLocal<>();
+
+    private static volatile GroupCommit groupCommit;
+
+    private final Map<DataSource, Connection> connections = new LinkedHashMap<>(2);
+    private List<Work<?>> beforeCommit = new ArrayList<>();
+    private List<Runnable> afterCommit = new ArrayList<>();
+    private List<Runnable> afterRollback = new ArrayList<>();
+    private Map<Object, Object> resources = new HashMap<>(2);
+    private SQLException connectionFailure;
+
+    @FunctionalInterface
+    public interface Work<T> {
+        T execute() throws Exception;
+    }
+
+    private UnitOfWork() {
+    }
+
+    /**
+     * run some work in a single transaction, joining the enclosing one if any
+     * @param work the DAO calls to run
+     * @param <T> the result type
+     * @return the result of the work
+     * @throws Exception the failure of the work or of the commit, after rollback
+     */
+    public static <T> T execute(Work<T> work) throws Exception {
+        if (current.get() != null) {
+            return work.execute();
+        }
+        GroupCommit group = groupCommit;
+        if (group != null) {
+            return group.execute(work);
+        }
+        return executeAlone(work);
+    }
+
+    static <T> T executeAlone(Work<T> work) throws Exception {
+        UnitOfWork unitOfWork = new UnitOfWork();
+        current.set(unitOfWork);
+        boolean committed = false;
+        try {
+            T result;
+            try {
+                result = work.execute();
+            } catch (Exception e) {
+                throw unitOfWork.failure(e);
+            }
+            unitOfWork.checkConnections();
+            unitOfWork.runBeforeCommit();
+            unitOfWork.commit();
+            committed = true;
+            return result;
+        } finally {
+            current.remove();
+            if (!committed) {
+                unitOfWork.rollback();
+            }
+            unitOfWork.close();
+            for (Runnable callback : committed ? unitOfWork.afterCommit : unitOfWork.afterRollback) {
+                callback.run();
+            }
+        }
+    }
+
+    /**
+     * Turn on group commit: units of work started by concurrent callers within the same window are run
+     * one after the other on a single transaction, each behind its own savepoint, and committed together.
+     * Each caller still gets its own result or failure, a failing unit of work is rolled back to its savepoint
+     * without touching the others.
+     * @param windowMillis how long the first unit of work of a group waits for others to join
+     * @param maxGroupSize maximum number of units of work per commit
+     */
+    public static synchronized void enableGroupCommit(long windowMillis, int maxGroupSize) {
+        disableGroupCommit();
+        groupCommit = new GroupCommit(windowMillis, maxGroupSize);
+    }
+
+    /**
+     * turn off group commit, the units of work already queued are committed first
+     */
+    public static synchronized void disableGroupCommit() {
+        GroupCommit group = groupCommit;
+        groupCommit = null;
+        if (group != null) {
+            group.close();
+        }
+    }
+
+    public static GroupCommit getGroupCommit() {
+        return groupCommit;
+    }
+
+    /**
+     * @return true if the calling thread runs inside a unit of work
+     */
+    public static boolean isActive() {
+        return current.get() != null;
+    }
+
+    /**
+     * run an action at the end of the current unit of work, just before its commit, or right away outside of
+     * a unit of work. A failing action fails the unit of work, which is then rolled back.
+     * Meant for the writes of a store other than the database. With group commit, a unit of work registering
+     * such actions is run alone, outside of the groups, so that its database writes are rolled back as well.
+     * @param action the action
+     */
+    public static void beforeCommit(Work<?> action) throws Exception {
+        UnitOfWork unitOfWork = current.get();
+        if (unitOfWork == null) {
+            action.execute();
+        } else {
+            unitOfWork.beforeCommit.add(action);
+        }
+    }
+
+    /**
+     * run an action once the current unit of work is committed, or right away outside of a unit of work.
+     * Used to keep in-memory state in line with what has actually been written.
+     * @param callback the action
+     */
+    public static void afterCommit(Runnable callback) {
+        UnitOfWork unitOfWork = current.get();
+        if (unitOfWork == null) {
+            callback.run();
+        } else {
+            unitOfWork.afterCommit.add(callback);
+        }
+    }
+
+    /**
+     * run an action if the current unit of work is rolled back, nothing happens outside of a unit of work
+     * @param callback the action
+     */
+    public static void afterRollback(Runnable callback) {
+        UnitOfWork unitOfWork = current.get();
+        if (unitOfWork != null) {
+            unitOfWork.afterRollback.add(callback);
+        }
+    }
+
+    /**
+     * the value bound to a key in the current unit of work, such as the changes a store keeps until the commit.
+     * Each unit of work of a group has its own values.
+     * @param factory creates the value on first use in the unit of work
+     * @return the value, null outside of a unit of work
+     */
+    @SuppressWarnings("unchecked")
+    public static <R> R resource(Object key, Supplier<R> factory) {
+        UnitOfWork unitOfWork = current.get();
+        return (unitOfWork == null) ? null : (R) unitOfWork.resources.computeIfAbsent(key, k -> factory.get());
+    }
+
+    /**
+     * @return the value bound to a key in the current unit of work, null if none or outside of a unit of work
+     */
+    @SuppressWarnings("unchecked")
+    public static <R> R resource(Object key) {
+        UnitOfWork unitOfWork = current.get();
+        return (unitOfWork == null) ? null : (R) unitOfWork.resources.get(key);
+    }
+
+    static Connection getConnection(DataSource dataSource) throws SQLException {
+        UnitOfWork unitOfWork = current.get();
+        if (unitOfWork == null) {
+            return dataSource.getConnection();
+        }
+        Connection con = unitOfWork.connections.get(dataSource);
+        if (con == null) {
+            try {
+                con = dataSource.getConnection();
+            } catch (SQLException e) {
+                unitOfWork.connectionFailure = e;
+                throw e;
+            }
+            con.setAutoCommit(false);
+            unitOfWork.connections.put(dataSource, con);
+        }
+        return con;
+    }
+
+    /**
+     * @return true if the current unit of work has a connection to this database, and may have written through it
+     */
+    static boolean isUsing(DataSource dataSource) {
+        UnitOfWork unitOfWork = current.get();
+        return unitOfWork != null && unitOfWork.connections.containsKey(dataSource);
+    }
+
+    static boolean isEnlisted(Connection con) {
+        UnitOfWork unitOfWork = current.get();
+        return unitOfWork != null && unitOfWork.connections.containsValue(con);
+    }
+
+    static UnitOfWork begin() {
+        UnitOfWork unitOfWork = new UnitOfWork();
+        current.set(unitOfWork);
+        return unitOfWork;
+    }
+
+    /**
+     * start the part of a group run for one caller, with its own callbacks
+     * @return a savepoint on each connection already open, to roll this part back alone
+     */
+    Map<Connection, Savepoint> beginSegment(List<Work<?>> segmentBeforeCommit, List<Runnable> segmentAfterCommit,
+                                            List<Runnable> segmentAfterRollback) throws SQLException {
+        beforeCommit = segmentBeforeCommit;
+        afterCommit = segmentAfterCommit;
+        afterRollback = segmentAfterRollback;
+        resources = new HashMap<>(2);
+        connectionFailure = null;
+        Map<Connection, Savepoint> savepoints = new HashMap<>(4);
+        for (Connection con : connections.values()) {
+            savepoints.put(con, con.setSavepoint());
+        }
+        return savepoints;
+    }
+
+    /**
+     * undo the current segment: back to its savepoint on connections opened before it,
+     * entirely on connections it opened itself since no earlier segment used them
+     */
+    void rollbackSegment(Map<Connection, Savepoint> savepoints) throws SQLException {
+        for (Connection con : connections.values()) {
+            Savepoint savepoint = savepoints.get(con);
+            if (savepoint != null) {
+                con.rollback(savepoint);
+            } else {
+                con.rollback();
+            }
+        }
+    }
+
+    /**
+     * @return true if this unit of work has connections to more than one database
+     */
+    boolean spansSeveralDatabases() {
+        return connections.size() > 1;
+    }
+
+    /**
+     * undo the current segment and give back the connections it opened itself, as if it had not run
+     */
+    void releaseSegment(Map<Connection, Savepoint> savepoints) throws SQLException {
+        rollbackSegment(savepoints);
+        Iterator<Connection> opened = connections.values().iterator();
+        while (opened.hasNext()) {
+            Connection con = opened.next();
+            if (!savepoints.containsKey(con)) {
+                opened.remove();
+                try {
+                    con.close();
+                } catch (SQLException e) {
+                    logger.error("Error while closing connection", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @throws SQLException the failure of a DAO to get a connection during the work, or the current segment
+     */
+    void checkConnections() throws SQLException {
+        if (connectionFailure != null) {
+            throw connectionFailure;
+        }
+    }
+
+    /**
+     * @param workFailure what the work threw
+     * @return the failure to get a connection that caused it if any, else the failure of the work itself
+     */
+    Exception failure(Exception workFailure) {
+        if (connectionFailure == null || connectionFailure == workFailure) {
+            return workFailure;
+        }
+        connectionFailure.addSuppressed(workFailure);
+        return connectionFailure;
+    }
+
+    void runBeforeCommit() throws Exception {
+        for (int i = 0; i < beforeCommit.size(); i++) {
+            beforeCommit.get(i).execute();
+        }
+    }
+
+    void end(boolean commit) throws SQLException {
+        try {
+            if (commit) {
+                commit();
+            } else {
+                rollback();
+            }
+        } finally {
+            current.remove();
+            close();
+        }
+    }
+
+    private void commit() throws SQLException {
+        for (Connection con : connections.values()) {
+            con.commit();
+        }
+    }
+
+    private void rollback() {
+        for (Connection con : connections.values()) {
+            try {
+                con.rollback();
+            } catch (SQLException e) {
+                logger.error("Error while rolling back transaction", e);
+            }
+        }
+    }
+
+    private void close() {
+        for (Connection con : connections.values()) {
+            try {
+                con.close();
+            } catch (SQLException e) {
+                logger.error("Error while closing connection", e);
+            }
+        }
+        connections.clear();
+    }
+}
@@ -3,9 +3,47 @@ package com.parkit.parkingsystem.constants;
 public class DBConstants {
 
     public static final String GET_NEXT_PARKING_SPOT = "select min(PARKING_NUMBER) from parking where AVAILABLE = true and TYPE = ?";
+    public static final String GET_PARKING_SPOTS = "select PARKING_NUMBER, AVAILABLE, TYPE from parking";
+    public static final String CLAIM_PARKING_SPOT = "update parking set AVAILABLE = false where PARKING_NUMBER = ? and AVAILABLE = true";
     public static final String UPDATE_PARKING_SPOT = "update parking set available = ? where PARKING_NUMBER = ?";
+    public static final String SWITCH_PARKING_SPOT = "update parking set AVAILABLE = ? where PARKING_NUMBER = ? and AVAILABLE = ?";
+    public static final String COUNT_PARKING_SPOTS = "select TYPE, count(*), sum(case when AVAILABLE then 0 else 1 end) from parking group by TYPE";
     public static final String SAVE_TICKET = "insert into ticket(PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME) values(?,?,?,?,?)";
+    public static final String SAVE_TICKET_IF_ABSENT = "insert into ticket(PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME) select ?,?,?,?,? from dual where not exists (select 1 from ticket where VEHICLE_REG_NUMBER=? and IN_TIME=?)";
+    public static final String UPDATE_TICKET_BY_VEHICLE_AND_IN_TIME = "update ticket set PRICE=?, OUT_TIME=? where VEHICLE_REG_NUMBER=? and IN_TIME=?";
+    public static final String CLOSE_TICKET_BY_VEHICLE_AND_IN_TIME = "update ticket set PRICE=?, OUT_TIME=? where VEHICLE_REG_NUMBER=? and IN_TIME between ? and ? and (OUT_TIME is null or OUT_TIME=?)";
     public static final String UPDATE_TICKET = "update ticket set PRICE=?, OUT_TIME=? where ID=?";
     public static final String GET_TICKET = "select t.PARKING_NUMBER, t.ID, t.PRICE, t.IN_TIME, t.OUT_TIME, p.TYPE from ticket t,parking p where p.parking_number = t.parking_number and t.VEHICLE_REG_NUMBER=? order by t.IN_TIME desc limit 1";
-    public static final String COUNT_TICKET_PER_VEHICLE_REG_NUMBER = "select count(t.id) from ticket t where t.VEHICLE_REG_NUMBER=?";
+    public static final String GET_OPEN_TICKETS = "select t.PARKING_NUMBER, t.ID, t.PRICE, t.IN_TIME, t.VEHICLE_REG_NUMBER, p.TYPE from ticket t,parking p where p.parking_number = t.parking_number and t.OUT_TIME is null";
+    public static final String COUNT_VISITED_VEHICLES = "select count(distinct VEHICLE_REG_NUMBER) from ticket where OUT_TIME is not null";
+    public static final String GET_VISITED_VEHICLES = "select distinct VEHICLE_REG_NUMBER from ticket where OUT_TIME is not null";
+    public static final String HAS_VISITED = "select exists(select 1 from ticket where VEHICLE_REG_NUMBER=? and OUT_TIME is not null)";
+
+    public static final String GET_MAX_TICKET_ID = "select max(ID) from ticket";
+    public static final String GET_TICKETS_TO_ARCHIVE = "select ID from ticket where OUT_TIME < ? and ID < ? order by OUT_TIME limit ?";
+    public static final String ARCHIVE_TICKET = "insert into ticket_archive(ID, PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME) select ID, PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME from ticket where ID=? and OUT_TIME is not null";
+    public static final String DELETE_ARCHIVED_TICKET = "delete from ticket where ID=? and OUT_TIME is not null";
+    public static final String HAS_ARCHIVED_VISIT = "select exists(select 1 from ticket_archive where VEHICLE_REG_NUMBER=?)";
+    public static final String COUNT_TICKET_HISTORY_PER_VEHICLE_REG_NUMBER = "select (select count(ID) from ticket where VEHICLE_REG_NUMBER=?) + (select count(ID) from ticket_archive where VEHICLE_REG_NUMBER=?)";
+    public static final String COUNT_ARCHIVED_VEHICLES = "select count(distinct VEHICLE_REG_NUMBER) from ticket_archive";
+    public static final String GET_ARCHIVED_VEHICLES = "select distinct VEHICLE_REG_NUMBER from ticket_archive";
+
+    public static final String EXPORT_TICKETS = "select a.ID, a.PARKING_NUMBER, p.TYPE, a.VEHICLE_REG_NUMBER, a.PRICE, a.IN_TIME, a.OUT_TIME, "
+            + "exists(select 1 from ticket_archive v where v.VEHICLE_REG_NUMBER = a.VEHICLE_REG_NUMBER and v.OUT_TIME < a.OUT_TIME) "
+            + "from ticket_archive a, parking p where p.PARKING_NUMBER = a.PARKING_NUMBER "
+            + "union all "
+            + "select t.ID, t.PARKING_NUMBER, p.TYPE, t.VEHICLE_REG_NUMBER, t.PRICE, t.IN_TIME, t.OUT_TIME, "
+            + "exists(select 1 from ticket_archive v where v.VEHICLE_REG_NUMBER = t.VEHICLE_REG_NUMBER and v.OUT_TIME < t.OUT_TIME) "
+            + "or exists(select 1 from ticket v where v.VEHICLE_REG_NUMBER = t.VEHICLE_REG_NUMBER and v.OUT_TIME < t.OUT_TIME) "
+            + "from ticket t, parking p where p.PARKING_NUMBER = t.PARKING_NUMBER";
+    public static final String ADD_REVENUE_SUMMARY = "insert into revenue_summary(PERIOD, PERIOD_START, TYPE, FULL_PRICE_EXITS, DISCOUNTED_EXITS, FREE_EXITS, REVENUE) values(?,?,?,?,?,?,?) "
+            + "on duplicate key update FULL_PRICE_EXITS = FULL_PRICE_EXITS + values(FULL_PRICE_EXITS), DISCOUNTED_EXITS = DISCOUNTED_EXITS + values(DISCOUNTED_EXITS), "
+            + "FREE_EXITS = FREE_EXITS + values(FREE_EXITS), REVENUE = REVENUE + values(REVENUE)";
+    public static final String GET_REVENUE_SUMMARIES = "select PERIOD_START, TYPE, FULL_PRICE_EXITS, DISCOUNTED_EXITS, FREE_EXITS, REVENUE from revenue_summary "
+            + "where PERIOD = ? and PERIOD_START >= ? and PERIOD_START < ? order by PERIOD_START, TYPE";
+
+    public static final String IMPORT_TICKET = "insert into ticket(ID, PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME) values(?,?,?,?,?,?)";
+
+    public static final String UPDATE_REPLICATION_HEARTBEAT = "update replication_heartbeat set BEAT = ? where ID = 1";
+    public static final String GET_REPLICATION_HEARTBEAT = "select BEAT from replication_heartbeat where ID = 1";
 }
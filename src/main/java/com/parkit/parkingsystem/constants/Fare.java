@@ -4,4 +4,5 @@ public class Fare {
     public static final double BIKE_RATE_PER_HOUR = 1.0;
     public static final double CAR_RATE_PER_HOUR = 1.5;
     public static final double FREE_30_MIN = 0.0;
+    public static final int GRACE_MINUTES = 30;
 }
@@ -0,0 +1,155 @@
+package com.parkit.parkingsystem.dao;
+
+import com.parkit.parkingsystem.config.UnitOfWork;
+import com.parkit.parkingsystem.model.Ticket;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A ticket or spot change as journaled by the WriteBehindQueue and the OfflineStore, with the record format of
+ * their journals. Each store writes the changes to the database with its own statements.
+ */
+final class JournalMutation {
+
+    static final byte SAVE_TICKET = 1;
+    static final byte CLOSE_TICKET = 2;
+    static final byte UPDATE_PARKING = 3;
+
+    /**
+     * writes journal records, each one the list of the changes of a call or of a unit of work
+     */
+    interface Sink {
+        void write(List<JournalMutation> mutations) throws Exception;
+    }
+
+    byte type;
+    int parkingNumber;
+    String vehicleRegNumber;
+    double price;
+    long inTime;
+    long outTime;
+    boolean available;
+
+    private JournalMutation() {
+    }
+
+    /**
+     * @param ticket a new ticket, its in time already rounded to the second
+     */
+    static JournalMutation saveTicket(Ticket ticket) {
+        JournalMutation mutation = new JournalMutation();
+        mutation.type = SAVE_TICKET;
+        mutation.parkingNumber = ticket.getParkingSpot().getId();
+        mutation.vehicleRegNumber = ticket.getVehicleRegNumber();
+        mutation.price = ticket.getPrice();
+        mutation.inTime = ticket.getInTime().getTime();
+        mutation.outTime = (ticket.getOutTime() == null) ? -1 : ticket.getOutTime().getTime() / 1000 * 1000;
+        return mutation;
+    }
+
+    /**
+     * the ticket is found again by its vehicle and the second of its in time
+     */
+    static JournalMutation closeTicket(Ticket ticket) {
+        JournalMutation mutation = new JournalMutation();
+        mutation.type = CLOSE_TICKET;
+        mutation.parkingNumber = ticket.getParkingSpot().getId();
+        mutation.vehicleRegNumber = ticket.getVehicleRegNumber();
+        mutation.price = ticket.getPrice();
+        mutation.inTime = ticket.getInTime().getTime() / 1000 * 1000;
+        mutation.outTime = ticket.getOutTime().getTime() / 1000 * 1000;
+        return mutation;
+    }
+
+    static JournalMutation updateParking(int parkingNumber, boolean available) {
+        JournalMutation mutation = new JournalMutation();
+        mutation.type = UPDATE_PARKING;
+        mutation.parkingNumber = parkingNumber;
+        mutation.available = available;
+        return mutation;
+    }
+
+    /**
+     * write the changes right away outside a unit of work, else stage them so that the changes the unit of work
+     * makes through the same owner are written as one record just before it commits
+     * @param owner the store journaling the changes
+     */
+    static void stage(Object owner, List<JournalMutation> mutations, Sink sink) throws Exception {
+        List<JournalMutation> pending = UnitOfWork.resource(owner, ArrayList::new);
+        if (pending == null) {
+            sink.write(mutations);
+            return;
+        }
+        if (pending.isEmpty()) {
+            UnitOfWork.beforeCommit(() -> {
+                sink.write(pending);
+                return null;
+            });
+        }
+        pending.addAll(mutations);
+    }
+
+    /**
+     * add the insert of a saved ticket to a batch of DBConstants.SAVE_TICKET_IF_ABSENT
+     */
+    void addSave(PreparedStatement save) throws SQLException {
+        save.setInt(1, parkingNumber);
+        save.setString(2, vehicleRegNumber);
+        save.setDouble(3, price);
+        save.setTimestamp(4, new Timestamp(inTime));
+        if (outTime < 0) {
+            save.setNull(5, Types.TIMESTAMP);
+        } else {
+            save.setTimestamp(5, new Timestamp(outTime));
+        }
+        save.setString(6, vehicleRegNumber);
+        save.setTimestamp(7, new Timestamp(inTime));
+        save.addBatch();
+    }
+
+    static byte[] encode(List<JournalMutation> mutations) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * mutations.size());
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(mutations.size());
+        for (JournalMutation mutation : mutations) {
+            out.writeByte(mutation.type);
+            out.writeInt(mutation.parkingNumber);
+            out.writeUTF(mutation.vehicleRegNumber == null ? "" : mutation.vehicleRegNumber);
+            out.writeDouble(mutation.price);
+            out.writeLong(mutation.inTime);
+            out.writeLong(mutation.outTime);
+            out.writeBoolean(mutation.available);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    static List<JournalMutation> decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        int size = in.readInt();
+        List<JournalMutation> mutations = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            JournalMutation mutation = new JournalMutation();
+            mutation.type = in.readByte();
+            mutation.parkingNumber = in.readInt();
+            String vehicleRegNumber = in.readUTF();
+            mutation.vehicleRegNumber = vehicleRegNumber.isEmpty() ? null : vehicleRegNumber;
+            mutation.price = in.readDouble();
+            mutation.inTime = in.readLong();
+            mutation.outTime = in.readLong();
+            mutation.available = in.readBoolean();
+            mutations.add(mutation);
+        }
+        return mutations;
+    }
+}
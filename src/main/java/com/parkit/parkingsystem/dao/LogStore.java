@@ -0,0 +1,764 @@
+package com.parkit.parkingsystem.dao;
+
+import com.parkit.parkingsystem.config.UnitOfWork;
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.metrics.Metrics;
+import com.parkit.parkingsystem.metrics.OperationMetrics;
+import com.parkit.parkingsystem.model.Occupancy;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * Embedded store of the tickets and spots of a lot, for lots running without a database server.
+ * Every change is a record appended to a memory-mapped log file, the records of a unit of work in one entry
+ * framed by its length and CRC, written when the unit of work commits and dropped if it rolls back.
+ * Reads are answered from in memory indexes by plate and by spot rebuilt at open by replaying the log,
+ * up to the first entry torn by a crash. Compaction rewrites the log with one record per spot and ticket,
+ * while writes go on, then swaps the files. Tickets closed before the retention are left out, the vehicles keeping
+ * a record of how many tickets they had. The log is mapped whole, so it cannot grow past 2 GB.
+ */
+public class LogStore implements TicketStore, ParkingSpotStore, Closeable {
+
+    private static final Logger logger = LogManager.getLogger("LogStore");
+
+    private static final OperationMetrics SAVE_TICKET = Metrics.operation("LogStore.saveTicket");
+    private static final OperationMetrics GET_TICKET = Metrics.operation("LogStore.getTicket");
+    private static final OperationMetrics UPDATE_TICKET = Metrics.operation("LogStore.updateTicket");
+    private static final OperationMetrics CLAIM_NEXT_AVAILABLE_SLOT = Metrics.operation("LogStore.claimNextAvailableSlot");
+    private static final OperationMetrics UPDATE_PARKING = Metrics.operation("LogStore.updateParking");
+    private static final OperationMetrics COMPACT = Metrics.operation("LogStore.compact");
+
+    private static final int MAGIC = 0x504B4C47;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int FRAME_SIZE = 8;
+    private static final byte SPOT = 1;
+    private static final byte TICKET = 2;
+    private static final byte PLATE = 3;
+    private static final byte LAST_TICKET_ID = 4;
+    private static final int MIN_MAPPED_SIZE = 1 << 20;
+    private static final int MAX_MAPPED_SIZE = Integer.MAX_VALUE;
+    private static final int RECORDS_PER_COMPACTED_ENTRY = 512;
+
+    private final Path path;
+    private final boolean sync;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    /**
+     * position after the last entry written
+     */
+    private int end;
+    /**
+     * records in the log, live or superseded
+     */
+    private long records;
+
+    private final ParkingSpotIndex parkingSpotIndex;
+    /**
+     * committed availability by spot number, the index also holds the claims of units of work in progress
+     */
+    private final boolean[] committedAvailable;
+    private final List<Integer> spotNumbers;
+    private final Map<Integer, TicketRecord> tickets = new ConcurrentHashMap<>();
+    private final Map<String, PlateHistory> plates = new ConcurrentHashMap<>();
+    private final AtomicInteger lastTicketId = new AtomicInteger();
+    private final OccupancyTracker occupancyTracker;
+
+    private ScheduledExecutorService compactor;
+
+    private LogStore(Path path, boolean sync, Map<Integer, SpotRecord> spots) {
+        this.path = path;
+        this.sync = sync;
+        ParkingSpotIndex.Builder builder = new ParkingSpotIndex.Builder();
+        int maxNumber = 0;
+        for (SpotRecord spot : spots.values()) {
+            builder.add(spot.number, spot.type, spot.available);
+            maxNumber = Math.max(maxNumber, spot.number);
+        }
+        parkingSpotIndex = builder.build();
+        committedAvailable = new boolean[maxNumber + 1];
+        spotNumbers = new ArrayList<>(spots.keySet());
+        for (SpotRecord spot : spots.values()) {
+            committedAvailable[spot.number] = spot.available;
+        }
+        occupancyTracker = new OccupancyTracker(count());
+    }
+
+    /**
+     * open the log of a lot, replaying it into memory, or create it with the given spots
+     * @param path the log file
+     * @param initialSpots the spots of the lot when the log does not exist yet
+     * @param sync true to force every entry to disk before its unit of work is committed
+     */
+    public static LogStore open(Path path, List<ParkingSpot> initialSpots, boolean sync) throws IOException {
+        // a compaction interrupted before its swap leaves the old log complete
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        Files.deleteIfExists(compactedPath(path));
+        boolean created = !Files.exists(path) || Files.size(path) == 0;
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(MIN_MAPPED_SIZE, channel.size()));
+            Map<Integer, SpotRecord> spots = new TreeMap<>();
+            List<Object> replayed = new ArrayList<>();
+            long records = 0;
+            int end;
+            if (created) {
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                end = HEADER_SIZE;
+                for (ParkingSpot spot : initialSpots) {
+                    spots.put(spot.getId(), new SpotRecord(spot.getId(), spot.getParkingType(), spot.isAvailable()));
+                }
+            } else {
+                if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                    throw new IOException(path + " is not a parking log");
+                }
+                end = HEADER_SIZE;
+                while (true) {
+                    byte[] payload = readEntry(buffer, end);
+                    if (payload == null) {
+                        break;
+                    }
+                    for (Object record : decode(payload)) {
+                        if (record instanceof SpotRecord) {
+                            SpotRecord spot = (SpotRecord) record;
+                            spots.put(spot.number, spot);
+                        } else {
+                            replayed.add(record);
+                        }
+                        records++;
+                    }
+                    end += FRAME_SIZE + payload.length;
+                }
+                if (end + FRAME_SIZE <= buffer.capacity() && buffer.getInt(end) != 0) {
+                    logger.warn("Torn entry at {} of {} dropped, replayed {} records", end, path, records);
+                    for (int i = end; i < buffer.capacity(); i++) {
+                        buffer.put(i, (byte) 0);
+                    }
+                }
+            }
+            LogStore store = new LogStore(path, sync, spots);
+            store.channel = channel;
+            store.buffer = buffer;
+            store.end = end;
+            store.records = records;
+            for (Object record : replayed) {
+                store.apply(record);
+            }
+            if (created) {
+                List<Object> seed = new ArrayList<>(spots.values());
+                store.write(seed);
+            } else if (sync) {
+                buffer.force();
+            }
+            return store;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public ParkingSpotIndex getParkingSpotIndex() {
+        return parkingSpotIndex;
+    }
+
+    @Override
+    public OccupancyTracker getOccupancyTracker() {
+        return occupancyTracker;
+    }
+
+    @Override
+    public boolean saveTicket(Ticket ticket) {
+        long start = SAVE_TICKET.start();
+        boolean saved = false;
+        try {
+            int id = lastTicketId.incrementAndGet();
+            ParkingSpot spot = ticket.getParkingSpot();
+            ParkingType type = parkingSpotIndex.getParkingType(spot.getId());
+            stage(new TicketRecord(id, spot.getId(), (type != null) ? type : spot.getParkingType(),
+                    ticket.getVehicleRegNumber(), ticket.getPrice(), ticket.getInTime().getTime(), time(ticket.getOutTime())));
+            ticket.setId(id);
+            saved = true;
+        } catch (Exception ex) {
+            logger.error("Error saving ticket", ex);
+        }
+        SAVE_TICKET.record(start, saved);
+        return saved;
+    }
+
+    @Override
+    public Ticket getTicket(String vehicleRegNumber) {
+        long start = GET_TICKET.start();
+        PlateHistory history = plates.get(vehicleRegNumber);
+        TicketRecord record = (history == null) ? null : tickets.get(history.latestId);
+        GET_TICKET.success(start);
+        return (record == null) ? null : record.toTicket();
+    }
+
+    /**
+     * write the price and out time of a ticket saved before, in the log or in the current unit of work
+     */
+    @Override
+    public boolean updateTicket(Ticket ticket) {
+        long start = UPDATE_TICKET.start();
+        boolean updated = false;
+        try {
+            Batch batch = UnitOfWork.resource(this);
+            TicketRecord saved = (batch == null) ? null : batch.staged(ticket.getId());
+            if (saved == null) {
+                saved = tickets.get(ticket.getId());
+            }
+            if (saved != null) {
+                stage(new TicketRecord(saved.id, saved.parkingNumber, saved.type, saved.vehicleRegNumber,
+                        ticket.getPrice(), saved.inTime, time(ticket.getOutTime())));
+                updated = true;
+            }
+        } catch (Exception ex) {
+            logger.error("Error updating ticket info", ex);
+        }
+        UPDATE_TICKET.record(start, updated);
+        return updated;
+    }
+
+    @Override
+    public int getNbTicket(String vehicleRegNumber) {
+        PlateHistory history = plates.get(vehicleRegNumber);
+        return (history == null) ? 0 : history.count;
+    }
+
+    @Override
+    public boolean hasVisitedBefore(String vehicleRegNumber) {
+        PlateHistory history = plates.get(vehicleRegNumber);
+        return history != null && history.closed > 0;
+    }
+
+    @Override
+    public int getNextAvailableSlot(ParkingType parkingType) {
+        return parkingSpotIndex.lowestAvailable(parkingType);
+    }
+
+    /**
+     * take the lowest free spot in memory, written when the unit of work commits and given back if it rolls back
+     */
+    @Override
+    public int claimNextAvailableSlot(ParkingType parkingType) {
+        long start = CLAIM_NEXT_AVAILABLE_SLOT.start();
+        int claimed = parkingSpotIndex.claimLowest(parkingType);
+        if (claimed > 0) {
+            try {
+                UnitOfWork.afterRollback(() -> parkingSpotIndex.setAvailable(claimed, true));
+                stage(new SpotRecord(claimed, parkingType, false));
+            } catch (Exception ex) {
+                logger.error("Error claiming next available slot", ex);
+                parkingSpotIndex.setAvailable(claimed, true);
+                CLAIM_NEXT_AVAILABLE_SLOT.failure(start);
+                return -1;
+            }
+        }
+        CLAIM_NEXT_AVAILABLE_SLOT.success(start);
+        return claimed;
+    }
+
+    @Override
+    public boolean updateParking(ParkingSpot parkingSpot) {
+        long start = UPDATE_PARKING.start();
+        boolean updated = false;
+        ParkingType type = parkingSpotIndex.getParkingType(parkingSpot.getId());
+        if (type != null) {
+            try {
+                stage(new SpotRecord(parkingSpot.getId(), type, parkingSpot.isAvailable()));
+                updated = true;
+            } catch (Exception ex) {
+                logger.error("Error updating parking info", ex);
+            }
+        }
+        UPDATE_PARKING.record(start, updated);
+        return updated;
+    }
+
+    @Override
+    public synchronized Occupancy countOccupancy() {
+        return count();
+    }
+
+    /**
+     * rewrite the log with the live records only if most of it is superseded, every period
+     * @param retentionMillis how long closed tickets are kept, 0 to keep them all
+     */
+    public synchronized void startCompacting(long periodMillis, long retentionMillis) {
+        compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "log-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        compactor.scheduleWithFixedDelay(() -> {
+            try {
+                if (isWorthCompacting()) {
+                    compact(retentionMillis);
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.error("Compaction of {} failed", path, e);
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * rewrite the log with one record per spot and ticket. The live records are written to a new file without
+     * holding up writers, then the entries appended meanwhile are copied after them and the new file replaces the log.
+     * Tickets closed for longer than the retention are dropped, from memory as well, the ticket count and visits of
+     * their vehicles being kept in a record per vehicle.
+     * @param retentionMillis how long closed tickets are kept, 0 to keep them all
+     * @return the number of records dropped
+     */
+    public long compact(long retentionMillis) throws IOException {
+        long start = COMPACT.start();
+        long closedBefore = (retentionMillis > 0) ? System.currentTimeMillis() - retentionMillis : Long.MIN_VALUE;
+        List<Object> live;
+        List<TicketRecord> expired = new ArrayList<>();
+        int copiedUpTo;
+        synchronized (this) {
+            live = new ArrayList<>(spotNumbers.size() + tickets.size() + 1);
+            for (int number : spotNumbers) {
+                live.add(new SpotRecord(number, parkingSpotIndex.getParkingType(number), committedAvailable[number]));
+            }
+            Map<String, Integer> keptByPlate = new HashMap<>();
+            for (TicketRecord ticket : tickets.values()) {
+                if (ticket.outTime != null && ticket.outTime < closedBefore) {
+                    expired.add(ticket);
+                } else {
+                    live.add(ticket);
+                    keptByPlate.merge(ticket.vehicleRegNumber, 1, Integer::sum);
+                }
+            }
+            // written after the tickets, replaying them replaces the history they rebuild
+            for (Map.Entry<String, PlateHistory> plate : plates.entrySet()) {
+                if (plate.getValue().count > keptByPlate.getOrDefault(plate.getKey(), 0)) {
+                    live.add(new PlateRecord(plate.getKey(), plate.getValue()));
+                }
+            }
+            live.add(new LastTicketIdRecord(lastTicketId.get()));
+            copiedUpTo = end;
+        }
+        Path compacted = compactedPath(path);
+        boolean swapped = false;
+        FileChannel target = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION);
+            header.flip();
+            writeFully(target, header);
+            for (int from = 0; from < live.size(); from += RECORDS_PER_COMPACTED_ENTRY) {
+                writeFully(target, frame(encode(live.subList(from, Math.min(live.size(), from + RECORDS_PER_COMPACTED_ENTRY)))));
+            }
+            long dropped;
+            synchronized (this) {
+                ByteBuffer tail = buffer.duplicate();
+                tail.limit(end).position(copiedUpTo);
+                writeFully(target, tail);
+                target.force(true);
+                if (target.size() + FRAME_SIZE > MAX_MAPPED_SIZE) {
+                    throw new IOException(path + " does not fit in 2 GB once compacted");
+                }
+                Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                int newEnd = (int) target.size();
+                MappedByteBuffer mapped = target.map(FileChannel.MapMode.READ_WRITE, 0, mappedSize(newEnd));
+                channel.close();
+                channel = target;
+                buffer = mapped;
+                end = newEnd;
+                swapped = true;
+                dropped = records - live.size();
+                records = live.size();
+                for (TicketRecord ticket : expired) {
+                    tickets.remove(ticket.id, ticket);
+                }
+            }
+            logger.info("Compacted {}, {} superseded records dropped, {} tickets past retention among them", path, dropped,
+                    expired.size());
+            COMPACT.success(start);
+            return dropped;
+        } finally {
+            if (!swapped) {
+                COMPACT.failure(start);
+                target.close();
+                Files.deleteIfExists(compacted);
+            }
+        }
+    }
+
+    /**
+     * stop compacting and close the log, entries already written are on disk
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (compactor != null) {
+            compactor.shutdownNow();
+            compactor = null;
+        }
+        if (channel.isOpen()) {
+            buffer.force();
+            channel.close();
+        }
+    }
+
+    /**
+     * @return true if most of the log is superseded, the live records being at most one per spot, ticket and vehicle
+     */
+    private synchronized boolean isWorthCompacting() {
+        return records > 2L * (spotNumbers.size() + tickets.size() + plates.size());
+    }
+
+    /**
+     * write a record with the unit of work, right away outside of one
+     */
+    private void stage(Object record) throws Exception {
+        Batch batch = UnitOfWork.resource(this, Batch::new);
+        if (batch == null) {
+            List<Object> single = new ArrayList<>(1);
+            single.add(record);
+            write(single);
+            return;
+        }
+        if (batch.records.isEmpty()) {
+            UnitOfWork.beforeCommit(() -> {
+                write(batch.records);
+                return null;
+            });
+        }
+        batch.records.add(record);
+    }
+
+    /**
+     * append records as one entry, then apply them to memory
+     */
+    private synchronized void write(List<Object> batch) throws IOException {
+        if (!channel.isOpen()) {
+            throw new IOException(path + " is closed");
+        }
+        ByteBuffer entry = frame(encode(batch));
+        if ((long) end + entry.remaining() + FRAME_SIZE > MAX_MAPPED_SIZE) {
+            throw new IOException(path + " is full at 2 GB, a compaction or a shorter retention is needed");
+        }
+        if (end + entry.remaining() + FRAME_SIZE > buffer.capacity()) {
+            buffer.force();
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, mappedSize(end + entry.remaining()));
+        }
+        ByteBuffer target = buffer.duplicate();
+        target.position(end);
+        target.put(entry);
+        if (sync) {
+            buffer.force();
+        }
+        end = target.position();
+        records += batch.size();
+        for (Object record : batch) {
+            apply(record);
+        }
+    }
+
+    private void apply(Object record) {
+        if (record instanceof SpotRecord) {
+            applySpot((SpotRecord) record);
+        } else if (record instanceof TicketRecord) {
+            applyTicket((TicketRecord) record);
+        } else if (record instanceof PlateRecord) {
+            PlateRecord plate = (PlateRecord) record;
+            plates.put(plate.vehicleRegNumber, plate.history);
+        } else {
+            lastTicketId.accumulateAndGet(((LastTicketIdRecord) record).id, Math::max);
+        }
+    }
+
+    private void applySpot(SpotRecord spot) {
+        if (committedAvailable[spot.number] == spot.available) {
+            return;
+        }
+        committedAvailable[spot.number] = spot.available;
+        parkingSpotIndex.setAvailable(spot.number, spot.available);
+        occupancyTracker.apply(spot.type, spot.available ? -1 : 1);
+    }
+
+    private void applyTicket(TicketRecord ticket) {
+        TicketRecord previous = tickets.put(ticket.id, ticket);
+        lastTicketId.accumulateAndGet(ticket.id, Math::max);
+        PlateHistory history = plates.get(ticket.vehicleRegNumber);
+        int latestId = ticket.id;
+        if (history != null && previous == null) {
+            TicketRecord latest = tickets.get(history.latestId);
+            if (latest != null && latest.inTime > ticket.inTime) {
+                latestId = history.latestId;
+            }
+        } else if (history != null) {
+            latestId = history.latestId;
+        }
+        int count = ((history == null) ? 0 : history.count) + ((previous == null) ? 1 : 0);
+        boolean closing = ticket.outTime != null && (previous == null || previous.outTime == null);
+        int closed = ((history == null) ? 0 : history.closed) + (closing ? 1 : 0);
+        plates.put(ticket.vehicleRegNumber, new PlateHistory(latestId, count, closed));
+    }
+
+    private Occupancy count() {
+        int[] capacity = new int[ParkingType.values().length];
+        int[] occupied = new int[capacity.length];
+        for (int number : spotNumbers) {
+            int type = parkingSpotIndex.getParkingType(number).ordinal();
+            capacity[type]++;
+            if (!committedAvailable[number]) {
+                occupied[type]++;
+            }
+        }
+        return new Occupancy(capacity, occupied, 0);
+    }
+
+    /**
+     * @return the payload of the entry at a position, null at the end of the log or at a torn entry
+     */
+    private static byte[] readEntry(ByteBuffer buffer, int position) {
+        if (position + FRAME_SIZE > buffer.capacity()) {
+            return null;
+        }
+        int length = buffer.getInt(position);
+        if (length <= 0 || length > buffer.capacity() - position - FRAME_SIZE) {
+            return null;
+        }
+        byte[] payload = new byte[length];
+        ByteBuffer source = buffer.duplicate();
+        source.position(position + FRAME_SIZE);
+        source.get(payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, length);
+        return ((int) crc.getValue() == buffer.getInt(position + 4)) ? payload : null;
+    }
+
+    private static ByteBuffer frame(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        ByteBuffer entry = ByteBuffer.allocate(FRAME_SIZE + payload.length);
+        entry.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+        entry.flip();
+        return entry;
+    }
+
+    private static byte[] encode(List<?> batch) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * batch.size());
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (Object record : batch) {
+            if (record instanceof SpotRecord) {
+                SpotRecord spot = (SpotRecord) record;
+                out.writeByte(SPOT);
+                out.writeInt(spot.number);
+                out.writeByte(spot.type.ordinal());
+                out.writeBoolean(spot.available);
+            } else if (record instanceof PlateRecord) {
+                PlateRecord plate = (PlateRecord) record;
+                out.writeByte(PLATE);
+                out.writeUTF(plate.vehicleRegNumber);
+                out.writeInt(plate.history.latestId);
+                out.writeInt(plate.history.count);
+                out.writeInt(plate.history.closed);
+            } else if (record instanceof LastTicketIdRecord) {
+                out.writeByte(LAST_TICKET_ID);
+                out.writeInt(((LastTicketIdRecord) record).id);
+            } else {
+                TicketRecord ticket = (TicketRecord) record;
+                out.writeByte(TICKET);
+                out.writeInt(ticket.id);
+                out.writeInt(ticket.parkingNumber);
+                out.writeByte(ticket.type.ordinal());
+                out.writeUTF(ticket.vehicleRegNumber);
+                out.writeDouble(ticket.price);
+                out.writeLong(ticket.inTime);
+                out.writeBoolean(ticket.outTime != null);
+                out.writeLong((ticket.outTime != null) ? ticket.outTime : 0L);
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static List<Object> decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        ParkingType[] types = ParkingType.values();
+        List<Object> batch = new ArrayList<>();
+        while (in.available() > 0) {
+            byte kind = in.readByte();
+            if (kind == SPOT) {
+                batch.add(new SpotRecord(in.readInt(), types[in.readByte()], in.readBoolean()));
+            } else if (kind == TICKET) {
+                int id = in.readInt();
+                int parkingNumber = in.readInt();
+                ParkingType type = types[in.readByte()];
+                String vehicleRegNumber = in.readUTF();
+                double price = in.readDouble();
+                long inTime = in.readLong();
+                boolean out = in.readBoolean();
+                long outTime = in.readLong();
+                batch.add(new TicketRecord(id, parkingNumber, type, vehicleRegNumber, price, inTime, out ? outTime : null));
+            } else if (kind == PLATE) {
+                String vehicleRegNumber = in.readUTF();
+                batch.add(new PlateRecord(vehicleRegNumber, new PlateHistory(in.readInt(), in.readInt(), in.readInt())));
+            } else if (kind == LAST_TICKET_ID) {
+                batch.add(new LastTicketIdRecord(in.readInt()));
+            } else {
+                throw new IOException("Unknown record kind " + kind);
+            }
+        }
+        return batch;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer source) throws IOException {
+        while (source.hasRemaining()) {
+            channel.write(source);
+        }
+    }
+
+    private static long mappedSize(int used) {
+        long size = MIN_MAPPED_SIZE;
+        while (size < 2L * used) {
+            size <<= 1;
+        }
+        return Math.min(size, MAX_MAPPED_SIZE);
+    }
+
+    private static Long time(Date date) {
+        return (date == null) ? null : date.getTime();
+    }
+
+    private static Path compactedPath(Path path) {
+        return path.resolveSibling(path.getFileName() + ".compact");
+    }
+
+    /**
+     * the records staged by a unit of work
+     */
+    private static class Batch {
+        private final List<Object> records = new ArrayList<>();
+
+        private TicketRecord staged(int id) {
+            for (int i = records.size() - 1; i >= 0; i--) {
+                Object record = records.get(i);
+                if (record instanceof TicketRecord && ((TicketRecord) record).id == id) {
+                    return (TicketRecord) record;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static class SpotRecord {
+        private final int number;
+        private final ParkingType type;
+        private final boolean available;
+
+        private SpotRecord(int number, ParkingType type, boolean available) {
+            this.number = number;
+            this.type = type;
+            this.available = available;
+        }
+    }
+
+    private static class TicketRecord {
+        private final int id;
+        private final int parkingNumber;
+        private final ParkingType type;
+        private final String vehicleRegNumber;
+        private final double price;
+        private final long inTime;
+        private final Long outTime;
+
+        private TicketRecord(int id, int parkingNumber, ParkingType type, String vehicleRegNumber, double price,
+                             long inTime, Long outTime) {
+            this.id = id;
+            this.parkingNumber = parkingNumber;
+            this.type = type;
+            this.vehicleRegNumber = vehicleRegNumber;
+            this.price = price;
+            this.inTime = inTime;
+            this.outTime = outTime;
+        }
+
+        private Ticket toTicket() {
+            Ticket ticket = new Ticket();
+            ticket.setId(id);
+            ticket.setParkingSpot(new ParkingSpot(parkingNumber, type, false));
+            ticket.setVehicleRegNumber(vehicleRegNumber);
+            ticket.setPrice(price);
+            ticket.setInTime(new Date(inTime));
+            ticket.setOutTime((outTime == null) ? null : new Date(outTime));
+            return ticket;
+        }
+    }
+
+    /**
+     * the history of a vehicle some tickets of which were dropped from the log
+     */
+    private static class PlateRecord {
+        private final String vehicleRegNumber;
+        private final PlateHistory history;
+
+        private PlateRecord(String vehicleRegNumber, PlateHistory history) {
+            this.vehicleRegNumber = vehicleRegNumber;
+            this.history = history;
+        }
+    }
+
+    /**
+     * the highest ticket id given, which may belong to a dropped ticket
+     */
+    private static class LastTicketIdRecord {
+        private final int id;
+
+        private LastTicketIdRecord(int id) {
+            this.id = id;
+        }
+    }
+
+    /**
+     * the tickets of a vehicle: its latest one by in time, how many it has and how many are closed
+     */
+    private static class PlateHistory {
+        private final int latestId;
+        private final int count;
+        private final int closed;
+
+        private PlateHistory(int latestId, int count, int closed) {
+            this.latestId = latestId;
+            this.count = count;
+            this.closed = closed;
+        }
+    }
+}
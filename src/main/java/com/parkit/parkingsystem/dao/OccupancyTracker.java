@@ -0,0 +1,134 @@
+package com.parkit.parkingsystem.dao;
+
+import com.parkit.parkingsystem.config.UnitOfWork;
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.model.Occupancy;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Live count of the taken spots of each parking type, for the display boards and lane controllers polling it.
+ * The counts are one immutable snapshot swapped with a compare-and-set at every committed spot change, so that
+ * a read is a single volatile read: no lock, no database, and the counts of all types taken together.
+ * A periodic reconciliation replaces the snapshot with the counts of the parking table if they drifted apart,
+ * when no spot change is in flight between the table and memory.
+ */
+public class OccupancyTracker implements Closeable {
+
+    private static final Logger logger = LogManager.getLogger("OccupancyTracker");
+
+    private final AtomicReference<Occupancy> current;
+    /**
+     * spot changes started and not yet applied to the counts nor abandoned
+     */
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private ScheduledExecutorService reconciler;
+
+    /**
+     * @param seed the counts of the parking table
+     */
+    public OccupancyTracker(Occupancy seed) {
+        current = new AtomicReference<>(seed);
+    }
+
+    /**
+     * @return the counts as of the last committed spot change
+     */
+    public Occupancy snapshot() {
+        return current.get();
+    }
+
+    /**
+     * to be called before writing a spot change, then either transition or cancel
+     */
+    void begin() {
+        inFlight.incrementAndGet();
+    }
+
+    /**
+     * count a spot change once its unit of work commits, right away outside of one
+     * @param delta 1 for a spot taken, -1 for a spot freed
+     */
+    void transition(ParkingType parkingType, int delta) {
+        UnitOfWork.afterCommit(() -> {
+            apply(parkingType, delta);
+            inFlight.decrementAndGet();
+        });
+        UnitOfWork.afterRollback(inFlight::decrementAndGet);
+    }
+
+    /**
+     * the spot change started has not been written
+     */
+    void cancel() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * count a committed spot change right away, for stores which know it is one
+     */
+    void apply(ParkingType parkingType, int delta) {
+        Occupancy occupancy;
+        do {
+            occupancy = current.get();
+        } while (!current.compareAndSet(occupancy, occupancy.plus(parkingType, delta)));
+    }
+
+    /**
+     * compare the counts with the ones of the parking table and take the table's if they differ.
+     * Nothing is changed while a spot change is in flight, since the table may already have it and memory not yet.
+     * @return true if the counts are now those of the table, false if the check was skipped or failed
+     */
+    public boolean reconcile(ParkingSpotStore parkingSpotStore) {
+        if (inFlight.get() != 0) {
+            return false;
+        }
+        Occupancy before = current.get();
+        Occupancy counted = parkingSpotStore.countOccupancy();
+        // a change started after this check is written after the count, so it applies on top of the table's counts
+        if (counted == null || inFlight.get() != 0) {
+            return false;
+        }
+        if (counted.sameCounts(before)) {
+            return true;
+        }
+        if (!current.compareAndSet(before, counted.withVersion(before.getVersion() + 1))) {
+            return false;
+        }
+        logger.warn("Occupancy drifted from the parking table, {} corrected to {}", before, counted);
+        return true;
+    }
+
+    /**
+     * reconcile every period
+     */
+    public synchronized void startReconciling(ParkingSpotStore parkingSpotStore, long periodMillis) {
+        reconciler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "occupancy-reconciler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reconciler.scheduleWithFixedDelay(() -> {
+            try {
+                reconcile(parkingSpotStore);
+            } catch (RuntimeException e) {
+                logger.error("Occupancy reconciliation failed", e);
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (reconciler != null) {
+            reconciler.shutdownNow();
+            reconciler = null;
+        }
+    }
+}
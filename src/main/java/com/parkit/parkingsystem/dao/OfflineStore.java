@@ -0,0 +1,545 @@
+package com.parkit.parkingsystem.dao;
+
+import com.parkit.parkingsystem.config.DataBaseConfig;
+import com.parkit.parkingsystem.config.UnitOfWork;
+import com.parkit.parkingsystem.constants.DBConstants;
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.metrics.Metrics;
+import com.parkit.parkingsystem.metrics.OperationMetrics;
+import com.parkit.parkingsystem.model.Occupancy;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.util.BloomFilter;
+import com.parkit.parkingsystem.util.JournalFile;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Degraded mode of a lot whose database cannot be reached: entries and exits go on against what is cached in memory,
+ * the spots of the ParkingSpotIndex and the tickets of the OpenTicketIndex, and are appended to a local journal
+ * forced to disk, the changes of a unit of work as one record. Once the database answers again the journal is
+ * replayed in large transactions. A spot already taken or freed in the database, or a ticket closed there
+ * meanwhile, is a conflict: it is logged and counted, the database keeping its version. The caches are then
+ * reloaded and the lot goes back online.
+ */
+public class OfflineStore implements TicketStore, ParkingSpotStore, Closeable {
+
+    private static final Logger logger = LogManager.getLogger("OfflineStore");
+
+    private static final OperationMetrics RESYNC = Metrics.operation("OfflineStore.resync");
+
+    private final ParkingSpotDAO parkingSpotDAO;
+    private final TicketDAO ticketDAO;
+    private final DataBaseConfig dataBaseConfig;
+    private final JournalFile journal;
+    private final int batchSize;
+
+    /**
+     * held shared by the units of work run offline, exclusively to go back online
+     */
+    private final ReentrantReadWriteLock mode = new ReentrantReadWriteLock();
+    private volatile boolean offline;
+
+    /**
+     * the latest ticket of each vehicle entering or leaving while offline
+     */
+    private final ConcurrentMap<String, Ticket> ticketByVehicle = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Integer> ticketCountByVehicle = new ConcurrentHashMap<>();
+    private final AtomicLong conflicts = new AtomicLong();
+    private ScheduledExecutorService resyncer;
+
+    private static class Record {
+        private final long seq;
+        private final List<JournalMutation> mutations;
+
+        private Record(long seq, List<JournalMutation> mutations) {
+            this.seq = seq;
+            this.mutations = mutations;
+        }
+    }
+
+    /**
+     * open the journal and apply what it holds to the caches: a lot stopped while offline starts offline
+     * @param parkingSpotDAO the DAO of the lot, its spot index loaded
+     * @param ticketDAO the DAO of the lot, its open tickets and visited vehicles loaded if possible
+     * @param journalPath the local journal file
+     * @param batchSize maximum number of journal records replayed per transaction
+     */
+    public OfflineStore(ParkingSpotDAO parkingSpotDAO, TicketDAO ticketDAO, Path journalPath, int batchSize) throws IOException {
+        this.parkingSpotDAO = parkingSpotDAO;
+        this.ticketDAO = ticketDAO;
+        this.dataBaseConfig = ticketDAO.dataBaseConfig;
+        this.journal = new JournalFile(journalPath);
+        this.batchSize = batchSize;
+        journal.replay((seq, payload) -> {
+            for (JournalMutation mutation : JournalMutation.decode(payload)) {
+                applyLocally(mutation);
+            }
+            offline = true;
+        });
+        if (offline) {
+            logger.warn("Offline journal {} not replayed to the database yet", journalPath);
+        }
+    }
+
+    /**
+     * @return true while entries and exits are to be run on this store
+     */
+    public boolean isOffline() {
+        return offline;
+    }
+
+    /**
+     * @return the lock to hold while running a unit of work on this store, so that the lot does not go back
+     * online in the middle of it
+     */
+    public Lock getModeLock() {
+        return mode.readLock();
+    }
+
+    /**
+     * @return the number of journaled changes not written when resyncing, the database having changed meanwhile
+     */
+    public long getConflictCount() {
+        return conflicts.get();
+    }
+
+    /**
+     * go offline if the database cannot be reached
+     * @return true if the lot is offline
+     */
+    public boolean goOffline() {
+        if (offline) {
+            return true;
+        }
+        if (isDataBaseReachable()) {
+            return false;
+        }
+        offline = true;
+        logger.warn("Database {} unreachable, entries and exits are journaled locally", dataBaseConfig.getJdbcUrl());
+        return true;
+    }
+
+    /**
+     * try to resync every period while offline
+     */
+    public synchronized void startResyncing(long periodMillis) {
+        resyncer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "offline-resync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        resyncer.scheduleWithFixedDelay(() -> {
+            try {
+                if (offline) {
+                    resync();
+                }
+            } catch (RuntimeException e) {
+                logger.error("Offline resync failed", e);
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * if the database answers, replay the journal to it, reload the caches and go back online.
+     * Most of the journal is replayed while gates go on offline, the records written meanwhile once they are held.
+     * @return true if the lot is online
+     */
+    public synchronized boolean resync() {
+        if (!offline) {
+            return true;
+        }
+        if (!isDataBaseReachable()) {
+            return false;
+        }
+        long start = RESYNC.start();
+        try {
+            long replayed = replayJournal();
+            Lock exclusive = mode.writeLock();
+            exclusive.lock();
+            try {
+                replayed += replayJournal();
+                if (!parkingSpotDAO.loadParkingSpotIndex() || (ticketDAO.getOpenTicketIndex() != null
+                        && !ticketDAO.loadOpenTicketIndex(parkingSpotDAO.getParkingSpotIndex().capacity()))) {
+                    throw new IllegalStateException("Unable to reload the caches from the database");
+                }
+                BloomFilter visited = ticketDAO.getVisitedVehicles();
+                if (visited != null) {
+                    for (Ticket ticket : ticketByVehicle.values()) {
+                        if (ticket.getOutTime() != null) {
+                            visited.add(ticket.getVehicleRegNumber());
+                        }
+                    }
+                }
+                ticketByVehicle.clear();
+                ticketCountByVehicle.clear();
+                offline = false;
+            } finally {
+                exclusive.unlock();
+            }
+            logger.info("Back online, {} offline changes written to the database, {} conflicts so far", replayed, conflicts.get());
+            RESYNC.success(start);
+            return true;
+        } catch (Exception e) {
+            logger.error("Unable to resync the offline journal, staying offline", e);
+            RESYNC.failure(start);
+            return false;
+        }
+    }
+
+    @Override
+    public boolean saveTicket(Ticket ticket) {
+        // DATETIME keeps whole seconds, the in time is also the key of the later close
+        ticket.setInTime(new Date(ticket.getInTime().getTime() / 1000 * 1000));
+        try {
+            stage(JournalMutation.saveTicket(ticket));
+        } catch (Exception ex) {
+            logger.error("Error journaling ticket", ex);
+            return false;
+        }
+        Ticket saved = copy(ticket);
+        UnitOfWork.afterCommit(() -> {
+            ticketByVehicle.put(saved.getVehicleRegNumber(), saved);
+            ticketCountByVehicle.merge(saved.getVehicleRegNumber(), 1, Integer::sum);
+        });
+        return true;
+    }
+
+    /**
+     * @return the latest ticket of the vehicle recorded offline, else its open ticket cached before the outage
+     */
+    @Override
+    public Ticket getTicket(String vehicleRegNumber) {
+        Ticket ticket = ticketByVehicle.get(vehicleRegNumber);
+        if (ticket != null) {
+            return copy(ticket);
+        }
+        OpenTicketIndex index = ticketDAO.getOpenTicketIndex();
+        return (index == null) ? null : index.get(vehicleRegNumber);
+    }
+
+    /**
+     * close a ticket, found again when resyncing by its vehicle and the second of its in time
+     */
+    @Override
+    public boolean updateTicket(Ticket ticket) {
+        try {
+            stage(JournalMutation.closeTicket(ticket));
+        } catch (Exception ex) {
+            logger.error("Error journaling ticket info", ex);
+            return false;
+        }
+        Ticket closed = copy(ticket);
+        UnitOfWork.afterCommit(() -> ticketByVehicle.put(closed.getVehicleRegNumber(), closed));
+        return true;
+    }
+
+    /**
+     * @return the number of tickets of the vehicle saved offline, its earlier tickets being in the database only
+     */
+    @Override
+    public int getNbTicket(String vehicleRegNumber) {
+        return ticketCountByVehicle.getOrDefault(vehicleRegNumber, 0);
+    }
+
+    /**
+     * answered by the visited vehicles filter loaded before the outage, without the exact check of the database:
+     * a vehicle coming for the first time is granted the discount with the false positive rate of the filter
+     */
+    @Override
+    public boolean hasVisitedBefore(String vehicleRegNumber) {
+        Ticket ticket = ticketByVehicle.get(vehicleRegNumber);
+        if (ticket != null && ticket.getOutTime() != null) {
+            return true;
+        }
+        BloomFilter visited = ticketDAO.getVisitedVehicles();
+        return visited != null && visited.mightContain(vehicleRegNumber);
+    }
+
+    @Override
+    public int getNextAvailableSlot(ParkingType parkingType) {
+        ParkingSpotIndex index = parkingSpotDAO.getParkingSpotIndex();
+        return (index == null) ? -1 : index.lowestAvailable(parkingType);
+    }
+
+    @Override
+    public int claimNextAvailableSlot(ParkingType parkingType) {
+        ParkingSpotIndex index = parkingSpotDAO.getParkingSpotIndex();
+        if (index == null) {
+            return -1;
+        }
+        int claimed = index.claimLowest(parkingType);
+        if (claimed <= 0) {
+            return 0;
+        }
+        try {
+            switchSpot(parkingType, claimed, false);
+            UnitOfWork.afterRollback(() -> index.setAvailable(claimed, true));
+            return claimed;
+        } catch (Exception ex) {
+            logger.error("Error journaling parking spot claim", ex);
+            index.setAvailable(claimed, true);
+            return -1;
+        }
+    }
+
+    @Override
+    public boolean updateParking(ParkingSpot parkingSpot) {
+        ParkingSpotIndex index = parkingSpotDAO.getParkingSpotIndex();
+        ParkingType parkingType = (index == null) ? null : index.getParkingType(parkingSpot.getId());
+        if (parkingType == null) {
+            return false;
+        }
+        try {
+            switchSpot(parkingType, parkingSpot.getId(), parkingSpot.isAvailable());
+        } catch (Exception ex) {
+            logger.error("Error journaling parking info", ex);
+            return false;
+        }
+        final int parkingNumber = parkingSpot.getId();
+        final boolean available = parkingSpot.isAvailable();
+        UnitOfWork.afterCommit(() -> index.setAvailable(parkingNumber, available));
+        return true;
+    }
+
+    /**
+     * @return null, the parking table cannot be counted while offline
+     */
+    @Override
+    public Occupancy countOccupancy() {
+        return null;
+    }
+
+    @Override
+    public OccupancyTracker getOccupancyTracker() {
+        return parkingSpotDAO.getOccupancyTracker();
+    }
+
+    /**
+     * stop resyncing and close the journal, what it holds is replayed on the next start
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (resyncer != null) {
+                resyncer.shutdownNow();
+                resyncer = null;
+            }
+        }
+        journal.close();
+    }
+
+    private boolean isDataBaseReachable() {
+        Connection con = null;
+        try {
+            con = dataBaseConfig.getConnection();
+            return con.isValid(2);
+        } catch (Exception e) {
+            return false;
+        } finally {
+            dataBaseConfig.closeConnection(con);
+        }
+    }
+
+    /**
+     * journal a spot change, counted in the occupancy tracker when its unit of work commits
+     */
+    private void switchSpot(ParkingType parkingType, int parkingNumber, boolean available) throws Exception {
+        JournalMutation mutation = JournalMutation.updateParking(parkingNumber, available);
+        OccupancyTracker tracker = parkingSpotDAO.getOccupancyTracker();
+        if (tracker == null) {
+            stage(mutation);
+            return;
+        }
+        tracker.begin();
+        boolean staged = false;
+        try {
+            stage(mutation);
+            staged = true;
+        } finally {
+            if (staged) {
+                tracker.transition(parkingType, available ? -1 : 1);
+            } else {
+                tracker.cancel();
+            }
+        }
+    }
+
+    private void stage(JournalMutation mutation) throws Exception {
+        JournalMutation.stage(this, Collections.singletonList(mutation), this::append);
+    }
+
+    private void append(List<JournalMutation> mutations) throws IOException {
+        journal.sync(journal.append(JournalMutation.encode(mutations)));
+    }
+
+    /**
+     * bring the caches in line with a change journaled before a restart
+     */
+    private void applyLocally(JournalMutation mutation) {
+        ParkingSpotIndex index = parkingSpotDAO.getParkingSpotIndex();
+        switch (mutation.type) {
+            case JournalMutation.SAVE_TICKET: {
+                ParkingType parkingType = (index == null) ? null : index.getParkingType(mutation.parkingNumber);
+                Ticket ticket = new Ticket();
+                ticket.setParkingSpot(new ParkingSpot(mutation.parkingNumber, parkingType, false));
+                ticket.setVehicleRegNumber(mutation.vehicleRegNumber);
+                ticket.setPrice(mutation.price);
+                ticket.setInTime(new Date(mutation.inTime));
+                ticket.setOutTime((mutation.outTime < 0) ? null : new Date(mutation.outTime));
+                ticketByVehicle.put(ticket.getVehicleRegNumber(), ticket);
+                ticketCountByVehicle.merge(ticket.getVehicleRegNumber(), 1, Integer::sum);
+                break;
+            }
+            case JournalMutation.CLOSE_TICKET: {
+                Ticket ticket = getTicket(mutation.vehicleRegNumber);
+                if (ticket != null) {
+                    ticket.setPrice(mutation.price);
+                    ticket.setOutTime(new Date(mutation.outTime));
+                    ticketByVehicle.put(ticket.getVehicleRegNumber(), ticket);
+                }
+                break;
+            }
+            case JournalMutation.UPDATE_PARKING:
+                if (index != null) {
+                    index.setAvailable(mutation.parkingNumber, mutation.available);
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unknown journal record type " + mutation.type);
+        }
+    }
+
+    /**
+     * write the journal records after the checkpoint to the database, batchSize records per transaction
+     * @return the number of changes written
+     */
+    private long replayJournal() throws Exception {
+        List<Record> records = new ArrayList<>();
+        journal.replay((seq, payload) -> records.add(new Record(seq, JournalMutation.decode(payload))));
+        long replayed = 0;
+        for (int from = 0; from < records.size(); from += batchSize) {
+            List<Record> batch = records.subList(from, Math.min(records.size(), from + batchSize));
+            replayed += apply(batch);
+            journal.checkpoint(batch.get(batch.size() - 1).seq);
+        }
+        return replayed;
+    }
+
+    /**
+     * write a batch in one transaction, inserts first, then closes, then spot changes, which keeps the order of the
+     * changes made to each ticket and to each spot. Inserts are skipped for a ticket already there and closes accept
+     * the same out time, so that a batch replayed again after a crash before its checkpoint is not a conflict.
+     * @return the number of changes in the batch
+     */
+    private int apply(List<Record> batch) throws Exception {
+        List<JournalMutation> closes = new ArrayList<>();
+        List<JournalMutation> switches = new ArrayList<>();
+        int changes = 0;
+        Connection con = dataBaseConfig.getConnection();
+        try {
+            con.setAutoCommit(false);
+            try (PreparedStatement save = con.prepareStatement(DBConstants.SAVE_TICKET_IF_ABSENT);
+                 PreparedStatement close = con.prepareStatement(DBConstants.CLOSE_TICKET_BY_VEHICLE_AND_IN_TIME);
+                 PreparedStatement parking = con.prepareStatement(DBConstants.SWITCH_PARKING_SPOT)) {
+                boolean saves = false;
+                for (Record record : batch) {
+                    for (JournalMutation mutation : record.mutations) {
+                        changes++;
+                        switch (mutation.type) {
+                            case JournalMutation.SAVE_TICKET:
+                                mutation.addSave(save);
+                                saves = true;
+                                break;
+                            case JournalMutation.CLOSE_TICKET:
+                                close.setDouble(1, mutation.price);
+                                close.setTimestamp(2, new Timestamp(mutation.outTime));
+                                close.setString(3, mutation.vehicleRegNumber);
+                                // the in time of a ticket written online may have been rounded to the next second
+                                close.setTimestamp(4, new Timestamp(mutation.inTime));
+                                close.setTimestamp(5, new Timestamp(mutation.inTime + 1000));
+                                close.setTimestamp(6, new Timestamp(mutation.outTime));
+                                close.addBatch();
+                                closes.add(mutation);
+                                break;
+                            case JournalMutation.UPDATE_PARKING:
+                                parking.setBoolean(1, mutation.available);
+                                parking.setInt(2, mutation.parkingNumber);
+                                parking.setBoolean(3, !mutation.available);
+                                parking.addBatch();
+                                switches.add(mutation);
+                                break;
+                            default:
+                                throw new IllegalStateException("Unknown journal record type " + mutation.type);
+                        }
+                    }
+                }
+                if (saves) {
+                    save.executeBatch();
+                }
+                int[] closed = closes.isEmpty() ? new int[0] : close.executeBatch();
+                int[] switched = switches.isEmpty() ? new int[0] : parking.executeBatch();
+                con.commit();
+                reportConflicts(closes, closed, switches, switched);
+            } catch (SQLException e) {
+                con.rollback();
+                throw e;
+            }
+        } finally {
+            con.setAutoCommit(true);
+            dataBaseConfig.closeConnection(con);
+        }
+        return changes;
+    }
+
+    private void reportConflicts(List<JournalMutation> closes, int[] closed, List<JournalMutation> switches, int[] switched) {
+        for (int i = 0; i < closed.length; i++) {
+            if (closed[i] == 0) {
+                JournalMutation mutation = closes.get(i);
+                conflicts.incrementAndGet();
+                logger.warn("Conflict: the ticket of {} entered at {} was closed in the database or is missing there, kept as is",
+                        mutation.vehicleRegNumber, new Date(mutation.inTime));
+            }
+        }
+        for (int i = 0; i < switched.length; i++) {
+            if (switched[i] == 0) {
+                JournalMutation mutation = switches.get(i);
+                conflicts.incrementAndGet();
+                logger.warn("Conflict: spot {} was already {} in the database", mutation.parkingNumber,
+                        mutation.available ? "free" : "taken");
+            }
+        }
+    }
+
+    private static Ticket copy(Ticket ticket) {
+        Ticket copy = new Ticket();
+        copy.setId(ticket.getId());
+        ParkingSpot spot = ticket.getParkingSpot();
+        copy.setParkingSpot(new ParkingSpot(spot.getId(), spot.getParkingType(), spot.isAvailable()));
+        copy.setVehicleRegNumber(ticket.getVehicleRegNumber());
+        copy.setPrice(ticket.getPrice());
+        copy.setInTime(ticket.getInTime());
+        copy.setOutTime(ticket.getOutTime());
+        return copy;
+    }
+}
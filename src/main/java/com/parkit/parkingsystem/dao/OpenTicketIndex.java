@@ -0,0 +1,81 @@
+package com.parkit.parkingsystem.dao;
+
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * In memory tickets of the vehicles currently parked, keyed by vehicle registration number.
+ * There is at most one open ticket per spot, so the index never holds more tickets than the parking has spots:
+ * past that bound a ticket is simply not cached and is read from the database.
+ * Tickets are copied in and out so that callers changing their ticket never change the cached one.
+ */
+public class OpenTicketIndex {
+
+    private final ConcurrentMap<String, Ticket> ticketByVehicle;
+    private final int capacity;
+
+    /**
+     * @param capacity the number of spots of the parking
+     */
+    public OpenTicketIndex(int capacity) {
+        this.capacity = capacity;
+        this.ticketByVehicle = new ConcurrentHashMap<>(Math.max(16, capacity * 4 / 3 + 1));
+    }
+
+    /**
+     * @param vehicleRegNumber the vehicle
+     * @return a copy of the open ticket of the vehicle, null if it is not cached
+     */
+    public Ticket get(String vehicleRegNumber) {
+        Ticket ticket = ticketByVehicle.get(vehicleRegNumber);
+        return (ticket == null) ? null : copy(ticket);
+    }
+
+    /**
+     * cache an open ticket, replacing the previous open ticket of the same vehicle
+     * @param ticket a ticket without out time
+     * @return false if the ticket is not cached because it is closed or the index is full
+     */
+    public boolean put(Ticket ticket) {
+        if (ticket.getOutTime() != null) {
+            return false;
+        }
+        if (ticketByVehicle.size() >= capacity && !ticketByVehicle.containsKey(ticket.getVehicleRegNumber())) {
+            return false;
+        }
+        ticketByVehicle.put(ticket.getVehicleRegNumber(), copy(ticket));
+        return true;
+    }
+
+    /**
+     * forget the open ticket of a vehicle once closed
+     * @param vehicleRegNumber the vehicle
+     */
+    public void remove(String vehicleRegNumber) {
+        ticketByVehicle.remove(vehicleRegNumber);
+    }
+
+    public int size() {
+        return ticketByVehicle.size();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    private static Ticket copy(Ticket ticket) {
+        Ticket copy = new Ticket();
+        copy.setId(ticket.getId());
+        ParkingSpot parkingSpot = ticket.getParkingSpot();
+        copy.setParkingSpot(new ParkingSpot(parkingSpot.getId(), parkingSpot.getParkingType(), parkingSpot.isAvailable()));
+        copy.setVehicleRegNumber(ticket.getVehicleRegNumber());
+        copy.setPrice(ticket.getPrice());
+        copy.setInTime(ticket.getInTime() == null ? null : new Date(ticket.getInTime().getTime()));
+        copy.setOutTime(ticket.getOutTime() == null ? null : new Date(ticket.getOutTime().getTime()));
+        return copy;
+    }
+}
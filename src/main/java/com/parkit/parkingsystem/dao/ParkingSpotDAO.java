@@ -1,8 +1,12 @@
 package com.parkit.parkingsystem.dao;
 
 import com.parkit.parkingsystem.config.DataBaseConfig;
+import com.parkit.parkingsystem.config.UnitOfWork;
 import com.parkit.parkingsystem.constants.DBConstants;
 import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.metrics.Metrics;
+import com.parkit.parkingsystem.metrics.OperationMetrics;
+import com.parkit.parkingsystem.model.Occupancy;
 import com.parkit.parkingsystem.model.ParkingSpot;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -10,44 +14,301 @@ import org.apache.logging.log4j.Logger;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.Callable;
 
-public class ParkingSpotDAO {
+public class ParkingSpotDAO implements ParkingSpotStore {
     private static final Logger logger = LogManager.getLogger("ParkingSpotDAO");
 
+    private static final OperationMetrics LOAD_PARKING_SPOT_INDEX = Metrics.operation("ParkingSpotDAO.loadParkingSpotIndex");
+    private static final OperationMetrics GET_NEXT_AVAILABLE_SLOT = Metrics.operation("ParkingSpotDAO.getNextAvailableSlot");
+    private static final OperationMetrics CLAIM_NEXT_AVAILABLE_SLOT = Metrics.operation("ParkingSpotDAO.claimNextAvailableSlot");
+    private static final OperationMetrics UPDATE_PARKING = Metrics.operation("ParkingSpotDAO.updateParking");
+    private static final OperationMetrics COUNT_OCCUPANCY = Metrics.operation("ParkingSpotDAO.countOccupancy");
+
     public DataBaseConfig dataBaseConfig = new DataBaseConfig();
 
+    private volatile ParkingSpotIndex parkingSpotIndex;
+
+    private volatile WriteBehindQueue writeBehindQueue;
+
+    private volatile OccupancyTracker occupancyTracker;
+
+    /**
+     * load the availability of every spot from the parking table into memory.
+     * Once loaded, the next available slot is answered from the index without a DB read
+     * and the index follows every successful updateParking.
+     * @return true if the index has been loaded
+     */
+    public boolean loadParkingSpotIndex(){
+        long start = LOAD_PARKING_SPOT_INDEX.start();
+        return LOAD_PARKING_SPOT_INDEX.record(start, loadParkingSpots());
+    }
+
+    private boolean loadParkingSpots(){
+        Connection con = null;
+        try {
+            con = dataBaseConfig.getConnection();
+            ParkingSpotIndex.Builder builder = new ParkingSpotIndex.Builder();
+            try (PreparedStatement ps = con.prepareStatement(DBConstants.GET_PARKING_SPOTS);
+                 ResultSet rs = ps.executeQuery()) {
+                while(rs.next()){
+                    builder.add(rs.getInt(1), ParkingType.valueOf(rs.getString(3)), rs.getBoolean(2));
+                }
+            }
+            parkingSpotIndex = builder.build();
+            return true;
+        }catch (Exception ex){
+            logger.error("Error loading parking spot availability",ex);
+            return false;
+        }finally {
+            dataBaseConfig.closeConnection(con);
+        }
+    }
+
+    /**
+     * write spot changes through a write-behind queue instead of directly.
+     * Claims are then decided by the index alone, which requires this process to be the only one writing the parking table.
+     * The index is reloaded and the spot changes still in the queue, replayed from its journal or not yet written,
+     * are applied over the parking table so that a spot claimed before a restart is not handed out again.
+     * @param writeBehindQueue the started queue, null to write directly again
+     * @return false if the index needed for the claims could not be loaded
+     */
+    public boolean setWriteBehindQueue(WriteBehindQueue writeBehindQueue){
+        if(writeBehindQueue != null){
+            // taken before the table is read: a change written in between is then in both, not in neither
+            Map<Integer, Boolean> pendingSpots = writeBehindQueue.getPendingSpots();
+            if(!loadParkingSpotIndex()){
+                return false;
+            }
+            for(Map.Entry<Integer, Boolean> spot : pendingSpots.entrySet()){
+                parkingSpotIndex.setAvailable(spot.getKey(), spot.getValue());
+            }
+        }
+        this.writeBehindQueue = writeBehindQueue;
+        return true;
+    }
+
+    public ParkingSpotIndex getParkingSpotIndex(){
+        return parkingSpotIndex;
+    }
+
+    /**
+     * count the taken spots of the parking table into an occupancy tracker.
+     * Once loaded, every spot claimed or updated through this DAO is counted in the tracker when committed.
+     * @return true if the tracker is loaded
+     */
+    public boolean loadOccupancy(){
+        if(occupancyTracker != null){
+            return true;
+        }
+        Occupancy counted = countOccupancy();
+        if(counted == null){
+            return false;
+        }
+        occupancyTracker = new OccupancyTracker(counted);
+        return true;
+    }
+
+    public OccupancyTracker getOccupancyTracker(){
+        return occupancyTracker;
+    }
+
+    /**
+     * count the spots and the taken spots of each type in the parking table
+     * @return the counts, null on error or while queued spot changes have not reached the table
+     */
+    public Occupancy countOccupancy(){
+        long start = COUNT_OCCUPANCY.start();
+        WriteBehindQueue queue = writeBehindQueue;
+        if(queue != null && queue.getPendingCount() > 0){
+            COUNT_OCCUPANCY.success(start);
+            return null;
+        }
+        Connection con = null;
+        Occupancy occupancy = null;
+        try {
+            con = dataBaseConfig.getConnection();
+            int[] capacity = new int[ParkingType.values().length];
+            int[] occupied = new int[capacity.length];
+            try (PreparedStatement ps = con.prepareStatement(DBConstants.COUNT_PARKING_SPOTS);
+                 ResultSet rs = ps.executeQuery()) {
+                while(rs.next()){
+                    int type = ParkingType.valueOf(rs.getString(1)).ordinal();
+                    capacity[type] = rs.getInt(2);
+                    occupied[type] = rs.getInt(3);
+                }
+            }
+            occupancy = new Occupancy(capacity, occupied, 0);
+        }catch (Exception ex){
+            logger.error("Error counting occupied parking spots",ex);
+        }finally {
+            dataBaseConfig.closeConnection(con);
+        }
+        COUNT_OCCUPANCY.record(start, occupancy != null);
+        return occupancy;
+    }
+
     public int getNextAvailableSlot(ParkingType parkingType){
+        long start = GET_NEXT_AVAILABLE_SLOT.start();
+        ParkingSpotIndex index = parkingSpotIndex;
+        if(index != null){
+            int result = index.lowestAvailable(parkingType);
+            GET_NEXT_AVAILABLE_SLOT.success(start);
+            return result;
+        }
         Connection con = null;
         int result=-1;
+        boolean failed = false;
         try {
             con = dataBaseConfig.getConnection();
-            PreparedStatement ps = con.prepareStatement(DBConstants.GET_NEXT_PARKING_SPOT);
-            ps.setString(1, parkingType.toString());
-            ResultSet rs = ps.executeQuery();
-            if(rs.next()){
-                result = rs.getInt(1);;
+            try (PreparedStatement ps = con.prepareStatement(DBConstants.GET_NEXT_PARKING_SPOT)) {
+                ps.setString(1, parkingType.toString());
+                try (ResultSet rs = ps.executeQuery()) {
+                    if(rs.next()){
+                        result = rs.getInt(1);
+                    }
+                }
             }
-            dataBaseConfig.closeResultSet(rs);
-            dataBaseConfig.closePreparedStatement(ps);
         }catch (Exception ex){
             logger.error("Error fetching next available slot",ex);
+            failed = true;
         }finally {
             dataBaseConfig.closeConnection(con);
         }
+        GET_NEXT_AVAILABLE_SLOT.record(start, !failed);
         return result;
     }
 
+    /**
+     * atomically take a free spot of the given type.
+     * A candidate is picked (claimed in the index when loaded, the lowest free spot in DB otherwise)
+     * and marked occupied with an update conditional on AVAILABLE = true. If another gate took that
+     * spot in between, no row is updated and the next candidate is tried, so gates competing for spots
+     * never wait on each other's row lock and no spot is handed out twice.
+     * @param parkingType the type of spot requested
+     * @return the claimed spot number, 0 if the parking is full for this type, -1 on error
+     */
+    public int claimNextAvailableSlot(ParkingType parkingType){
+        long start = CLAIM_NEXT_AVAILABLE_SLOT.start();
+        int claimed = claim(parkingType);
+        CLAIM_NEXT_AVAILABLE_SLOT.record(start, claimed >= 0);
+        return claimed;
+    }
+
+    private int claim(ParkingType parkingType){
+        WriteBehindQueue queue = writeBehindQueue;
+        if(queue != null){
+            return claimQueued(queue, parkingType);
+        }
+        Connection con = null;
+        int candidate = 0;
+        ParkingSpotIndex index = parkingSpotIndex;
+        try {
+            con = dataBaseConfig.getConnection();
+            try (PreparedStatement ps = con.prepareStatement(DBConstants.CLAIM_PARKING_SPOT)) {
+                while(true){
+                    candidate = (index != null) ? index.claimLowest(parkingType) : selectNextAvailableSlot(con, parkingType);
+                    if(candidate <= 0){
+                        return 0;
+                    }
+                    ps.setInt(1, candidate);
+                    if(tracked(parkingType, 1, () -> ps.executeUpdate() == 1)){
+                        if(index != null){
+                            final int claimed = candidate;
+                            UnitOfWork.afterRollback(() -> index.setAvailable(claimed, true));
+                        }
+                        return candidate;
+                    }
+                    // taken by another gate or process: it stays out of the index, try the next one
+                    candidate = 0;
+                }
+            }
+        }catch (Exception ex){
+            logger.error("Error claiming next available slot",ex);
+            if(index != null && candidate > 0){
+                index.setAvailable(candidate, true);
+            }
+            return -1;
+        }finally {
+            dataBaseConfig.closeConnection(con);
+        }
+    }
+
+    private int claimQueued(WriteBehindQueue queue, ParkingType parkingType){
+        ParkingSpotIndex index = parkingSpotIndex;
+        int claimed = index.claimLowest(parkingType);
+        if(claimed <= 0){
+            return 0;
+        }
+        try {
+            tracked(parkingType, 1, () -> {
+                queue.updateParking(claimed, false);
+                return true;
+            });
+            UnitOfWork.afterRollback(() -> index.setAvailable(claimed, true));
+            return claimed;
+        }catch (Exception ex){
+            logger.error("Error queuing parking spot claim",ex);
+            index.setAvailable(claimed, true);
+            return -1;
+        }
+    }
+
+    private int selectNextAvailableSlot(Connection con, ParkingType parkingType) throws SQLException {
+        try (PreparedStatement ps = con.prepareStatement(DBConstants.GET_NEXT_PARKING_SPOT)) {
+            ps.setString(1, parkingType.toString());
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+
     public boolean updateParking(ParkingSpot parkingSpot){
+        long start = UPDATE_PARKING.start();
+        return UPDATE_PARKING.record(start, writeParking(parkingSpot));
+    }
+
+    private boolean writeParking(ParkingSpot parkingSpot){
         //update the availability fo that parking slot
+        WriteBehindQueue queue = writeBehindQueue;
+        ParkingType parkingType = parkingSpot.getParkingType();
+        int delta = parkingSpot.isAvailable() ? -1 : 1;
+        if(queue != null){
+            try {
+                tracked(parkingType, delta, () -> {
+                    queue.updateParking(parkingSpot.getId(), parkingSpot.isAvailable());
+                    return true;
+                });
+                ParkingSpotIndex index = parkingSpotIndex;
+                final int parkingNumber = parkingSpot.getId();
+                final boolean available = parkingSpot.isAvailable();
+                UnitOfWork.afterCommit(() -> index.setAvailable(parkingNumber, available));
+                return true;
+            }catch (Exception ex){
+                logger.error("Error queuing parking info",ex);
+                return false;
+            }
+        }
         Connection con = null;
         try {
             con = dataBaseConfig.getConnection();
-            PreparedStatement ps = con.prepareStatement(DBConstants.UPDATE_PARKING_SPOT);
-            ps.setBoolean(1, parkingSpot.isAvailable());
-            ps.setInt(2, parkingSpot.getId());
-            int updateRowCount = ps.executeUpdate();
-            dataBaseConfig.closePreparedStatement(ps);
-            return (updateRowCount == 1);
+            final Connection connection = con;
+            boolean updated = tracked(parkingType, delta, () -> {
+                try (PreparedStatement ps = connection.prepareStatement(DBConstants.UPDATE_PARKING_SPOT)) {
+                    ps.setBoolean(1, parkingSpot.isAvailable());
+                    ps.setInt(2, parkingSpot.getId());
+                    return ps.executeUpdate() == 1;
+                }
+            });
+            ParkingSpotIndex index = parkingSpotIndex;
+            if(updated && index != null){
+                final int parkingNumber = parkingSpot.getId();
+                final boolean available = parkingSpot.isAvailable();
+                UnitOfWork.afterCommit(() -> index.setAvailable(parkingNumber, available));
+            }
+            return updated;
         }catch (Exception ex){
             logger.error("Error updating parking info",ex);
             return false;
@@ -56,4 +317,28 @@ public class ParkingSpotDAO {
         }
     }
 
+    /**
+     * run a spot change, counted in the occupancy tracker when loaded
+     * @param delta 1 when the change takes a spot, -1 when it frees one
+     * @param write the change, returning true if written
+     * @return the result of the change
+     */
+    private boolean tracked(ParkingType parkingType, int delta, Callable<Boolean> write) throws Exception {
+        OccupancyTracker tracker = occupancyTracker;
+        if(tracker == null || parkingType == null){
+            return write.call();
+        }
+        tracker.begin();
+        boolean written = false;
+        try {
+            written = write.call();
+            return written;
+        } finally {
+            if(written){
+                tracker.transition(parkingType, delta);
+            }else{
+                tracker.cancel();
+            }
+        }
+    }
 }
@@ -0,0 +1,171 @@
+package com.parkit.parkingsystem.dao;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * In memory availability of the parking spots, one bitset per parking type.
+ * A set bit means the spot with that number is available. Reads and updates are lock free:
+ * the lowest free spot is found with a word scan and claimed with a compare-and-set on its word.
+ */
+public class ParkingSpotIndex {
+
+    private final AtomicLongArray[] availableByType;
+    private final ParkingType[] typeByNumber;
+    private final int[] capacityByType;
+
+    private ParkingSpotIndex(int maxParkingNumber) {
+        availableByType = new AtomicLongArray[ParkingType.values().length];
+        int words = (maxParkingNumber >>> 6) + 1;
+        for (int i = 0; i < availableByType.length; i++) {
+            availableByType[i] = new AtomicLongArray(words);
+        }
+        typeByNumber = new ParkingType[maxParkingNumber + 1];
+        capacityByType = new int[ParkingType.values().length];
+    }
+
+    /**
+     * lowest available spot number for a parking type, without claiming it
+     * @param parkingType the type of spot requested
+     * @return the spot number or 0 if every spot of this type is taken
+     */
+    public int lowestAvailable(ParkingType parkingType) {
+        AtomicLongArray bits = availableByType[parkingType.ordinal()];
+        for (int w = 0; w < bits.length(); w++) {
+            long word = bits.get(w);
+            if (word != 0) {
+                return (w << 6) + Long.numberOfTrailingZeros(word);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * atomically take the lowest available spot of a parking type
+     * @param parkingType the type of spot requested
+     * @return the claimed spot number or 0 if every spot of this type is taken
+     */
+    public int claimLowest(ParkingType parkingType) {
+        AtomicLongArray bits = availableByType[parkingType.ordinal()];
+        for (int w = 0; w < bits.length(); w++) {
+            long word = bits.get(w);
+            while (word != 0) {
+                long lowestBit = Long.lowestOneBit(word);
+                if (bits.compareAndSet(w, word, word & ~lowestBit)) {
+                    return (w << 6) + Long.numberOfTrailingZeros(lowestBit);
+                }
+                word = bits.get(w);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * record the availability of a spot
+     * @param parkingNumber the spot number
+     * @param available true when the spot is free
+     * @return false if the spot is unknown to the index
+     */
+    public boolean setAvailable(int parkingNumber, boolean available) {
+        ParkingType parkingType = getParkingType(parkingNumber);
+        if (parkingType == null) {
+            return false;
+        }
+        AtomicLongArray bits = availableByType[parkingType.ordinal()];
+        int w = parkingNumber >>> 6;
+        long bit = 1L << parkingNumber;
+        long word;
+        do {
+            word = bits.get(w);
+        } while (!bits.compareAndSet(w, word, available ? word | bit : word & ~bit));
+        return true;
+    }
+
+    public boolean isAvailable(int parkingNumber) {
+        ParkingType parkingType = getParkingType(parkingNumber);
+        return parkingType != null
+                && (availableByType[parkingType.ordinal()].get(parkingNumber >>> 6) & (1L << parkingNumber)) != 0;
+    }
+
+    public ParkingType getParkingType(int parkingNumber) {
+        if (parkingNumber <= 0 || parkingNumber >= typeByNumber.length) {
+            return null;
+        }
+        return typeByNumber[parkingNumber];
+    }
+
+    /**
+     * @param parkingType the type of spot
+     * @return the number of available spots of that type
+     */
+    public int countAvailable(ParkingType parkingType) {
+        AtomicLongArray bits = availableByType[parkingType.ordinal()];
+        int count = 0;
+        for (int w = 0; w < bits.length(); w++) {
+            count += Long.bitCount(bits.get(w));
+        }
+        return count;
+    }
+
+    /**
+     * @param parkingType the type of spot
+     * @return the number of spots of that type, available or not
+     */
+    public int capacity(ParkingType parkingType) {
+        return capacityByType[parkingType.ordinal()];
+    }
+
+    /**
+     * @return the number of spots of every type, available or not
+     */
+    public int capacity() {
+        int capacity = 0;
+        for (int typeCapacity : capacityByType) {
+            capacity += typeCapacity;
+        }
+        return capacity;
+    }
+
+    /**
+     * collects the rows of the parking table before the index is built,
+     * so that the bitsets can be sized once
+     */
+    public static class Builder {
+        private int[] numbers = new int[16];
+        private ParkingType[] types = new ParkingType[16];
+        private boolean[] available = new boolean[16];
+        private int size;
+        private int maxParkingNumber;
+
+        public Builder add(int parkingNumber, ParkingType parkingType, boolean isAvailable) {
+            if (parkingNumber <= 0) {
+                throw new IllegalArgumentException("Invalid parking number :" + parkingNumber);
+            }
+            if (size == numbers.length) {
+                numbers = Arrays.copyOf(numbers, size * 2);
+                types = Arrays.copyOf(types, size * 2);
+                available = Arrays.copyOf(available, size * 2);
+            }
+            numbers[size] = parkingNumber;
+            types[size] = parkingType;
+            available[size] = isAvailable;
+            size++;
+            maxParkingNumber = Math.max(maxParkingNumber, parkingNumber);
+            return this;
+        }
+
+        public ParkingSpotIndex build() {
+            ParkingSpotIndex index = new ParkingSpotIndex(maxParkingNumber);
+            for (int i = 0; i < size; i++) {
+                if (index.typeByNumber[numbers[i]] == null) {
+                    index.capacityByType[types[i].ordinal()]++;
+                }
+                index.typeByNumber[numbers[i]] = types[i];
+                index.setAvailable(numbers[i], available[i]);
+            }
+            return index;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.parkit.parkingsystem.dao;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.model.Occupancy;
+import com.parkit.parkingsystem.model.ParkingSpot;
+
+/**
+ * The parking spots as the parking service needs them, whatever they are stored in:
+ * the database with ParkingSpotDAO, or the embedded log of LogStore.
+ */
+public interface ParkingSpotStore {
+
+    /**
+     * @return the lowest available spot of a type without taking it, 0 if none, -1 on error
+     */
+    int getNextAvailableSlot(ParkingType parkingType);
+
+    /**
+     * atomically take a free spot of a type, given back if the current unit of work rolls back
+     * @return the claimed spot number, 0 if the parking is full for this type, -1 on error
+     */
+    int claimNextAvailableSlot(ParkingType parkingType);
+
+    /**
+     * @return true if the spot exists and its availability has been written
+     */
+    boolean updateParking(ParkingSpot parkingSpot);
+
+    /**
+     * @return the spots and taken spots of each type as stored, null on error
+     */
+    Occupancy countOccupancy();
+
+    /**
+     * @return the live occupancy counts, null if not loaded
+     */
+    OccupancyTracker getOccupancyTracker();
+}
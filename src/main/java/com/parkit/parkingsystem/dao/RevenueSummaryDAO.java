@@ -0,0 +1,119 @@
+package com.parkit.parkingsystem.dao;
+
+import com.parkit.parkingsystem.config.DataBaseConfig;
+import com.parkit.parkingsystem.config.UnitOfWork;
+import com.parkit.parkingsystem.constants.DBConstants;
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.metrics.Metrics;
+import com.parkit.parkingsystem.metrics.OperationMetrics;
+import com.parkit.parkingsystem.model.RevenueSummary;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The revenue_summary table: the exits and revenue per parking type and hour or day, for the reports.
+ */
+public class RevenueSummaryDAO {
+
+    private static final Logger logger = LogManager.getLogger("RevenueSummaryDAO");
+
+    private static final OperationMetrics ADD_TO_SUMMARIES = Metrics.operation("RevenueSummaryDAO.addToSummaries");
+    private static final OperationMetrics GET_SUMMARIES = Metrics.operation("RevenueSummaryDAO.getSummaries");
+
+    public DataBaseConfig dataBaseConfig = new DataBaseConfig();
+
+    /**
+     * add exits and revenue to the summaries, creating the missing ones, in one transaction
+     * @param deltas the amounts to add, each to the summary of its period, start and parking type
+     * @return true if every amount has been added, false if none has
+     */
+    public boolean addToSummaries(Collection<RevenueSummary> deltas){
+        long start = ADD_TO_SUMMARIES.start();
+        return ADD_TO_SUMMARIES.record(start, addAll(deltas));
+    }
+
+    private boolean addAll(Collection<RevenueSummary> deltas){
+        if(deltas.isEmpty()){
+            return true;
+        }
+        try {
+            return UnitOfWork.execute(() -> {
+                Connection con = dataBaseConfig.getConnection();
+                try (PreparedStatement ps = con.prepareStatement(DBConstants.ADD_REVENUE_SUMMARY)) {
+                    for(RevenueSummary delta : deltas){
+                        ps.setString(1, delta.getPeriod().name());
+                        ps.setTimestamp(2, new Timestamp(delta.getPeriodStart().getTime()));
+                        ps.setString(3, delta.getParkingType().name());
+                        ps.setLong(4, delta.getFullPriceExits());
+                        ps.setLong(5, delta.getDiscountedExits());
+                        ps.setLong(6, delta.getFreeExits());
+                        ps.setBigDecimal(7, BigDecimal.valueOf(delta.getRevenue()).setScale(3, RoundingMode.HALF_UP));
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                    return true;
+                } finally {
+                    dataBaseConfig.closeConnection(con);
+                }
+            });
+        }catch (Exception ex){
+            logger.error("Error adding {} revenue summaries", deltas.size(), ex);
+            return false;
+        }
+    }
+
+    /**
+     * read the summaries of a period of time, one row per period start and parking type having exits,
+     * on a replica at most parking.db.replica.reportStalenessMs (60000) behind the primary
+     * @param period hourly or daily summaries
+     * @param from the first period start included
+     * @param to the period start excluded
+     * @return the summaries by period start then parking type, null on error
+     */
+    public List<RevenueSummary> getSummaries(RevenueSummary.Period period, Date from, Date to){
+        return getSummaries(period, from, to, Long.getLong("parking.db.replica.reportStalenessMs", 60_000L));
+    }
+
+    /**
+     * @param maxStalenessMillis how far behind the primary the replica read may be, 0 to read the primary
+     * @see #getSummaries(RevenueSummary.Period, Date, Date)
+     */
+    public List<RevenueSummary> getSummaries(RevenueSummary.Period period, Date from, Date to, long maxStalenessMillis){
+        long start = GET_SUMMARIES.start();
+        Connection con = null;
+        List<RevenueSummary> summaries = null;
+        try {
+            con = dataBaseConfig.getReadConnection(maxStalenessMillis);
+            try (PreparedStatement ps = con.prepareStatement(DBConstants.GET_REVENUE_SUMMARIES)) {
+                ps.setString(1, period.name());
+                ps.setTimestamp(2, new Timestamp(from.getTime()));
+                ps.setTimestamp(3, new Timestamp(to.getTime()));
+                try (ResultSet rs = ps.executeQuery()) {
+                    List<RevenueSummary> rows = new ArrayList<>();
+                    while(rs.next()){
+                        rows.add(new RevenueSummary(period, new Date(rs.getTimestamp(1).getTime()), ParkingType.valueOf(rs.getString(2)),
+                                rs.getLong(3), rs.getLong(4), rs.getLong(5), rs.getBigDecimal(6).doubleValue()));
+                    }
+                    summaries = rows;
+                }
+            }
+        }catch (Exception ex){
+            logger.error("Error reading revenue summaries",ex);
+        }finally {
+            dataBaseConfig.closeConnection(con);
+        }
+        GET_SUMMARIES.record(start, summaries != null);
+        return summaries;
+    }
+}
@@ -0,0 +1,135 @@
+package com.parkit.parkingsystem.dao;
+
+import com.parkit.parkingsystem.config.DataBaseConfig;
+import com.parkit.parkingsystem.config.UnitOfWork;
+import com.parkit.parkingsystem.constants.DBConstants;
+import com.parkit.parkingsystem.metrics.Metrics;
+import com.parkit.parkingsystem.metrics.OperationMetrics;
+import com.parkit.parkingsystem.util.BloomFilter;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The cold side of the tickets: closed tickets past a given age are moved from ticket to ticket_archive,
+ * so that ticket only holds the open and recent ones the gates work on.
+ * The history of a vehicle, needed by the discount checks, is read from both tables.
+ */
+public class TicketArchiveDAO {
+
+    private static final Logger logger = LogManager.getLogger("TicketArchiveDAO");
+
+    private static final OperationMetrics ARCHIVE_CLOSED_TICKETS = Metrics.operation("TicketArchiveDAO.archiveClosedTickets");
+
+    public DataBaseConfig dataBaseConfig = new DataBaseConfig();
+
+    /**
+     * move one batch of closed tickets out of ticket, in one transaction: the tickets are copied to ticket_archive
+     * and deleted from ticket together, so that a ticket is always in exactly one of the two tables.
+     * The ticket with the highest id is never moved, MySQL deriving the next id from it after a restart.
+     * @param before tickets closed before this time are archived
+     * @param batchSize the maximum number of tickets moved
+     * @return the number of tickets moved, -1 on error
+     */
+    public int archiveClosedTickets(Date before, int batchSize){
+        long start = ARCHIVE_CLOSED_TICKETS.start();
+        try {
+            int moved = UnitOfWork.execute(() -> moveBatch(before, batchSize));
+            ARCHIVE_CLOSED_TICKETS.success(start);
+            return moved;
+        }catch (Exception ex){
+            logger.error("Error archiving closed tickets",ex);
+            ARCHIVE_CLOSED_TICKETS.failure(start);
+            return -1;
+        }
+    }
+
+    private int moveBatch(Date before, int batchSize) throws Exception {
+        Connection con = dataBaseConfig.getConnection();
+        try {
+            int maxId;
+            try (PreparedStatement ps = con.prepareStatement(DBConstants.GET_MAX_TICKET_ID);
+                 ResultSet rs = ps.executeQuery()) {
+                maxId = rs.next() ? rs.getInt(1) : 0;
+            }
+            List<Integer> ids = new ArrayList<>(batchSize);
+            try (PreparedStatement ps = con.prepareStatement(DBConstants.GET_TICKETS_TO_ARCHIVE)) {
+                ps.setTimestamp(1, new Timestamp(before.getTime()));
+                ps.setInt(2, maxId);
+                ps.setInt(3, batchSize);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while(rs.next()){
+                        ids.add(rs.getInt(1));
+                    }
+                }
+            }
+            if(ids.isEmpty()){
+                return 0;
+            }
+            executeBatch(con, DBConstants.ARCHIVE_TICKET, ids);
+            int[] deleted = executeBatch(con, DBConstants.DELETE_ARCHIVED_TICKET, ids);
+            int moved = 0;
+            for(int updateRowCount : deleted){
+                if(updateRowCount == 1 || updateRowCount == Statement.SUCCESS_NO_INFO){
+                    moved++;
+                }
+            }
+            return moved;
+        } finally {
+            dataBaseConfig.closeConnection(con);
+        }
+    }
+
+    private static int[] executeBatch(Connection con, String sql, List<Integer> ids) throws SQLException {
+        try (PreparedStatement ps = con.prepareStatement(sql)) {
+            for(int id : ids){
+                ps.setInt(1, id);
+                ps.addBatch();
+            }
+            return ps.executeBatch();
+        }
+    }
+
+    /**
+     * tell if a vehicle has an archived ticket. Checked after the hot table: a ticket moved in between
+     * is committed to the archive before it leaves ticket, so it is seen by one of the two reads.
+     */
+    static boolean hasArchivedVisit(Connection con, String vehicleRegNumber) throws SQLException {
+        try (PreparedStatement ps = con.prepareStatement(DBConstants.HAS_ARCHIVED_VISIT)) {
+            ps.setString(1, vehicleRegNumber);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() && rs.getBoolean(1);
+            }
+        }
+    }
+
+    static long countArchivedVehicles(Connection con) throws SQLException {
+        try (PreparedStatement ps = con.prepareStatement(DBConstants.COUNT_ARCHIVED_VEHICLES);
+             ResultSet rs = ps.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    /**
+     * stream the vehicles of the archived tickets into a Bloom filter
+     */
+    static void addArchivedVehicles(Connection con, BloomFilter visited, int fetchSize) throws SQLException {
+        try (PreparedStatement ps = con.prepareStatement(DBConstants.GET_ARCHIVED_VEHICLES, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            ps.setFetchSize(fetchSize);
+            try (ResultSet rs = ps.executeQuery()) {
+                while(rs.next()){
+                    visited.add(rs.getString(1));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.parkit.parkingsystem.dao;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background archival of the closed tickets: every period, the tickets closed for longer than the retention
+ * are moved to the archive in small batches, one transaction each, with a pause between batches
+ * so that the gates are never kept waiting behind a long delete.
+ */
+public class TicketArchiver implements Closeable {
+
+    private static final Logger logger = LogManager.getLogger("TicketArchiver");
+
+    private final TicketArchiveDAO ticketArchiveDAO;
+    private final long retentionMillis;
+    private final int batchSize;
+    private final long pauseMillis;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param retentionMillis how long a closed ticket stays in the ticket table
+     * @param batchSize the number of tickets moved per transaction
+     * @param pauseMillis the pause between two batches
+     */
+    public TicketArchiver(TicketArchiveDAO ticketArchiveDAO, long retentionMillis, int batchSize, long pauseMillis) {
+        this.ticketArchiveDAO = ticketArchiveDAO;
+        this.retentionMillis = retentionMillis;
+        this.batchSize = batchSize;
+        this.pauseMillis = pauseMillis;
+    }
+
+    /**
+     * run the archival now and then every period
+     */
+    public synchronized void start(long periodMillis) {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ticket-archiver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                runOnce();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                logger.error("Ticket archival failed", e);
+            }
+        }, 0, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * archive the tickets closed before now minus the retention, batch after batch until none is left
+     * @return the number of tickets archived
+     */
+    public int runOnce() throws InterruptedException {
+        Date before = new Date(System.currentTimeMillis() - retentionMillis);
+        int total = 0;
+        int moved;
+        while((moved = ticketArchiveDAO.archiveClosedTickets(before, batchSize)) > 0){
+            total += moved;
+            if(moved < batchSize){
+                break;
+            }
+            Thread.sleep(pauseMillis);
+        }
+        if(total > 0){
+            logger.info("Archived {} tickets closed before {}", total, before);
+        }
+        return total;
+    }
+
+    @Override
+    public synchronized void close() {
+        if(scheduler != null){
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+}
@@ -1,84 +1,410 @@
 package com.parkit.parkingsystem.dao;
 
 import com.parkit.parkingsystem.config.DataBaseConfig;
+import com.parkit.parkingsystem.config.UnitOfWork;
 import com.parkit.parkingsystem.constants.DBConstants;
 import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.metrics.Metrics;
+import com.parkit.parkingsystem.metrics.OperationMetrics;
 import com.parkit.parkingsystem.model.ParkingSpot;
 import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.util.BloomFilter;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.Iterator;
 
-public class TicketDAO {
+public class TicketDAO implements TicketStore {
 
     private static final Logger logger = LogManager.getLogger("TicketDAO");
 
+    private static final OperationMetrics LOAD_OPEN_TICKET_INDEX = Metrics.operation("TicketDAO.loadOpenTicketIndex");
+    private static final OperationMetrics LOAD_VISITED_VEHICLES = Metrics.operation("TicketDAO.loadVisitedVehicles");
+    private static final OperationMetrics HAS_VISITED_BEFORE = Metrics.operation("TicketDAO.hasVisitedBefore");
+    private static final OperationMetrics SAVE_TICKET = Metrics.operation("TicketDAO.saveTicket");
+    private static final OperationMetrics SAVE_TICKETS = Metrics.operation("TicketDAO.saveTickets");
+    private static final OperationMetrics GET_TICKET = Metrics.operation("TicketDAO.getTicket");
+    private static final OperationMetrics UPDATE_TICKET = Metrics.operation("TicketDAO.updateTicket");
+    private static final OperationMetrics GET_NB_TICKET = Metrics.operation("TicketDAO.getNbTicket");
+
     public DataBaseConfig dataBaseConfig = new DataBaseConfig();
 
+    private volatile WriteBehindQueue writeBehindQueue;
+
+    private volatile OpenTicketIndex openTicketIndex;
+
+    private volatile BloomFilter visitedVehicles;
+
+    /**
+     * load the tickets of the vehicles currently parked into memory, with one query.
+     * Once loaded, getTicket answers them without a DB read, saveTicket adds new open tickets
+     * and updateTicket removes them when closed.
+     * @param capacity the number of spots of the parking, bound of the index
+     * @return true if the index has been loaded
+     */
+    public boolean loadOpenTicketIndex(int capacity){
+        long start = LOAD_OPEN_TICKET_INDEX.start();
+        return LOAD_OPEN_TICKET_INDEX.record(start, loadOpenTickets(capacity));
+    }
+
+    private boolean loadOpenTickets(int capacity){
+        Connection con = null;
+        try {
+            awaitWriteBehind();
+            con = dataBaseConfig.getConnection();
+            OpenTicketIndex index = new OpenTicketIndex(capacity);
+            try (PreparedStatement ps = con.prepareStatement(DBConstants.GET_OPEN_TICKETS);
+                 ResultSet rs = ps.executeQuery()) {
+                while(rs.next()){
+                    Ticket ticket = new Ticket();
+                    ticket.setParkingSpot(new ParkingSpot(rs.getInt(1), ParkingType.valueOf(rs.getString(6)),false));
+                    ticket.setId(rs.getInt(2));
+                    ticket.setPrice(rs.getDouble(3));
+                    ticket.setInTime(rs.getTimestamp(4));
+                    ticket.setVehicleRegNumber(rs.getString(5));
+                    if(!index.put(ticket)){
+                        logger.warn("More open tickets than parking spots, {} is not cached", ticket.getVehicleRegNumber());
+                    }
+                }
+            }
+            openTicketIndex = index;
+            return true;
+        }catch (Exception ex){
+            logger.error("Error loading open tickets",ex);
+            return false;
+        }finally {
+            dataBaseConfig.closeConnection(con);
+        }
+    }
+
+    public OpenTicketIndex getOpenTicketIndex(){
+        return openTicketIndex;
+    }
+
+    public BloomFilter getVisitedVehicles(){
+        return visitedVehicles;
+    }
+
+    /**
+     * stream the vehicles having at least one closed ticket, archived or not, into a Bloom filter, so that hasVisitedBefore
+     * answers most first-time vehicles without a DB read. The filter is then updated by every closed ticket written.
+     * @return true if the filter has been loaded
+     */
+    public boolean loadVisitedVehicles(){
+        long start = LOAD_VISITED_VEHICLES.start();
+        return LOAD_VISITED_VEHICLES.record(start, loadVisited());
+    }
+
+    private boolean loadVisited(){
+        Connection con = null;
+        try {
+            awaitWriteBehind();
+            con = dataBaseConfig.getConnection();
+            long vehicles;
+            try (PreparedStatement count = con.prepareStatement(DBConstants.COUNT_VISITED_VEHICLES);
+                 ResultSet countRs = count.executeQuery()) {
+                vehicles = countRs.next() ? countRs.getLong(1) : 0;
+            }
+            vehicles += TicketArchiveDAO.countArchivedVehicles(con);
+            //room for the vehicles to come before the false positive rate degrades
+            BloomFilter visited = new BloomFilter(Math.max(vehicles * 2, Long.getLong("parking.visits.expectedVehicles", 100_000L)),
+                    Double.parseDouble(System.getProperty("parking.visits.falsePositiveRate", "0.01")));
+            try (PreparedStatement ps = con.prepareStatement(DBConstants.GET_VISITED_VEHICLES, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                ps.setFetchSize(dataBaseConfig.getStreamingFetchSize());
+                try (ResultSet rs = ps.executeQuery()) {
+                    while(rs.next()){
+                        visited.add(rs.getString(1));
+                    }
+                }
+            }
+            //after the hot table, so that a ticket archived meanwhile is read from one or the other
+            TicketArchiveDAO.addArchivedVehicles(con, visited, dataBaseConfig.getStreamingFetchSize());
+            visitedVehicles = visited;
+            return true;
+        }catch (Exception ex){
+            logger.error("Error loading visited vehicles",ex);
+            return false;
+        }finally {
+            dataBaseConfig.closeConnection(con);
+        }
+    }
+
+    /**
+     * tell if a vehicle has already completed a visit, its current open ticket aside.
+     * Vehicles absent from the Bloom filter, when loaded, are answered without a DB read;
+     * the others are checked with an exact indexed EXISTS query, on the archived tickets too if none is in ticket,
+     * on a replica at most parking.db.replica.maxStalenessMs (1000) behind unless the current unit of work wrote already.
+     * @param vehicleRegNumber the vehicle
+     * @return true if the vehicle has at least one closed ticket
+     */
+    public boolean hasVisitedBefore(String vehicleRegNumber){
+        return hasVisitedBefore(vehicleRegNumber, Long.getLong("parking.db.replica.maxStalenessMs", 1_000L));
+    }
+
+    /**
+     * @param maxStalenessMillis how far behind the primary the replica read may be, 0 to read the primary
+     * @see #hasVisitedBefore(String)
+     */
+    public boolean hasVisitedBefore(String vehicleRegNumber, long maxStalenessMillis){
+        long start = HAS_VISITED_BEFORE.start();
+        BloomFilter visited = visitedVehicles;
+        if(visited != null && !visited.mightContain(vehicleRegNumber)){
+            HAS_VISITED_BEFORE.success(start);
+            return false;
+        }
+        Connection con = null;
+        try {
+            awaitWriteBehind(vehicleRegNumber);
+            con = getReadConnection(maxStalenessMillis);
+            boolean result;
+            try (PreparedStatement ps = con.prepareStatement(DBConstants.HAS_VISITED)) {
+                ps.setString(1, vehicleRegNumber);
+                try (ResultSet rs = ps.executeQuery()) {
+                    result = rs.next() && rs.getBoolean(1);
+                }
+            }
+            if(!result){
+                result = TicketArchiveDAO.hasArchivedVisit(con, vehicleRegNumber);
+            }
+            HAS_VISITED_BEFORE.success(start);
+            return result;
+        }catch (Exception ex){
+            logger.error("Error checking previous visits of vehicle",ex);
+            HAS_VISITED_BEFORE.failure(start);
+            return false;
+        }finally {
+            dataBaseConfig.closeConnection(con);
+        }
+    }
+
+    /**
+     * write tickets through a write-behind queue instead of directly: saves and updates return once journaled,
+     * reads of a vehicle wait for its queued changes to reach the database
+     * @param writeBehindQueue the started queue, null to write directly again
+     */
+    public void setWriteBehindQueue(WriteBehindQueue writeBehindQueue){
+        this.writeBehindQueue = writeBehindQueue;
+    }
+
     public boolean saveTicket(Ticket ticket){
+        long start = SAVE_TICKET.start();
+        return SAVE_TICKET.record(start, insertTicket(ticket));
+    }
+
+    private boolean insertTicket(Ticket ticket){
+        WriteBehindQueue queue = writeBehindQueue;
+        if(queue != null){
+            try {
+                queue.saveTicket(ticket);
+                trackTicket(ticket);
+                return true;
+            } catch (Exception ex) {
+                logger.error("Error queuing ticket",ex);
+                return false;
+            }
+        }
+        if(!UnitOfWork.isActive() && UnitOfWork.getGroupCommit() != null){
+            //let concurrent callers share one commit
+            try {
+                return UnitOfWork.execute(() -> insertTicket(ticket));
+            } catch (Exception ex) {
+                logger.error("Error saving ticket",ex);
+                return false;
+            }
+        }
         Connection con = null;
         try {
             con = dataBaseConfig.getConnection();
-            PreparedStatement ps = con.prepareStatement(DBConstants.SAVE_TICKET);
-            //ID, PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME)
-            //ps.setInt(1,ticket.getId());
-            ps.setInt(1,ticket.getParkingSpot().getId());
-            ps.setString(2, ticket.getVehicleRegNumber());
-            ps.setDouble(3, ticket.getPrice());
-            ps.setTimestamp(4, new Timestamp(ticket.getInTime().getTime()));
-            ps.setTimestamp(5, (ticket.getOutTime() == null)?null: (new Timestamp(ticket.getOutTime().getTime())) );
-            return ps.execute();
+            int updateRowCount;
+            try (PreparedStatement ps = con.prepareStatement(DBConstants.SAVE_TICKET, Statement.RETURN_GENERATED_KEYS)) {
+                bindTicket(ps, ticket);
+                updateRowCount = ps.executeUpdate();
+                try (ResultSet keys = ps.getGeneratedKeys()) {
+                    if(keys.next()){
+                        ticket.setId(keys.getInt(1));
+                    }
+                }
+            }
+            if(updateRowCount == 1){
+                trackTicket(ticket);
+            }
+            return (updateRowCount == 1);
         }catch (Exception ex){
-            logger.error("Error fetching next available slot",ex);
+            logger.error("Error saving ticket",ex);
+            return false;
         }finally {
             dataBaseConfig.closeConnection(con);
+        }
+    }
+
+    /**
+     * save several tickets with one batched insert in one transaction
+     * @param tickets the tickets to insert, their id is set once saved
+     * @return true if every ticket has been saved, false if none has
+     */
+    public boolean saveTickets(Collection<Ticket> tickets){
+        long start = SAVE_TICKETS.start();
+        return SAVE_TICKETS.record(start, insertTickets(tickets));
+    }
+
+    private boolean insertTickets(Collection<Ticket> tickets){
+        if(tickets.isEmpty()){
+            return true;
+        }
+        WriteBehindQueue queue = writeBehindQueue;
+        if(queue != null){
+            try {
+                queue.saveTickets(tickets);
+                tickets.forEach(this::trackTicket);
+                return true;
+            } catch (Exception ex) {
+                logger.error("Error queuing {} tickets", tickets.size(), ex);
+                return false;
+            }
+        }
+        try {
+            return UnitOfWork.execute(() -> {
+                Connection con = dataBaseConfig.getConnection();
+                try (PreparedStatement ps = con.prepareStatement(DBConstants.SAVE_TICKET, Statement.RETURN_GENERATED_KEYS)) {
+                    for(Ticket ticket : tickets){
+                        bindTicket(ps, ticket);
+                        ps.addBatch();
+                    }
+                    int[] updateRowCounts = ps.executeBatch();
+                    for(int updateRowCount : updateRowCounts){
+                        if(updateRowCount != 1 && updateRowCount != Statement.SUCCESS_NO_INFO){
+                            throw new SQLException("Ticket not inserted, batch rolled back");
+                        }
+                    }
+                    try (ResultSet keys = ps.getGeneratedKeys()) {
+                        Iterator<Ticket> saved = tickets.iterator();
+                        while(keys.next() && saved.hasNext()){
+                            saved.next().setId(keys.getInt(1));
+                        }
+                    }
+                    tickets.forEach(this::trackTicket);
+                    return true;
+                } finally {
+                    dataBaseConfig.closeConnection(con);
+                }
+            });
+        }catch (Exception ex){
+            logger.error("Error saving {} tickets", tickets.size(), ex);
             return false;
         }
     }
 
+    /**
+     * keep the in-memory indexes in line with a ticket once written: an open ticket is cached,
+     * a closed ticket leaves the cache and makes its vehicle a returning one
+     */
+    private void trackTicket(Ticket ticket){
+        OpenTicketIndex index = openTicketIndex;
+        BloomFilter visited = visitedVehicles;
+        final String vehicleRegNumber = ticket.getVehicleRegNumber();
+        if(ticket.getOutTime() == null){
+            if(index != null){
+                UnitOfWork.afterCommit(() -> index.put(ticket));
+            }
+        }else{
+            if(index != null){
+                UnitOfWork.afterCommit(() -> index.remove(vehicleRegNumber));
+            }
+            if(visited != null){
+                UnitOfWork.afterCommit(() -> visited.add(vehicleRegNumber));
+            }
+        }
+    }
+
+    private void bindTicket(PreparedStatement ps, Ticket ticket) throws SQLException {
+        //ID, PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME)
+        ps.setInt(1,ticket.getParkingSpot().getId());
+        ps.setString(2, ticket.getVehicleRegNumber());
+        ps.setDouble(3, ticket.getPrice());
+        ps.setTimestamp(4, new Timestamp(ticket.getInTime().getTime()));
+        ps.setTimestamp(5, (ticket.getOutTime() == null)?null: (new Timestamp(ticket.getOutTime().getTime())) );
+    }
+
     public Ticket getTicket(String vehicleRegNumber) {
+        long start = GET_TICKET.start();
+        OpenTicketIndex index = openTicketIndex;
+        if(index != null){
+            Ticket cached = index.get(vehicleRegNumber);
+            if(cached != null){
+                GET_TICKET.success(start);
+                return cached;
+            }
+        }
         Connection con = null;
         Ticket ticket = null;
+        boolean failed = false;
         try {
+            awaitWriteBehind(vehicleRegNumber);
             con = dataBaseConfig.getConnection();
-            PreparedStatement ps = con.prepareStatement(DBConstants.GET_TICKET);
-            //ID, PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME)
-            ps.setString(1,vehicleRegNumber);
-            ResultSet rs = ps.executeQuery();
-            if(rs.next()){
-                ticket = new Ticket();
-                ParkingSpot parkingSpot = new ParkingSpot(rs.getInt(1), ParkingType.valueOf(rs.getString(6)),false);
-                ticket.setParkingSpot(parkingSpot);
-                ticket.setId(rs.getInt(2));
-                ticket.setVehicleRegNumber(vehicleRegNumber);
-                ticket.setPrice(rs.getDouble(3));
-                ticket.setInTime(rs.getTimestamp(4));
-                ticket.setOutTime(rs.getTimestamp(5));
-            }
-            dataBaseConfig.closeResultSet(rs);
-            dataBaseConfig.closePreparedStatement(ps);
+            try (PreparedStatement ps = con.prepareStatement(DBConstants.GET_TICKET)) {
+                //ID, PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME)
+                ps.setString(1,vehicleRegNumber);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if(rs.next()){
+                        ticket = new Ticket();
+                        ParkingSpot parkingSpot = new ParkingSpot(rs.getInt(1), ParkingType.valueOf(rs.getString(6)),false);
+                        ticket.setParkingSpot(parkingSpot);
+                        ticket.setId(rs.getInt(2));
+                        ticket.setVehicleRegNumber(vehicleRegNumber);
+                        ticket.setPrice(rs.getDouble(3));
+                        ticket.setInTime(rs.getTimestamp(4));
+                        ticket.setOutTime(rs.getTimestamp(5));
+                    }
+                }
+            }
         }catch (Exception ex){
-            logger.error("Error fetching next available slot",ex);
+            logger.error("Error fetching ticket",ex);
+            failed = true;
         }finally {
             dataBaseConfig.closeConnection(con);
-            return ticket;
         }
+        GET_TICKET.record(start, !failed);
+        return ticket;
     }
 
     public boolean updateTicket(Ticket ticket) {
+        long start = UPDATE_TICKET.start();
+        return UPDATE_TICKET.record(start, writeTicketUpdate(ticket));
+    }
+
+    private boolean writeTicketUpdate(Ticket ticket) {
+        WriteBehindQueue queue = writeBehindQueue;
+        if(queue != null){
+            try {
+                queue.updateTicket(ticket);
+                trackTicket(ticket);
+                return true;
+            } catch (Exception ex) {
+                logger.error("Error queuing ticket info",ex);
+                return false;
+            }
+        }
         Connection con = null;
         try {
             con = dataBaseConfig.getConnection();
-            PreparedStatement ps = con.prepareStatement(DBConstants.UPDATE_TICKET);
-            ps.setDouble(1, ticket.getPrice());
-            ps.setTimestamp(2, new Timestamp(ticket.getOutTime().getTime()));
-            ps.setInt(3,ticket.getId());
-            ps.execute();
-            return true;
+            int updateRowCount;
+            try (PreparedStatement ps = con.prepareStatement(DBConstants.UPDATE_TICKET)) {
+                ps.setDouble(1, ticket.getPrice());
+                ps.setTimestamp(2, new Timestamp(ticket.getOutTime().getTime()));
+                ps.setInt(3,ticket.getId());
+                updateRowCount = ps.executeUpdate();
+            }
+            if(updateRowCount == 1){
+                trackTicket(ticket);
+            }
+            return (updateRowCount == 1);
         }catch (Exception ex){
             logger.error("Error saving ticket info",ex);
         }finally {
@@ -86,23 +412,74 @@ public class TicketDAO {
         }
         return false;
     }
+
+    /**
+     * count the tickets of a vehicle, archived ones included, with one statement
+     * so that a ticket being archived is counted once,
+     * on a replica at most parking.db.replica.maxStalenessMs (1000) behind unless the current unit of work wrote already
+     * @param vehicleRegNumber the vehicle
+     * @return the number of tickets, 0 on error
+     */
     public int getNbTicket(String vehicleRegNumber) {
+        return getNbTicket(vehicleRegNumber, Long.getLong("parking.db.replica.maxStalenessMs", 1_000L));
+    }
+
+    /**
+     * @param maxStalenessMillis how far behind the primary the replica read may be, 0 to read the primary
+     * @see #getNbTicket(String)
+     */
+    public int getNbTicket(String vehicleRegNumber, long maxStalenessMillis) {
+        long start = GET_NB_TICKET.start();
         Connection con = null;
         int counter = 0;
+        boolean failed = false;
         try {
-            con = dataBaseConfig.getConnection();
-            PreparedStatement ps = con.prepareStatement(DBConstants.COUNT_TICKET_PER_VEHICLE_REG_NUMBER);
-            ps.setString(1, vehicleRegNumber);
-            ResultSet rs = ps.executeQuery();
-
-            if (rs.next()) {
-                counter = rs.getInt(1);
+            awaitWriteBehind(vehicleRegNumber);
+            con = getReadConnection(maxStalenessMillis);
+            try (PreparedStatement ps = con.prepareStatement(DBConstants.COUNT_TICKET_HISTORY_PER_VEHICLE_REG_NUMBER)) {
+                ps.setString(1, vehicleRegNumber);
+                ps.setString(2, vehicleRegNumber);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (rs.next()) {
+                        counter = rs.getInt(1);
+                    }
+                }
             }
         }catch (Exception ex){
             logger.error("Error counting ticket per vehicle registration number",ex);
+            failed = true;
         }finally {
             dataBaseConfig.closeConnection(con);
         }
+        GET_NB_TICKET.record(start, !failed);
         return counter;
     }
+
+    /**
+     * a connection for reading the history of a vehicle. With write-behind, the changes awaited have only reached
+     * the primary, which is then read
+     */
+    private Connection getReadConnection(long maxStalenessMillis) throws Exception {
+        return dataBaseConfig.getReadConnection(writeBehindQueue == null ? maxStalenessMillis : 0);
+    }
+
+    /**
+     * @throws IllegalStateException if the queued changes are not in the database after the timeout, a read would miss them
+     */
+    private void awaitWriteBehind() throws InterruptedException {
+        WriteBehindQueue queue = writeBehindQueue;
+        if(queue != null && !queue.flush(Long.getLong("parking.writeBehind.drainTimeoutMs", 30_000L))){
+            throw new IllegalStateException("Queued changes not written to the database yet");
+        }
+    }
+
+    /**
+     * @throws IllegalStateException if the queued changes of the vehicle are not in the database after the timeout
+     */
+    private void awaitWriteBehind(String vehicleRegNumber) throws InterruptedException {
+        WriteBehindQueue queue = writeBehindQueue;
+        if(queue != null && !queue.awaitApplied(vehicleRegNumber)){
+            throw new IllegalStateException("Queued changes of vehicle " + vehicleRegNumber + " not written to the database yet");
+        }
+    }
 }
@@ -0,0 +1,38 @@
+package com.parkit.parkingsystem.dao;
+
+import com.parkit.parkingsystem.model.Ticket;
+
+/**
+ * The tickets as the parking service needs them, whatever they are stored in:
+ * the database with TicketDAO, or the embedded log of LogStore.
+ * Writes made inside a unit of work are kept only if it commits.
+ */
+public interface TicketStore {
+
+    /**
+     * @param ticket the ticket of a vehicle entering, its id is set once saved
+     * @return true if saved
+     */
+    boolean saveTicket(Ticket ticket);
+
+    /**
+     * @return the latest ticket of a vehicle, open or not, null if it has none
+     */
+    Ticket getTicket(String vehicleRegNumber);
+
+    /**
+     * write the price and out time of a ticket
+     * @return true if the ticket exists and has been updated
+     */
+    boolean updateTicket(Ticket ticket);
+
+    /**
+     * @return the number of tickets of a vehicle, open or closed
+     */
+    int getNbTicket(String vehicleRegNumber);
+
+    /**
+     * @return true if the vehicle has at least one closed ticket
+     */
+    boolean hasVisitedBefore(String vehicleRegNumber);
+}
@@ -0,0 +1,359 @@
+package com.parkit.parkingsystem.dao;
+
+import com.parkit.parkingsystem.config.DataBaseConfig;
+import com.parkit.parkingsystem.constants.DBConstants;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.util.JournalFile;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind persistence of ticket and spot changes.
+ * A change is appended to a local journal, forced to disk and queued; the caller is acknowledged right away
+ * and a background writer applies the queue to the database in ordered batches, one commit per batch.
+ * The queue is bounded: when it is full callers wait, and fail after a timeout, until the writer catches up.
+ * Records not yet applied when the process stops are replayed from the journal on the next start.
+ * The changes made inside a unit of work are journaled together, as one record, just before it commits.
+ */
+public class WriteBehindQueue implements Closeable {
+
+    private static final Logger logger = LogManager.getLogger("WriteBehindQueue");
+
+    private final DataBaseConfig dataBaseConfig;
+    private final JournalFile journal;
+    private final int capacity;
+    private final int batchSize;
+    private final long offerTimeoutMillis;
+
+    private final Semaphore room;
+    private final BlockingQueue<Record> queue = new LinkedBlockingQueue<>();
+    private final Object appendLock = new Object();
+    private final Object appliedLock = new Object();
+    private final ConcurrentMap<String, Long> pendingByVehicle = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, JournalMutation> pendingSpots = new ConcurrentHashMap<>();
+
+    private long appliedSeq;
+    private Thread writer;
+    private volatile boolean closing;
+
+    private static class Record {
+        private final long seq;
+        private final List<JournalMutation> mutations;
+        private final int permits;
+
+        private Record(long seq, List<JournalMutation> mutations, int permits) {
+            this.seq = seq;
+            this.mutations = mutations;
+            this.permits = permits;
+        }
+    }
+
+    /**
+     * @param dataBaseConfig the database the changes are written to
+     * @param journalPath the local journal file
+     * @param capacity maximum number of changes waiting for the writer
+     * @param batchSize maximum number of journal records applied per commit
+     * @param offerTimeoutMillis how long a caller waits for room in a full queue before failing
+     */
+    public WriteBehindQueue(DataBaseConfig dataBaseConfig, Path journalPath, int capacity, int batchSize, long offerTimeoutMillis) throws IOException {
+        this.dataBaseConfig = dataBaseConfig;
+        this.journal = new JournalFile(journalPath);
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.offerTimeoutMillis = offerTimeoutMillis;
+        this.room = new Semaphore(capacity);
+        this.appliedSeq = journal.getCheckpoint();
+    }
+
+    /**
+     * queue the changes left in the journal by a previous run, then start the background writer
+     */
+    public void start() throws IOException {
+        journal.replay((seq, payload) -> {
+            List<JournalMutation> mutations = JournalMutation.decode(payload);
+            // replayed records never wait for room, they were accepted before the restart
+            int permits = Math.min(mutations.size(), room.availablePermits());
+            room.acquireUninterruptibly(permits);
+            enqueue(new Record(seq, mutations, permits));
+        });
+        if (!queue.isEmpty()) {
+            logger.info("Replaying {} journal records not yet written to the database", queue.size());
+        }
+        writer = new Thread(this::writeLoop, "write-behind");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public void saveTicket(Ticket ticket) throws Exception {
+        // DATETIME keeps whole seconds, the in time is also the key of the later update
+        ticket.setInTime(new Date(ticket.getInTime().getTime() / 1000 * 1000));
+        add(Collections.singletonList(JournalMutation.saveTicket(ticket)));
+    }
+
+    public void saveTickets(Collection<Ticket> tickets) throws Exception {
+        List<JournalMutation> mutations = new ArrayList<>(tickets.size());
+        for (Ticket ticket : tickets) {
+            ticket.setInTime(new Date(ticket.getInTime().getTime() / 1000 * 1000));
+            mutations.add(JournalMutation.saveTicket(ticket));
+        }
+        add(mutations);
+    }
+
+    public void updateTicket(Ticket ticket) throws Exception {
+        add(Collections.singletonList(JournalMutation.closeTicket(ticket)));
+    }
+
+    public void updateParking(int parkingNumber, boolean available) throws Exception {
+        add(Collections.singletonList(JournalMutation.updateParking(parkingNumber, available)));
+    }
+
+    /**
+     * wait until the queued changes of a vehicle are in the database, so that a read sees them
+     * @param vehicleRegNumber the vehicle about to be read
+     * @return false if some of its changes are still queued after parking.writeBehind.offerTimeoutMs
+     */
+    public boolean awaitApplied(String vehicleRegNumber) throws InterruptedException {
+        Long seq = pendingByVehicle.get(vehicleRegNumber);
+        return seq == null || awaitApplied(seq, offerTimeoutMillis);
+    }
+
+    /**
+     * wait until every change acknowledged so far is in the database
+     * @param timeoutMillis maximum wait
+     * @return false if some changes are still queued after the timeout
+     */
+    public boolean flush(long timeoutMillis) throws InterruptedException {
+        long seq;
+        synchronized (appendLock) {
+            seq = journal.getLastSeq();
+        }
+        return awaitApplied(seq, timeoutMillis);
+    }
+
+    /**
+     * the spot changes still queued, which the parking table does not show yet
+     * @return the last queued availability of each of these spots
+     */
+    public Map<Integer, Boolean> getPendingSpots() {
+        Map<Integer, Boolean> spots = new HashMap<>();
+        for (JournalMutation mutation : pendingSpots.values()) {
+            spots.put(mutation.parkingNumber, mutation.available);
+        }
+        return spots;
+    }
+
+    /**
+     * @return the number of journal records waiting for the writer
+     */
+    public int getPendingCount() {
+        return queue.size();
+    }
+
+    /**
+     * stop accepting changes, write the queue to the database and stop the writer.
+     * If the database cannot be reached before the drain timeout, what is left stays in the journal for the next start.
+     */
+    @Override
+    public void close() throws IOException {
+        closing = true;
+        if (writer != null) {
+            try {
+                writer.join(Long.getLong("parking.writeBehind.drainTimeoutMs", 30_000L));
+                if (writer.isAlive()) {
+                    logger.warn("{} journal records could not be written before shutdown, they will be replayed on next start", queue.size());
+                    writer.interrupt();
+                    writer.join();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        journal.close();
+    }
+
+    private void add(List<JournalMutation> mutations) throws Exception {
+        JournalMutation.stage(this, mutations, this::submit);
+    }
+
+    private void submit(List<JournalMutation> mutations) throws IOException, InterruptedException {
+        if (closing) {
+            throw new IllegalStateException("Write-behind queue is shut down");
+        }
+        int permits = Math.min(mutations.size(), capacity);
+        if (!room.tryAcquire(permits, offerTimeoutMillis, TimeUnit.MILLISECONDS)) {
+            throw new IllegalStateException("Write-behind queue full, database writes are lagging");
+        }
+        long seq;
+        try {
+            synchronized (appendLock) {
+                seq = journal.append(JournalMutation.encode(mutations));
+                enqueue(new Record(seq, mutations, permits));
+            }
+        } catch (IOException e) {
+            room.release(permits);
+            throw e;
+        }
+        journal.sync(seq);
+    }
+
+    private void enqueue(Record record) {
+        for (JournalMutation mutation : record.mutations) {
+            if (mutation.vehicleRegNumber != null) {
+                pendingByVehicle.put(mutation.vehicleRegNumber, record.seq);
+            }
+            if (mutation.type == JournalMutation.UPDATE_PARKING) {
+                pendingSpots.put(mutation.parkingNumber, mutation);
+            }
+        }
+        queue.add(record);
+    }
+
+    private boolean awaitApplied(long seq, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (appliedLock) {
+            long remaining;
+            while (appliedSeq < seq && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                appliedLock.wait(remaining);
+            }
+            return appliedSeq >= seq;
+        }
+    }
+
+    private void writeLoop() {
+        List<Record> batch = new ArrayList<>(batchSize);
+        long retryDelay = 100;
+        while (true) {
+            try {
+                if (batch.isEmpty()) {
+                    Record first = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        if (closing) {
+                            return;
+                        }
+                        continue;
+                    }
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                }
+                apply(batch);
+                applied(batch);
+                batch.clear();
+                retryDelay = 100;
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                logger.error("Error writing {} journal records to the database, retrying in {}ms", batch.size(), retryDelay, e);
+                try {
+                    Thread.sleep(retryDelay);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+                retryDelay = Math.min(retryDelay * 2, 5_000);
+            }
+        }
+    }
+
+    /**
+     * write a batch in one transaction. Statements are grouped by kind, inserts first, which keeps the order
+     * of the changes made to each ticket and to each spot. Inserts are idempotent so that a record replayed
+     * after a crash between the commit and the checkpoint is not written twice.
+     */
+    private void apply(List<Record> batch) throws Exception {
+        Connection con = dataBaseConfig.getConnection();
+        try {
+            con.setAutoCommit(false);
+            try (PreparedStatement save = con.prepareStatement(DBConstants.SAVE_TICKET_IF_ABSENT);
+                 PreparedStatement update = con.prepareStatement(DBConstants.UPDATE_TICKET_BY_VEHICLE_AND_IN_TIME);
+                 PreparedStatement parking = con.prepareStatement(DBConstants.UPDATE_PARKING_SPOT)) {
+                boolean saves = false;
+                boolean updates = false;
+                boolean spots = false;
+                for (Record record : batch) {
+                    for (JournalMutation mutation : record.mutations) {
+                        switch (mutation.type) {
+                            case JournalMutation.SAVE_TICKET:
+                                mutation.addSave(save);
+                                saves = true;
+                                break;
+                            case JournalMutation.CLOSE_TICKET:
+                                update.setDouble(1, mutation.price);
+                                update.setTimestamp(2, new Timestamp(mutation.outTime));
+                                update.setString(3, mutation.vehicleRegNumber);
+                                update.setTimestamp(4, new Timestamp(mutation.inTime));
+                                update.addBatch();
+                                updates = true;
+                                break;
+                            case JournalMutation.UPDATE_PARKING:
+                                parking.setBoolean(1, mutation.available);
+                                parking.setInt(2, mutation.parkingNumber);
+                                parking.addBatch();
+                                spots = true;
+                                break;
+                            default:
+                                throw new IllegalStateException("Unknown journal record type " + mutation.type);
+                        }
+                    }
+                }
+                if (saves) {
+                    save.executeBatch();
+                }
+                if (updates) {
+                    update.executeBatch();
+                }
+                if (spots) {
+                    parking.executeBatch();
+                }
+                con.commit();
+            } catch (SQLException e) {
+                con.rollback();
+                throw e;
+            }
+        } finally {
+            con.setAutoCommit(true);
+            dataBaseConfig.closeConnection(con);
+        }
+    }
+
+    private void applied(List<Record> batch) throws IOException {
+        long lastSeq = batch.get(batch.size() - 1).seq;
+        journal.checkpoint(lastSeq);
+        int permits = 0;
+        for (Record record : batch) {
+            permits += record.permits;
+            for (JournalMutation mutation : record.mutations) {
+                if (mutation.vehicleRegNumber != null) {
+                    pendingByVehicle.remove(mutation.vehicleRegNumber, record.seq);
+                }
+                if (mutation.type == JournalMutation.UPDATE_PARKING) {
+                    pendingSpots.remove(mutation.parkingNumber, mutation);
+                }
+            }
+        }
+        room.release(permits);
+        synchronized (appliedLock) {
+            appliedSeq = lastSeq;
+            appliedLock.notifyAll();
+        }
+    }
+}
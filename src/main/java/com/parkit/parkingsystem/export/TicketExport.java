@@ -0,0 +1,213 @@
+package com.parkit.parkingsystem.export;
+
+import com.parkit.parkingsystem.config.DataBaseConfig;
+import com.parkit.parkingsystem.config.UnitOfWork;
+import com.parkit.parkingsystem.constants.DBConstants;
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.service.BulkFareCalculator;
+import com.parkit.parkingsystem.service.FareCalculatorService;
+import com.parkit.parkingsystem.service.TariffTable;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.Locale;
+
+/**
+ * Dumps the whole ticket history, archived tickets included, to a columnar file and loads it back, without holding
+ * more than a block of tickets in memory: the tickets are read with a forward-only cursor and written block by block,
+ * and read back block by block to be inserted or re-priced.
+ * Run as {@code TicketExport export|import|rebill <file>} against the database configured by the parking.db properties.
+ */
+public class TicketExport {
+
+    private static final Logger logger = LogManager.getLogger("TicketExport");
+
+    private final DataBaseConfig dataBaseConfig;
+
+    public TicketExport(DataBaseConfig dataBaseConfig) {
+        this.dataBaseConfig = dataBaseConfig;
+    }
+
+    /**
+     * write every ticket to a file, with the parking type of its spot and whether the vehicle
+     * had a ticket closed before its own, the condition of the returning customer discount.
+     * Read from a replica at most parking.db.replica.reportStalenessMs (60000) behind the primary when there is one
+     * @param blockSize the number of tickets per block
+     * @return the number of tickets written
+     */
+    public long exportTickets(Path file, int blockSize) throws Exception {
+        Connection con = dataBaseConfig.getReadConnection(Long.getLong("parking.db.replica.reportStalenessMs", 60_000L));
+        try (TicketFileWriter writer = new TicketFileWriter(file, blockSize);
+             PreparedStatement ps = con.prepareStatement(DBConstants.EXPORT_TICKETS, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            ps.setFetchSize(dataBaseConfig.getStreamingFetchSize());
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    Timestamp outTime = rs.getTimestamp(7);
+                    writer.write(rs.getInt(1), rs.getInt(2), ParkingType.valueOf(rs.getString(3)), rs.getString(4),
+                            rs.getDouble(5), rs.getTimestamp(6).getTime(),
+                            (outTime == null) ? TicketFile.NO_OUT_TIME : outTime.getTime(), rs.getBoolean(8));
+                }
+            }
+            logger.info("Exported {} tickets to {}", writer.getTicketCount(), file);
+            return writer.getTicketCount();
+        } finally {
+            dataBaseConfig.closeConnection(con);
+        }
+    }
+
+    /**
+     * insert the tickets of a file into the ticket table with their ids, one transaction per block.
+     * Their spots must exist; the archiver moves the old ones to the archive afterwards.
+     * @return the number of tickets inserted
+     * @throws Exception on the first block failing, the blocks before it being inserted
+     */
+    public long importTickets(Path file) throws Exception {
+        long imported = 0;
+        try (TicketFileReader reader = new TicketFileReader(file)) {
+            while (reader.nextBlock()) {
+                imported += UnitOfWork.execute(() -> insertBlock(reader));
+            }
+        }
+        logger.info("Imported {} tickets from {}", imported, file);
+        return imported;
+    }
+
+    private int insertBlock(TicketFileReader reader) throws Exception {
+        Connection con = dataBaseConfig.getConnection();
+        try (PreparedStatement ps = con.prepareStatement(DBConstants.IMPORT_TICKET)) {
+            for (int i = 0; i < reader.getRowCount(); i++) {
+                long outTime = reader.getOutTimes()[i];
+                ps.setInt(1, reader.getIds()[i]);
+                ps.setInt(2, reader.getParkingNumbers()[i]);
+                ps.setString(3, reader.getVehicleRegNumber(i));
+                ps.setDouble(4, reader.getPrices()[i]);
+                ps.setTimestamp(5, new Timestamp(reader.getInTimes()[i]));
+                ps.setTimestamp(6, (outTime == TicketFile.NO_OUT_TIME) ? null : new Timestamp(outTime));
+                ps.addBatch();
+            }
+            ps.executeBatch();
+            return reader.getRowCount();
+        } finally {
+            dataBaseConfig.closeConnection(con);
+        }
+    }
+
+    /**
+     * re-price the closed tickets of a file with the tariffs in use, block by block
+     * @return the totals billed and re-priced
+     */
+    public static RebillReport rebill(Path file, BulkFareCalculator calculator) throws Exception {
+        RebillReport report = new RebillReport();
+        long[] inTimes = new long[0];
+        long[] outTimes = new long[0];
+        byte[] parkingTypes = new byte[0];
+        boolean[] discounts = new boolean[0];
+        double[] billed = new double[0];
+        double[] prices = new double[0];
+        try (TicketFileReader reader = new TicketFileReader(file)) {
+            while (reader.nextBlock()) {
+                int rowCount = reader.getRowCount();
+                if (inTimes.length < rowCount) {
+                    inTimes = new long[rowCount];
+                    outTimes = new long[rowCount];
+                    parkingTypes = new byte[rowCount];
+                    discounts = new boolean[rowCount];
+                    billed = new double[rowCount];
+                    prices = new double[rowCount];
+                }
+                // the closed tickets of the block, open ones having no price yet
+                int closed = 0;
+                for (int i = 0; i < rowCount; i++) {
+                    if (reader.getOutTimes()[i] != TicketFile.NO_OUT_TIME) {
+                        inTimes[closed] = reader.getInTimes()[i];
+                        outTimes[closed] = reader.getOutTimes()[i];
+                        parkingTypes[closed] = reader.getParkingTypes()[i];
+                        discounts[closed] = reader.getDiscounts()[i];
+                        billed[closed] = reader.getPrices()[i];
+                        closed++;
+                    }
+                }
+                calculator.calculateFares(inTimes, outTimes, parkingTypes, discounts, prices, 0, closed);
+                for (int i = 0; i < closed; i++) {
+                    report.add(billed[i], prices[i]);
+                }
+            }
+        }
+        return report;
+    }
+
+    /**
+     * the closed tickets re-priced and their totals, before and after
+     */
+    public static class RebillReport {
+
+        private long tickets;
+        private long changed;
+        private double billed;
+        private double rebilled;
+
+        void add(double billedPrice, double price) {
+            tickets++;
+            if (TicketFile.toFixedPoint(billedPrice) != TicketFile.toFixedPoint(price)) {
+                changed++;
+            }
+            billed += billedPrice;
+            rebilled += price;
+        }
+
+        public long getTickets() {
+            return tickets;
+        }
+
+        public long getChanged() {
+            return changed;
+        }
+
+        public double getBilled() {
+            return billed;
+        }
+
+        public double getRebilled() {
+            return rebilled;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%d closed tickets, %d re-priced differently, billed %.3f, re-priced %.3f%n",
+                    tickets, changed, billed, rebilled);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: TicketExport export|import|rebill <file>");
+            System.exit(2);
+        }
+        Path file = Paths.get(args[1]);
+        try {
+            switch (args[0]) {
+                case "export":
+                    new TicketExport(new DataBaseConfig()).exportTickets(file, Integer.getInteger("parking.export.blockSize", 65_536));
+                    break;
+                case "import":
+                    new TicketExport(new DataBaseConfig()).importTickets(file);
+                    break;
+                case "rebill":
+                    FareCalculatorService.setTariffs(TariffTable.load());
+                    System.out.print(rebill(file, new BulkFareCalculator()));
+                    break;
+                default:
+                    System.err.println("Unknown command " + args[0] + ", expected export, import or rebill");
+                    System.exit(2);
+            }
+        } finally {
+            DataBaseConfig.shutdownAll();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.parkit.parkingsystem.export;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Layout of a ticket export file: a header then blocks of at most blockSize tickets, each block holding its
+ * tickets column by column, and a trailer.
+ * <pre>
+ * header   "PKTX" version:int
+ * block    rowCount:int bodyLength:int crc32(body):int body
+ * body     dictionary then the columns of COLUMNS, each one as length:int bytes
+ * trailer  0:int ticketCount:long
+ * </pre>
+ * Numbers are varints, signed ones zigzag encoded. Ids and in times are stored as the difference with the previous
+ * ticket of the block, out times as the duration of the stay plus one (0 for an open ticket), prices in thousandths,
+ * plates as their index in the dictionary of the block, the distinct plates of the block in order of appearance.
+ * Blocks being self-contained, writing and reading only hold one block in memory.
+ */
+public final class TicketFile {
+
+    /**
+     * out time of a ticket still open
+     */
+    public static final long NO_OUT_TIME = Long.MIN_VALUE;
+
+    static final int MAGIC = 0x504B5458;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 8;
+    static final int BLOCK_HEADER_SIZE = 12;
+
+    static final int ID = 0;
+    static final int PARKING_NUMBER = 1;
+    static final int PARKING_TYPE = 2;
+    static final int VEHICLE_REG_NUMBER = 3;
+    static final int PRICE = 4;
+    static final int IN_TIME = 5;
+    static final int OUT_TIME = 6;
+    static final int DISCOUNT = 7;
+    static final int COLUMNS = 8;
+
+    private TicketFile() {
+    }
+
+    static long toFixedPoint(double price) {
+        return Math.round(price * 1000d);
+    }
+
+    static double fromFixedPoint(long price) {
+        return price / 1000d;
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static long readVarLong(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (shift > 63) {
+                throw new IllegalStateException("Malformed varint at " + buffer.position());
+            }
+            b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    /**
+     * growable column being encoded, reused from one block to the next
+     */
+    static final class Column {
+
+        private byte[] bytes = new byte[1024];
+        private int length;
+
+        void clear() {
+            length = 0;
+        }
+
+        int length() {
+            return length;
+        }
+
+        void writeVarLong(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        void writeByte(int value) {
+            ensureCapacity(1);
+            bytes[length++] = (byte) value;
+        }
+
+        void writeBytes(byte[] value) {
+            ensureCapacity(value.length);
+            System.arraycopy(value, 0, bytes, length, value.length);
+            length += value.length;
+        }
+
+        ByteBuffer buffer() {
+            return ByteBuffer.wrap(bytes, 0, length);
+        }
+
+        private void ensureCapacity(int more) {
+            if (length + more > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + more));
+            }
+        }
+    }
+}
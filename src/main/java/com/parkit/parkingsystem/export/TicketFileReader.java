@@ -0,0 +1,263 @@
+package com.parkit.parkingsystem.export;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Reads a file written by TicketFileWriter block by block: each call to nextBlock decodes the tickets
+ * of the next block into primitive columns, reused from one block to the next, the i-th ticket of the block
+ * being getIds()[i], getInTimes()[i], ... The columns are laid out as BulkFareCalculator takes them.
+ */
+public class TicketFileReader implements Closeable {
+
+    private static final ParkingType[] PARKING_TYPES = ParkingType.values();
+
+    private final FileChannel channel;
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer body = ByteBuffer.allocate(0);
+    private final ByteBuffer blockHeader = ByteBuffer.allocate(TicketFile.BLOCK_HEADER_SIZE);
+
+    private int rowCount;
+    private long ticketCount;
+    private boolean finished;
+
+    private int[] ids = new int[0];
+    private int[] parkingNumbers = new int[0];
+    private byte[] parkingTypes = new byte[0];
+    private int[] plates = new int[0];
+    private String[] dictionary = new String[0];
+    private double[] prices = new double[0];
+    private long[] inTimes = new long[0];
+    private long[] outTimes = new long[0];
+    private boolean[] discounts = new boolean[0];
+
+    /**
+     * @throws IOException if the file is not a ticket export of a supported version
+     */
+    public TicketFileReader(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        ByteBuffer header = ByteBuffer.allocate(TicketFile.HEADER_SIZE);
+        readFully(header);
+        if (header.getInt() != TicketFile.MAGIC) {
+            channel.close();
+            throw new IOException(path + " is not a ticket export");
+        }
+        int version = header.getInt();
+        if (version != TicketFile.VERSION) {
+            channel.close();
+            throw new IOException("Unsupported ticket export version " + version + " in " + path);
+        }
+    }
+
+    /**
+     * decode the next block
+     * @return false once every block has been read
+     * @throws IOException if the file is truncated or a block is corrupted
+     */
+    public boolean nextBlock() throws IOException {
+        if (finished) {
+            return false;
+        }
+        blockHeader.clear();
+        blockHeader.limit(4);
+        readFully(blockHeader);
+        rowCount = blockHeader.getInt();
+        if (rowCount == 0) {
+            ByteBuffer trailer = ByteBuffer.allocate(8);
+            readFully(trailer);
+            long expected = trailer.getLong();
+            if (expected != ticketCount) {
+                throw new IOException("Ticket export holds " + ticketCount + " tickets, " + expected + " expected");
+            }
+            finished = true;
+            return false;
+        }
+        blockHeader.clear();
+        blockHeader.limit(8);
+        readFully(blockHeader);
+        int bodyLength = blockHeader.getInt();
+        int checksum = blockHeader.getInt();
+        if (body.capacity() < bodyLength) {
+            body = ByteBuffer.allocate(bodyLength);
+        }
+        body.clear();
+        body.limit(bodyLength);
+        readFully(body);
+        crc.reset();
+        crc.update(body.duplicate());
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException("Corrupted ticket export block after ticket " + ticketCount);
+        }
+        ensureCapacity(rowCount);
+        decodeDictionary(slice());
+        decode();
+        ticketCount += rowCount;
+        return true;
+    }
+
+    /**
+     * @return the number of tickets of the current block
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return the number of tickets read so far, the current block included
+     */
+    public long getTicketCount() {
+        return ticketCount;
+    }
+
+    public int[] getIds() {
+        return ids;
+    }
+
+    public int[] getParkingNumbers() {
+        return parkingNumbers;
+    }
+
+    /**
+     * @return the ordinals of the ParkingType of the spots
+     */
+    public byte[] getParkingTypes() {
+        return parkingTypes;
+    }
+
+    public ParkingType getParkingType(int index) {
+        return PARKING_TYPES[parkingTypes[index]];
+    }
+
+    public String getVehicleRegNumber(int index) {
+        return dictionary[plates[index]];
+    }
+
+    public double[] getPrices() {
+        return prices;
+    }
+
+    /**
+     * @return the in times in epoch millis
+     */
+    public long[] getInTimes() {
+        return inTimes;
+    }
+
+    /**
+     * @return the out times in epoch millis, TicketFile.NO_OUT_TIME for the open tickets
+     */
+    public long[] getOutTimes() {
+        return outTimes;
+    }
+
+    public boolean[] getDiscounts() {
+        return discounts;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void decode() throws IOException {
+        ByteBuffer column = slice();
+        int id = 0;
+        for (int i = 0; i < rowCount; i++) {
+            id += (int) TicketFile.unzigzag(TicketFile.readVarLong(column));
+            ids[i] = id;
+        }
+        column = slice();
+        for (int i = 0; i < rowCount; i++) {
+            parkingNumbers[i] = (int) TicketFile.readVarLong(column);
+        }
+        column = slice();
+        column.get(parkingTypes, 0, rowCount);
+        for (int i = 0; i < rowCount; i++) {
+            if (parkingTypes[i] < 0 || parkingTypes[i] >= PARKING_TYPES.length) {
+                throw new IOException("Unknown parking type " + parkingTypes[i] + " in ticket export");
+            }
+        }
+        column = slice();
+        for (int i = 0; i < rowCount; i++) {
+            plates[i] = (int) TicketFile.readVarLong(column);
+        }
+        column = slice();
+        for (int i = 0; i < rowCount; i++) {
+            prices[i] = TicketFile.fromFixedPoint(TicketFile.unzigzag(TicketFile.readVarLong(column)));
+        }
+        column = slice();
+        long inTime = 0;
+        for (int i = 0; i < rowCount; i++) {
+            inTime += TicketFile.unzigzag(TicketFile.readVarLong(column));
+            inTimes[i] = inTime;
+        }
+        column = slice();
+        for (int i = 0; i < rowCount; i++) {
+            long stay = TicketFile.readVarLong(column);
+            outTimes[i] = (stay == 0) ? TicketFile.NO_OUT_TIME : inTimes[i] + stay - 1;
+        }
+        column = slice();
+        for (int i = 0; i < rowCount; i++) {
+            discounts[i] = (column.get(i >>> 3) & (1 << (i & 7))) != 0;
+        }
+    }
+
+    private void decodeDictionary(ByteBuffer column) {
+        int count = 0;
+        while (column.hasRemaining()) {
+            int length = (int) TicketFile.readVarLong(column);
+            String plate = new String(column.array(), column.arrayOffset() + column.position(), length, StandardCharsets.UTF_8);
+            column.position(column.position() + length);
+            dictionary[count++] = plate;
+        }
+    }
+
+    /**
+     * @return the next column of the body, the body positioned after it
+     */
+    private ByteBuffer slice() throws IOException {
+        if (body.remaining() < 4) {
+            throw new IOException("Truncated ticket export block after ticket " + ticketCount);
+        }
+        int length = body.getInt();
+        if (length < 0 || length > body.remaining()) {
+            throw new IOException("Truncated ticket export block after ticket " + ticketCount);
+        }
+        ByteBuffer column = body.slice();
+        column.limit(length);
+        body.position(body.position() + length);
+        return column;
+    }
+
+    private void ensureCapacity(int count) {
+        if (ids.length < count) {
+            ids = new int[count];
+            parkingNumbers = new int[count];
+            parkingTypes = new byte[count];
+            plates = new int[count];
+            dictionary = new String[count];
+            prices = new double[count];
+            inTimes = new long[count];
+            outTimes = new long[count];
+            discounts = new boolean[count];
+        }
+    }
+
+    private void readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Truncated ticket export after ticket " + ticketCount);
+            }
+        }
+        buffer.flip();
+    }
+}
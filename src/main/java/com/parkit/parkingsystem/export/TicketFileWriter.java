@@ -0,0 +1,172 @@
+package com.parkit.parkingsystem.export;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Writes tickets to a file in the layout of TicketFile, one at a time: tickets are encoded into the columns
+ * of the current block as they come, and the block is written with one gathering write once full,
+ * so that memory does not grow with the number of tickets.
+ */
+public class TicketFileWriter implements Closeable {
+
+    private final FileChannel channel;
+    private final int blockSize;
+    private final TicketFile.Column dictionary = new TicketFile.Column();
+    private final TicketFile.Column[] columns = new TicketFile.Column[TicketFile.COLUMNS];
+    // block header, then the length and bytes of the dictionary and of each column
+    private final ByteBuffer[] block = new ByteBuffer[1 + 2 * (1 + TicketFile.COLUMNS)];
+    private final ByteBuffer lengths = ByteBuffer.allocate(4 * (1 + TicketFile.COLUMNS));
+    private final ByteBuffer blockHeader = ByteBuffer.allocate(TicketFile.BLOCK_HEADER_SIZE);
+    private final Map<String, Integer> plates = new HashMap<>();
+    private final CRC32 crc = new CRC32();
+
+    private int rowCount;
+    private int lastId;
+    private long lastInTime;
+    private int discountBits;
+    private long ticketCount;
+    private boolean closed;
+
+    /**
+     * create or replace the file
+     * @param blockSize the number of tickets per block
+     */
+    public TicketFileWriter(Path path, int blockSize) throws IOException {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+        }
+        this.blockSize = blockSize;
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = new TicketFile.Column();
+        }
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(TicketFile.HEADER_SIZE);
+        header.putInt(TicketFile.MAGIC).putInt(TicketFile.VERSION).flip();
+        writeFully(header);
+    }
+
+    /**
+     * add a ticket
+     * @param price the price, stored to the thousandth
+     * @param inTime the in time in epoch millis
+     * @param outTime the out time in epoch millis, TicketFile.NO_OUT_TIME for an open ticket
+     * @param discount true if the ticket was priced for a returning customer
+     */
+    public void write(int id, int parkingNumber, ParkingType parkingType, String vehicleRegNumber, double price,
+                      long inTime, long outTime, boolean discount) throws IOException {
+        if (outTime != TicketFile.NO_OUT_TIME && outTime < inTime) {
+            throw new IllegalArgumentException("Out time before in time for ticket " + id);
+        }
+        columns[TicketFile.ID].writeVarLong(TicketFile.zigzag((long) id - lastId));
+        columns[TicketFile.PARKING_NUMBER].writeVarLong(parkingNumber);
+        columns[TicketFile.PARKING_TYPE].writeByte(parkingType.ordinal());
+        Integer plate = plates.get(vehicleRegNumber);
+        if (plate == null) {
+            plate = plates.size();
+            plates.put(vehicleRegNumber, plate);
+            byte[] bytes = vehicleRegNumber.getBytes(StandardCharsets.UTF_8);
+            dictionary.writeVarLong(bytes.length);
+            dictionary.writeBytes(bytes);
+        }
+        columns[TicketFile.VEHICLE_REG_NUMBER].writeVarLong(plate);
+        columns[TicketFile.PRICE].writeVarLong(TicketFile.zigzag(TicketFile.toFixedPoint(price)));
+        columns[TicketFile.IN_TIME].writeVarLong(TicketFile.zigzag(inTime - lastInTime));
+        columns[TicketFile.OUT_TIME].writeVarLong(outTime == TicketFile.NO_OUT_TIME ? 0 : outTime - inTime + 1);
+        if (discount) {
+            discountBits |= 1 << (rowCount & 7);
+        }
+        lastId = id;
+        lastInTime = inTime;
+        rowCount++;
+        ticketCount++;
+        if ((rowCount & 7) == 0) {
+            columns[TicketFile.DISCOUNT].writeByte(discountBits);
+            discountBits = 0;
+        }
+        if (rowCount == blockSize) {
+            writeBlock();
+        }
+    }
+
+    public long getTicketCount() {
+        return ticketCount;
+    }
+
+    /**
+     * write the last block and the trailer and force the file to disk
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (rowCount > 0) {
+                writeBlock();
+            }
+            ByteBuffer trailer = ByteBuffer.allocate(12);
+            trailer.putInt(0).putLong(ticketCount).flip();
+            writeFully(trailer);
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        if ((rowCount & 7) != 0) {
+            columns[TicketFile.DISCOUNT].writeByte(discountBits);
+        }
+        crc.reset();
+        lengths.clear();
+        int bodyLength = 0;
+        for (int i = 0; i <= TicketFile.COLUMNS; i++) {
+            TicketFile.Column column = (i == 0) ? dictionary : columns[i - 1];
+            lengths.putInt(4 * i, column.length());
+            ByteBuffer length = (ByteBuffer) lengths.duplicate().position(4 * i).limit(4 * i + 4);
+            block[2 * i + 1] = length;
+            block[2 * i + 2] = column.buffer();
+            crc.update(length.duplicate());
+            crc.update(column.buffer());
+            bodyLength += 4 + column.length();
+        }
+        blockHeader.clear();
+        blockHeader.putInt(rowCount).putInt(bodyLength).putInt((int) crc.getValue()).flip();
+        block[0] = blockHeader;
+        long remaining = TicketFile.BLOCK_HEADER_SIZE + bodyLength;
+        while (remaining > 0) {
+            remaining -= channel.write(block);
+        }
+        dictionary.clear();
+        for (TicketFile.Column column : columns) {
+            column.clear();
+        }
+        plates.clear();
+        rowCount = 0;
+        lastId = 0;
+        lastInTime = 0;
+        discountBits = 0;
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.parkit.parkingsystem.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations in nanoseconds, with log-linear buckets as in HdrHistogram:
+ * values below 64 have a bucket each, above that every power of two is split into 64 buckets,
+ * so a value is known to within 1/64 (1.6%) of itself. Recording is one atomic increment of a bucket
+ * plus the total and the maximum, a few tens of nanoseconds, and never blocks the recording threads.
+ * Values above about two hours are counted in the last bucket.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HIGHEST_BIT = 42;
+    private static final int BUCKETS = (HIGHEST_BIT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * @param nanos a duration, negative ones counted as 0
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(indexOf(value));
+        totalNanos.addAndGet(value);
+        long max = maxNanos.get();
+        while (value > max && !maxNanos.compareAndSet(max, value)) {
+            max = maxNanos.get();
+        }
+    }
+
+    /**
+     * @return a copy of the counts recorded so far; recordings made during the copy may be partly in it
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        return new Snapshot(copy, count, totalNanos.get(), maxNanos.get());
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        int index = shift * SUB_BUCKETS + (int) (value >>> shift);
+        return Math.min(index, BUCKETS - 1);
+    }
+
+    /**
+     * @return the highest value counted in the bucket
+     */
+    static long highestValueOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long mantissa = SUB_BUCKETS + index % SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    /**
+     * the state of a histogram at one point in time, or between two points in time
+     */
+    public static final class Snapshot {
+
+        private final long[] counts;
+        private final long count;
+        private final long totalNanos;
+        private final long maxNanos;
+
+        private Snapshot(long[] counts, long count, long totalNanos, long maxNanos) {
+            this.counts = counts;
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        /**
+         * @return the mean duration, 0 when nothing has been recorded
+         */
+        public double getMeanNanos() {
+            return (count == 0) ? 0 : (double) totalNanos / count;
+        }
+
+        /**
+         * @param percentile between 0 and 100
+         * @return the highest value of the bucket holding that percentile, 0 when nothing has been recorded
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(Math.min(100, percentile) / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValueOf(i), maxNanos);
+                }
+            }
+            return maxNanos;
+        }
+
+        /**
+         * @return the highest duration recorded
+         */
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        /**
+         * @param earlier a snapshot of the same histogram taken before this one
+         * @return what has been recorded between the two; its maximum is that of the buckets
+         */
+        public Snapshot minus(Snapshot earlier) {
+            long[] delta = new long[counts.length];
+            long deltaCount = 0;
+            long max = 0;
+            for (int i = 0; i < counts.length; i++) {
+                delta[i] = counts[i] - earlier.counts[i];
+                deltaCount += delta[i];
+                if (delta[i] > 0) {
+                    max = Math.min(highestValueOf(i), maxNanos);
+                }
+            }
+            return new Snapshot(delta, deltaCount, totalNanos - earlier.totalNanos, max);
+        }
+    }
+}
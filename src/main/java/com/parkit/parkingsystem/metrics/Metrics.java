@@ -0,0 +1,132 @@
+package com.parkit.parkingsystem.metrics;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The metrics of the operations of the application, always recorded. Each operation is published as an MXBean
+ * under {@code com.parkit.parkingsystem:type=Operation,name=<Class.method>} when first used, and the operations
+ * called during the last period can be logged at INFO by the Metrics logger.
+ */
+public final class Metrics {
+
+    private static final Logger logger = LogManager.getLogger("Metrics");
+
+    public static final String DOMAIN = "com.parkit.parkingsystem";
+
+    private static final Map<String, OperationMetrics> operations = new ConcurrentHashMap<>();
+
+    private static ScheduledExecutorService summaryLogger;
+
+    private Metrics() {
+    }
+
+    /**
+     * @param name the operation, as Class.method
+     * @return the metrics of the operation, created and published on first use
+     */
+    public static OperationMetrics operation(String name) {
+        return operations.computeIfAbsent(name, Metrics::register);
+    }
+
+    /**
+     * @return the operations used so far, sorted by name
+     */
+    public static List<OperationMetrics> operations() {
+        List<OperationMetrics> sorted = new ArrayList<>(operations.values());
+        sorted.sort((a, b) -> a.getName().compareTo(b.getName()));
+        return sorted;
+    }
+
+    private static OperationMetrics register(String name) {
+        OperationMetrics metrics = new OperationMetrics(name);
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = objectName(name);
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(metrics, objectName);
+            }
+        } catch (Exception e) {
+            logger.warn("Unable to publish the metrics of {} over JMX", name, e);
+        }
+        return metrics;
+    }
+
+    public static ObjectName objectName(String name) throws Exception {
+        return new ObjectName(DOMAIN + ":type=Operation,name=" + ObjectName.quote(name));
+    }
+
+    /**
+     * log every period the operations called during that period
+     * @param periodMillis the period, 0 or less to stop logging
+     */
+    public static synchronized void startLogging(long periodMillis) {
+        stopLogging();
+        if (periodMillis <= 0) {
+            return;
+        }
+        summaryLogger = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-log");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Map<String, LatencyHistogram.Snapshot[]> previous = new HashMap<>();
+        summaryLogger.scheduleAtFixedRate(() -> logSummary(previous), periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public static synchronized void stopLogging() {
+        if (summaryLogger != null) {
+            summaryLogger.shutdownNow();
+            summaryLogger = null;
+        }
+    }
+
+    private static void logSummary(Map<String, LatencyHistogram.Snapshot[]> previous) {
+        try {
+            if (logger.isInfoEnabled()) {
+                for (String line : summary(operations.values(), previous)) {
+                    logger.info(line);
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.error("Unable to log the metrics summary", e);
+        }
+    }
+
+    /**
+     * @param previous the snapshots of the last summary by operation, replaced by the current ones
+     * @return a line per operation called since the last summary
+     */
+    static List<String> summary(Collection<OperationMetrics> metrics, Map<String, LatencyHistogram.Snapshot[]> previous) {
+        List<String> lines = new ArrayList<>();
+        for (OperationMetrics operation : metrics) {
+            LatencyHistogram.Snapshot[] current = {operation.getSuccesses().snapshot(), operation.getFailures().snapshot()};
+            LatencyHistogram.Snapshot[] last = previous.put(operation.getName(), current);
+            LatencyHistogram.Snapshot successes = (last == null) ? current[0] : current[0].minus(last[0]);
+            LatencyHistogram.Snapshot failures = (last == null) ? current[1] : current[1].minus(last[1]);
+            if (successes.getCount() == 0 && failures.getCount() == 0) {
+                continue;
+            }
+            lines.add(String.format(Locale.ROOT, "%s ok %d failed %d mean %.3f ms p50 %.3f p99 %.3f p99.9 %.3f max %.3f ms",
+                    operation.getName(), successes.getCount(), failures.getCount(), successes.getMeanNanos() / 1e6,
+                    successes.getValueAtPercentile(50) / 1e6, successes.getValueAtPercentile(99) / 1e6,
+                    successes.getValueAtPercentile(99.9) / 1e6, successes.getMaxNanos() / 1e6));
+        }
+        lines.sort(null);
+        return lines;
+    }
+}
@@ -0,0 +1,102 @@
+package com.parkit.parkingsystem.metrics;
+
+/**
+ * The successes, failures and durations of one operation. A call is timed with
+ * <pre>
+ * long start = metrics.start();
+ * ...
+ * metrics.record(start, succeeded);
+ * </pre>
+ * which costs two reads of the clock and a histogram recording, well under a microsecond.
+ */
+public final class OperationMetrics implements OperationMetricsMXBean {
+
+    private final String name;
+    private final LatencyHistogram successes = new LatencyHistogram();
+    private final LatencyHistogram failures = new LatencyHistogram();
+
+    OperationMetrics(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the start time of a call, to be given back to record
+     */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * record a call that started at the given time and ends now
+     * @return succeeded, so that a call can be recorded as it returns its result
+     */
+    public boolean record(long start, boolean succeeded) {
+        long nanos = System.nanoTime() - start;
+        if (succeeded) {
+            successes.record(nanos);
+        } else {
+            failures.record(nanos);
+        }
+        return succeeded;
+    }
+
+    public void success(long start) {
+        record(start, true);
+    }
+
+    public void failure(long start) {
+        record(start, false);
+    }
+
+    public LatencyHistogram getSuccesses() {
+        return successes;
+    }
+
+    public LatencyHistogram getFailures() {
+        return failures;
+    }
+
+    @Override
+    public long getSuccessCount() {
+        return successes.snapshot().getCount();
+    }
+
+    @Override
+    public long getFailureCount() {
+        return failures.snapshot().getCount();
+    }
+
+    @Override
+    public double getMeanMicros() {
+        return successes.snapshot().getMeanNanos() / 1e3;
+    }
+
+    @Override
+    public double getP50Micros() {
+        return successes.snapshot().getValueAtPercentile(50) / 1e3;
+    }
+
+    @Override
+    public double getP99Micros() {
+        return successes.snapshot().getValueAtPercentile(99) / 1e3;
+    }
+
+    @Override
+    public double getP999Micros() {
+        return successes.snapshot().getValueAtPercentile(99.9) / 1e3;
+    }
+
+    @Override
+    public double getMaxMicros() {
+        return successes.snapshot().getMaxNanos() / 1e3;
+    }
+
+    @Override
+    public double getFailureMeanMicros() {
+        return failures.snapshot().getMeanNanos() / 1e3;
+    }
+}
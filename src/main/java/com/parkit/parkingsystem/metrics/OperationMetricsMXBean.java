@@ -0,0 +1,28 @@
+package com.parkit.parkingsystem.metrics;
+
+/**
+ * The counters and latencies of one operation, as published over JMX under
+ * {@code com.parkit.parkingsystem:type=Operation,name=<Class.method>}. Latencies are those of the successful calls,
+ * since the start of the process.
+ */
+public interface OperationMetricsMXBean {
+
+    long getSuccessCount();
+
+    long getFailureCount();
+
+    double getMeanMicros();
+
+    double getP50Micros();
+
+    double getP99Micros();
+
+    double getP999Micros();
+
+    double getMaxMicros();
+
+    /**
+     * @return the mean duration of the failed calls, which may be timeouts
+     */
+    double getFailureMeanMicros();
+}
@@ -0,0 +1,81 @@
+package com.parkit.parkingsystem.model;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+
+import java.util.Arrays;
+
+/**
+ * the spots of each parking type and how many of them are taken, at one point in time.
+ * Immutable: the counts of every type read from one snapshot are consistent with each other.
+ */
+public final class Occupancy {
+
+    private final int[] capacity;
+    private final int[] occupied;
+    private final long version;
+
+    /**
+     * @param capacity the number of spots per parking type ordinal
+     * @param occupied the number of taken spots per parking type ordinal
+     * @param version increased by every change, for the readers to tell whether anything moved since their last read
+     */
+    public Occupancy(int[] capacity, int[] occupied, long version) {
+        if (capacity.length != ParkingType.values().length || occupied.length != capacity.length) {
+            throw new IllegalArgumentException("One count per parking type expected");
+        }
+        this.capacity = capacity.clone();
+        this.occupied = new int[occupied.length];
+        for (int i = 0; i < occupied.length; i++) {
+            this.occupied[i] = Math.max(0, Math.min(occupied[i], capacity[i]));
+        }
+        this.version = version;
+    }
+
+    /**
+     * @return the same counts with one more or one less spot of a type taken, within 0 and its capacity
+     */
+    public Occupancy plus(ParkingType parkingType, int delta) {
+        int[] counts = occupied.clone();
+        counts[parkingType.ordinal()] += delta;
+        return new Occupancy(capacity, counts, version + 1);
+    }
+
+    /**
+     * @return true if both have the same spots and taken spots, whatever their versions
+     */
+    public boolean sameCounts(Occupancy other) {
+        return Arrays.equals(capacity, other.capacity) && Arrays.equals(occupied, other.occupied);
+    }
+
+    public Occupancy withVersion(long version) {
+        return new Occupancy(capacity, occupied, version);
+    }
+
+    public int getCapacity(ParkingType parkingType) {
+        return capacity[parkingType.ordinal()];
+    }
+
+    public int getOccupied(ParkingType parkingType) {
+        return occupied[parkingType.ordinal()];
+    }
+
+    public int getFree(ParkingType parkingType) {
+        return capacity[parkingType.ordinal()] - occupied[parkingType.ordinal()];
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (ParkingType parkingType : ParkingType.values()) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(parkingType).append(' ').append(getOccupied(parkingType)).append('/').append(getCapacity(parkingType));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,76 @@
+package com.parkit.parkingsystem.model;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+
+import java.util.Date;
+
+/**
+ * the exits and revenue of one parking type over one hour or one day
+ */
+public class RevenueSummary {
+
+    public enum Period {
+        HOUR,
+        DAY
+    }
+
+    private final Period period;
+    private final Date periodStart;
+    private final ParkingType parkingType;
+    private final long fullPriceExits;
+    private final long discountedExits;
+    private final long freeExits;
+    private final double revenue;
+
+    public RevenueSummary(Period period, Date periodStart, ParkingType parkingType, long fullPriceExits,
+                          long discountedExits, long freeExits, double revenue) {
+        this.period = period;
+        this.periodStart = periodStart;
+        this.parkingType = parkingType;
+        this.fullPriceExits = fullPriceExits;
+        this.discountedExits = discountedExits;
+        this.freeExits = freeExits;
+        this.revenue = revenue;
+    }
+
+    public Period getPeriod() {
+        return period;
+    }
+
+    public Date getPeriodStart() {
+        return periodStart;
+    }
+
+    public ParkingType getParkingType() {
+        return parkingType;
+    }
+
+    /**
+     * @return the paying exits without discount
+     */
+    public long getFullPriceExits() {
+        return fullPriceExits;
+    }
+
+    /**
+     * @return the paying exits of returning customers
+     */
+    public long getDiscountedExits() {
+        return discountedExits;
+    }
+
+    /**
+     * @return the exits within the free period, discounted or not
+     */
+    public long getFreeExits() {
+        return freeExits;
+    }
+
+    public long getExits() {
+        return fullPriceExits + discountedExits + freeExits;
+    }
+
+    public double getRevenue() {
+        return revenue;
+    }
+}
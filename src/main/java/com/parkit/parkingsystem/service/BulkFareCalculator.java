@@ -0,0 +1,119 @@
+package com.parkit.parkingsystem.service;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Prices a large number of tickets at once, e.g. to re-price months of tickets after a rate change.
+ * Tickets are given as columns of primitives, the i-th ticket being inTimes[i], outTimes[i], parkingTypes[i]
+ * and discounts[i], and its price is written to prices[i]: no object is created per ticket.
+ * Ranges larger than the threshold are split and priced in parallel on a fork-join pool.
+ * Each price is computed by FareCalculatorService.price, so it is exactly the one calculateFare gives,
+ * and all the tickets of a call are priced with the tariffs in use when it started.
+ */
+public class BulkFareCalculator {
+
+    /**
+     * number of tickets below which a range is priced by the calling thread instead of being split
+     */
+    public static final int DEFAULT_THRESHOLD = Integer.getInteger("parking.bulkFare.threshold", 16_384);
+
+    private final ForkJoinPool pool;
+    private final int threshold;
+
+    public BulkFareCalculator() {
+        this(ForkJoinPool.commonPool(), DEFAULT_THRESHOLD);
+    }
+
+    public BulkFareCalculator(ForkJoinPool pool, int threshold) {
+        if (threshold < 1) {
+            throw new IllegalArgumentException("Threshold must be positive: " + threshold);
+        }
+        this.pool = pool;
+        this.threshold = threshold;
+    }
+
+    /**
+     * price every ticket of the columns
+     * @see #calculateFares(long[], long[], byte[], boolean[], double[], int, int)
+     */
+    public void calculateFares(long[] inTimes, long[] outTimes, byte[] parkingTypes, boolean[] discounts, double[] prices) {
+        calculateFares(inTimes, outTimes, parkingTypes, discounts, prices, 0, inTimes.length);
+    }
+
+    /**
+     * price the tickets from index from (inclusive) to index to (exclusive)
+     * @param inTimes the in times in epoch millis
+     * @param outTimes the out times in epoch millis, not before the in times
+     * @param parkingTypes the ordinals of the ParkingType of the spots
+     * @param discounts true for the tickets of returning customers
+     * @param prices receives the prices, rounded to 3 decimals
+     * @throws IllegalArgumentException if a column is shorter than to, or a ticket has an out time before
+     * its in time or an unknown parking type. The prices of the other tickets of the range may have been written.
+     */
+    public void calculateFares(long[] inTimes, long[] outTimes, byte[] parkingTypes, boolean[] discounts, double[] prices,
+                               int from, int to) {
+        if (from < 0 || from > to) {
+            throw new IllegalArgumentException("Invalid range [" + from + ", " + to + ")");
+        }
+        if (inTimes.length < to || outTimes.length < to || parkingTypes.length < to || discounts.length < to
+                || prices.length < to) {
+            throw new IllegalArgumentException("Columns shorter than " + to + " tickets");
+        }
+        TariffTable tariffs = FareCalculatorService.getTariffs();
+        if (to - from <= threshold) {
+            calculateRange(tariffs, inTimes, outTimes, parkingTypes, discounts, prices, from, to);
+        } else {
+            pool.invoke(new PriceRange(tariffs, inTimes, outTimes, parkingTypes, discounts, prices, from, to));
+        }
+    }
+
+    private static void calculateRange(TariffTable tariffs, long[] inTimes, long[] outTimes, byte[] parkingTypes,
+                                       boolean[] discounts, double[] prices, int from, int to) {
+        for (int i = from; i < to; i++) {
+            long inTime = inTimes[i];
+            long outTime = outTimes[i];
+            if (outTime < inTime) {
+                throw new IllegalArgumentException("Out time provided is before in time for ticket " + i);
+            }
+            prices[i] = FareCalculatorService.price(tariffs, inTime, outTime, parkingTypes[i], discounts[i]);
+        }
+    }
+
+    private class PriceRange extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TariffTable tariffs;
+        private final long[] inTimes;
+        private final long[] outTimes;
+        private final byte[] parkingTypes;
+        private final boolean[] discounts;
+        private final double[] prices;
+        private final int from;
+        private final int to;
+
+        PriceRange(TariffTable tariffs, long[] inTimes, long[] outTimes, byte[] parkingTypes, boolean[] discounts,
+                   double[] prices, int from, int to) {
+            this.tariffs = tariffs;
+            this.inTimes = inTimes;
+            this.outTimes = outTimes;
+            this.parkingTypes = parkingTypes;
+            this.discounts = discounts;
+            this.prices = prices;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= threshold) {
+                calculateRange(tariffs, inTimes, outTimes, parkingTypes, discounts, prices, from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new PriceRange(tariffs, inTimes, outTimes, parkingTypes, discounts, prices, from, middle),
+                    new PriceRange(tariffs, inTimes, outTimes, parkingTypes, discounts, prices, middle, to));
+        }
+    }
+}
@@ -1,10 +1,28 @@
 package com.parkit.parkingsystem.service;
 
-import com.parkit.parkingsystem.constants.Fare;
 import com.parkit.parkingsystem.model.Ticket;
 
 public class FareCalculatorService {
 
+    /**
+     * the tariffs in use, replaced as a whole so that a fare is computed with a single table
+     */
+    private static volatile TariffTable tariffs = TariffTable.defaults();
+
+    public static TariffTable getTariffs() {
+        return tariffs;
+    }
+
+    /**
+     * put new tariffs in use, for the fares computed from now on
+     */
+    public static void setTariffs(TariffTable tariffTable) {
+        if (tariffTable == null) {
+            throw new IllegalArgumentException("Tariff table is null");
+        }
+        tariffs = tariffTable;
+    }
+
     public void calculateFare(Ticket ticket){
         calculateFare(ticket, false);
     }
@@ -18,44 +36,47 @@ public class FareCalculatorService {
             throw new IllegalArgumentException("Out time provided is before int time :" + ticket.getOutTime().toString());
         }
 
-        double inTime = ticket.getInTime().getTime();
-        double outTime = ticket.getOutTime().getTime();
-        double duration = ((outTime - inTime) / 1000.d) / 3600.0d;
-
-
-        // init price to 0.0
-        double price = 0.0;
+        ticket.setPrice(price(ticket.getInTime().getTime(), ticket.getOutTime().getTime(),
+                ticket.getParkingSpot().getParkingType().ordinal(), isDiscount));
+    }
 
+    /**
+     * the fare of one ticket with the tariffs in use
+     * @see #price(TariffTable, long, long, int, boolean)
+     */
+    public static double price(long inTime, long outTime, int parkingTypeOrdinal, boolean isDiscount) {
+        return price(tariffs, inTime, outTime, parkingTypeOrdinal, isDiscount);
+    }
 
-        // the first 30min are supposed to be free
-        if (duration <= 0.5) {
-            ticket.setPrice(price);
-            return;
+    /**
+     * the fare of one ticket from primitive values, without allocating: the arithmetic of calculateFare,
+     * shared with BulkFareCalculator so that both give the same price to the last bit
+     * @param tariffTable the tariffs to apply
+     * @param inTime the in time in epoch millis
+     * @param outTime the out time in epoch millis, not before inTime
+     * @param parkingTypeOrdinal the ordinal of the ParkingType of the spot
+     * @param isDiscount true for a returning customer
+     * @return the price rounded to 3 decimals
+     * @throws IllegalArgumentException if the parking type is unknown
+     */
+    public static double price(TariffTable tariffTable, long inTime, long outTime, int parkingTypeOrdinal, boolean isDiscount) {
+        Tariff tariff = tariffTable.get(parkingTypeOrdinal);
+        if (tariff == null) {
+            throw new IllegalArgumentException("Unkown Parking Type");
         }
 
-
-        // calculate price by parking type
-        switch (ticket.getParkingSpot().getParkingType()) {
-            case CAR: {
-                price = duration * Fare.CAR_RATE_PER_HOUR;
-                break;
-            }
-            case BIKE: {
-                price = duration * Fare.BIKE_RATE_PER_HOUR;
-                break;
-            }
-            default:
-                throw new IllegalArgumentException("Unkown Parking Type");
+        // the grace period is free
+        if (tariff.isFree(inTime, outTime)) {
+            return 0.0;
         }
 
+        double price = tariff.cost(inTime, outTime);
+
         // subtract discount
         if (isDiscount) {
             price *= 0.95d;
         }
 
-        price = Math.round(price * 1000d) / 1000d;
-
-
-        ticket.setPrice(price);
+        return Math.round(price * 1000d) / 1000d;
     }
-}
\ No newline at end of file
+}
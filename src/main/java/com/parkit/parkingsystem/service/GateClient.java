@@ -0,0 +1,84 @@
+package com.parkit.parkingsystem.service;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A lane connected to a GateServer, sending one request at a time and reading its response.
+ * Not safe for concurrent use: each lane has its own client.
+ */
+public class GateClient implements Closeable {
+
+    private final Socket socket;
+    private final BufferedReader in;
+    private final Writer out;
+
+    public GateClient(String host, int port) throws IOException {
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return OK, the parking number and the in time, or ERR and the reason
+     */
+    public String enter(ParkingType parkingType, String vehicleRegNumber) throws IOException {
+        return request("IN " + parkingType + " " + vehicleRegNumber);
+    }
+
+    /**
+     * @return OK, the price and the out time, or ERR and the reason
+     */
+    public String exit(String vehicleRegNumber) throws IOException {
+        return request("OUT " + vehicleRegNumber);
+    }
+
+    /**
+     * send a request line and wait for its response line
+     */
+    public String request(String request) throws IOException {
+        out.write(request + "\n");
+        out.flush();
+        String response = in.readLine();
+        if (response == null) {
+            throw new EOFException("Gate server closed the connection");
+        }
+        return response;
+    }
+
+    /**
+     * @return true if the response is a success
+     */
+    public static boolean isOk(String response) {
+        return response.startsWith(GateServer.OK);
+    }
+
+    /**
+     * leave with QUIT and close the connection
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (!socket.isClosed()) {
+                out.write("QUIT\n");
+                out.flush();
+                in.readLine();
+            }
+        } catch (IOException e) {
+            // the connection is closed anyway
+        } finally {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package com.parkit.parkingsystem.service;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.model.Occupancy;
+import com.parkit.parkingsystem.model.Ticket;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Serves the entry and exit lanes of the parking over TCP, with a line protocol in UTF-8:
+ * <pre>
+ * IN &lt;CAR|BIKE&gt; &lt;vehicle&gt; [lot]   OK &lt;parking number&gt; &lt;in time in epoch millis&gt;
+ * OUT &lt;vehicle&gt; [lot]             OK &lt;price&gt; &lt;out time in epoch millis&gt;
+ * FREE [lot]                      OK CAR &lt;free spots&gt; BIKE &lt;free spots&gt;, answered from memory
+ * QUIT                            BYE, then the connection is closed
+ * </pre>
+ * A request without lot goes to the default lot. A request that fails is answered ERR and the reason. Each lane keeps its connection open and sends its requests
+ * one after the other; lanes are served concurrently, each by its own thread: a virtual thread when the runtime
+ * has them (Java 21), a pooled thread otherwise.
+ */
+public class GateServer implements Closeable {
+
+    private static final Logger logger = LogManager.getLogger("GateServer");
+
+    public static final String OK = "OK";
+    public static final String ERR = "ERR";
+    public static final String BYE = "BYE";
+
+    private final Function<String, ParkingService> lots;
+    private final ParkingService defaultService;
+    private final InetSocketAddress address;
+    private final Semaphore lanes;
+    private final Set<Socket> openLanes = ConcurrentHashMap.newKeySet();
+    private ServerSocket serverSocket;
+    private ExecutorService executor;
+    private Thread acceptor;
+    private volatile boolean closed;
+
+    /**
+     * @param parkingService the service the requests are run on
+     * @param address the address to listen on, port 0 for any free port
+     * @param maxLanes the number of lanes served at once, the connections above it are refused
+     */
+    public GateServer(ParkingService parkingService, InetSocketAddress address, int maxLanes) {
+        this(lotId -> null, parkingService, address, maxLanes);
+    }
+
+    /**
+     * @param parkingSystem the lots the requests are routed to
+     * @param address the address to listen on, port 0 for any free port
+     * @param maxLanes the number of lanes served at once, the connections above it are refused
+     */
+    public GateServer(ParkingSystem parkingSystem, InetSocketAddress address, int maxLanes) {
+        this(parkingSystem::getParkingService, parkingSystem.getParkingService(), address, maxLanes);
+    }
+
+    private GateServer(Function<String, ParkingService> lots, ParkingService defaultService, InetSocketAddress address, int maxLanes) {
+        this.lots = lots;
+        this.defaultService = defaultService;
+        this.address = address;
+        this.lanes = new Semaphore(maxLanes);
+    }
+
+    /**
+     * start the parking system and a gate server on the given port, and serve the lanes until the process is stopped
+     */
+    public static void run(int port) throws IOException, InterruptedException {
+        String bindAddress = System.getProperty("parking.gate.bindAddress");
+        InetAddress host = (bindAddress == null || bindAddress.isEmpty())
+                ? InetAddress.getLoopbackAddress() : InetAddress.getByName(bindAddress);
+        ParkingSystem parkingSystem = ParkingSystem.start(null);
+        GateServer server = new GateServer(parkingSystem, new InetSocketAddress(host, port),
+                Integer.getInteger("parking.gate.maxLanes", 10_000));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            parkingSystem.shutdown();
+        }, "gate-shutdown"));
+        server.start();
+        server.acceptor.join();
+    }
+
+    public synchronized void start() throws IOException {
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(address, Integer.getInteger("parking.gate.backlog", 1024));
+        executor = newLaneExecutor();
+        acceptor = new Thread(this::acceptLanes, "gate-acceptor");
+        acceptor.start();
+        logger.info("Gate server listening on {}", serverSocket.getLocalSocketAddress());
+    }
+
+    /**
+     * @return the port listened on
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * stop accepting lanes, disconnect the connected ones and wait for the requests in progress
+     */
+    @Override
+    public synchronized void close() {
+        if (closed || serverSocket == null) {
+            return;
+        }
+        closed = true;
+        closeQuietly(serverSocket);
+        for (Socket socket : openLanes) {
+            closeQuietly(socket);
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(Long.getLong("parking.gate.shutdownTimeoutMs", 10_000L), TimeUnit.MILLISECONDS)) {
+                logger.warn("Gate requests still in progress at shutdown");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void acceptLanes() {
+        while (!closed) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (!closed) {
+                    logger.error("Error accepting a gate connection", e);
+                }
+                continue;
+            }
+            if (!lanes.tryAcquire()) {
+                refuse(socket);
+                continue;
+            }
+            openLanes.add(socket);
+            try {
+                executor.execute(() -> serveLane(socket));
+            } catch (RuntimeException e) {
+                openLanes.remove(socket);
+                lanes.release();
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    private void serveLane(Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            String request;
+            while ((request = in.readLine()) != null) {
+                if (request.trim().equalsIgnoreCase("QUIT")) {
+                    out.write(BYE + "\n");
+                    out.flush();
+                    break;
+                }
+                out.write(handle(request) + "\n");
+                out.flush();
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                logger.warn("Gate connection lost: {}", e.getMessage());
+            }
+        } finally {
+            openLanes.remove(socket);
+            lanes.release();
+            closeQuietly(socket);
+        }
+    }
+
+    /**
+     * run one request
+     * @return the response line, without its line feed
+     */
+    String handle(String request) {
+        String[] words = request.trim().split("\\s+");
+        try {
+            switch (words[0].toUpperCase(Locale.ROOT)) {
+                case "IN": {
+                    ParkingType parkingType = (words.length == 3 || words.length == 4) ? parkingTypeOf(words[1]) : null;
+                    if (parkingType == null) {
+                        return ERR + " Usage: IN <CAR|BIKE> <vehicle> [lot]";
+                    }
+                    Ticket ticket = lot(words, 3).processIncomingVehicle(parkingType, words[2]);
+                    return OK + " " + ticket.getParkingSpot().getId() + " " + ticket.getInTime().getTime();
+                }
+                case "OUT": {
+                    if (words.length != 2 && words.length != 3) {
+                        return ERR + " Usage: OUT <vehicle> [lot]";
+                    }
+                    Ticket ticket = lot(words, 2).processExitingVehicle(words[1]);
+                    if (ticket == null) {
+                        return ERR + " Unable to update ticket information";
+                    }
+                    return OK + " " + ticket.getPrice() + " " + ticket.getOutTime().getTime();
+                }
+                case "FREE": {
+                    if (words.length > 2) {
+                        return ERR + " Usage: FREE [lot]";
+                    }
+                    Occupancy occupancy = lot(words, 1).getOccupancy();
+                    if (occupancy == null) {
+                        return ERR + " Occupancy not loaded";
+                    }
+                    StringBuilder response = new StringBuilder(OK);
+                    for (ParkingType parkingType : ParkingType.values()) {
+                        response.append(' ').append(parkingType).append(' ').append(occupancy.getFree(parkingType));
+                    }
+                    return response.toString();
+                }
+                default:
+                    return ERR + " Unknown request, expected IN, OUT, FREE or QUIT";
+            }
+        } catch (IllegalArgumentException e) {
+            logger.debug("Gate request {} refused: {}", request, e.getMessage());
+            return error(e);
+        } catch (RuntimeException e) {
+            logger.error("Unable to process gate request {}", request, e);
+            return error(e);
+        } catch (Exception e) {
+            // a full lot, a vehicle without open ticket, or a database failure already logged by the DAO
+            logger.warn("Gate request {} refused: {}", request, e.getMessage());
+            return error(e);
+        }
+    }
+
+    private static String error(Exception e) {
+        String message = (e.getMessage() == null) ? e.getClass().getSimpleName() : e.getMessage();
+        return ERR + " " + message.replace('\n', ' ').replace('\r', ' ');
+    }
+
+    /**
+     * @return the parking type named, null if there is none of that name
+     */
+    private static ParkingType parkingTypeOf(String name) {
+        for (ParkingType parkingType : ParkingType.values()) {
+            if (parkingType.name().equalsIgnoreCase(name)) {
+                return parkingType;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param lotIndex the position of the optional lot in the request
+     * @return the service of the lot of the request, of the default lot without one
+     */
+    private ParkingService lot(String[] words, int lotIndex) {
+        if (words.length <= lotIndex) {
+            return defaultService;
+        }
+        ParkingService parkingService = lots.apply(words[lotIndex]);
+        if (parkingService == null) {
+            throw new IllegalArgumentException("Unknown lot " + words[lotIndex]);
+        }
+        return parkingService;
+    }
+
+    private static void refuse(Socket socket) {
+        try {
+            socket.getOutputStream().write((ERR + " Too many lanes connected\n").getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            // the lane is refused anyway
+        }
+        closeQuietly(socket);
+    }
+
+    /**
+     * a thread per lane: virtual threads when the runtime has them, pooled platform threads otherwise
+     */
+    private static ExecutorService newLaneExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger count = new AtomicInteger();
+            ThreadFactory threadFactory = r -> {
+                Thread thread = new Thread(null, r, "gate-lane-" + count.incrementAndGet(),
+                        Long.getLong("parking.gate.threadStackSize", 256 * 1024L));
+                thread.setDaemon(true);
+                return thread;
+            };
+            return Executors.newCachedThreadPool(threadFactory);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // nothing left to release
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package com.parkit.parkingsystem.service;
+
+import com.parkit.parkingsystem.config.DataBaseConfig;
+import com.parkit.parkingsystem.config.SchemaManager;
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.LogStore;
+import com.parkit.parkingsystem.dao.OccupancyTracker;
+import com.parkit.parkingsystem.dao.OfflineStore;
+import com.parkit.parkingsystem.dao.ParkingSpotDAO;
+import com.parkit.parkingsystem.dao.RevenueSummaryDAO;
+import com.parkit.parkingsystem.dao.TicketArchiveDAO;
+import com.parkit.parkingsystem.dao.TicketArchiver;
+import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.dao.WriteBehindQueue;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.util.InputReaderUtil;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One parking lot served by this process: its DAOs bound to the database of the lot, their in memory indexes,
+ * its write-behind journal or offline journal, ticket archival, revenue aggregates and occupancy counts.
+ * With parking.store=log the lot runs on its own embedded log store instead, without database.
+ */
+public class ParkingLot {
+
+    private static final Logger logger = LogManager.getLogger("ParkingLot");
+
+    private final String lotId;
+    private final DataBaseConfig dataBaseConfig;
+    private final ParkingService parkingService;
+    private final WriteBehindQueue writeBehindQueue;
+    private final TicketArchiver ticketArchiver;
+    private final RevenueAggregates revenueAggregates;
+    private final OccupancyTracker occupancyTracker;
+    private final LogStore logStore;
+    private final OfflineStore offlineStore;
+
+    private ParkingLot(String lotId, DataBaseConfig dataBaseConfig, ParkingService parkingService, WriteBehindQueue writeBehindQueue,
+                       TicketArchiver ticketArchiver, RevenueAggregates revenueAggregates, OccupancyTracker occupancyTracker,
+                       LogStore logStore, OfflineStore offlineStore) {
+        this.lotId = lotId;
+        this.dataBaseConfig = dataBaseConfig;
+        this.parkingService = parkingService;
+        this.writeBehindQueue = writeBehindQueue;
+        this.ticketArchiver = ticketArchiver;
+        this.revenueAggregates = revenueAggregates;
+        this.occupancyTracker = occupancyTracker;
+        this.logStore = logStore;
+        this.offlineStore = offlineStore;
+    }
+
+    /**
+     * bring the schema of the lot up to date and start what its service runs on
+     * @param dataBaseConfig the database of the lot
+     * @param inputReaderUtil the console input of the shell, null for a service only driven by requests
+     * @param journalSuffix added to the write-behind and offline journal paths, so that each lot has its own journals
+     */
+    static ParkingLot start(String lotId, DataBaseConfig dataBaseConfig, InputReaderUtil inputReaderUtil, String journalSuffix) {
+        if("log".equals(System.getProperty("parking.store", "jdbc"))){
+            return startLogStore(lotId, inputReaderUtil);
+        }
+        ParkingSpotDAO parkingSpotDAO = new ParkingSpotDAO();
+        parkingSpotDAO.dataBaseConfig = dataBaseConfig;
+        migrateSchema(lotId, dataBaseConfig);
+        parkingSpotDAO.loadParkingSpotIndex();
+        TicketDAO ticketDAO = new TicketDAO();
+        ticketDAO.dataBaseConfig = dataBaseConfig;
+        WriteBehindQueue writeBehindQueue = startWriteBehindQueue(parkingSpotDAO, ticketDAO, journalSuffix);
+        if(parkingSpotDAO.getParkingSpotIndex() != null){
+            ticketDAO.loadOpenTicketIndex(parkingSpotDAO.getParkingSpotIndex().capacity());
+        }
+        ticketDAO.loadVisitedVehicles();
+        OccupancyTracker occupancyTracker = startOccupancyTracker(lotId, parkingSpotDAO);
+        ParkingService parkingService = new ParkingService(inputReaderUtil, parkingSpotDAO, ticketDAO);
+        OfflineStore offlineStore = startOfflineStore(lotId, parkingSpotDAO, ticketDAO, writeBehindQueue, journalSuffix);
+        parkingService.setOfflineStore(offlineStore);
+        RevenueAggregates revenueAggregates = new RevenueAggregates(ZoneId.systemDefault());
+        RevenueSummaryDAO revenueSummaryDAO = new RevenueSummaryDAO();
+        revenueSummaryDAO.dataBaseConfig = dataBaseConfig;
+        revenueAggregates.startFlushing(revenueSummaryDAO, Long.getLong("parking.revenue.flushIntervalMs", 60_000L));
+        parkingService.setRevenueAggregates(revenueAggregates);
+        return new ParkingLot(lotId, dataBaseConfig, parkingService, writeBehindQueue, startTicketArchiver(dataBaseConfig),
+                revenueAggregates, occupancyTracker, null, offlineStore);
+    }
+
+    /**
+     * open the log of the lot in parking.store.dir, created with the spots of parking.store.spots the first time.
+     * Its compaction drops the tickets closed for more than parking.store.retentionDays days, 0 to keep them all.
+     * Archival, revenue summaries and write-behind need the database and are left out, the log being local already.
+     */
+    private static ParkingLot startLogStore(String lotId, InputReaderUtil inputReaderUtil) {
+        LogStore logStore;
+        try {
+            logStore = LogStore.open(Paths.get(System.getProperty("parking.store.dir", "data"), lotId + ".log"),
+                    parseSpots(System.getProperty("parking.store.spots", "CAR:3,BIKE:2")),
+                    Boolean.parseBoolean(System.getProperty("parking.store.sync", "true")));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to open the log store of lot " + lotId, e);
+        }
+        logStore.startCompacting(Long.getLong("parking.store.compactionMs", 600_000L),
+                TimeUnit.DAYS.toMillis(Integer.getInteger("parking.store.retentionDays", 90)));
+        ParkingService parkingService = new ParkingService(inputReaderUtil, logStore, logStore);
+        RevenueAggregates revenueAggregates = new RevenueAggregates(ZoneId.systemDefault());
+        parkingService.setRevenueAggregates(revenueAggregates);
+        return new ParkingLot(lotId, null, parkingService, null, null, revenueAggregates,
+                logStore.getOccupancyTracker(), logStore, null);
+    }
+
+    /**
+     * @param spots the number of spots of each type, such as CAR:3,BIKE:2, numbered from 1 in that order
+     */
+    static List<ParkingSpot> parseSpots(String spots) {
+        List<ParkingSpot> parsed = new ArrayList<>();
+        for (String spec : spots.split(",")) {
+            String[] typeAndCount = spec.trim().split(":");
+            ParkingType parkingType = ParkingType.valueOf(typeAndCount[0].trim());
+            int count = Integer.parseInt(typeAndCount[1].trim());
+            for (int i = 0; i < count; i++) {
+                parsed.add(new ParkingSpot(parsed.size() + 1, parkingType, true));
+            }
+        }
+        return parsed;
+    }
+
+    public String getLotId() {
+        return lotId;
+    }
+
+    /**
+     * @return the database of the lot, null when it runs on a log store
+     */
+    public DataBaseConfig getDataBaseConfig() {
+        return dataBaseConfig;
+    }
+
+    public ParkingService getParkingService() {
+        return parkingService;
+    }
+
+    /**
+     * wait for the writes queued so far to reach the database
+     * @return true once they are, or when writes are not queued; false if the timeout elapsed first
+     */
+    public boolean flushWrites(long timeoutMillis) throws InterruptedException {
+        return writeBehindQueue == null || writeBehindQueue.flush(timeoutMillis);
+    }
+
+    /**
+     * stop archival and occupancy reconciliation, write the last revenue aggregates and drain the write-behind queue
+     */
+    void shutdown() {
+        if(ticketArchiver != null){
+            ticketArchiver.close();
+        }
+        revenueAggregates.close();
+        if(occupancyTracker != null){
+            occupancyTracker.close();
+        }
+    }
+
+    /**
+     * drain the write-behind queue or close the log store or the offline journal, once group commit is off
+     */
+    void closeWrites() {
+        if(offlineStore != null){
+            try {
+                offlineStore.close();
+            } catch (IOException e) {
+                logger.error("Error while closing the offline journal of lot {}", lotId, e);
+            }
+        }
+        if(logStore != null){
+            try {
+                logStore.close();
+            } catch (IOException e) {
+                logger.error("Error while closing the log store of lot {}", lotId, e);
+            }
+        }
+        if(writeBehindQueue != null){
+            try {
+                writeBehindQueue.close();
+            } catch (IOException e) {
+                logger.error("Error while draining write-behind queue of lot {}", lotId, e);
+            }
+        }
+    }
+
+    private static void migrateSchema(String lotId, DataBaseConfig dataBaseConfig){
+        SchemaManager schemaManager = new SchemaManager(dataBaseConfig);
+        try {
+            int applied = schemaManager.migrate();
+            if(applied > 0){
+                logger.info("Applied {} schema migrations to lot {}", applied, lotId);
+            }
+            schemaManager.checkQueryPlans();
+        } catch (Exception e) {
+            logger.error("Unable to migrate the database schema of lot {}", lotId, e);
+        }
+    }
+
+    /**
+     * archive the tickets closed for more than parking.archive.afterDays days, 0 to keep them all in ticket
+     */
+    private static TicketArchiver startTicketArchiver(DataBaseConfig dataBaseConfig){
+        int afterDays = Integer.getInteger("parking.archive.afterDays", 90);
+        if(afterDays <= 0){
+            return null;
+        }
+        TicketArchiveDAO ticketArchiveDAO = new TicketArchiveDAO();
+        ticketArchiveDAO.dataBaseConfig = dataBaseConfig;
+        TicketArchiver archiver = new TicketArchiver(ticketArchiveDAO, TimeUnit.DAYS.toMillis(afterDays),
+                Integer.getInteger("parking.archive.batchSize", 500),
+                Long.getLong("parking.archive.pauseMs", 100L));
+        archiver.start(Long.getLong("parking.archive.periodMs", 3_600_000L));
+        return archiver;
+    }
+
+    /**
+     * count the taken spots from the parking table, then reconcile with it every parking.occupancy.reconcileMs
+     */
+    private static OccupancyTracker startOccupancyTracker(String lotId, ParkingSpotDAO parkingSpotDAO){
+        if(!parkingSpotDAO.loadOccupancy()){
+            logger.error("Unable to count the occupied spots of lot {}, occupancy not available", lotId);
+            return null;
+        }
+        OccupancyTracker tracker = parkingSpotDAO.getOccupancyTracker();
+        tracker.startReconciling(parkingSpotDAO, Long.getLong("parking.occupancy.reconcileMs", 60_000L));
+        return tracker;
+    }
+
+    /**
+     * journal the entries and exits in parking.offline.journal while the database cannot be reached, replayed to it
+     * in transactions of parking.offline.resyncBatchSize records once it answers again, checked every parking.offline.probeMs.
+     * Offline mode runs on the spot and open ticket caches, and is left out with write-behind, whose journal already takes the writes.
+     */
+    private static OfflineStore startOfflineStore(String lotId, ParkingSpotDAO parkingSpotDAO, TicketDAO ticketDAO,
+                                                  WriteBehindQueue writeBehindQueue, String journalSuffix){
+        String journal = System.getProperty("parking.offline.journal");
+        if(journal == null || journal.isEmpty()){
+            return null;
+        }
+        journal += journalSuffix;
+        if(writeBehindQueue != null){
+            logger.info("Offline mode not started for lot {}, its writes go through the write-behind journal", lotId);
+            return null;
+        }
+        if(parkingSpotDAO.getParkingSpotIndex() == null){
+            logger.error("Spots of lot {} not cached, offline mode not available", lotId);
+            return null;
+        }
+        try {
+            OfflineStore store = new OfflineStore(parkingSpotDAO, ticketDAO, Paths.get(journal),
+                    Integer.getInteger("parking.offline.resyncBatchSize", 1_000));
+            if(store.isOffline() && !store.resync()){
+                logger.warn("Offline journal of lot {} not replayed yet, the lot starts offline", lotId);
+            }
+            store.startResyncing(Long.getLong("parking.offline.probeMs", 5_000L));
+            return store;
+        } catch (IOException e) {
+            logger.error("Unable to open offline journal {}, offline mode not available", journal, e);
+            return null;
+        }
+    }
+
+    private static WriteBehindQueue startWriteBehindQueue(ParkingSpotDAO parkingSpotDAO, TicketDAO ticketDAO, String journalSuffix){
+        String journal = System.getProperty("parking.writeBehind.journal");
+        if(journal == null || journal.isEmpty()){
+            return null;
+        }
+        journal += journalSuffix;
+        try {
+            WriteBehindQueue queue = new WriteBehindQueue(ticketDAO.dataBaseConfig, Paths.get(journal),
+                    Integer.getInteger("parking.writeBehind.capacity", 10_000),
+                    Integer.getInteger("parking.writeBehind.batchSize", 256),
+                    Long.getLong("parking.writeBehind.offerTimeoutMs", 2_000L));
+            queue.start();
+            // the ticket indexes are loaded from the database, the spot index also takes the changes still queued
+            if(!queue.flush(Long.getLong("parking.writeBehind.drainTimeoutMs", 30_000L))){
+                logger.warn("Journal not fully replayed yet, tickets still queued are missing from the ticket indexes");
+            }
+            if(!parkingSpotDAO.setWriteBehindQueue(queue)){
+                queue.close();
+                return null;
+            }
+            ticketDAO.setWriteBehindQueue(queue);
+            return queue;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (IOException e) {
+            logger.error("Unable to open write-behind journal {}, writing directly to the database", journal, e);
+            return null;
+        }
+    }
+}
@@ -1,30 +1,110 @@
 package com.parkit.parkingsystem.service;
 
+import com.parkit.parkingsystem.config.UnitOfWork;
 import com.parkit.parkingsystem.constants.ParkingType;
-import com.parkit.parkingsystem.dao.ParkingSpotDAO;
-import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.dao.OccupancyTracker;
+import com.parkit.parkingsystem.dao.OfflineStore;
+import com.parkit.parkingsystem.dao.ParkingSpotStore;
+import com.parkit.parkingsystem.dao.TicketStore;
+import com.parkit.parkingsystem.metrics.Metrics;
+import com.parkit.parkingsystem.metrics.OperationMetrics;
+import com.parkit.parkingsystem.model.Occupancy;
 import com.parkit.parkingsystem.model.ParkingSpot;
 import com.parkit.parkingsystem.model.Ticket;
 import com.parkit.parkingsystem.util.InputReaderUtil;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLTransientConnectionException;
 
+import java.time.Clock;
 import java.util.Date;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class ParkingService {
 
     private static final Logger logger = LogManager.getLogger("ParkingService");
 
+    private static final int LOCK_STRIPES = 1024;
+
+    private static final OperationMetrics INCOMING_VEHICLE = Metrics.operation("ParkingService.processIncomingVehicle");
+    private static final OperationMetrics EXITING_VEHICLE = Metrics.operation("ParkingService.processExitingVehicle");
+    private static final OperationMetrics NEXT_PARKING_NUMBER = Metrics.operation("ParkingService.getNextParkingNumberIfAvailable");
+
     private static FareCalculatorService fareCalculatorService = new FareCalculatorService();
 
     private InputReaderUtil inputReaderUtil;
-    private ParkingSpotDAO parkingSpotDAO;
-    private  TicketDAO ticketDAO;
+    private ParkingSpotStore parkingSpotDAO;
+    private  TicketStore ticketDAO;
+
+    /**
+     * the entry and exit of a vehicle are serialized on the lock of its stripe. Not monitors:
+     * a virtual thread blocked on the database inside a synchronized block would pin its carrier thread
+     */
+    private final Lock[] vehicleLocks = new Lock[LOCK_STRIPES];
+
+    /**
+     * the source of the in and out times, simulated when replaying traffic
+     */
+    private volatile Clock clock = Clock.systemDefaultZone();
+
+    private volatile RevenueAggregates revenueAggregates;
+
+    private volatile OfflineStore offlineStore;
+
+    /**
+     * an entry or exit run on the given stores, the DAOs or the offline store
+     */
+    @FunctionalInterface
+    private interface StoreWork<T> {
+        T execute(ParkingSpotStore parkingSpotStore, TicketStore ticketStore) throws Exception;
+    }
 
-    public ParkingService(InputReaderUtil inputReaderUtil, ParkingSpotDAO parkingSpotDAO, TicketDAO ticketDAO){
+    public ParkingService(InputReaderUtil inputReaderUtil, ParkingSpotStore parkingSpotDAO, TicketStore ticketDAO){
         this.inputReaderUtil = inputReaderUtil;
         this.parkingSpotDAO = parkingSpotDAO;
         this.ticketDAO = ticketDAO;
+        for(int i = 0; i < vehicleLocks.length; i++){
+            vehicleLocks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * a service for the gates, which give the vehicle type and registration number with each request
+     * instead of reading them from the console
+     */
+    public ParkingService(ParkingSpotStore parkingSpotDAO, TicketStore ticketDAO){
+        this(null, parkingSpotDAO, ticketDAO);
+    }
+
+    public void setClock(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * count the fare of every exit, once committed, in these aggregates
+     * @param revenueAggregates the aggregates, null to stop counting
+     */
+    public void setRevenueAggregates(RevenueAggregates revenueAggregates) {
+        this.revenueAggregates = revenueAggregates;
+    }
+
+    /**
+     * journal the entries and exits locally while the database cannot be reached
+     * @param offlineStore the offline store of the lot, null to fail them instead
+     */
+    public void setOfflineStore(OfflineStore offlineStore) {
+        this.offlineStore = offlineStore;
+    }
+
+    /**
+     * the free and taken spots of each type, read from memory without any database access
+     * @return the counts as of the last committed spot change, null if the occupancy is not loaded
+     */
+    public Occupancy getOccupancy() {
+        OccupancyTracker tracker = parkingSpotDAO.getOccupancyTracker();
+        return (tracker == null) ? null : tracker.snapshot();
     }
 
     public void processIncomingVehicle() {
@@ -33,34 +113,78 @@ public class ParkingService {
             ParkingSpot parkingSpot = getNextParkingNumberIfAvailable();
             if(parkingSpot !=null && parkingSpot.getId() > 0){
                 String vehicleRegNumber = getVehicleRegNumber();
-                parkingSpot.setAvailable(false);
-                parkingSpotDAO.updateParking(parkingSpot);//allot this parking space and mark it's availability as false
-
-                Date inTime = new Date();
-                Ticket ticket = new Ticket();
-                //ID, PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME)
-                //ticket.setId(ticketID);
-                ticket.setParkingSpot(parkingSpot);
-                ticket.setVehicleRegNumber(vehicleRegNumber);
-                ticket.setPrice(0);
-                ticket.setInTime(inTime);
-                ticket.setOutTime(null);
-                ticketDAO.saveTicket(ticket);
+                Ticket ticket = processIncomingVehicle(parkingSpot.getParkingType(), vehicleRegNumber);
                 System.out.println("Generated Ticket and saved in DB");
-                System.out.println("Please park your vehicle in spot number:"+parkingSpot.getId());
-                System.out.println("Recorded in-time for vehicle number:"+vehicleRegNumber+" is:"+inTime);
+                System.out.println("Please park your vehicle in spot number:"+ticket.getParkingSpot().getId());
+                System.out.println("Recorded in-time for vehicle number:"+vehicleRegNumber+" is:"+ticket.getInTime());
             }
         }catch(Exception e){
             logger.error("Unable to process incoming vehicle",e);
         }
     }
 
+    /**
+     * park a vehicle in the lowest available spot of its type, without reading the input nor writing to the console.
+     * Safe to call from concurrent gates: the operations of a vehicle are serialized.
+     * @param parkingType the type of the vehicle
+     * @param vehicleRegNumber the vehicle registration number
+     * @return the saved ticket, its spot holding the number of the claimed spot
+     * @throws Exception if the parking is full for this type or the ticket cannot be saved
+     */
+    public Ticket processIncomingVehicle(ParkingType parkingType, String vehicleRegNumber) throws Exception {
+        long start = INCOMING_VEHICLE.start();
+        try {
+            Ticket ticket = enter(parkingType, vehicleRegNumber);
+            INCOMING_VEHICLE.success(start);
+            return ticket;
+        } catch (Exception e) {
+            INCOMING_VEHICLE.failure(start);
+            throw e;
+        }
+    }
+
+    private Ticket enter(ParkingType parkingType, String vehicleRegNumber) throws Exception {
+        checkVehicleRegNumber(vehicleRegNumber);
+        Date inTime = new Date(clock.millis());
+        Lock lock = lockFor(vehicleRegNumber);
+        lock.lock();
+        try {
+            //claim the spot and save the ticket on one connection in one commit,
+            //so a spot is never left occupied without its ticket
+            return onStores((parkingSpotDAO, ticketDAO) -> UnitOfWork.execute(() -> {
+                //allot a parking space and mark it's availability as false in one atomic step,
+                //another gate may have taken the spot proposed to this vehicle in the meantime
+                int parkingNumber = parkingSpotDAO.claimNextAvailableSlot(parkingType);
+                if(parkingNumber <= 0){
+                    throw new Exception("Error claiming parking number from DB. Parking slots might be full");
+                }
+                ParkingSpot parkingSpot = new ParkingSpot(parkingNumber, parkingType, false);
+
+                Ticket newTicket = new Ticket();
+                //ID, PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME)
+                //ticket.setId(ticketID);
+                newTicket.setParkingSpot(parkingSpot);
+                newTicket.setVehicleRegNumber(vehicleRegNumber);
+                newTicket.setPrice(0);
+                newTicket.setInTime(inTime);
+                newTicket.setOutTime(null);
+                if(!ticketDAO.saveTicket(newTicket)){
+                    throw new Exception("Error saving ticket in DB");
+                }
+                return newTicket;
+            }));
+        } finally {
+            lock.unlock();
+        }
+    }
+
     private String getVehicleRegNumber() throws Exception {
         System.out.println("Please type the vehicle registration number and press enter key");
         return inputReaderUtil.readVehicleRegistrationNumber();
     }
 
     public ParkingSpot getNextParkingNumberIfAvailable() {
+        long start = NEXT_PARKING_NUMBER.start();
         int parkingNumber=0;
         ParkingSpot parkingSpot = null;
         try{
@@ -76,6 +200,7 @@ public class ParkingService {
         }catch(Exception e){
             logger.error("Error fetching next available parking slot", e);
         }
+        NEXT_PARKING_NUMBER.record(start, parkingSpot != null);
         return parkingSpot;
     }
 
@@ -101,17 +226,10 @@ public class ParkingService {
     public void processExitingVehicle() {
         try{
             String vehicleRegNumber = getVehicleRegNumber();
-            Ticket ticket = ticketDAO.getTicket(vehicleRegNumber);
-            Date outTime = new Date();
-            ticket.setOutTime(outTime);
-            boolean isDiscount = ticketDAO.getNbTicket(vehicleRegNumber) > 0;
-            fareCalculatorService.calculateFare(ticket, isDiscount);
-            if(ticketDAO.updateTicket(ticket)) {
-                ParkingSpot parkingSpot = ticket.getParkingSpot();
-                parkingSpot.setAvailable(true);
-                parkingSpotDAO.updateParking(parkingSpot);
+            Ticket ticket = processExitingVehicle(vehicleRegNumber);
+            if(ticket != null) {
                 System.out.println("Please pay the parking fare:" + ticket.getPrice());
-                System.out.println("Recorded out-time for vehicle number:" + ticket.getVehicleRegNumber() + " is:" + outTime);
+                System.out.println("Recorded out-time for vehicle number:" + ticket.getVehicleRegNumber() + " is:" + ticket.getOutTime());
             }else{
                 System.out.println("Unable to update ticket information. Error occurred");
             }
@@ -119,4 +237,113 @@ public class ParkingService {
             logger.error("Unable to process exiting vehicle",e);
         }
     }
+
+    /**
+     * price and close the open ticket of a vehicle and free its spot, without reading the input nor writing to the console.
+     * Safe to call from concurrent gates: the operations of a vehicle are serialized, so a ticket is closed once.
+     * @param vehicleRegNumber the vehicle registration number
+     * @return the closed ticket with its price, null if the ticket could not be updated
+     * @throws Exception if the vehicle has no open ticket or its spot cannot be freed
+     */
+    public Ticket processExitingVehicle(String vehicleRegNumber) throws Exception {
+        long start = EXITING_VEHICLE.start();
+        try {
+            Ticket ticket = exit(vehicleRegNumber);
+            EXITING_VEHICLE.record(start, ticket != null);
+            return ticket;
+        } catch (Exception e) {
+            EXITING_VEHICLE.failure(start);
+            throw e;
+        }
+    }
+
+    private Ticket exit(String vehicleRegNumber) throws Exception {
+        checkVehicleRegNumber(vehicleRegNumber);
+        Date outTime = new Date(clock.millis());
+        Lock lock = lockFor(vehicleRegNumber);
+        lock.lock();
+        try {
+            //read, price and close the ticket and free its spot on one connection in one commit
+            return onStores((parkingSpotDAO, ticketDAO) -> UnitOfWork.execute(() -> {
+                Ticket openTicket = ticketDAO.getTicket(vehicleRegNumber);
+                if(openTicket == null || openTicket.getOutTime() != null){
+                    throw new Exception("No open ticket for vehicle number:" + vehicleRegNumber);
+                }
+                openTicket.setOutTime(outTime);
+                //a returning customer has a closed ticket, the open one being priced does not count
+                boolean isDiscount = ticketDAO.hasVisitedBefore(vehicleRegNumber);
+                fareCalculatorService.calculateFare(openTicket, isDiscount);
+                if(!ticketDAO.updateTicket(openTicket)) {
+                    return null;
+                }
+                ParkingSpot parkingSpot = openTicket.getParkingSpot();
+                parkingSpot.setAvailable(true);
+                if(!parkingSpotDAO.updateParking(parkingSpot)) {
+                    throw new Exception("Error freeing parking spot in DB");
+                }
+                RevenueAggregates aggregates = revenueAggregates;
+                if(aggregates != null){
+                    UnitOfWork.afterCommit(() -> aggregates.recordExit(parkingSpot.getParkingType(), outTime.getTime(),
+                            openTicket.getPrice(), isDiscount));
+                }
+                return openTicket;
+            }));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * run an entry or exit on the DAOs, or on the offline store while the database cannot be reached.
+     * Work failing online because a connection could not be had or was lost is run again offline if the database
+     * turns out to be unreachable, any other failure is the caller's.
+     */
+    private <T> T onStores(StoreWork<T> work) throws Exception {
+        OfflineStore offline = offlineStore;
+        if(offline == null){
+            return work.execute(parkingSpotDAO, ticketDAO);
+        }
+        //held so that the lot does not go back online before the work is journaled
+        Lock modeLock = offline.getModeLock();
+        modeLock.lock();
+        try {
+            if(offline.isOffline()){
+                return work.execute(offline, offline);
+            }
+        } finally {
+            modeLock.unlock();
+        }
+        try {
+            return work.execute(parkingSpotDAO, ticketDAO);
+        } catch (Exception e) {
+            if(!isConnectionFailure(e) || !offline.goOffline()){
+                throw e;
+            }
+            logger.warn("Database unreachable, running offline", e);
+            return onStores(work);
+        }
+    }
+
+    /**
+     * @return true if the failure comes from a connection that could not be had, the pool timing out included,
+     * or that was lost
+     */
+    private static boolean isConnectionFailure(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if(cause instanceof SQLTransientConnectionException || cause instanceof SQLNonTransientConnectionException){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void checkVehicleRegNumber(String vehicleRegNumber) {
+        if(vehicleRegNumber == null || vehicleRegNumber.trim().length()==0) {
+            throw new IllegalArgumentException("Invalid input provided");
+        }
+    }
+
+    private Lock lockFor(String vehicleRegNumber) {
+        return vehicleLocks[(vehicleRegNumber.hashCode() & 0x7fffffff) % vehicleLocks.length];
+    }
 }
@@ -0,0 +1,121 @@
+package com.parkit.parkingsystem.service;
+
+import com.parkit.parkingsystem.config.DataBaseConfig;
+import com.parkit.parkingsystem.config.ShardMap;
+import com.parkit.parkingsystem.config.StaticShardMap;
+import com.parkit.parkingsystem.config.UnitOfWork;
+import com.parkit.parkingsystem.metrics.Metrics;
+import com.parkit.parkingsystem.util.InputReaderUtil;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Starts and stops what the parking services run on, whether they are driven by the shell or by the gate server:
+ * tariffs, group commit and the metrics summary log for the whole process, then for each lot of the shard map
+ * its schema, in memory indexes, write-behind, ticket archival, revenue aggregates and occupancy counts,
+ * as configured by the system properties.
+ */
+public class ParkingSystem {
+
+    private static final Logger logger = LogManager.getLogger("ParkingSystem");
+
+    private final Map<String, ParkingLot> lots;
+    private final ParkingLot defaultLot;
+
+    private ParkingSystem(Map<String, ParkingLot> lots) {
+        this.lots = lots;
+        this.defaultLot = lots.values().iterator().next();
+    }
+
+    /**
+     * start the lots of the parking.lots system properties, the single lot of parking.db.url without them
+     * @param inputReaderUtil the console input of the shell, null for a service only driven by requests
+     */
+    public static ParkingSystem start(InputReaderUtil inputReaderUtil) {
+        return start(inputReaderUtil, StaticShardMap.fromSystemProperties());
+    }
+
+    /**
+     * @param inputReaderUtil the console input of the shell, null for a service only driven by requests
+     * @param shardMap the lots to serve and their databases
+     */
+    public static ParkingSystem start(InputReaderUtil inputReaderUtil, ShardMap shardMap) {
+        long groupCommitWindowMillis = Long.getLong("parking.db.groupCommitWindowMs", 0L);
+        if(groupCommitWindowMillis > 0){
+            UnitOfWork.enableGroupCommit(groupCommitWindowMillis, Integer.getInteger("parking.db.groupCommitMaxSize", 64));
+        }
+        Metrics.startLogging(Long.getLong("parking.metrics.logIntervalMs", 60_000L));
+        loadTariffs();
+        List<String> lotIds = shardMap.getLotIds();
+        Map<String, ParkingLot> lots = new LinkedHashMap<>();
+        for (String lotId : lotIds) {
+            String journalSuffix = (lotIds.size() > 1) ? "." + lotId : "";
+            lots.put(lotId, ParkingLot.start(lotId, shardMap.getShard(lotId), inputReaderUtil, journalSuffix));
+        }
+        return new ParkingSystem(lots);
+    }
+
+    /**
+     * @return the service of the default lot, the first one of the shard map
+     */
+    public ParkingService getParkingService() {
+        return defaultLot.getParkingService();
+    }
+
+    /**
+     * @param lotId the lot of the request
+     * @return the service of the lot, null if this process does not serve it
+     */
+    public ParkingService getParkingService(String lotId) {
+        ParkingLot lot = lots.get(lotId);
+        return (lot == null) ? null : lot.getParkingService();
+    }
+
+    /**
+     * @return the database of the default lot, null when it runs on a log store
+     */
+    public DataBaseConfig getDataBaseConfig() {
+        return defaultLot.getDataBaseConfig();
+    }
+
+    /**
+     * wait for the writes queued so far in every lot to reach the database
+     * @return true once they are, or when writes are not queued; false if the timeout elapsed first
+     */
+    public boolean flushWrites(long timeoutMillis) throws InterruptedException {
+        boolean flushed = true;
+        for (ParkingLot lot : lots.values()) {
+            flushed &= lot.flushWrites(timeoutMillis);
+        }
+        return flushed;
+    }
+
+    /**
+     * stop the metrics summary, archival, occupancy reconciliation and group commit, write the last revenue aggregates,
+     * drain the write-behind queues and close the connection pools
+     */
+    public void shutdown() {
+        Metrics.stopLogging();
+        for (ParkingLot lot : lots.values()) {
+            lot.shutdown();
+        }
+        UnitOfWork.disableGroupCommit();
+        for (ParkingLot lot : lots.values()) {
+            lot.closeWrites();
+        }
+        DataBaseConfig.shutdownAll();
+    }
+
+    private static void loadTariffs(){
+        try {
+            FareCalculatorService.setTariffs(TariffTable.load());
+        } catch (IOException | RuntimeException e) {
+            logger.error("Unable to load the tariffs, using the default rates", e);
+        }
+    }
+}
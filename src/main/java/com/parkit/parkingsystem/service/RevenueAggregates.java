@@ -0,0 +1,277 @@
+package com.parkit.parkingsystem.service;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.RevenueSummaryDAO;
+import com.parkit.parkingsystem.model.RevenueSummary;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Revenue and exits per parking type, hour and day, kept up to date by every exit so that reports never group
+ * the ticket table. Exits only add to striped counters, which concurrent gates update without contending;
+ * a periodic flush adds what changed since the previous flush to the revenue_summary table.
+ * The counters of an hour or a day are dropped once they have stopped changing and have been written.
+ */
+public class RevenueAggregates implements Closeable {
+
+    private static final Logger logger = LogManager.getLogger("RevenueAggregates");
+
+    private final ZoneId zone;
+    private final ConcurrentMap<Key, Counters> buckets = new ConcurrentHashMap<>();
+    /**
+     * buckets dropped at the last flush, flushed once more for the exits which were adding to them meanwhile
+     */
+    private List<Counters> retired = new ArrayList<>();
+    private volatile Hour currentHour;
+    private ScheduledExecutorService flusher;
+    private RevenueSummaryDAO flushTarget;
+
+    /**
+     * @param zone the time zone of the hours and days
+     */
+    public RevenueAggregates(ZoneId zone) {
+        this.zone = zone;
+    }
+
+    /**
+     * count an exit in the hour and the day of its out time
+     * @param price the fare paid, 0 for a free stay
+     * @param discount true if the fare is the one of a returning customer
+     */
+    public void recordExit(ParkingType parkingType, long outTime, double price, boolean discount) {
+        Hour hour = hourOf(outTime);
+        long revenue = Math.round(price * 1000d);
+        bucket(RevenueSummary.Period.HOUR, hour.start, parkingType).add(revenue, discount);
+        bucket(RevenueSummary.Period.DAY, hour.dayStart, parkingType).add(revenue, discount);
+    }
+
+    /**
+     * the totals counted in memory so far, written or not, for the periods still held
+     * @return the summaries of the given period by start then parking type
+     */
+    public List<RevenueSummary> getSummaries(RevenueSummary.Period period) {
+        List<RevenueSummary> summaries = new ArrayList<>();
+        for (Map.Entry<Key, Counters> bucket : buckets.entrySet()) {
+            if (bucket.getKey().period == period) {
+                summaries.add(bucket.getValue().total());
+            }
+        }
+        summaries.sort((a, b) -> (a.getPeriodStart().equals(b.getPeriodStart()))
+                ? a.getParkingType().compareTo(b.getParkingType()) : a.getPeriodStart().compareTo(b.getPeriodStart()));
+        return summaries;
+    }
+
+    /**
+     * add to the summary table the exits counted since the last successful flush
+     * @return false if they could not be written, they are then part of the next flush
+     */
+    public synchronized boolean flush(RevenueSummaryDAO revenueSummaryDAO) {
+        List<RevenueSummary> deltas = new ArrayList<>();
+        for (Counters counters : retired) {
+            counters.collect(deltas);
+        }
+        for (Counters counters : buckets.values()) {
+            counters.collect(deltas);
+        }
+        if (!revenueSummaryDAO.addToSummaries(deltas)) {
+            return false;
+        }
+        List<Counters> idle = new ArrayList<>();
+        for (Iterator<Counters> it = buckets.values().iterator(); it.hasNext(); ) {
+            Counters counters = it.next();
+            if (!counters.markFlushed() && counters.key.start < currentStart(counters.key.period)) {
+                it.remove();
+                idle.add(counters);
+            }
+        }
+        for (Counters counters : retired) {
+            counters.markFlushed();
+        }
+        retired = idle;
+        return true;
+    }
+
+    /**
+     * flush every period
+     */
+    public synchronized void startFlushing(RevenueSummaryDAO revenueSummaryDAO, long periodMillis) {
+        flushTarget = revenueSummaryDAO;
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "revenue-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(() -> {
+            try {
+                flush(revenueSummaryDAO);
+            } catch (RuntimeException e) {
+                logger.error("Unable to flush the revenue summaries", e);
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * stop flushing periodically and flush a last time
+     */
+    @Override
+    public synchronized void close() {
+        if (flusher != null) {
+            flusher.shutdownNow();
+            flusher = null;
+            if (!flush(flushTarget)) {
+                logger.error("Revenue of the last exits not written to the summaries");
+            }
+        }
+    }
+
+    private Counters bucket(RevenueSummary.Period period, long start, ParkingType parkingType) {
+        Key key = new Key(period, start, parkingType);
+        Counters counters = buckets.get(key);
+        return (counters != null) ? counters : buckets.computeIfAbsent(key, Counters::new);
+    }
+
+    private long currentStart(RevenueSummary.Period period) {
+        Hour hour = currentHour;
+        if (hour == null) {
+            return Long.MIN_VALUE;
+        }
+        return (period == RevenueSummary.Period.HOUR) ? hour.start : hour.dayStart;
+    }
+
+    /**
+     * the hour of a time, the last one computed being reused by the exits of the same hour
+     */
+    private Hour hourOf(long time) {
+        Hour hour = currentHour;
+        if (hour != null && time >= hour.start && time < hour.end) {
+            return hour;
+        }
+        ZonedDateTime dateTime = Instant.ofEpochMilli(time).atZone(zone);
+        ZonedDateTime start = dateTime.truncatedTo(ChronoUnit.HOURS);
+        hour = new Hour(start.toInstant().toEpochMilli(), start.plusHours(1).toInstant().toEpochMilli(),
+                dateTime.truncatedTo(ChronoUnit.DAYS).toInstant().toEpochMilli());
+        if (currentHour == null || hour.start > currentHour.start) {
+            currentHour = hour;
+        }
+        return hour;
+    }
+
+    private static final class Hour {
+
+        private final long start;
+        private final long end;
+        private final long dayStart;
+
+        Hour(long start, long end, long dayStart) {
+            this.start = start;
+            this.end = end;
+            this.dayStart = dayStart;
+        }
+    }
+
+    private static final class Key {
+
+        private final RevenueSummary.Period period;
+        private final long start;
+        private final ParkingType parkingType;
+
+        Key(RevenueSummary.Period period, long start, ParkingType parkingType) {
+            this.period = period;
+            this.start = start;
+            this.parkingType = parkingType;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return period == other.period && start == other.start && parkingType == other.parkingType;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(period, start, parkingType);
+        }
+    }
+
+    /**
+     * the counters of one period and parking type, and what of them the summary table already has
+     */
+    private static final class Counters {
+
+        private final Key key;
+        private final LongAdder fullPriceExits = new LongAdder();
+        private final LongAdder discountedExits = new LongAdder();
+        private final LongAdder freeExits = new LongAdder();
+        private final LongAdder revenue = new LongAdder();
+
+        // read and written by the flush only
+        private final long[] flushed = new long[4];
+        private final long[] collected = new long[4];
+        private boolean changed;
+
+        Counters(Key key) {
+            this.key = key;
+        }
+
+        void add(long revenueThousandths, boolean discount) {
+            if (revenueThousandths == 0) {
+                freeExits.increment();
+            } else if (discount) {
+                discountedExits.increment();
+            } else {
+                fullPriceExits.increment();
+            }
+            revenue.add(revenueThousandths);
+        }
+
+        RevenueSummary total() {
+            return new RevenueSummary(key.period, new Date(key.start), key.parkingType, fullPriceExits.sum(),
+                    discountedExits.sum(), freeExits.sum(), revenue.sum() / 1000d);
+        }
+
+        /**
+         * read the counters and add to the deltas what changed since the last flush. An exit counted
+         * while reading may have its count in this delta and its revenue in the next one
+         */
+        void collect(List<RevenueSummary> deltas) {
+            collected[0] = fullPriceExits.sum();
+            collected[1] = discountedExits.sum();
+            collected[2] = freeExits.sum();
+            collected[3] = revenue.sum();
+            changed = collected[0] != flushed[0] || collected[1] != flushed[1] || collected[2] != flushed[2] || collected[3] != flushed[3];
+            if (changed) {
+                deltas.add(new RevenueSummary(key.period, new Date(key.start), key.parkingType, collected[0] - flushed[0],
+                        collected[1] - flushed[1], collected[2] - flushed[2], (collected[3] - flushed[3]) / 1000d));
+            }
+        }
+
+        /**
+         * @return true if the counters had changed since the previous flush
+         */
+        boolean markFlushed() {
+            System.arraycopy(collected, 0, flushed, 0, flushed.length);
+            return changed;
+        }
+    }
+}
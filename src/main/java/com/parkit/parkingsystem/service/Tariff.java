@@ -0,0 +1,239 @@
+package com.parkit.parkingsystem.service;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The tariff of one parking type, compiled once into an immutable lookup structure.
+ * The week, from Monday 00:00 in the tariff zone, is cut into segments of constant hourly rate, each one
+ * with the cost of the week up to its start. The cost of a stay is the difference of the cumulative cost
+ * at its end and at its start, found by binary search: O(log segments) whatever the length of the stay.
+ * Time is measured as elapsed time: the UTC offsets of the zone are precomputed, a stay crossing a change
+ * of offset being priced piece by piece on each side of it.
+ */
+public final class Tariff {
+
+    private static final long MINUTE = 60_000L;
+    private static final long DAY = 24 * 60 * MINUTE;
+    private static final long WEEK = 7 * DAY;
+    private static final int MINUTES_PER_DAY = 24 * 60;
+    private static final int MINUTES_PER_WEEK = 7 * MINUTES_PER_DAY;
+
+    /**
+     * 1970-01-01 was a Thursday: shifting local time by 3 days makes weeks start on Monday 00:00
+     */
+    private static final long MONDAY_SHIFT = 3 * DAY;
+
+    /**
+     * changes of UTC offset are precomputed up to this year, the last offset is kept after it
+     */
+    private static final int LAST_TRANSITION_YEAR = 2100;
+
+    private final double graceHours;
+    private final double capPer24Hours;
+    private final long[] segmentStarts;
+    private final double[] segmentRates;
+    private final double[] segmentCosts;
+    private final double weekCost;
+    private final long[] transitions;
+    private final long[] offsets;
+
+    /**
+     * @param zone the zone of the time of day and day of week of the bands
+     * @param ratePerHour the rate outside of the bands
+     * @param graceMinutes the length of the stays that are free
+     * @param capPer24Hours the maximum price of each 24 hours from entry, Double.POSITIVE_INFINITY for no cap
+     * @param bands the bands, a band overriding the rate of the ones before it where they overlap
+     */
+    public Tariff(ZoneId zone, double ratePerHour, int graceMinutes, double capPer24Hours, List<Band> bands) {
+        if (!(ratePerHour >= 0) || graceMinutes < 0 || !(capPer24Hours >= 0)) {
+            throw new IllegalArgumentException("Invalid tariff: rate " + ratePerHour + ", grace " + graceMinutes
+                    + " minutes, cap " + capPer24Hours);
+        }
+        this.graceHours = graceMinutes / 60d;
+        this.capPer24Hours = capPer24Hours;
+
+        double[] minuteRates = new double[MINUTES_PER_WEEK];
+        Arrays.fill(minuteRates, ratePerHour);
+        for (Band band : bands) {
+            band.apply(minuteRates);
+        }
+        int segmentCount = 1;
+        for (int minute = 1; minute < MINUTES_PER_WEEK; minute++) {
+            if (minuteRates[minute] != minuteRates[minute - 1]) {
+                segmentCount++;
+            }
+        }
+        segmentStarts = new long[segmentCount];
+        segmentRates = new double[segmentCount];
+        segmentCosts = new double[segmentCount];
+        segmentRates[0] = minuteRates[0];
+        int segment = 0;
+        for (int minute = 1; minute < MINUTES_PER_WEEK; minute++) {
+            if (minuteRates[minute] != minuteRates[minute - 1]) {
+                segment++;
+                segmentStarts[segment] = minute * MINUTE;
+                segmentRates[segment] = minuteRates[minute];
+                segmentCosts[segment] = segmentCosts[segment - 1]
+                        + hours(segmentStarts[segment] - segmentStarts[segment - 1]) * segmentRates[segment - 1];
+            }
+        }
+        weekCost = segmentCosts[segment] + hours(WEEK - segmentStarts[segment]) * segmentRates[segment];
+
+        ZoneRules rules = zone.getRules();
+        Instant start = Instant.EPOCH;
+        long end = ZonedDateTime.of(LAST_TRANSITION_YEAR, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC).toInstant().toEpochMilli();
+        long[] transitionMillis = new long[16];
+        long[] offsetMillis = new long[16];
+        offsetMillis[0] = rules.getOffset(start).getTotalSeconds() * 1000L;
+        transitionMillis[0] = Long.MIN_VALUE;
+        int count = 1;
+        ZoneOffsetTransition transition = rules.nextTransition(start);
+        while (transition != null && transition.toEpochSecond() * 1000L < end) {
+            if (count == transitionMillis.length) {
+                transitionMillis = Arrays.copyOf(transitionMillis, count * 2);
+                offsetMillis = Arrays.copyOf(offsetMillis, count * 2);
+            }
+            transitionMillis[count] = transition.toEpochSecond() * 1000L;
+            offsetMillis[count] = transition.getOffsetAfter().getTotalSeconds() * 1000L;
+            count++;
+            transition = rules.nextTransition(transition.getInstant());
+        }
+        transitions = Arrays.copyOf(transitionMillis, count);
+        offsets = Arrays.copyOf(offsetMillis, count);
+    }
+
+    /**
+     * @return true if a stay from inTime to outTime, in epoch millis, is within the grace period
+     */
+    public boolean isFree(long inTime, long outTime) {
+        return hours(outTime - inTime) <= graceHours;
+    }
+
+    /**
+     * the cost of a stay, before discount and rounding
+     * @param inTime the in time in epoch millis
+     * @param outTime the out time in epoch millis, not before inTime
+     */
+    public double cost(long inTime, long outTime) {
+        if (capPer24Hours == Double.POSITIVE_INFINITY) {
+            return span(inTime, outTime);
+        }
+        long days = (outTime - inTime) / DAY;
+        double cost = 0;
+        long day = 0;
+        if (days >= 7 && offsetIndex(inTime) == offsetIndex(outTime)) {
+            // without change of offset, the 24 hour periods of a stay repeat every week
+            double week = 0;
+            for (; day < 7; day++) {
+                week += Math.min(capPer24Hours, span(inTime + day * DAY, inTime + (day + 1) * DAY));
+            }
+            long weeks = days / 7;
+            cost = weeks * week;
+            day = weeks * 7;
+        }
+        for (; day < days; day++) {
+            cost += Math.min(capPer24Hours, span(inTime + day * DAY, inTime + (day + 1) * DAY));
+        }
+        return cost + Math.min(capPer24Hours, span(inTime + days * DAY, outTime));
+    }
+
+    /**
+     * @return the number of segments of constant rate of the week
+     */
+    public int getSegmentCount() {
+        return segmentStarts.length;
+    }
+
+    private double span(long from, long to) {
+        if (segmentRates.length == 1) {
+            // the arithmetic of the fixed rate fares, to the last bit
+            return hours(to - from) * segmentRates[0];
+        }
+        double cost = 0;
+        int index = offsetIndex(from);
+        while (true) {
+            long next = (index + 1 < transitions.length) ? transitions[index + 1] : Long.MAX_VALUE;
+            long end = Math.min(to, next);
+            cost += localCost(from + offsets[index], end + offsets[index]);
+            if (end == to) {
+                return cost;
+            }
+            from = end;
+            index++;
+        }
+    }
+
+    private double localCost(long from, long to) {
+        long shiftedFrom = from + MONDAY_SHIFT;
+        long shiftedTo = to + MONDAY_SHIFT;
+        long weeks = Math.floorDiv(shiftedTo, WEEK) - Math.floorDiv(shiftedFrom, WEEK);
+        return weeks * weekCost + costInWeek(Math.floorMod(shiftedTo, WEEK)) - costInWeek(Math.floorMod(shiftedFrom, WEEK));
+    }
+
+    private double costInWeek(long time) {
+        int segment = Arrays.binarySearch(segmentStarts, time);
+        if (segment < 0) {
+            segment = -segment - 2;
+        }
+        return segmentCosts[segment] + hours(time - segmentStarts[segment]) * segmentRates[segment];
+    }
+
+    private int offsetIndex(long time) {
+        int index = Arrays.binarySearch(transitions, time);
+        return (index < 0) ? -index - 2 : index;
+    }
+
+    private static double hours(long millis) {
+        return ((double) millis / 1000.d) / 3600.0d;
+    }
+
+    /**
+     * an hourly rate applied on some days of the week between two times of day.
+     * A band ending before it starts runs over midnight, to the next day.
+     */
+    public static final class Band {
+
+        private final Set<DayOfWeek> days;
+        private final int fromMinute;
+        private final int toMinute;
+        private final double ratePerHour;
+
+        /**
+         * @param days the days the band starts on
+         * @param fromMinute the start, in minutes from midnight
+         * @param toMinute the end, in minutes from midnight, up to 1440
+         * @param ratePerHour the rate during the band
+         */
+        public Band(Set<DayOfWeek> days, int fromMinute, int toMinute, double ratePerHour) {
+            if (days.isEmpty() || fromMinute < 0 || fromMinute >= MINUTES_PER_DAY || toMinute < 0
+                    || toMinute > MINUTES_PER_DAY || fromMinute == toMinute || !(ratePerHour >= 0)) {
+                throw new IllegalArgumentException("Invalid band " + days + " " + fromMinute + "-" + toMinute
+                        + " " + ratePerHour);
+            }
+            this.days = EnumSet.copyOf(days);
+            this.fromMinute = fromMinute;
+            this.toMinute = toMinute;
+            this.ratePerHour = ratePerHour;
+        }
+
+        private void apply(double[] minuteRates) {
+            for (DayOfWeek day : days) {
+                int dayStart = (day.getValue() - 1) * MINUTES_PER_DAY;
+                int length = (toMinute > fromMinute) ? toMinute - fromMinute : MINUTES_PER_DAY - fromMinute + toMinute;
+                for (int minute = 0; minute < length; minute++) {
+                    minuteRates[(dayStart + fromMinute + minute) % MINUTES_PER_WEEK] = ratePerHour;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.parkit.parkingsystem.service;
+
+import com.parkit.parkingsystem.constants.Fare;
+import com.parkit.parkingsystem.constants.ParkingType;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.DayOfWeek;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The compiled tariff of each parking type. A table is immutable: new tariffs are put in use by
+ * compiling a new table and handing it to FareCalculatorService.setTariffs, fares being computed meanwhile
+ * with the table they started with.
+ * <p>
+ * Tariffs are read from the properties file given by -Dparking.tariffs, tariffs.properties of the classpath
+ * otherwise, with for each parking type:
+ * <pre>
+ * tariff.zone=Europe/Paris                         zone of the bands, the system one by default
+ * tariff.CAR.ratePerHour=1.5                       rate outside of the bands, Fare by default
+ * tariff.CAR.graceMinutes=30                       stays up to this length are free, 30 by default
+ * tariff.CAR.capPer24Hours=20                      maximum price of each 24 hours from entry, none by default
+ * tariff.CAR.band.1=MON-FRI 08:00-19:00 2.0        rate on some days between two times, higher numbers win
+ * </pre>
+ */
+public final class TariffTable {
+
+    private static final String DEFAULT_RESOURCE = "/tariffs.properties";
+    private static final Pattern BAND = Pattern.compile(
+            "\\s*([A-Za-z,\\-*]+)\\s+(\\d{1,2}):(\\d{2})\\s*-\\s*(\\d{1,2}):(\\d{2})\\s+([0-9.]+)\\s*");
+
+    private final Tariff[] tariffs;
+
+    private TariffTable(Tariff[] tariffs) {
+        this.tariffs = tariffs;
+    }
+
+    /**
+     * the fixed hourly rates of Fare and a free half hour
+     */
+    public static TariffTable defaults() {
+        return parse(new Properties());
+    }
+
+    /**
+     * read and compile the tariffs of -Dparking.tariffs, or of tariffs.properties of the classpath
+     * @throws IllegalArgumentException if a tariff is invalid
+     */
+    public static TariffTable load() throws IOException {
+        Properties properties = new Properties();
+        String path = System.getProperty("parking.tariffs");
+        if (path != null && !path.isEmpty()) {
+            try (Reader reader = Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)) {
+                properties.load(reader);
+            }
+        } else {
+            try (InputStream in = TariffTable.class.getResourceAsStream(DEFAULT_RESOURCE)) {
+                if (in != null) {
+                    properties.load(in);
+                }
+            }
+        }
+        return parse(properties);
+    }
+
+    /**
+     * compile the tariffs of the given properties
+     * @throws IllegalArgumentException if a tariff is invalid
+     */
+    public static TariffTable parse(Properties properties) {
+        String zone = properties.getProperty("tariff.zone");
+        ZoneId zoneId = (zone == null || zone.trim().isEmpty()) ? ZoneId.systemDefault() : ZoneId.of(zone.trim());
+        Tariff[] tariffs = new Tariff[ParkingType.values().length];
+        for (ParkingType parkingType : ParkingType.values()) {
+            String prefix = "tariff." + parkingType.name() + ".";
+            double ratePerHour = parseDouble(properties, prefix + "ratePerHour", defaultRate(parkingType));
+            int graceMinutes = (int) parseDouble(properties, prefix + "graceMinutes", Fare.GRACE_MINUTES);
+            double cap = parseDouble(properties, prefix + "capPer24Hours", Double.POSITIVE_INFINITY);
+            TreeMap<Integer, String> bands = new TreeMap<>();
+            for (String key : properties.stringPropertyNames()) {
+                if (key.startsWith(prefix + "band.")) {
+                    try {
+                        bands.put(Integer.valueOf(key.substring(prefix.length() + 5)), properties.getProperty(key));
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Invalid band number in " + key);
+                    }
+                }
+            }
+            List<Tariff.Band> compiledBands = new ArrayList<>();
+            for (String band : bands.values()) {
+                compiledBands.add(parseBand(band));
+            }
+            tariffs[parkingType.ordinal()] = new Tariff(zoneId, ratePerHour, graceMinutes, cap, compiledBands);
+        }
+        return new TariffTable(tariffs);
+    }
+
+    /**
+     * @return the tariff of the parking type of the given ordinal, null if there is no such type
+     */
+    public Tariff get(int parkingTypeOrdinal) {
+        return (parkingTypeOrdinal >= 0 && parkingTypeOrdinal < tariffs.length) ? tariffs[parkingTypeOrdinal] : null;
+    }
+
+    public Tariff get(ParkingType parkingType) {
+        return tariffs[parkingType.ordinal()];
+    }
+
+    private static double defaultRate(ParkingType parkingType) {
+        switch (parkingType) {
+            case CAR:
+                return Fare.CAR_RATE_PER_HOUR;
+            case BIKE:
+                return Fare.BIKE_RATE_PER_HOUR;
+            default:
+                throw new IllegalArgumentException("Unkown Parking Type");
+        }
+    }
+
+    private static double parseDouble(Properties properties, String key, double defaultValue) {
+        String value = properties.getProperty(key);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for " + key + ": " + value);
+        }
+    }
+
+    static Tariff.Band parseBand(String band) {
+        Matcher matcher = BAND.matcher(band);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Invalid band, expected <days> <HH:mm>-<HH:mm> <rate>: " + band);
+        }
+        int from = Integer.parseInt(matcher.group(2)) * 60 + Integer.parseInt(matcher.group(3));
+        int to = Integer.parseInt(matcher.group(4)) * 60 + Integer.parseInt(matcher.group(5));
+        return new Tariff.Band(parseDays(matcher.group(1)), from, to, Double.parseDouble(matcher.group(6)));
+    }
+
+    /**
+     * days as *, MON, MON-FRI or MON,WED,SAT
+     */
+    private static Set<DayOfWeek> parseDays(String days) {
+        Set<DayOfWeek> result = EnumSet.noneOf(DayOfWeek.class);
+        for (String part : days.split(",")) {
+            if (part.equals("*")) {
+                result.addAll(EnumSet.allOf(DayOfWeek.class));
+            } else if (part.contains("-")) {
+                DayOfWeek from = parseDay(part.substring(0, part.indexOf('-')));
+                DayOfWeek to = parseDay(part.substring(part.indexOf('-') + 1));
+                for (DayOfWeek day = from; ; day = day.plus(1)) {
+                    result.add(day);
+                    if (day == to) {
+                        break;
+                    }
+                }
+            } else {
+                result.add(parseDay(part));
+            }
+        }
+        return result;
+    }
+
+    private static DayOfWeek parseDay(String day) {
+        String prefix = day.trim().toUpperCase(Locale.ROOT);
+        for (DayOfWeek dayOfWeek : DayOfWeek.values()) {
+            if (prefix.length() >= 3 && dayOfWeek.name().startsWith(prefix)) {
+                return dayOfWeek;
+            }
+        }
+        throw new IllegalArgumentException("Invalid day " + day);
+    }
+}
@@ -0,0 +1,84 @@
+package com.parkit.parkingsystem.simulation;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * A random duration in minutes, for the time between two arrivals or the time a vehicle stays.
+ */
+public abstract class Distribution {
+
+    /**
+     * @return a duration in minutes, never negative
+     */
+    public abstract double sample(Random random);
+
+    /**
+     * parse a distribution given as
+     * fixed:&lt;minutes&gt;, uniform:&lt;min&gt;,&lt;max&gt;, exp:&lt;mean&gt; or lognormal:&lt;median&gt;,&lt;sigma&gt;
+     * @throws IllegalArgumentException if the distribution is not one of these
+     */
+    public static Distribution parse(String distribution) {
+        String[] nameAndParameters = distribution.trim().split(":", 2);
+        if (nameAndParameters.length != 2) {
+            throw new IllegalArgumentException("Invalid distribution " + distribution);
+        }
+        String[] parameters = nameAndParameters[1].split(",");
+        try {
+            switch (nameAndParameters[0].toLowerCase(Locale.ROOT)) {
+                case "fixed":
+                    return fixed(Double.parseDouble(parameters[0]));
+                case "uniform":
+                    return uniform(Double.parseDouble(parameters[0]), Double.parseDouble(parameters[1]));
+                case "exp":
+                    return exponential(Double.parseDouble(parameters[0]));
+                case "lognormal":
+                    return logNormal(Double.parseDouble(parameters[0]), Double.parseDouble(parameters[1]));
+                default:
+                    throw new IllegalArgumentException("Unknown distribution " + distribution);
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Invalid distribution " + distribution);
+        }
+    }
+
+    public static Distribution fixed(double minutes) {
+        return of("fixed:" + minutes, random -> minutes);
+    }
+
+    public static Distribution uniform(double min, double max) {
+        return of("uniform:" + min + "," + max, random -> min + random.nextDouble() * (max - min));
+    }
+
+    /**
+     * the time between arrivals of a Poisson process of 60 / mean arrivals per hour
+     */
+    public static Distribution exponential(double mean) {
+        return of("exp:" + mean, random -> -mean * Math.log(1 - random.nextDouble()));
+    }
+
+    /**
+     * long tailed stays: most vehicles stay around the median, a few stay much longer
+     */
+    public static Distribution logNormal(double median, double sigma) {
+        return of("lognormal:" + median + "," + sigma, random -> median * Math.exp(sigma * random.nextGaussian()));
+    }
+
+    private interface Sampler {
+        double sample(Random random);
+    }
+
+    private static Distribution of(String description, Sampler sampler) {
+        return new Distribution() {
+            @Override
+            public double sample(Random random) {
+                return Math.max(0, sampler.sample(random));
+            }
+
+            @Override
+            public String toString() {
+                return description;
+            }
+        };
+    }
+}
@@ -0,0 +1,48 @@
+package com.parkit.parkingsystem.simulation;
+
+import java.util.Arrays;
+
+/**
+ * Every latency of one kind of operation, kept to compute exact percentiles at the end of a run.
+ * Not thread safe: each gate records into its own recorder, merged once the gates are done.
+ */
+public class LatencyRecorder {
+
+    private long[] nanos = new long[1024];
+    private int count;
+    private boolean sorted;
+
+    public void record(long latencyNanos) {
+        if (count == nanos.length) {
+            nanos = Arrays.copyOf(nanos, count * 2);
+        }
+        nanos[count++] = latencyNanos;
+        sorted = false;
+    }
+
+    public void merge(LatencyRecorder other) {
+        for (int i = 0; i < other.count; i++) {
+            record(other.nanos[i]);
+        }
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the latency in nanoseconds under which this percentage of the operations took, 0 if none was recorded
+     */
+    public long percentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        if (!sorted) {
+            Arrays.sort(nanos, 0, count);
+            sorted = true;
+        }
+        int rank = (int) Math.ceil(percentile / 100 * count);
+        return nanos[Math.min(count, Math.max(1, rank)) - 1];
+    }
+}
@@ -0,0 +1,479 @@
+package com.parkit.parkingsystem.simulation;
+
+import com.parkit.parkingsystem.config.DataBaseConfig;
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.service.FareCalculatorService;
+import com.parkit.parkingsystem.service.ParkingService;
+import com.parkit.parkingsystem.service.ParkingSystem;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Replays synthetic traffic through the console operations of a ParkingService, as fast as it goes.
+ * Arrivals and stays are drawn from distributions, part of the vehicles coming back from a pool of returning
+ * plates so that the discount is exercised. The events are handed in time order to parallel gates, all the events
+ * of a vehicle going to the same gate, each gate typing its input through a ScriptedInputReaderUtil at the simulated
+ * time of the event. The report gives the throughput, the latency percentiles of entries and exits, and the broken
+ * invariants: a spot given to two vehicles, a fare different from the tariff, an open ticket left behind.
+ */
+public class LotSimulation {
+
+    private static final Logger logger = LogManager.getLogger("LotSimulation");
+
+    private static final String SPOT_LINE = "Please park your vehicle in spot number:";
+    private static final String FARE_LINE = "Please pay the parking fare:";
+    private static final long MINUTE = 60_000L;
+
+    private static final String COUNT_SHARED_SPOTS = "select count(*) from (select PARKING_NUMBER from ticket "
+            + "where OUT_TIME is null group by PARKING_NUMBER having count(*) > 1) shared";
+    private static final String COUNT_OPEN_TICKETS_ON_FREE_SPOTS = "select count(*) from ticket t, parking p "
+            + "where p.PARKING_NUMBER = t.PARKING_NUMBER and t.OUT_TIME is null and p.AVAILABLE = true";
+    private static final String COUNT_OPEN_TICKETS_OF_RUN = "select count(*) from ticket "
+            + "where OUT_TIME is null and VEHICLE_REG_NUMBER like ?";
+
+    private final ParkingService parkingService;
+    private final ScriptedInputReaderUtil input;
+    private final SimulatedClock clock;
+    private final Config config;
+    private final Map<Integer, String> occupiedSpots = new ConcurrentHashMap<>();
+
+    /**
+     * @param parkingService the service under test, built with the given input and clock
+     * @param input the console input of the service
+     * @param clock the clock of the service
+     * @param config the traffic to replay
+     */
+    public LotSimulation(ParkingService parkingService, ScriptedInputReaderUtil input, SimulatedClock clock, Config config) {
+        this.parkingService = parkingService;
+        this.input = input;
+        this.clock = clock;
+        this.config = config;
+    }
+
+    /**
+     * replay the traffic of the configured period, until the last vehicle has left
+     * @return the report, with the invariants checked during the replay
+     */
+    public SimulationReport run() throws InterruptedException {
+        List<Event> events = generate();
+        SimulationReport report = new SimulationReport();
+        Gate[] gates = new Gate[config.gates];
+        for (int i = 0; i < gates.length; i++) {
+            gates[i] = new Gate(report, i);
+        }
+        GateConsole console = new GateConsole();
+        PrintStream systemOut = System.out;
+        System.setOut(console);
+        long start = System.nanoTime();
+        try {
+            for (Gate gate : gates) {
+                gate.start();
+            }
+            for (Event event : events) {
+                gates[(event.vehicleRegNumber.hashCode() & 0x7fffffff) % gates.length].queue.put(event);
+            }
+            for (Gate gate : gates) {
+                gate.queue.put(Event.END);
+            }
+            for (Gate gate : gates) {
+                gate.join();
+            }
+        } finally {
+            System.setOut(systemOut);
+        }
+        report.setDuration(events.isEmpty() ? 0 : events.get(events.size() - 1).time - config.startTime,
+                System.nanoTime() - start);
+        return report;
+    }
+
+    /**
+     * check in the database that no spot holds two open tickets, no open ticket is on a free spot
+     * and every vehicle of the replay has left
+     */
+    public void checkDataBase(DataBaseConfig dataBaseConfig, SimulationReport report) throws Exception {
+        Connection con = dataBaseConfig.getConnection();
+        try {
+            int sharedSpots = count(con, COUNT_SHARED_SPOTS, null);
+            if (sharedSpots > 0) {
+                report.addViolation(sharedSpots + " spots hold more than one open ticket");
+            }
+            int freeSpotsInUse = count(con, COUNT_OPEN_TICKETS_ON_FREE_SPOTS, null);
+            if (freeSpotsInUse > 0) {
+                report.addViolation(freeSpotsInUse + " open tickets are on spots marked available");
+            }
+            int leftBehind = count(con, COUNT_OPEN_TICKETS_OF_RUN, config.plateTag + "%");
+            if (leftBehind > 0) {
+                report.addViolation(leftBehind + " vehicles of the replay still have an open ticket");
+            }
+        } finally {
+            dataBaseConfig.closeConnection(con);
+        }
+    }
+
+    private static int count(Connection con, String query, String parameter) throws Exception {
+        try (PreparedStatement ps = con.prepareStatement(query)) {
+            if (parameter != null) {
+                ps.setString(1, parameter);
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
+
+    /**
+     * the arrivals of the period and the departure of each vehicle, in time order. Times are whole seconds,
+     * as stored by the database, and a returning plate only comes back after it has left.
+     */
+    List<Event> generate() {
+        Random random = new Random(config.seed);
+        long end = config.startTime + config.simulatedMillis;
+        long[] poolBusyUntil = new long[config.returningPlates];
+        List<Event> events = new ArrayList<>();
+        double time = config.startTime;
+        int newPlates = 0;
+        while (true) {
+            time += config.interArrival.sample(random) * MINUTE;
+            long arrival = (long) time / 1000 * 1000;
+            if (arrival >= end) {
+                break;
+            }
+            ParkingType parkingType = (random.nextDouble() < config.bikeShare) ? ParkingType.BIKE : ParkingType.CAR;
+            long dwell = Math.max(1, Math.round(config.dwell.sample(random) * 60)) * 1000;
+            String vehicleRegNumber = null;
+            if (poolBusyUntil.length > 0 && random.nextDouble() < config.returningShare) {
+                int plate = random.nextInt(poolBusyUntil.length);
+                if (poolBusyUntil[plate] < arrival) {
+                    poolBusyUntil[plate] = arrival + dwell;
+                    vehicleRegNumber = config.plateTag + "R" + Integer.toString(plate, 36).toUpperCase(Locale.ROOT);
+                }
+            }
+            if (vehicleRegNumber == null) {
+                vehicleRegNumber = config.plateTag + Integer.toString(newPlates++, 36).toUpperCase(Locale.ROOT);
+            }
+            events.add(new Event(arrival, events.size(), vehicleRegNumber, parkingType));
+            events.add(new Event(arrival + dwell, events.size(), vehicleRegNumber, null));
+        }
+        Collections.sort(events);
+        return events;
+    }
+
+    /**
+     * replay a day of traffic against the database of the application, configured by -Dparking.sim.* properties
+     */
+    public static void main(String[] args) throws Exception {
+        Config config = Config.fromSystemProperties();
+        ScriptedInputReaderUtil input = new ScriptedInputReaderUtil();
+        SimulatedClock clock = new SimulatedClock(ZoneId.systemDefault());
+        ParkingSystem parkingSystem = ParkingSystem.start(input);
+        try {
+            parkingSystem.getParkingService().setClock(clock);
+            LotSimulation simulation = new LotSimulation(parkingSystem.getParkingService(), input, clock, config);
+            SimulationReport report = simulation.run();
+            if (!parkingSystem.flushWrites(Long.getLong("parking.writeBehind.drainTimeoutMs", 30_000L))) {
+                logger.warn("Writes still pending, the database check may report them");
+            }
+            if (parkingSystem.getDataBaseConfig() != null) {
+                simulation.checkDataBase(parkingSystem.getDataBaseConfig(), report);
+            }
+            System.out.print(report);
+        } finally {
+            parkingSystem.shutdown();
+        }
+    }
+
+    /**
+     * one gate: processes the events of its vehicles in order and checks their outcome
+     */
+    private class Gate extends Thread {
+
+        private final BlockingQueue<Event> queue = new ArrayBlockingQueue<>(256);
+        private final SimulationReport report;
+        private final LatencyRecorder entries = new LatencyRecorder();
+        private final LatencyRecorder exits = new LatencyRecorder();
+        private final Map<String, Event> parked = new HashMap<>();
+        private final Map<String, Integer> spots = new HashMap<>();
+        private final Set<String> visited = new HashSet<>();
+        private int arrivals;
+        private int turnedAway;
+        private int discounts;
+        private double revenue;
+
+        Gate(SimulationReport report, int number) {
+            super("sim-gate-" + number);
+            this.report = report;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Event event;
+                while ((event = queue.take()) != Event.END) {
+                    clock.set(event.time);
+                    if (event.parkingType != null) {
+                        arrive(event);
+                    } else {
+                        leave(event);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                report.addGate(entries, exits, arrivals, turnedAway, discounts, revenue);
+            }
+        }
+
+        private void arrive(Event event) {
+            arrivals++;
+            input.script(event.parkingType == ParkingType.CAR ? "1" : "2", event.vehicleRegNumber);
+            GateConsole.clear();
+            long start = System.nanoTime();
+            parkingService.processIncomingVehicle();
+            entries.record(System.nanoTime() - start);
+            String spot = GateConsole.find(SPOT_LINE);
+            if (spot == null) {
+                turnedAway++;
+                return;
+            }
+            int parkingNumber = Integer.parseInt(spot.trim());
+            String occupant = occupiedSpots.putIfAbsent(parkingNumber, event.vehicleRegNumber);
+            if (occupant != null) {
+                report.addViolation("spot " + parkingNumber + " given to " + event.vehicleRegNumber
+                        + " while " + occupant + " is parked in it");
+            }
+            parked.put(event.vehicleRegNumber, event);
+            spots.put(event.vehicleRegNumber, parkingNumber);
+        }
+
+        private void leave(Event event) {
+            Event arrival = parked.remove(event.vehicleRegNumber);
+            if (arrival == null) {
+                // turned away when it arrived
+                return;
+            }
+            int parkingNumber = spots.remove(event.vehicleRegNumber);
+            // released before the spot is freed in the database, where another gate may take it at once
+            occupiedSpots.remove(parkingNumber, event.vehicleRegNumber);
+            input.script(event.vehicleRegNumber);
+            GateConsole.clear();
+            long start = System.nanoTime();
+            parkingService.processExitingVehicle();
+            exits.record(System.nanoTime() - start);
+            String fare = GateConsole.find(FARE_LINE);
+            if (fare == null) {
+                report.addViolation(event.vehicleRegNumber + " could not leave spot " + parkingNumber);
+                String occupant = occupiedSpots.putIfAbsent(parkingNumber, event.vehicleRegNumber);
+                if (occupant != null) {
+                    report.addViolation("spot " + parkingNumber + " given to " + occupant
+                            + " while " + event.vehicleRegNumber + " is parked in it");
+                }
+                return;
+            }
+            boolean discount = visited.contains(event.vehicleRegNumber);
+            double expected = FareCalculatorService.price(arrival.time, event.time, arrival.parkingType.ordinal(), discount);
+            double charged = Double.parseDouble(fare.trim());
+            if (charged != expected) {
+                report.addViolation(event.vehicleRegNumber + " charged " + charged + " instead of " + expected);
+            }
+            visited.add(event.vehicleRegNumber);
+            if (discount) {
+                discounts++;
+            }
+            revenue += charged;
+        }
+    }
+
+    /**
+     * the console of the gates: what each gate thread prints is kept for it to read back, nothing is displayed
+     */
+    private static class GateConsole extends PrintStream {
+
+        private static final ThreadLocal<List<String>> lines = ThreadLocal.withInitial(ArrayList::new);
+
+        GateConsole() {
+            super(new OutputStream() {
+                @Override
+                public void write(int b) {
+                    // nothing is displayed
+                }
+            });
+        }
+
+        @Override
+        public void println(String line) {
+            lines.get().add(line);
+        }
+
+        static void clear() {
+            lines.get().clear();
+        }
+
+        static String find(String prefix) {
+            for (String line : lines.get()) {
+                if (line != null && line.startsWith(prefix)) {
+                    return line.substring(prefix.length());
+                }
+            }
+            return null;
+        }
+    }
+
+    static final class Event implements Comparable<Event> {
+
+        static final Event END = new Event(Long.MAX_VALUE, Integer.MAX_VALUE, "", null);
+
+        final long time;
+        final int sequence;
+        final String vehicleRegNumber;
+        /**
+         * the type of the arriving vehicle, null for a departure
+         */
+        final ParkingType parkingType;
+
+        Event(long time, int sequence, String vehicleRegNumber, ParkingType parkingType) {
+            this.time = time;
+            this.sequence = sequence;
+            this.vehicleRegNumber = vehicleRegNumber;
+            this.parkingType = parkingType;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            int byTime = Long.compare(time, other.time);
+            return (byTime != 0) ? byTime : Integer.compare(sequence, other.sequence);
+        }
+    }
+
+    /**
+     * the traffic to replay
+     */
+    public static class Config {
+
+        private long startTime = LocalDate.now().atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        private long simulatedMillis = 24 * 60 * MINUTE;
+        private Distribution interArrival = Distribution.exponential(0.5);
+        private Distribution dwell = Distribution.logNormal(90, 0.75);
+        private double bikeShare = 0.2;
+        private int gates = 8;
+        private int returningPlates = 500;
+        private double returningShare = 0.3;
+        private long seed = 42;
+        private String plateTag = randomTag();
+
+        /**
+         * the traffic of the -Dparking.sim.* properties, the defaults of Config for the ones not set
+         */
+        public static Config fromSystemProperties() {
+            Config config = new Config();
+            config.simulatedMillis = (long) (Double.parseDouble(System.getProperty("parking.sim.hours", "24")) * 60 * MINUTE);
+            String interArrival = System.getProperty("parking.sim.interArrival");
+            if (interArrival != null) {
+                config.interArrival = Distribution.parse(interArrival);
+            }
+            String dwell = System.getProperty("parking.sim.dwell");
+            if (dwell != null) {
+                config.dwell = Distribution.parse(dwell);
+            }
+            config.bikeShare = Double.parseDouble(System.getProperty("parking.sim.bikeShare", "0.2"));
+            config.gates = Integer.getInteger("parking.sim.gates", 8);
+            config.returningPlates = Integer.getInteger("parking.sim.returningPlates", 500);
+            config.returningShare = Double.parseDouble(System.getProperty("parking.sim.returningShare", "0.3"));
+            config.seed = Long.getLong("parking.sim.seed", 42L);
+            config.plateTag = System.getProperty("parking.sim.plateTag", config.plateTag);
+            return config;
+        }
+
+        /**
+         * @param startTime the simulated time of the start of the period, in epoch millis
+         */
+        public Config setStartTime(long startTime) {
+            this.startTime = startTime;
+            return this;
+        }
+
+        /**
+         * @param hours the length of the period during which vehicles arrive
+         */
+        public Config setHours(double hours) {
+            this.simulatedMillis = (long) (hours * 60 * MINUTE);
+            return this;
+        }
+
+        /**
+         * @param interArrival the minutes between two arrivals
+         */
+        public Config setInterArrival(Distribution interArrival) {
+            this.interArrival = interArrival;
+            return this;
+        }
+
+        /**
+         * @param dwell the minutes a vehicle stays
+         */
+        public Config setDwell(Distribution dwell) {
+            this.dwell = dwell;
+            return this;
+        }
+
+        /**
+         * @param bikeShare the share of bikes among the arrivals, between 0 and 1
+         */
+        public Config setBikeShare(double bikeShare) {
+            this.bikeShare = bikeShare;
+            return this;
+        }
+
+        public Config setGates(int gates) {
+            this.gates = gates;
+            return this;
+        }
+
+        /**
+         * @param returningPlates the number of plates that come back
+         * @param returningShare the share of arrivals drawn from them, between 0 and 1
+         */
+        public Config setReturningPlates(int returningPlates, double returningShare) {
+            this.returningPlates = returningPlates;
+            this.returningShare = returningShare;
+            return this;
+        }
+
+        public Config setSeed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        /**
+         * @param plateTag the prefix of the plates of the replay, random by default so that runs do not share plates
+         */
+        public Config setPlateTag(String plateTag) {
+            this.plateTag = plateTag;
+            return this;
+        }
+
+        private static String randomTag() {
+            return Integer.toString(36 * 36 + new Random().nextInt(35 * 36 * 36), 36).toUpperCase(Locale.ROOT);
+        }
+    }
+}
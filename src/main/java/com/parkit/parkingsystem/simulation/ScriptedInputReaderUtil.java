@@ -0,0 +1,56 @@
+package com.parkit.parkingsystem.simulation;
+
+import com.parkit.parkingsystem.util.InputReaderUtil;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Console input typed by a script instead of a person: each gate thread queues the lines the next
+ * operation will read, so that one ParkingService can be driven by several gates at once.
+ */
+public class ScriptedInputReaderUtil extends InputReaderUtil {
+
+    private final ThreadLocal<Deque<String>> script = ThreadLocal.withInitial(ArrayDeque::new);
+
+    public ScriptedInputReaderUtil() {
+        super(new ByteArrayInputStream(new byte[0]));
+    }
+
+    /**
+     * replace the lines left to read by the calling thread
+     */
+    public void script(String... lines) {
+        Deque<String> deque = script.get();
+        deque.clear();
+        deque.addAll(Arrays.asList(lines));
+    }
+
+    /**
+     * @return the number of lines left to read by the calling thread
+     */
+    public int remaining() {
+        return script.get().size();
+    }
+
+    @Override
+    public int readSelection() {
+        String line = script.get().poll();
+        try {
+            return Integer.parseInt(line);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public String readVehicleRegistrationNumber() {
+        String line = script.get().poll();
+        if (line == null || line.trim().isEmpty()) {
+            throw new IllegalArgumentException("Invalid input provided");
+        }
+        return line;
+    }
+}
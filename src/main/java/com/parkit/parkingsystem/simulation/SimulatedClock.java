@@ -0,0 +1,52 @@
+package com.parkit.parkingsystem.simulation;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+
+/**
+ * The clock of a replay: each gate thread sees the simulated time of the event it is processing,
+ * so that a day of traffic is replayed as fast as the gates go, with the in and out times it would have had.
+ */
+public class SimulatedClock extends Clock {
+
+    private final ZoneId zone;
+    private final ThreadLocal<long[]> now;
+
+    public SimulatedClock(ZoneId zone) {
+        this(zone, ThreadLocal.withInitial(() -> new long[1]));
+    }
+
+    private SimulatedClock(ZoneId zone, ThreadLocal<long[]> now) {
+        this.zone = zone;
+        this.now = now;
+    }
+
+    /**
+     * set the time seen by the calling thread
+     * @param epochMillis the simulated time
+     */
+    public void set(long epochMillis) {
+        now.get()[0] = epochMillis;
+    }
+
+    @Override
+    public long millis() {
+        return now.get()[0];
+    }
+
+    @Override
+    public Instant instant() {
+        return Instant.ofEpochMilli(millis());
+    }
+
+    @Override
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+        return new SimulatedClock(zone, now);
+    }
+}
@@ -0,0 +1,130 @@
+package com.parkit.parkingsystem.simulation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * What a replay did: the outcome of the arrivals and departures, the latency of the gates and
+ * the invariants found broken.
+ */
+public class SimulationReport {
+
+    private static final int MAX_VIOLATIONS = 100;
+
+    private final LatencyRecorder entryLatencies = new LatencyRecorder();
+    private final LatencyRecorder exitLatencies = new LatencyRecorder();
+    private final List<String> violations = new ArrayList<>();
+    private int violationCount;
+    private int arrivals;
+    private int turnedAway;
+    private int discounts;
+    private double revenue;
+    private long simulatedMillis;
+    private long wallNanos;
+
+    synchronized void addGate(LatencyRecorder entries, LatencyRecorder exits, int gateArrivals, int gateTurnedAway,
+                              int gateDiscounts, double gateRevenue) {
+        entryLatencies.merge(entries);
+        exitLatencies.merge(exits);
+        arrivals += gateArrivals;
+        turnedAway += gateTurnedAway;
+        discounts += gateDiscounts;
+        revenue += gateRevenue;
+    }
+
+    synchronized void addViolation(String violation) {
+        violationCount++;
+        if (violations.size() < MAX_VIOLATIONS) {
+            violations.add(violation);
+        }
+    }
+
+    void setDuration(long simulatedMillis, long wallNanos) {
+        this.simulatedMillis = simulatedMillis;
+        this.wallNanos = wallNanos;
+    }
+
+    public int getArrivals() {
+        return arrivals;
+    }
+
+    /**
+     * @return the vehicles parked, arrivals that found a spot
+     */
+    public int getEntries() {
+        return arrivals - turnedAway;
+    }
+
+    /**
+     * @return the arrivals that found the parking full
+     */
+    public int getTurnedAway() {
+        return turnedAway;
+    }
+
+    public int getExits() {
+        return exitLatencies.getCount();
+    }
+
+    /**
+     * @return the exits priced with the returning customer discount
+     */
+    public int getDiscounts() {
+        return discounts;
+    }
+
+    public double getRevenue() {
+        return revenue;
+    }
+
+    public LatencyRecorder getEntryLatencies() {
+        return entryLatencies;
+    }
+
+    public LatencyRecorder getExitLatencies() {
+        return exitLatencies;
+    }
+
+    /**
+     * @return the operations per second of wall clock time, entries and exits together
+     */
+    public double getThroughput() {
+        return (entryLatencies.getCount() + exitLatencies.getCount()) / (wallNanos / 1e9);
+    }
+
+    /**
+     * @return the first violations found, empty when every invariant held
+     */
+    public synchronized List<String> getViolations() {
+        return Collections.unmodifiableList(new ArrayList<>(violations));
+    }
+
+    public synchronized int getViolationCount() {
+        return violationCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format(Locale.ROOT, "simulated %.1f h in %.2f s (x%.0f)%n", simulatedMillis / 3.6e6,
+                wallNanos / 1e9, simulatedMillis / (wallNanos / 1e6)));
+        report.append(String.format(Locale.ROOT, "arrivals %d, parked %d, turned away %d, exits %d, discounts %d, revenue %.3f%n",
+                arrivals, getEntries(), turnedAway, getExits(), discounts, revenue));
+        report.append(String.format(Locale.ROOT, "throughput %.0f ops/s%n", getThroughput()));
+        appendLatencies(report, "entry", entryLatencies);
+        appendLatencies(report, "exit ", exitLatencies);
+        report.append(String.format(Locale.ROOT, "invariant violations %d%n", violationCount));
+        for (String violation : violations) {
+            report.append("  ").append(violation).append(System.lineSeparator());
+        }
+        return report.toString();
+    }
+
+    private static void appendLatencies(StringBuilder report, String name, LatencyRecorder latencies) {
+        report.append(String.format(Locale.ROOT, "%s p50 %8.3f ms  p99 %8.3f ms  p99.9 %8.3f ms  max %8.3f ms%n", name,
+                latencies.percentile(50) / 1e6, latencies.percentile(99) / 1e6,
+                latencies.percentile(99.9) / 1e6, latencies.percentile(100) / 1e6));
+    }
+}
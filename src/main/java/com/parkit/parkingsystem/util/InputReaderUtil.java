@@ -3,14 +3,27 @@ package com.parkit.parkingsystem.util;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.InputStream;
 import java.util.Scanner;
 
 public class InputReaderUtil {
 
-    private static Scanner scan = new Scanner(System.in);
     private static final Logger logger = LogManager.getLogger("InputReaderUtil");
 
-    public int readSelection() {
+    /**
+     * one scanner per reader: a scanner buffers what it reads and is not safe for concurrent use
+     */
+    private final Scanner scan;
+
+    public InputReaderUtil() {
+        this(System.in);
+    }
+
+    public InputReaderUtil(InputStream in) {
+        this.scan = new Scanner(in);
+    }
+
+    public synchronized int readSelection() {
         try {
             int input = Integer.parseInt(scan.nextLine());
             return input;
@@ -21,7 +34,7 @@ public class InputReaderUtil {
         }
     }
 
-    public String readVehicleRegistrationNumber() throws Exception {
+    public synchronized String readVehicleRegistrationNumber() throws Exception {
         try {
             String vehicleRegNumber= scan.nextLine();
             if(vehicleRegNumber == null || vehicleRegNumber.trim().length()==0) {
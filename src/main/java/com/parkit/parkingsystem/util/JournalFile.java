@@ -0,0 +1,211 @@
+package com.parkit.parkingsystem.util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only local journal of opaque records.
+ * Each record is written as [payload length][sequence number][CRC32 of the payload][payload].
+ * A torn record at the end of the file (crash while appending) is detected by its length or checksum
+ * and cut off when the journal is opened. A separate checkpoint file remembers the last sequence number
+ * whose effects are safely stored elsewhere, so that only the records after it are replayed.
+ */
+public class JournalFile implements Closeable {
+
+    private static final Logger logger = LogManager.getLogger("JournalFile");
+
+    private static final int HEADER_SIZE = 4 + 8 + 4;
+
+    private final Path path;
+    private final Path checkpointPath;
+    private final FileChannel channel;
+    private final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    private final CRC32 crc = new CRC32();
+    private final Object syncLock = new Object();
+
+    private long lastSeq;
+    private volatile long syncedSeq;
+    private volatile long checkpoint;
+
+    @FunctionalInterface
+    public interface RecordHandler {
+        void handle(long seq, byte[] payload) throws IOException;
+    }
+
+    /**
+     * open or create a journal, dropping a torn record at its end
+     * @param path the journal file, its checkpoint is kept next to it
+     */
+    public JournalFile(Path path) throws IOException {
+        this.path = path;
+        this.checkpointPath = path.resolveSibling(path.getFileName() + ".checkpoint");
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        checkpoint = readCheckpoint();
+        lastSeq = checkpoint;
+        long validLength = scan(null, Long.MAX_VALUE);
+        if (validLength < channel.size()) {
+            logger.warn("Dropping torn record at the end of {} after byte {}", path, validLength);
+            channel.truncate(validLength);
+            channel.force(true);
+        }
+        channel.position(validLength);
+        syncedSeq = lastSeq;
+    }
+
+    /**
+     * append a record, it is durable only once sync has returned for its sequence number
+     * @param payload the record content
+     * @return the sequence number of the record
+     */
+    public synchronized long append(byte[] payload) throws IOException {
+        long seq = lastSeq + 1;
+        crc.reset();
+        crc.update(payload, 0, payload.length);
+        header.clear();
+        header.putInt(payload.length).putLong(seq).putInt((int) crc.getValue());
+        header.flip();
+        ByteBuffer body = ByteBuffer.wrap(payload);
+        while (header.hasRemaining() || body.hasRemaining()) {
+            channel.write(new ByteBuffer[]{header, body});
+        }
+        lastSeq = seq;
+        return seq;
+    }
+
+    /**
+     * force the journal to disk up to a record. Concurrent callers share the same force:
+     * the ones whose record has been covered by another caller's force return right away.
+     * @param seq the sequence number that must be durable
+     */
+    public void sync(long seq) throws IOException {
+        if (syncedSeq >= seq) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (syncedSeq >= seq) {
+                return;
+            }
+            long upTo;
+            synchronized (this) {
+                upTo = lastSeq;
+            }
+            channel.force(false);
+            syncedSeq = upTo;
+        }
+    }
+
+    /**
+     * replay, in order, the records written after the checkpoint
+     * @param handler called for each record
+     */
+    public synchronized void replay(RecordHandler handler) throws IOException {
+        scan(handler, checkpoint);
+    }
+
+    /**
+     * remember that every record up to seq has been applied, and empty the journal when nothing is left after it
+     * @param seq the last applied sequence number
+     */
+    public void checkpoint(long seq) throws IOException {
+        synchronized (syncLock) {
+            if (seq <= checkpoint) {
+                return;
+            }
+            Path tmp = checkpointPath.resolveSibling(checkpointPath.getFileName() + ".tmp");
+            Files.write(tmp, ByteBuffer.allocate(8).putLong(seq).array());
+            try (FileChannel tmpChannel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                tmpChannel.force(true);
+            }
+            Files.move(tmp, checkpointPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            checkpoint = seq;
+        }
+        synchronized (this) {
+            if (seq == lastSeq && channel.size() > 0) {
+                channel.truncate(0);
+                channel.position(0);
+            }
+        }
+    }
+
+    public synchronized long getLastSeq() {
+        return lastSeq;
+    }
+
+    public long getCheckpoint() {
+        return checkpoint;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private long readCheckpoint() throws IOException {
+        if (!Files.exists(checkpointPath)) {
+            return 0;
+        }
+        byte[] content = Files.readAllBytes(checkpointPath);
+        return content.length == 8 ? ByteBuffer.wrap(content).getLong() : 0;
+    }
+
+    /**
+     * read the journal from the start, handing the records after a sequence number to the handler
+     * @return the length of the valid part of the file
+     */
+    private long scan(RecordHandler handler, long afterSeq) throws IOException {
+        long position = 0;
+        long size = channel.size();
+        ByteBuffer recordHeader = ByteBuffer.allocate(HEADER_SIZE);
+        CRC32 check = new CRC32();
+        while (position + HEADER_SIZE <= size) {
+            recordHeader.clear();
+            readFully(recordHeader, position);
+            recordHeader.flip();
+            int length = recordHeader.getInt();
+            long seq = recordHeader.getLong();
+            int expectedCrc = recordHeader.getInt();
+            if (length < 0 || position + HEADER_SIZE + length > size) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(payload, position + HEADER_SIZE);
+            check.reset();
+            check.update(payload.array(), 0, length);
+            if ((int) check.getValue() != expectedCrc) {
+                break;
+            }
+            if (handler == null) {
+                lastSeq = Math.max(lastSeq, seq);
+            } else if (seq > afterSeq) {
+                handler.handle(seq, payload.array());
+            }
+            position += HEADER_SIZE + length;
+        }
+        return position;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+    }
+}
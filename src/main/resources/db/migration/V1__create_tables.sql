@@ -0,0 +1,28 @@
+-- tables of resources/Data.sql, left untouched when they already exist
+create table if not exists parking(
+ PARKING_NUMBER int PRIMARY KEY,
+ AVAILABLE bool NOT NULL,
+ TYPE varchar(10) NOT NULL
+);
+
+create table if not exists ticket(
+ ID int PRIMARY KEY AUTO_INCREMENT,
+ PARKING_NUMBER int NOT NULL,
+ VEHICLE_REG_NUMBER varchar(10) NOT NULL,
+ PRICE double,
+ IN_TIME DATETIME NOT NULL,
+ OUT_TIME DATETIME,
+ FOREIGN KEY (PARKING_NUMBER)
+ REFERENCES parking(PARKING_NUMBER)
+);
+
+-- the 5 spots of the original lot, only into an empty parking table
+insert into parking(PARKING_NUMBER,AVAILABLE,TYPE)
+select PARKING_NUMBER, AVAILABLE, TYPE from (
+ select 1 as PARKING_NUMBER, true as AVAILABLE, 'CAR' as TYPE
+ union all select 2, true, 'CAR'
+ union all select 3, true, 'CAR'
+ union all select 4, true, 'BIKE'
+ union all select 5, true, 'BIKE'
+) spots
+where not exists (select 1 from parking);
@@ -0,0 +1,9 @@
+-- GET_NEXT_PARKING_SPOT: min(PARKING_NUMBER) read from the index alone
+create index idx_parking_type_available on parking(TYPE, AVAILABLE, PARKING_NUMBER);
+
+-- GET_TICKET (latest ticket of a plate), COUNT_TICKET_HISTORY_PER_VEHICLE_REG_NUMBER, HAS_VISITED, the visited vehicles scan,
+-- UPDATE_TICKET_BY_VEHICLE_AND_IN_TIME and SAVE_TICKET_IF_ABSENT, without reading the table rows
+create index idx_ticket_vehicle_in_time on ticket(VEHICLE_REG_NUMBER, IN_TIME, OUT_TIME, PRICE, PARKING_NUMBER);
+
+-- GET_OPEN_TICKETS: the few tickets without out time
+create index idx_ticket_out_time on ticket(OUT_TIME, VEHICLE_REG_NUMBER, IN_TIME, PARKING_NUMBER, PRICE);
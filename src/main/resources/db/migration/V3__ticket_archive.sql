@@ -0,0 +1,13 @@
+-- closed tickets moved out of ticket by the archiver, ticket keeping the open and recent ones only.
+-- No foreign key: the history outlives the spots.
+create table if not exists ticket_archive(
+ ID int PRIMARY KEY,
+ PARKING_NUMBER int NOT NULL,
+ VEHICLE_REG_NUMBER varchar(10) NOT NULL,
+ PRICE double,
+ IN_TIME DATETIME NOT NULL,
+ OUT_TIME DATETIME NOT NULL
+);
+
+-- HAS_ARCHIVED_VISIT, COUNT_TICKET_HISTORY_PER_VEHICLE_REG_NUMBER and the archived vehicles scan, from the index alone
+create index idx_ticket_archive_vehicle on ticket_archive(VEHICLE_REG_NUMBER, OUT_TIME);
@@ -0,0 +1,12 @@
+-- revenue and exits per parking type and hour or day, maintained from the exits instead of grouping the ticket table.
+-- PERIOD is HOUR or DAY, PERIOD_START the start of the hour or day in the time zone of the application
+create table if not exists revenue_summary(
+ PERIOD varchar(4) NOT NULL,
+ PERIOD_START DATETIME NOT NULL,
+ TYPE varchar(10) NOT NULL,
+ FULL_PRICE_EXITS bigint NOT NULL,
+ DISCOUNTED_EXITS bigint NOT NULL,
+ FREE_EXITS bigint NOT NULL,
+ REVENUE decimal(15,3) NOT NULL,
+ PRIMARY KEY (PERIOD, PERIOD_START, TYPE)
+);
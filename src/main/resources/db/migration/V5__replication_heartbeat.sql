@@ -0,0 +1,10 @@
+-- one row written on the primary every heartbeat with the time of the writer, in epoch millis.
+-- The value a replica holds is how far it has replicated, reads allowing some staleness go to the replicas recent enough
+create table if not exists replication_heartbeat(
+ ID int PRIMARY KEY,
+ BEAT bigint NOT NULL
+);
+
+insert into replication_heartbeat(ID, BEAT)
+select 1, 0 from dual
+where not exists (select 1 from replication_heartbeat);
@@ -0,0 +1,58 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.util.BloomFilter;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BloomFilterTest {
+
+    /**
+     * test there is no false negative
+     * given a filter sized for 10000 plates
+     * when 10000 plates are added
+     * then every one of them might be contained
+     */
+    @Test
+    public void addedValuesAreAlwaysFound() {
+        // given a filter sized for 10000 plates
+        BloomFilter filter = new BloomFilter(10_000, 0.01);
+
+        // when 10000 plates are added
+        for (int i = 0; i < 10_000; i++) {
+            filter.add("PLATE" + i);
+        }
+
+        // then every one of them might be contained
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(filter.mightContain("PLATE" + i));
+        }
+    }
+
+    /**
+     * test the false positive rate
+     * given a filter for 10000 plates at 1% holding 10000 plates
+     * when 100000 other plates are looked up
+     * then less than 2% of them are reported as possibly present
+     */
+    @Test
+    public void falsePositiveRateIsBounded() {
+        // given a filter for 10000 plates at 1% holding 10000 plates
+        BloomFilter filter = new BloomFilter(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) {
+            filter.add("PLATE" + i);
+        }
+
+        // when 100000 other plates are looked up
+        int falsePositives = 0;
+        for (int i = 0; i < 100_000; i++) {
+            if (filter.mightContain("OTHER" + i)) {
+                falsePositives++;
+            }
+        }
+
+        // then less than 2% of them are reported as possibly present
+        assertTrue(falsePositives < 2_000, falsePositives + " false positives");
+        assertEquals(7, filter.getHashCount());
+    }
+}
@@ -0,0 +1,85 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.service.BulkFareCalculator;
+import com.parkit.parkingsystem.service.FareCalculatorService;
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BulkFareCalculatorTest {
+
+    private static final int TICKETS = 100_000;
+
+    /**
+     * test the bulk prices against calculateFare
+     * given random tickets of both types with and without discount, some at the limit of the free half hour
+     * when they are priced in parallel by small ranges
+     * then every price is exactly the one calculateFare gives
+     */
+    @Test
+    public void bulkPricesMatchCalculateFare() {
+        // given random tickets of both types with and without discount, some at the limit of the free half hour
+        Random random = new Random(42);
+        long[] inTimes = new long[TICKETS];
+        long[] outTimes = new long[TICKETS];
+        byte[] parkingTypes = new byte[TICKETS];
+        boolean[] discounts = new boolean[TICKETS];
+        long[] limits = {0, 1, 30 * 60_000 - 1, 30 * 60_000, 30 * 60_000 + 1};
+        for (int i = 0; i < TICKETS; i++) {
+            inTimes[i] = 1_500_000_000_000L + (long) (random.nextDouble() * 300_000_000_000L);
+            long duration = (i < limits.length * 4) ? limits[i % limits.length] : (long) (random.nextDouble() * 7 * 24 * 3_600_000L);
+            outTimes[i] = inTimes[i] + duration;
+            parkingTypes[i] = (byte) random.nextInt(ParkingType.values().length);
+            discounts[i] = random.nextBoolean();
+        }
+
+        // when they are priced in parallel by small ranges
+        double[] prices = new double[TICKETS];
+        new BulkFareCalculator(new ForkJoinPool(4), 1_000).calculateFares(inTimes, outTimes, parkingTypes, discounts, prices);
+
+        // then every price is exactly the one calculateFare gives
+        FareCalculatorService fareCalculatorService = new FareCalculatorService();
+        ParkingType[] types = ParkingType.values();
+        for (int i = 0; i < TICKETS; i++) {
+            Ticket ticket = new Ticket();
+            ticket.setParkingSpot(new ParkingSpot(1, types[parkingTypes[i]], false));
+            ticket.setInTime(new Date(inTimes[i]));
+            ticket.setOutTime(new Date(outTimes[i]));
+            fareCalculatorService.calculateFare(ticket, discounts[i]);
+            assertEquals(Double.doubleToLongBits(ticket.getPrice()), Double.doubleToLongBits(prices[i]), "ticket " + i);
+        }
+    }
+
+    /**
+     * test a range holding an invalid ticket
+     * given columns whose third ticket leaves before entering
+     * when the range after it and then the whole columns are priced
+     * then the range after it is priced and the whole columns are rejected
+     */
+    @Test
+    public void invalidTicketIsRejected() {
+        // given columns whose third ticket leaves before entering
+        long[] inTimes = {0, 0, 3_600_000, 0};
+        long[] outTimes = {3_600_000, 3_600_000, 0, 7_200_000};
+        byte[] parkingTypes = {(byte) ParkingType.CAR.ordinal(), (byte) ParkingType.BIKE.ordinal(),
+                (byte) ParkingType.CAR.ordinal(), (byte) ParkingType.CAR.ordinal()};
+        boolean[] discounts = new boolean[4];
+        double[] prices = new double[4];
+        BulkFareCalculator bulkFareCalculator = new BulkFareCalculator();
+
+        // when the range after it and then the whole columns are priced
+        bulkFareCalculator.calculateFares(inTimes, outTimes, parkingTypes, discounts, prices, 3, 4);
+
+        // then the range after it is priced and the whole columns are rejected
+        assertEquals(3.0, prices[3]);
+        assertThrows(IllegalArgumentException.class,
+                () -> bulkFareCalculator.calculateFares(inTimes, outTimes, parkingTypes, discounts, prices));
+    }
+}
@@ -0,0 +1,140 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.ParkingSpotDAO;
+import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.integration.config.EmbeddedDataBaseTestConfig;
+import com.parkit.parkingsystem.service.GateClient;
+import com.parkit.parkingsystem.service.GateServer;
+import com.parkit.parkingsystem.service.ParkingService;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GateServerTest {
+
+    private static final int LANES = 64;
+
+    private static EmbeddedDataBaseTestConfig dataBaseConfig;
+    private GateServer gateServer;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        dataBaseConfig = new EmbeddedDataBaseTestConfig("gates");
+        dataBaseConfig.createSchema();
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        dataBaseConfig.shutdown();
+    }
+
+    @BeforeEach
+    public void setUpPerTest() throws Exception {
+        dataBaseConfig.resetParking(LANES, 0);
+        ParkingSpotDAO parkingSpotDAO = dataBaseConfig.newParkingSpotDAO();
+        parkingSpotDAO.loadOccupancy();
+        TicketDAO ticketDAO = dataBaseConfig.newTicketDAO();
+        gateServer = new GateServer(new ParkingService(parkingSpotDAO, ticketDAO),
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), LANES + 1);
+        gateServer.start();
+    }
+
+    @AfterEach
+    public void tearDownPerTest() {
+        gateServer.close();
+    }
+
+    /**
+     * test concurrent lanes
+     * given a parking of 64 car spots
+     * when 64 lanes each park a car at once, then take it out twice
+     * then every car gets its own spot, is priced once and the spots are free again
+     */
+    @Test
+    public void concurrentLanesParkAndLeave() throws Exception {
+        // given a parking of 64 car spots
+        ExecutorService lanes = Executors.newFixedThreadPool(LANES);
+        List<Future<String[]>> responses = new ArrayList<>();
+        CyclicBarrier allParked = new CyclicBarrier(LANES);
+
+        // when 64 lanes each park a car at once, then take it out twice
+        for (int i = 0; i < LANES; i++) {
+            String vehicleRegNumber = "LANE" + i;
+            responses.add(lanes.submit((Callable<String[]>) () -> {
+                try (GateClient client = new GateClient(InetAddress.getLoopbackAddress().getHostAddress(), gateServer.getPort())) {
+                    String entry = client.enter(ParkingType.CAR, vehicleRegNumber);
+                    allParked.await();
+                    return new String[]{entry, client.exit(vehicleRegNumber), client.exit(vehicleRegNumber)};
+                }
+            }));
+        }
+        lanes.shutdown();
+
+        // then every car gets its own spot, is priced once and the spots are free again
+        Set<String> parkingNumbers = new HashSet<>();
+        for (Future<String[]> response : responses) {
+            String[] lane = response.get();
+            assertTrue(GateClient.isOk(lane[0]), lane[0]);
+            parkingNumbers.add(lane[0].split(" ")[1]);
+            assertTrue(lane[1].startsWith("OK 0.0 "), lane[1]);
+            assertTrue(lane[2].startsWith("ERR No open ticket"), lane[2]);
+        }
+        assertEquals(LANES, parkingNumbers.size());
+        assertEquals(LANES, count("select count(*) from parking where AVAILABLE = true"));
+        assertEquals(LANES, count("select count(*) from ticket where OUT_TIME is not null"));
+        try (GateClient client = new GateClient(InetAddress.getLoopbackAddress().getHostAddress(), gateServer.getPort())) {
+            assertEquals("OK CAR " + LANES + " BIKE 0", client.request("FREE"));
+        }
+    }
+
+    /**
+     * test invalid requests
+     * given a lane connected to the gate server
+     * when it sends unknown or incomplete requests, then parks in a full parking
+     * then each one is answered with an error and the lane stays connected
+     */
+    @Test
+    public void invalidRequestsAreAnsweredWithErrors() throws Exception {
+        // given a lane connected to the gate server
+        dataBaseConfig.resetParking(0, 0);
+        try (GateClient client = new GateClient(InetAddress.getLoopbackAddress().getHostAddress(), gateServer.getPort())) {
+
+            // when it sends unknown or incomplete requests, then parks in a full parking
+            // then each one is answered with an error and the lane stays connected
+            assertTrue(client.request("PAY ABC").startsWith("ERR Unknown request"));
+            assertTrue(client.request("IN CAR").startsWith("ERR Usage"));
+            assertTrue(client.request("IN TRUCK ABC").startsWith("ERR Usage"));
+            assertTrue(client.enter(ParkingType.BIKE, "ABC").startsWith("ERR Error claiming parking number"));
+            assertEquals("BYE", client.request("QUIT"));
+        }
+    }
+
+    private int count(String query) throws Exception {
+        Connection con = dataBaseConfig.getConnection();
+        try (ResultSet rs = con.createStatement().executeQuery(query)) {
+            rs.next();
+            return rs.getInt(1);
+        } finally {
+            dataBaseConfig.closeConnection(con);
+        }
+    }
+}
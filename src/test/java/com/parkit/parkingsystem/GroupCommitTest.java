@@ -0,0 +1,339 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.config.GroupCommit;
+import com.parkit.parkingsystem.config.UnitOfWork;
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.ParkingSpotDAO;
+import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.dao.WriteBehindQueue;
+import com.parkit.parkingsystem.integration.config.EmbeddedDataBaseTestConfig;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.tools.TimeTool;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.parkit.parkingsystem.integration.service.DataBasePrepareService.newTicket;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GroupCommitTest {
+
+    private static EmbeddedDataBaseTestConfig dataBaseConfig;
+    private static ParkingSpotDAO parkingSpotDAO;
+    private static TicketDAO ticketDAO;
+
+    @TempDir
+    Path journalDir;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        dataBaseConfig = new EmbeddedDataBaseTestConfig("groupcommit");
+        dataBaseConfig.createSchema();
+        parkingSpotDAO = dataBaseConfig.newParkingSpotDAO();
+        ticketDAO = dataBaseConfig.newTicketDAO();
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        dataBaseConfig.shutdown();
+    }
+
+    @BeforeEach
+    public void setUpPerTest() throws Exception {
+        dataBaseConfig.resetParking(20, 0);
+        parkingSpotDAO.loadParkingSpotIndex();
+    }
+
+    @AfterEach
+    public void tearDownPerTest() {
+        UnitOfWork.disableGroupCommit();
+    }
+
+    /**
+     * test the batched insert of tickets
+     * given 10 tickets
+     * when they are saved in one batch
+     * then they are all in DB with their generated id
+     */
+    @Test
+    public void saveTicketsInOneBatch() throws Exception {
+        // given 10 tickets
+        List<Ticket> tickets = new ArrayList<>();
+        for (int i = 1; i <= 10; i++) {
+            tickets.add(newTicket(i, "BATCH" + i));
+        }
+
+        // when they are saved in one batch
+        assertTrue(ticketDAO.saveTickets(tickets));
+
+        // then they are all in DB with their generated id
+        assertEquals(10, countTickets());
+        assertTrue(tickets.stream().allMatch(ticket -> ticket.getId() > 0));
+        assertEquals(10, tickets.stream().mapToInt(Ticket::getId).distinct().count());
+    }
+
+    /**
+     * test a batch with an invalid ticket
+     * given 3 tickets, one of them on an unknown spot
+     * when they are saved in one batch
+     * then none of them is saved
+     */
+    @Test
+    public void saveTicketsIsAllOrNothing() throws Exception {
+        // given 3 tickets, one of them on an unknown spot
+        List<Ticket> tickets = new ArrayList<>();
+        tickets.add(newTicket(1, "AAA"));
+        tickets.add(newTicket(999, "BBB"));
+        tickets.add(newTicket(2, "CCC"));
+
+        // when they are saved in one batch
+        assertFalse(ticketDAO.saveTickets(tickets));
+
+        // then none of them is saved
+        assertEquals(0, countTickets());
+    }
+
+    /**
+     * test concurrent ticket inserts with group commit
+     * given group commit enabled and 16 gates saving a ticket at the same time, one of them invalid
+     * when the tickets are saved
+     * then each gate gets its own result, the valid tickets are saved with fewer commits than gates
+     */
+    @Test
+    public void concurrentSaveTicketShareCommits() throws Exception {
+        // given group commit enabled and 16 gates saving a ticket at the same time, one of them invalid
+        UnitOfWork.enableGroupCommit(50, 64);
+        GroupCommit groupCommit = UnitOfWork.getGroupCommit();
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int gate = 1; gate <= 16; gate++) {
+            Ticket ticket = newTicket(gate == 7 ? 999 : gate, "GATE" + gate);
+            results.add(executor.submit(() -> {
+                start.await();
+                return ticketDAO.saveTicket(ticket);
+            }));
+        }
+
+        // when the tickets are saved
+        start.countDown();
+        executor.shutdown();
+
+        // then each gate gets its own result, the valid tickets are saved with fewer commits than gates
+        for (int gate = 1; gate <= 16; gate++) {
+            assertEquals(gate != 7, results.get(gate - 1).get());
+        }
+        assertEquals(15, countTickets());
+        assertEquals(16, groupCommit.getUnitOfWorkCount());
+        assertTrue(groupCommit.getGroupCount() < 16);
+    }
+
+    /**
+     * test concurrent entries with group commit
+     * given group commit enabled
+     * when 10 entries claim a spot and save a ticket concurrently and one of them fails after its claim
+     * then the failing entry alone is rolled back and its spot is available again
+     */
+    @Test
+    public void failingEntryIsRolledBackAlone() throws Exception {
+        // given group commit enabled
+        UnitOfWork.enableGroupCommit(50, 64);
+        ExecutorService executor = Executors.newFixedThreadPool(10);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> results = new ArrayList<>();
+
+        // when 10 entries claim a spot and save a ticket concurrently and one of them fails after its claim
+        for (int gate = 1; gate <= 10; gate++) {
+            final boolean failing = (gate == 5);
+            final String vehicleRegNumber = "ENTRY" + gate;
+            results.add(executor.submit(() -> {
+                start.await();
+                return UnitOfWork.execute(() -> {
+                    int parkingNumber = parkingSpotDAO.claimNextAvailableSlot(ParkingType.CAR);
+                    if (failing) {
+                        throw new IllegalStateException("barrier failure");
+                    }
+                    assertTrue(ticketDAO.saveTicket(newTicket(parkingNumber, vehicleRegNumber)));
+                    return parkingNumber;
+                });
+            }));
+        }
+        start.countDown();
+        executor.shutdown();
+
+        // then the failing entry alone is rolled back and its spot is available again
+        int succeeded = 0;
+        for (Future<Integer> result : results) {
+            try {
+                assertTrue(result.get() > 0);
+                succeeded++;
+            } catch (Exception e) {
+                assertInstanceOf(IllegalStateException.class, e.getCause());
+            }
+        }
+        assertEquals(9, succeeded);
+        assertEquals(9, countTickets());
+        assertEquals(11, parkingSpotDAO.getParkingSpotIndex().countAvailable(ParkingType.CAR));
+        parkingSpotDAO.loadParkingSpotIndex();
+        assertEquals(11, parkingSpotDAO.getParkingSpotIndex().countAvailable(ParkingType.CAR));
+    }
+
+    /**
+     * test a failed group commit with a write-behind entry in the group
+     * given group commit enabled and DAOs writing through a write-behind queue
+     * when a write-behind entry and a unit of work whose commit fails are grouped
+     * then the entry is queued once, its spot claimed once, and only the failing unit of work fails
+     */
+    @Test
+    public void failedGroupCommitDoesNotQueueTwice() throws Exception {
+        // given group commit enabled and DAOs writing through a write-behind queue
+        ParkingSpotDAO writeBehindSpots = dataBaseConfig.newParkingSpotDAO();
+        assertTrue(writeBehindSpots.loadParkingSpotIndex());
+        TicketDAO writeBehindTickets = dataBaseConfig.newTicketDAO();
+        WriteBehindQueue queue = new WriteBehindQueue(dataBaseConfig, journalDir.resolve("journal"), 100, 16, 1000);
+        queue.start();
+        assertTrue(writeBehindSpots.setWriteBehindQueue(queue));
+        writeBehindTickets.setWriteBehindQueue(queue);
+        UnitOfWork.enableGroupCommit(500, 2);
+        GroupCommit groupCommit = UnitOfWork.getGroupCommit();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+
+        // when a write-behind entry and a unit of work whose commit fails are grouped
+        Future<Integer> entry = executor.submit(() -> {
+            start.await();
+            return UnitOfWork.execute(() -> {
+                int parkingNumber = writeBehindSpots.claimNextAvailableSlot(ParkingType.CAR);
+                // another in time at each run, so that a second run would be a second ticket
+                Ticket ticket = newTicket(parkingNumber, "QUEUED");
+                ticket.setInTime(TimeTool.now().minusHour(1 + runs.getAndIncrement()).toDate());
+                assertTrue(writeBehindTickets.saveTicket(ticket));
+                return parkingNumber;
+            });
+        });
+        Future<Object> failing = executor.submit(() -> {
+            start.await();
+            return UnitOfWork.execute(() -> {
+                // closed under the unit of work, its commit fails
+                dataBaseConfig.getConnection().close();
+                return null;
+            });
+        });
+        start.countDown();
+        executor.shutdown();
+
+        // then the entry is queued once, its spot claimed once, and only the failing unit of work fails
+        try {
+            assertEquals(1, entry.get());
+            Exception failure = assertThrows(Exception.class, failing::get);
+            assertInstanceOf(SQLException.class, failure.getCause());
+            assertEquals(1, groupCommit.getGroupCount());
+            assertTrue(queue.flush(5000));
+            assertEquals(1, countTickets());
+            assertEquals(19, writeBehindSpots.getParkingSpotIndex().countAvailable(ParkingType.CAR));
+            assertEquals(2, writeBehindSpots.getNextAvailableSlot(ParkingType.CAR));
+        } finally {
+            UnitOfWork.disableGroupCommit();
+            queue.close();
+        }
+    }
+
+    /**
+     * test a failing before commit action with group commit
+     * given group commit enabled
+     * when an entry and a unit of work whose before commit action fails after saving a ticket arrive together
+     * then the failing unit of work is rolled back with its ticket and the entry is saved
+     */
+    @Test
+    public void failingBeforeCommitActionRollsBackItsWrites() throws Exception {
+        // given group commit enabled
+        UnitOfWork.enableGroupCommit(500, 2);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        CountDownLatch start = new CountDownLatch(1);
+
+        // when an entry and a unit of work whose before commit action fails after saving a ticket arrive together
+        Future<Boolean> entry = executor.submit(() -> {
+            start.await();
+            return UnitOfWork.execute(() -> ticketDAO.saveTicket(newTicket(1, "KEPT")));
+        });
+        Future<Object> failing = executor.submit(() -> {
+            start.await();
+            return UnitOfWork.execute(() -> {
+                assertTrue(ticketDAO.saveTicket(newTicket(2, "LOST")));
+                UnitOfWork.beforeCommit(() -> {
+                    throw new IllegalStateException("journal failure");
+                });
+                return null;
+            });
+        });
+        start.countDown();
+        executor.shutdown();
+
+        // then the failing unit of work is rolled back with its ticket and the entry is saved
+        assertTrue(entry.get());
+        Exception failure = assertThrows(Exception.class, failing::get);
+        assertInstanceOf(IllegalStateException.class, failure.getCause());
+        assertEquals(1, countTickets());
+        assertNull(ticketDAO.getTicket("LOST"));
+    }
+
+    /**
+     * test units of work of two lots with group commit
+     * given group commit enabled and a second lot on its own database
+     * when an entry of the first lot and a unit of work of the second lot whose commit fails arrive together
+     * then they are not committed in the same group: the entry is saved once and only the other unit of work fails
+     */
+    @Test
+    public void groupDoesNotSpanDatabases() throws Exception {
+        // given group commit enabled and a second lot on its own database
+        EmbeddedDataBaseTestConfig otherLot = new EmbeddedDataBaseTestConfig("groupcommit-other");
+        otherLot.createSchema();
+        UnitOfWork.enableGroupCommit(500, 2);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        // when an entry of the first lot and a unit of work of the second lot whose commit fails arrive together
+        Future<Boolean> entry = executor.submit(() -> UnitOfWork.execute(() -> ticketDAO.saveTicket(newTicket(1, "LOTA"))));
+        Thread.sleep(100);
+        Future<Object> failing = executor.submit(() -> UnitOfWork.execute(() -> {
+            // closed under the unit of work, its commit fails
+            otherLot.getConnection().close();
+            return null;
+        }));
+        executor.shutdown();
+
+        // then they are not committed in the same group: the entry is saved once and only the other unit of work fails
+        try {
+            assertTrue(entry.get());
+            assertThrows(Exception.class, failing::get);
+            assertEquals(1, countTickets());
+        } finally {
+            otherLot.shutdown();
+        }
+    }
+
+    private int countTickets() throws Exception {
+        Connection con = dataBaseConfig.getConnection();
+        try (ResultSet rs = con.createStatement().executeQuery("select count(*) from ticket")) {
+            rs.next();
+            return rs.getInt(1);
+        } finally {
+            dataBaseConfig.closeConnection(con);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.config.UnitOfWork;
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.LogStore;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.tools.TimeTool;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.parkit.parkingsystem.integration.service.DataBasePrepareService.newTicket;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LogStoreTest {
+
+    private static final int CARS = 3;
+    private static final int BIKES = 2;
+
+    @TempDir
+    Path storeDir;
+
+    private Path log;
+    private LogStore store;
+
+    @BeforeEach
+    public void setUpPerTest() throws Exception {
+        log = storeDir.resolve("lot.log");
+        store = open();
+    }
+
+    @AfterEach
+    public void tearDownPerTest() throws Exception {
+        store.close();
+    }
+
+    /**
+     * test recovery
+     * given a vehicle parked and gone, another one parked and an entry rolled back
+     * when the store is closed and opened again
+     * then the log is replayed to the same tickets, spots and counts, without the rolled back entry
+     */
+    @Test
+    public void logIsReplayedOnOpen() throws Exception {
+        // given a vehicle parked and gone, another one parked and an entry rolled back
+        enter("AB-123");
+        exit("AB-123", 1.5);
+        enter("CD-456");
+        assertThrows(IllegalStateException.class, () -> UnitOfWork.execute(() -> {
+            store.saveTicket(newTicket(store.claimNextAvailableSlot(ParkingType.CAR), "EF-789"));
+            throw new IllegalStateException("gate jammed");
+        }));
+
+        // when the store is closed and opened again
+        store.close();
+        store = open();
+
+        // then the log is replayed to the same tickets, spots and counts, without the rolled back entry
+        Ticket closed = store.getTicket("AB-123");
+        assertEquals(1.5, closed.getPrice());
+        assertNotNull(closed.getOutTime());
+        assertTrue(store.hasVisitedBefore("AB-123"));
+        assertFalse(store.hasVisitedBefore("CD-456"));
+        assertEquals(1, store.getTicket("CD-456").getParkingSpot().getId());
+        assertNull(store.getTicket("EF-789"));
+        assertEquals(2, store.getNextAvailableSlot(ParkingType.CAR));
+        assertEquals(1, store.getOccupancyTracker().snapshot().getOccupied(ParkingType.CAR));
+        assertTrue(store.getTicket("CD-456").getId() > closed.getId());
+    }
+
+    /**
+     * test a crash while appending
+     * given two entries, the last one torn on disk
+     * when the store is opened again, written to, and opened again
+     * then the torn entry is dropped, the first one and the later write are kept
+     */
+    @Test
+    public void tornEntryIsDropped() throws Exception {
+        // given two entries, the last one torn on disk
+        enter("AB-123");
+        enter("CD-456");
+        store.close();
+        byte[] content = Files.readAllBytes(log);
+        int last = content.length - 1;
+        while (content[last] == 0) {
+            last--;
+        }
+        content[last] ^= 0x5A;
+        Files.write(log, content);
+
+        // when the store is opened again, written to, and opened again
+        store = open();
+        assertNull(store.getTicket("CD-456"));
+        enter("GH-012");
+        store.close();
+        store = open();
+
+        // then the torn entry is dropped, the first one and the later write are kept
+        assertEquals(1, store.getTicket("AB-123").getParkingSpot().getId());
+        assertNull(store.getTicket("CD-456"));
+        assertEquals(2, store.getTicket("GH-012").getParkingSpot().getId());
+        assertEquals(3, store.getNextAvailableSlot(ParkingType.CAR));
+    }
+
+    /**
+     * test compaction
+     * given a log where the same vehicles entered and left many times
+     * when the log is compacted, then written to
+     * then the superseded records are dropped and the log replays to the same state
+     */
+    @Test
+    public void compactionKeepsLiveRecords() throws Exception {
+        // given a log where the same vehicles entered and left many times
+        for (int i = 0; i < 20; i++) {
+            enter("AB-123");
+            exit("AB-123", i);
+        }
+        enter("CD-456");
+
+        // when the log is compacted, then written to
+        long dropped = store.compact(0);
+        exit("CD-456", 3);
+        store.close();
+        store = open();
+
+        // then the superseded records are dropped and the log replays to the same state
+        assertTrue(dropped >= 60, "dropped " + dropped);
+        assertEquals(20, store.getNbTicket("AB-123"));
+        assertEquals(19, store.getTicket("AB-123").getPrice());
+        assertEquals(3, store.getTicket("CD-456").getPrice());
+        assertEquals(1, store.getNextAvailableSlot(ParkingType.CAR));
+        assertEquals(0, store.getOccupancyTracker().snapshot().getOccupied(ParkingType.CAR));
+        assertEquals(CARS + BIKES, store.countOccupancy().getFree(ParkingType.CAR) + store.countOccupancy().getFree(ParkingType.BIKE));
+    }
+
+    /**
+     * test retention
+     * given a vehicle gone an hour ago, another one parked and a third one, the last to be saved, gone three days ago
+     * when the log is compacted with a retention of two days, then opened again
+     * then only the old ticket is dropped, its vehicle keeping its ticket count and visit, and ids are not given twice
+     */
+    @Test
+    public void compactionDropsTicketsPastRetention() throws Exception {
+        // given a vehicle gone an hour ago, another one parked and a third one, the last to be saved, gone three days ago
+        enter("CD-456");
+        exit("CD-456", 2, TimeTool.now().minusMinute(30).toDate());
+        enter("EF-789");
+        enter("AB-123", TimeTool.now().minusHour(75).toDate());
+        exit("AB-123", 1.5, TimeTool.now().minusHour(72).toDate());
+        int lastId = store.getTicket("AB-123").getId();
+
+        // when the log is compacted with a retention of two days, then opened again
+        store.compact(TimeUnit.DAYS.toMillis(2));
+        assertNull(store.getTicket("AB-123"));
+        store.close();
+        store = open();
+
+        // then only the old ticket is dropped, its vehicle keeping its ticket count and visit, and ids are not given twice
+        assertNull(store.getTicket("AB-123"));
+        assertEquals(1, store.getNbTicket("AB-123"));
+        assertTrue(store.hasVisitedBefore("AB-123"));
+        assertEquals(2, store.getTicket("CD-456").getPrice());
+        assertEquals(1, store.getNbTicket("CD-456"));
+        assertEquals(1, store.getTicket("EF-789").getParkingSpot().getId());
+        enter("AB-123");
+        assertEquals(2, store.getNbTicket("AB-123"));
+        assertEquals(lastId + 1, store.getTicket("AB-123").getId());
+        assertNull(store.getTicket("AB-123").getOutTime());
+    }
+
+    private LogStore open() throws Exception {
+        List<ParkingSpot> spots = new ArrayList<>();
+        for (int i = 1; i <= CARS + BIKES; i++) {
+            spots.add(new ParkingSpot(i, (i <= CARS) ? ParkingType.CAR : ParkingType.BIKE, true));
+        }
+        return LogStore.open(log, spots, true);
+    }
+
+    private void enter(String vehicleRegNumber) throws Exception {
+        enter(vehicleRegNumber, TimeTool.now().minusHour(1).toDate());
+    }
+
+    private void enter(String vehicleRegNumber, Date inTime) throws Exception {
+        UnitOfWork.execute(() -> store.saveTicket(newTicket(store.claimNextAvailableSlot(ParkingType.CAR), vehicleRegNumber, inTime)));
+    }
+
+    private void exit(String vehicleRegNumber, double price) throws Exception {
+        exit(vehicleRegNumber, price, TimeTool.now().toDate());
+    }
+
+    private void exit(String vehicleRegNumber, double price, Date outTime) throws Exception {
+        Ticket ticket = store.getTicket(vehicleRegNumber);
+        ticket.setPrice(price);
+        ticket.setOutTime(outTime);
+        UnitOfWork.execute(() -> store.updateTicket(ticket)
+                && store.updateParking(new ParkingSpot(ticket.getParkingSpot().getId(), ParkingType.CAR, true)));
+    }
+}
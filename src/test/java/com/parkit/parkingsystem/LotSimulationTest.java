@@ -0,0 +1,122 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.ParkingSpotDAO;
+import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.integration.config.EmbeddedDataBaseTestConfig;
+import com.parkit.parkingsystem.service.ParkingService;
+import com.parkit.parkingsystem.simulation.Distribution;
+import com.parkit.parkingsystem.simulation.LotSimulation;
+import com.parkit.parkingsystem.simulation.ScriptedInputReaderUtil;
+import com.parkit.parkingsystem.simulation.SimulatedClock;
+import com.parkit.parkingsystem.simulation.SimulationReport;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LotSimulationTest {
+
+    private static final ZoneId ZONE = ZoneId.of("Europe/Paris");
+
+    private static EmbeddedDataBaseTestConfig dataBaseConfig;
+    private final ScriptedInputReaderUtil input = new ScriptedInputReaderUtil();
+    private final SimulatedClock clock = new SimulatedClock(ZONE);
+    private TicketDAO ticketDAO;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        dataBaseConfig = new EmbeddedDataBaseTestConfig("simulation");
+        dataBaseConfig.createSchema();
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        dataBaseConfig.shutdown();
+    }
+
+    @BeforeEach
+    public void setUpPerTest() throws Exception {
+        dataBaseConfig.resetParking(30, 10);
+        ticketDAO = dataBaseConfig.newTicketDAO();
+    }
+
+    /**
+     * test a day of traffic
+     * given a parking of 30 car and 10 bike spots
+     * when a day of arrivals, some of them returning, is replayed through 4 gates
+     * then no invariant is broken, every parked vehicle leaves and returning ones get the discount
+     */
+    @Test
+    public void dayOfTrafficKeepsInvariants() throws Exception {
+        // given a parking of 30 car and 10 bike spots
+        ParkingSpotDAO parkingSpotDAO = dataBaseConfig.newParkingSpotDAO();
+        LotSimulation simulation = simulation(parkingSpotDAO, "SIM");
+
+        // when a day of arrivals, some of them returning, is replayed through 4 gates
+        SimulationReport report = simulation.run();
+        simulation.checkDataBase(dataBaseConfig, report);
+
+        // then no invariant is broken, every parked vehicle leaves and returning ones get the discount
+        assertEquals(0, report.getViolationCount(), report.toString());
+        assertTrue(report.getArrivals() > 200, report.toString());
+        assertEquals(report.getEntries(), report.getExits(), report.toString());
+        assertTrue(report.getDiscounts() > 0, report.toString());
+        assertTrue(report.getRevenue() > 0, report.toString());
+        assertTrue(report.getEntryLatencies().percentile(99) > 0);
+        assertTrue(report.getExitLatencies().percentile(50) > 0);
+    }
+
+    /**
+     * test a double booking
+     * given a parking whose spot claim always returns spot 1
+     * when a day of traffic is replayed
+     * then the report shows vehicles given an occupied spot
+     */
+    @Test
+    public void doubleBookingIsReported() throws Exception {
+        // given a parking whose spot claim always returns spot 1
+        ParkingSpotDAO parkingSpotDAO = new ParkingSpotDAO() {
+            @Override
+            public int getNextAvailableSlot(ParkingType parkingType) {
+                return 1;
+            }
+
+            @Override
+            public int claimNextAvailableSlot(ParkingType parkingType) {
+                return 1;
+            }
+        };
+        parkingSpotDAO.dataBaseConfig = dataBaseConfig;
+        LotSimulation simulation = simulation(parkingSpotDAO, "BAD");
+
+        // when a day of traffic is replayed
+        SimulationReport report = simulation.run();
+        simulation.checkDataBase(dataBaseConfig, report);
+
+        // then the report shows vehicles given an occupied spot
+        assertTrue(report.getViolationCount() > 0);
+        assertTrue(report.getViolations().get(0).startsWith("spot 1 given to "), report.getViolations().get(0));
+    }
+
+    private LotSimulation simulation(ParkingSpotDAO parkingSpotDAO, String plateTag) {
+        ParkingService parkingService = new ParkingService(input, parkingSpotDAO, ticketDAO);
+        parkingService.setClock(clock);
+        LotSimulation.Config config = new LotSimulation.Config()
+                .setStartTime(LocalDate.of(2024, 3, 4).atStartOfDay(ZONE).toInstant().toEpochMilli())
+                .setHours(24)
+                .setInterArrival(Distribution.exponential(4))
+                .setDwell(Distribution.logNormal(60, 0.75))
+                .setBikeShare(0.25)
+                .setGates(4)
+                .setReturningPlates(20, 0.5)
+                .setSeed(7)
+                .setPlateTag(plateTag);
+        return new LotSimulation(parkingService, input, clock, config);
+    }
+}
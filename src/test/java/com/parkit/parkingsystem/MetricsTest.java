@@ -0,0 +1,120 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.config.DataBaseConfig;
+import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.metrics.LatencyHistogram;
+import com.parkit.parkingsystem.metrics.Metrics;
+import com.parkit.parkingsystem.metrics.OperationMetrics;
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class MetricsTest {
+
+    /**
+     * test histogram precision
+     * given durations from 1 ns to 10 s
+     * when they are recorded
+     * then the count, mean and maximum are exact and each percentile is within 1/64 of the exact one
+     */
+    @Test
+    public void percentilesAreWithinBucketPrecision() {
+        // given durations from 1 ns to 10 s
+        LatencyHistogram histogram = new LatencyHistogram();
+        long[] values = new long[100_000];
+        long total = 0;
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) Math.pow(10, 10.0 * (i + 1) / values.length);
+            total += values[i];
+        }
+
+        // when they are recorded
+        for (long value : values) {
+            histogram.record(value);
+        }
+
+        // then the count, mean and maximum are exact and each percentile is within 1/64 of the exact one
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(values.length, snapshot.getCount());
+        assertEquals((double) total / values.length, snapshot.getMeanNanos(), 1e-6);
+        assertEquals(values[values.length - 1], snapshot.getMaxNanos());
+        for (double percentile : new double[]{1, 10, 50, 90, 99, 99.9, 100}) {
+            long exact = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+            long measured = snapshot.getValueAtPercentile(percentile);
+            assertTrue(measured >= exact && measured <= exact + exact / 64, percentile + ": " + measured + " for " + exact);
+        }
+    }
+
+    /**
+     * test concurrent recording
+     * given 4 threads sharing an operation
+     * when each records 250 000 calls
+     * then every call is counted, at well under a microsecond each
+     */
+    @Test
+    public void concurrentRecordingIsCountedCheaply() throws Exception {
+        // given 4 threads sharing an operation
+        OperationMetrics operation = Metrics.operation("MetricsTest.concurrent");
+        long successesBefore = operation.getSuccessCount();
+        long failuresBefore = operation.getFailureCount();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 250_000; i++) {
+                    operation.record(operation.start(), i % 10 != 0);
+                }
+            }));
+        }
+
+        // when each records 250 000 calls
+        long start = System.nanoTime();
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        // then every call is counted, at well under a microsecond each
+        assertEquals(900_000, operation.getSuccessCount() - successesBefore);
+        assertEquals(100_000, operation.getFailureCount() - failuresBefore);
+        assertTrue(elapsed / 1_000_000 < 1_000, "average " + elapsed / 1_000_000 + " ns per call");
+    }
+
+    /**
+     * test DAO operations over JMX
+     * given a ticket DAO whose database is unreachable
+     * when a ticket is read and counted
+     * then both failures are counted on the MBeans of the operations
+     */
+    @Test
+    public void daoFailuresArePublishedOverJmx() throws Exception {
+        // given a ticket DAO whose database is unreachable
+        TicketDAO ticketDAO = new TicketDAO();
+        ticketDAO.dataBaseConfig = mock(DataBaseConfig.class);
+        when(ticketDAO.dataBaseConfig.getConnection()).thenThrow(new SQLException("unreachable"));
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName getTicket = Metrics.objectName("TicketDAO.getTicket");
+        ObjectName getNbTicket = Metrics.objectName("TicketDAO.getNbTicket");
+        long getTicketFailures = (Long) server.getAttribute(getTicket, "FailureCount");
+        long getNbTicketFailures = (Long) server.getAttribute(getNbTicket, "FailureCount");
+        long getNbTicketSuccesses = (Long) server.getAttribute(getNbTicket, "SuccessCount");
+
+        // when a ticket is read and counted
+        assertNull(ticketDAO.getTicket("ABCDEF"));
+        assertEquals(0, ticketDAO.getNbTicket("ABCDEF"));
+
+        // then both failures are counted on the MBeans of the operations
+        assertEquals(getTicketFailures + 1, server.getAttribute(getTicket, "FailureCount"));
+        assertEquals(getNbTicketFailures + 1, server.getAttribute(getNbTicket, "FailureCount"));
+        assertEquals(getNbTicketSuccesses, server.getAttribute(getNbTicket, "SuccessCount"));
+        assertTrue(Metrics.operations().stream().anyMatch(operation -> operation.getName().equals("TicketDAO.getTicket")));
+    }
+}
@@ -0,0 +1,172 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.config.UnitOfWork;
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.OccupancyTracker;
+import com.parkit.parkingsystem.dao.ParkingSpotDAO;
+import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.integration.config.EmbeddedDataBaseTestConfig;
+import com.parkit.parkingsystem.model.Occupancy;
+import com.parkit.parkingsystem.service.ParkingService;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OccupancyTrackerTest {
+
+    private static final int GATES = 8;
+
+    private static EmbeddedDataBaseTestConfig dataBaseConfig;
+    private ParkingSpotDAO parkingSpotDAO;
+    private ParkingService parkingService;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        dataBaseConfig = new EmbeddedDataBaseTestConfig("occupancy");
+        dataBaseConfig.createSchema();
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        dataBaseConfig.shutdown();
+    }
+
+    @BeforeEach
+    public void setUpPerTest() throws Exception {
+        dataBaseConfig.resetParking(200, 50);
+        parkingSpotDAO = dataBaseConfig.newParkingSpotDAO();
+        assertTrue(parkingSpotDAO.loadParkingSpotIndex());
+        assertTrue(parkingSpotDAO.loadOccupancy());
+        TicketDAO ticketDAO = dataBaseConfig.newTicketDAO();
+        parkingService = new ParkingService(parkingSpotDAO, ticketDAO);
+    }
+
+    /**
+     * test concurrent gates
+     * given 8 gates and a board polling the occupancy
+     * when each gate parks 20 cars and 5 bikes then lets half of them leave
+     * then the board only ever reads counts within the capacity, and the final counts are those of the parking table
+     */
+    @Test
+    public void concurrentGatesAreCounted() throws Exception {
+        // given 8 gates and a board polling the occupancy
+        OccupancyTracker tracker = parkingSpotDAO.getOccupancyTracker();
+        AtomicBoolean open = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(GATES + 1);
+        Future<Integer> board = executor.submit(() -> {
+            int reads = 0;
+            long version = -1;
+            while (open.get()) {
+                Occupancy occupancy = parkingService.getOccupancy();
+                assertTrue(occupancy.getVersion() >= version);
+                version = occupancy.getVersion();
+                for (ParkingType parkingType : ParkingType.values()) {
+                    assertTrue(occupancy.getFree(parkingType) >= 0);
+                    assertTrue(occupancy.getOccupied(parkingType) >= 0);
+                }
+                reads++;
+            }
+            return reads;
+        });
+
+        // when each gate parks 20 cars and 5 bikes then lets half of them leave
+        List<Future<Void>> gates = new ArrayList<>();
+        for (int g = 0; g < GATES; g++) {
+            String gate = "G" + g + "-";
+            gates.add(executor.submit((Callable<Void>) () -> {
+                for (int i = 0; i < 25; i++) {
+                    parkingService.processIncomingVehicle(i < 20 ? ParkingType.CAR : ParkingType.BIKE, gate + i);
+                }
+                for (int i = 0; i < 25; i += 2) {
+                    assertNotNull(parkingService.processExitingVehicle(gate + i));
+                }
+                return null;
+            }));
+        }
+        for (Future<Void> gate : gates) {
+            gate.get();
+        }
+        open.set(false);
+        assertTrue(board.get() > 0);
+        executor.shutdown();
+
+        // then the board only ever reads counts within the capacity, and the final counts are those of the parking table
+        Occupancy occupancy = tracker.snapshot();
+        assertEquals(GATES * 10, occupancy.getOccupied(ParkingType.CAR));
+        assertEquals(200 - GATES * 10, occupancy.getFree(ParkingType.CAR));
+        assertEquals(GATES * 2, occupancy.getOccupied(ParkingType.BIKE));
+        assertEquals(50, occupancy.getCapacity(ParkingType.BIKE));
+        assertTrue(occupancy.sameCounts(parkingSpotDAO.countOccupancy()));
+        assertTrue(tracker.reconcile(parkingSpotDAO));
+        assertEquals(occupancy.getVersion(), tracker.snapshot().getVersion());
+    }
+
+    /**
+     * test reconciliation
+     * given spots taken in the parking table behind the tracker's back
+     * when the tracker is reconciled
+     * then it takes the counts of the table
+     */
+    @Test
+    public void driftIsReconciled() throws Exception {
+        // given spots taken in the parking table behind the tracker's back
+        OccupancyTracker tracker = parkingSpotDAO.getOccupancyTracker();
+        Occupancy before = tracker.snapshot();
+        Connection con = dataBaseConfig.getConnection();
+        try (Statement st = con.createStatement()) {
+            st.executeUpdate("update parking set AVAILABLE = false where TYPE = 'BIKE' and PARKING_NUMBER <= 205");
+        } finally {
+            dataBaseConfig.closeConnection(con);
+        }
+        assertEquals(0, tracker.snapshot().getOccupied(ParkingType.BIKE));
+
+        // when the tracker is reconciled
+        assertTrue(tracker.reconcile(parkingSpotDAO));
+
+        // then it takes the counts of the table
+        Occupancy after = tracker.snapshot();
+        assertEquals(5, after.getOccupied(ParkingType.BIKE));
+        assertEquals(0, after.getOccupied(ParkingType.CAR));
+        assertEquals(before.getVersion() + 1, after.getVersion());
+    }
+
+    /**
+     * test spot changes not committed
+     * given a claim inside a unit of work
+     * when the tracker is reconciled before the commit and the unit of work is rolled back
+     * then the reconciliation is skipped, the claim is never counted and a committed claim is
+     */
+    @Test
+    public void onlyCommittedChangesAreCounted() throws Exception {
+        // given a claim inside a unit of work
+        OccupancyTracker tracker = parkingSpotDAO.getOccupancyTracker();
+
+        // when the tracker is reconciled before the commit and the unit of work is rolled back
+        assertThrows(IllegalStateException.class, () -> UnitOfWork.execute(() -> {
+            assertTrue(parkingSpotDAO.claimNextAvailableSlot(ParkingType.CAR) > 0);
+            assertFalse(tracker.reconcile(parkingSpotDAO));
+            assertEquals(0, tracker.snapshot().getOccupied(ParkingType.CAR));
+            throw new IllegalStateException("ticket not saved");
+        }));
+
+        // then the reconciliation is skipped, the claim is never counted and a committed claim is
+        assertEquals(0, tracker.snapshot().getOccupied(ParkingType.CAR));
+        assertTrue(tracker.reconcile(parkingSpotDAO));
+        UnitOfWork.execute(() -> parkingSpotDAO.claimNextAvailableSlot(ParkingType.CAR));
+        assertEquals(1, tracker.snapshot().getOccupied(ParkingType.CAR));
+        assertTrue(tracker.snapshot().sameCounts(parkingSpotDAO.countOccupancy()));
+    }
+}
@@ -0,0 +1,258 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.OfflineStore;
+import com.parkit.parkingsystem.dao.ParkingSpotDAO;
+import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.integration.config.EmbeddedDataBaseTestConfig;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.service.ParkingService;
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OfflineStoreTest {
+
+    /**
+     * the database of the DAOs, which can be made unreachable: its pool then times out as Hikari does
+     */
+    private static class FlakyDataBaseConfig extends EmbeddedDataBaseTestConfig {
+
+        private volatile boolean down;
+        private final AtomicInteger borrowed = new AtomicInteger();
+        private final HikariDataSource flakyDataSource = new HikariDataSource() {
+            @Override
+            public Connection getConnection() throws SQLException {
+                borrowed.incrementAndGet();
+                if (down) {
+                    throw new SQLTransientConnectionException("database down");
+                }
+                return FlakyDataBaseConfig.super.getDataSource().getConnection();
+            }
+        };
+
+        private FlakyDataBaseConfig(String databaseName) {
+            super(databaseName);
+        }
+
+        @Override
+        public HikariDataSource getDataSource() {
+            return flakyDataSource;
+        }
+    }
+
+    private static FlakyDataBaseConfig dataBaseConfig;
+    /**
+     * the same database, always reachable, to check it and change it behind the lot's back
+     */
+    private static EmbeddedDataBaseTestConfig directConfig;
+    private ParkingSpotDAO parkingSpotDAO;
+    private TicketDAO ticketDAO;
+    private OfflineStore store;
+    private ParkingService parkingService;
+
+    @TempDir
+    Path journalDir;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        dataBaseConfig = new FlakyDataBaseConfig("offline");
+        directConfig = new EmbeddedDataBaseTestConfig("offline");
+        dataBaseConfig.createSchema();
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        dataBaseConfig.shutdown();
+    }
+
+    @BeforeEach
+    public void setUpPerTest() throws Exception {
+        dataBaseConfig.down = false;
+        directConfig.resetParking(3, 1);
+        startLot();
+    }
+
+    @AfterEach
+    public void tearDownPerTest() throws Exception {
+        store.close();
+    }
+
+    /**
+     * test an outage
+     * given a vehicle parked while the database is up
+     * when the database goes down, another vehicle enters and the first one leaves, then the database comes back
+     * then the gates are served offline and the resync writes both to the database
+     */
+    @Test
+    public void outageIsServedOffline() throws Exception {
+        // given a vehicle parked while the database is up
+        parkingService.processIncomingVehicle(ParkingType.CAR, "AB-123");
+
+        // when the database goes down, another vehicle enters and the first one leaves, then the database comes back
+        dataBaseConfig.down = true;
+        Ticket entered = parkingService.processIncomingVehicle(ParkingType.CAR, "CD-456");
+        Ticket exited = parkingService.processExitingVehicle("AB-123");
+        assertTrue(store.isOffline());
+        dataBaseConfig.down = false;
+        assertTrue(store.resync());
+
+        // then the gates are served offline and the resync writes both to the database
+        assertEquals(2, entered.getParkingSpot().getId());
+        assertNotNull(exited.getOutTime());
+        assertEquals(1, parkingService.getOccupancy().getOccupied(ParkingType.CAR));
+        assertFalse(store.isOffline());
+        assertEquals(0, store.getConflictCount());
+        assertEquals(2, ticketDAO.getTicket("CD-456").getParkingSpot().getId());
+        assertTrue(isClosed("AB-123"));
+        assertTrue(isAvailable(1));
+        assertFalse(isAvailable(2));
+        assertNotNull(parkingService.processExitingVehicle("CD-456"));
+        assertTrue(isAvailable(2));
+    }
+
+    /**
+     * test conflict detection
+     * given a vehicle left offline and another one parked in its spot, while the ticket was closed by hand with another price
+     * and the spot freed by hand in the database
+     * when the journal is resynced
+     * then the conflicting close and spot change are counted and the database keeps its version, the rest is written
+     */
+    @Test
+    public void conflictsAreDetected() throws Exception {
+        // given a vehicle left offline and another one parked in its spot, while the ticket was closed by hand...
+        parkingService.processIncomingVehicle(ParkingType.CAR, "AB-123");
+        dataBaseConfig.down = true;
+        parkingService.processExitingVehicle("AB-123");
+        assertEquals(1, parkingService.processIncomingVehicle(ParkingType.CAR, "CD-456").getParkingSpot().getId());
+        execute("update ticket set PRICE=9, OUT_TIME=? where VEHICLE_REG_NUMBER='AB-123'");
+        execute("update parking set AVAILABLE=true where PARKING_NUMBER=1");
+
+        // when the journal is resynced
+        dataBaseConfig.down = false;
+        assertTrue(store.resync());
+
+        // then the conflicting close and spot change are counted and the database keeps its version, the rest is written
+        assertEquals(2, store.getConflictCount());
+        assertEquals(9, priceOf("AB-123"));
+        assertEquals(1, ticketDAO.getTicket("CD-456").getParkingSpot().getId());
+        assertFalse(isAvailable(1));
+    }
+
+    /**
+     * test a restart before the resync
+     * given a vehicle parked offline and the lot stopped
+     * when the lot starts again, the database being back
+     * then the journal is applied to the caches and replayed to the database once
+     */
+    @Test
+    public void journalSurvivesRestart() throws Exception {
+        // given a vehicle parked offline and the lot stopped
+        dataBaseConfig.down = true;
+        parkingService.processIncomingVehicle(ParkingType.CAR, "CD-456");
+        store.close();
+
+        // when the lot starts again, the database being back
+        dataBaseConfig.down = false;
+        startLot();
+
+        // then the journal is applied to the caches and replayed to the database once
+        assertTrue(store.isOffline());
+        assertEquals(1, store.getTicket("CD-456").getParkingSpot().getId());
+        assertEquals(2, store.getNextAvailableSlot(ParkingType.CAR));
+        assertTrue(store.resync());
+        assertFalse(isAvailable(1));
+        assertEquals(1, ticketDAO.getTicket("CD-456").getParkingSpot().getId());
+        store.close();
+        startLot();
+        assertFalse(store.isOffline());
+        assertEquals(1, countTickets("CD-456"));
+    }
+
+    /**
+     * test a refused exit
+     * given the database up
+     * when a vehicle without ticket leaves
+     * then the exit fails as it does without offline store, the database being read once and not probed
+     */
+    @Test
+    public void refusedExitIsNotRunOffline() throws Exception {
+        // given the database up
+        dataBaseConfig.borrowed.set(0);
+
+        // when a vehicle without ticket leaves
+        Exception refused = assertThrows(Exception.class, () -> parkingService.processExitingVehicle("ZZ-999"));
+
+        // then the exit fails as it does without offline store, the database being read once and not probed
+        assertEquals("No open ticket for vehicle number:ZZ-999", refused.getMessage());
+        assertEquals(1, dataBaseConfig.borrowed.get());
+        assertFalse(store.isOffline());
+    }
+
+    private void startLot() throws Exception {
+        parkingSpotDAO = dataBaseConfig.newParkingSpotDAO();
+        ticketDAO = dataBaseConfig.newTicketDAO();
+        assertTrue(parkingSpotDAO.loadParkingSpotIndex());
+        assertTrue(ticketDAO.loadOpenTicketIndex(parkingSpotDAO.getParkingSpotIndex().capacity()));
+        assertTrue(ticketDAO.loadVisitedVehicles());
+        assertTrue(parkingSpotDAO.loadOccupancy());
+        store = new OfflineStore(parkingSpotDAO, ticketDAO, journalDir.resolve("offline"), 2);
+        parkingService = new ParkingService(parkingSpotDAO, ticketDAO);
+        parkingService.setOfflineStore(store);
+    }
+
+    private void execute(String sql) throws Exception {
+        Connection con = directConfig.getConnection();
+        try (PreparedStatement ps = con.prepareStatement(sql)) {
+            if (sql.contains("?")) {
+                ps.setTimestamp(1, new Timestamp(System.currentTimeMillis() - 60_000));
+            }
+            ps.executeUpdate();
+        } finally {
+            directConfig.closeConnection(con);
+        }
+    }
+
+    private boolean isAvailable(int parkingNumber) throws Exception {
+        return queryInt("select AVAILABLE from parking where PARKING_NUMBER=" + parkingNumber) != 0;
+    }
+
+    private boolean isClosed(String vehicleRegNumber) throws Exception {
+        return queryInt("select count(*) from ticket where OUT_TIME is not null and VEHICLE_REG_NUMBER='" + vehicleRegNumber + "'") == 1;
+    }
+
+    private double priceOf(String vehicleRegNumber) throws Exception {
+        return queryInt("select PRICE from ticket where VEHICLE_REG_NUMBER='" + vehicleRegNumber + "'");
+    }
+
+    private int countTickets(String vehicleRegNumber) throws Exception {
+        return queryInt("select count(*) from ticket where VEHICLE_REG_NUMBER='" + vehicleRegNumber + "'");
+    }
+
+    private int queryInt(String sql) throws Exception {
+        Connection con = directConfig.getConnection();
+        try (Statement st = con.createStatement();
+             ResultSet rs = st.executeQuery(sql)) {
+            assertTrue(rs.next());
+            return rs.getInt(1);
+        } finally {
+            directConfig.closeConnection(con);
+        }
+    }
+}
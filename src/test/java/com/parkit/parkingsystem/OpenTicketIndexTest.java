@@ -0,0 +1,133 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.dao.OpenTicketIndex;
+import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.integration.config.EmbeddedDataBaseTestConfig;
+import com.parkit.parkingsystem.model.Ticket;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.Date;
+
+import static com.parkit.parkingsystem.integration.service.DataBasePrepareService.newTicket;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OpenTicketIndexTest {
+
+    private static EmbeddedDataBaseTestConfig dataBaseConfig;
+    private TicketDAO ticketDAO;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        dataBaseConfig = new EmbeddedDataBaseTestConfig("openticket");
+        dataBaseConfig.createSchema();
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        dataBaseConfig.shutdown();
+    }
+
+    @BeforeEach
+    public void setUpPerTest() throws Exception {
+        dataBaseConfig.resetParking(3, 0);
+        ticketDAO = dataBaseConfig.newTicketDAO();
+    }
+
+    /**
+     * test the bound of the index
+     * given an index for a parking of 2 spots holding 2 open tickets
+     * when a third open ticket and a closed ticket are added
+     * then neither is cached and the index stays at 2 tickets
+     */
+    @Test
+    public void indexIsBoundedByCapacity() {
+        // given an index for a parking of 2 spots holding 2 open tickets
+        OpenTicketIndex index = new OpenTicketIndex(2);
+        assertTrue(index.put(newTicket(1, "AAA")));
+        assertTrue(index.put(newTicket(2, "BBB")));
+
+        // when a third open ticket and a closed ticket are added
+        boolean thirdCached = index.put(newTicket(3, "CCC"));
+        Ticket closed = newTicket(1, "DDD");
+        closed.setOutTime(new Date());
+        boolean closedCached = index.put(closed);
+
+        // then neither is cached and the index stays at 2 tickets
+        assertFalse(thirdCached);
+        assertFalse(closedCached);
+        assertEquals(2, index.size());
+        assertNull(index.get("CCC"));
+    }
+
+    /**
+     * test the cached ticket is a copy
+     * given a cached open ticket
+     * when the ticket read from the index is changed
+     * then the cached ticket is unchanged
+     */
+    @Test
+    public void cachedTicketIsCopied() {
+        // given a cached open ticket
+        OpenTicketIndex index = new OpenTicketIndex(2);
+        index.put(newTicket(1, "AAA"));
+
+        // when the ticket read from the index is changed
+        index.get("AAA").setOutTime(new Date());
+
+        // then the cached ticket is unchanged
+        assertNull(index.get("AAA").getOutTime());
+    }
+
+    /**
+     * test the DAO keeps the index in line with the ticket table
+     * given a loaded index and a saved ticket
+     * when the ticket is read, closed, and the index rebuilt
+     * then the read is answered from memory, the closed ticket leaves the index and the rebuilt index holds the open tickets only
+     */
+    @Test
+    public void daoKeepsIndexInLineWithTickets() throws Exception {
+        // given a loaded index and a saved ticket
+        assertTrue(ticketDAO.saveTicket(newTicket(1, "OLD")));
+        assertTrue(ticketDAO.loadOpenTicketIndex(3));
+        assertEquals(1, ticketDAO.getOpenTicketIndex().size());
+        assertTrue(ticketDAO.saveTicket(newTicket(2, "ABCDEF")));
+
+        // when the ticket is read
+        execute("delete from ticket where VEHICLE_REG_NUMBER = 'ABCDEF'");
+        Ticket ticket = ticketDAO.getTicket("ABCDEF");
+
+        // then the read is answered from memory
+        assertNotNull(ticket);
+        assertEquals(2, ticket.getParkingSpot().getId());
+
+        // when the ticket is closed
+        Ticket old = ticketDAO.getTicket("OLD");
+        old.setOutTime(new Date());
+        old.setPrice(1.5);
+        assertTrue(ticketDAO.updateTicket(old));
+
+        // then the closed ticket leaves the index
+        assertEquals(1, ticketDAO.getOpenTicketIndex().size());
+        assertEquals(1.5, ticketDAO.getTicket("OLD").getPrice());
+
+        // when the index is rebuilt then it holds the open tickets only
+        assertTrue(ticketDAO.saveTicket(newTicket(3, "GHIJKL")));
+        assertTrue(ticketDAO.loadOpenTicketIndex(3));
+        assertEquals(1, ticketDAO.getOpenTicketIndex().size());
+        assertNotNull(ticketDAO.getOpenTicketIndex().get("GHIJKL"));
+    }
+
+    private void execute(String sql) throws Exception {
+        Connection con = dataBaseConfig.getConnection();
+        try (Statement st = con.createStatement()) {
+            st.execute(sql);
+        } finally {
+            dataBaseConfig.closeConnection(con);
+        }
+    }
+}
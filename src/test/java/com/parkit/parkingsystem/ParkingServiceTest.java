@@ -57,7 +57,7 @@ public class ParkingServiceTest {
         // GIVEN a vehicle in the parking
         when(inputReaderUtil.readVehicleRegistrationNumber()).thenReturn(vehicleRegistrationNumber);
         when(ticketDAO.getTicket(vehicleRegistrationNumber)).thenReturn(ticket);
-        when(ticketDAO.getNbTicket(vehicleRegistrationNumber)).thenReturn(2);
+        when(ticketDAO.hasVisitedBefore(vehicleRegistrationNumber)).thenReturn(true);
         when(ticketDAO.updateTicket(any(Ticket.class))).thenReturn(true);
         when(parkingSpotDAO.updateParking(any(ParkingSpot.class))).thenReturn(true);
         assertNull(ticket.getOutTime());
@@ -87,12 +87,14 @@ public class ParkingServiceTest {
 
         //when a car enter the parking
         when(inputReaderUtil.readVehicleRegistrationNumber()).thenReturn(vehicleRegistrationNumber);
-        when(parkingSpotDAO.updateParking(any(ParkingSpot.class))).thenReturn(true);
+        when(parkingSpotDAO.claimNextAvailableSlot(ParkingType.CAR)).thenReturn(1);
+        when(ticketDAO.saveTicket(any(Ticket.class))).thenReturn(true);
         ParkingService parkingService = new ParkingService(inputReaderUtil, parkingSpotDAO, ticketDAO);
         parkingService.processIncomingVehicle();
 
         // then a inTime is added to the ticket
-        verify(parkingSpotDAO, times(1)).updateParking(any(ParkingSpot.class));
+        verify(parkingSpotDAO, times(1)).claimNextAvailableSlot(ParkingType.CAR);
+        verify(parkingSpotDAO, never()).updateParking(any(ParkingSpot.class));
 
 
         ArgumentCaptor<Ticket> ticketArgumentCaptor = ArgumentCaptor.forClass(Ticket.class);
@@ -107,6 +109,27 @@ public class ParkingServiceTest {
 
     }
 
+    /**
+     * test for entering a parking when another gate took the last spot
+     * given a parkingspot proposed as available
+     * when the spot cannot be claimed anymore
+     * then no ticket is saved
+     */
+    @Test
+    public void processIncomingVehicleClaimLostTest() throws Exception {
+        // given a parkingspot proposed as available
+        when(parkingSpotDAO.getNextAvailableSlot(ParkingType.CAR)).thenReturn(1);
+        when(inputReaderUtil.readSelection()).thenReturn(1);
+        when(inputReaderUtil.readVehicleRegistrationNumber()).thenReturn(vehicleRegistrationNumber);
+
+        // when the spot cannot be claimed anymore
+        when(parkingSpotDAO.claimNextAvailableSlot(ParkingType.CAR)).thenReturn(0);
+        parkingService.processIncomingVehicle();
+
+        // then no ticket is saved
+        verify(ticketDAO, never()).saveTicket(any(Ticket.class));
+    }
+
     /**
      * test for exiting a parking with unable to update ticket
      * given a vehicle in the parking
@@ -119,7 +142,7 @@ public class ParkingServiceTest {
         // given a vehicle in the parking
         when(inputReaderUtil.readVehicleRegistrationNumber()).thenReturn(vehicleRegistrationNumber);
         when(ticketDAO.getTicket(vehicleRegistrationNumber)).thenReturn(ticket);
-        when(ticketDAO.getNbTicket(vehicleRegistrationNumber)).thenReturn(2);
+        when(ticketDAO.hasVisitedBefore(vehicleRegistrationNumber)).thenReturn(true);
 
         // when an updateTicket is unable to be processed
         when(ticketDAO.updateTicket(any(Ticket.class))).thenReturn(false);
@@ -0,0 +1,135 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.ParkingSpotDAO;
+import com.parkit.parkingsystem.integration.config.EmbeddedDataBaseTestConfig;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ParkingSpotClaimStressTest {
+
+    private static final int CAR_SPOTS = 2000;
+
+    private static EmbeddedDataBaseTestConfig dataBaseConfig;
+
+    private final Map<Integer, Integer> claimsPerSpot = new ConcurrentHashMap<>();
+    private final AtomicInteger errors = new AtomicInteger();
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        dataBaseConfig = new EmbeddedDataBaseTestConfig("claimstress");
+        dataBaseConfig.createSchema();
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        dataBaseConfig.shutdown();
+    }
+
+    @BeforeEach
+    public void setUpPerTest() throws Exception {
+        dataBaseConfig.resetParking(CAR_SPOTS, 0);
+        claimsPerSpot.clear();
+        errors.set(0);
+    }
+
+    /**
+     * test concurrent gates claiming spots
+     * given a parking of 2000 free car spots
+     * when 1, 8 or 64 gates claim spots concurrently until the parking is full
+     * then every spot is handed out exactly once and marked occupied in DB
+     */
+    @ParameterizedTest(name = "{index} - {0} concurrent gates")
+    @ValueSource(ints = {1, 8, 64})
+    public void concurrentGatesNeverDoubleAllocate(int gates) throws Exception {
+        // given a parking of 2000 free car spots
+        ParkingSpotDAO parkingSpotDAO = newParkingSpotDAO(true);
+
+        // when gates claim spots concurrently until the parking is full
+        long elapsed = runGates(gates, parkingSpotDAO);
+
+        // then every spot is handed out exactly once and marked occupied in DB
+        assertNoDoubleAllocation();
+        System.out.printf("claim throughput with %d gates: %.0f claims/s%n", gates, CAR_SPOTS / (elapsed / 1e9));
+    }
+
+    /**
+     * test gates of several processes sharing the same parking table
+     * given two processes with their own spot index and one without index
+     * when their gates claim spots concurrently until the parking is full
+     * then the conditional update still hands out every spot exactly once
+     */
+    @Test
+    public void concurrentProcessesNeverDoubleAllocate() throws Exception {
+        // given two processes with their own spot index and one without index
+        ParkingSpotDAO[] processes = {newParkingSpotDAO(true), newParkingSpotDAO(true), newParkingSpotDAO(false)};
+
+        // when their gates claim spots concurrently until the parking is full
+        runGates(12, processes);
+
+        // then the conditional update still hands out every spot exactly once
+        assertNoDoubleAllocation();
+    }
+
+    private ParkingSpotDAO newParkingSpotDAO(boolean withIndex) {
+        ParkingSpotDAO parkingSpotDAO = dataBaseConfig.newParkingSpotDAO();
+        if (withIndex) {
+            assertTrue(parkingSpotDAO.loadParkingSpotIndex());
+        }
+        return parkingSpotDAO;
+    }
+
+    private long runGates(int gates, ParkingSpotDAO... parkingSpotDAOs) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(gates);
+        CountDownLatch start = new CountDownLatch(1);
+        for (int gate = 0; gate < gates; gate++) {
+            ParkingSpotDAO parkingSpotDAO = parkingSpotDAOs[gate % parkingSpotDAOs.length];
+            executor.submit(() -> {
+                start.await();
+                int spot;
+                while ((spot = parkingSpotDAO.claimNextAvailableSlot(ParkingType.CAR)) != 0) {
+                    if (spot < 0) {
+                        errors.incrementAndGet();
+                    } else {
+                        claimsPerSpot.merge(spot, 1, Integer::sum);
+                    }
+                }
+                return null;
+            });
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(2, TimeUnit.MINUTES));
+        return System.nanoTime() - begin;
+    }
+
+    private void assertNoDoubleAllocation() throws Exception {
+        assertEquals(0, errors.get());
+        assertEquals(CAR_SPOTS, claimsPerSpot.size());
+        assertTrue(claimsPerSpot.values().stream().allMatch(claims -> claims == 1));
+        Connection con = dataBaseConfig.getConnection();
+        try (ResultSet rs = con.createStatement().executeQuery("select count(*) from parking where AVAILABLE = false")) {
+            rs.next();
+            assertEquals(CAR_SPOTS, rs.getInt(1));
+        } finally {
+            dataBaseConfig.closeConnection(con);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.ParkingSpotIndex;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ParkingSpotIndexTest {
+
+    private ParkingSpotIndex parkingSpotIndex;
+
+    @BeforeEach
+    public void setUpPerTest() {
+        parkingSpotIndex = new ParkingSpotIndex.Builder()
+                .add(1, ParkingType.CAR, true)
+                .add(2, ParkingType.CAR, true)
+                .add(3, ParkingType.CAR, true)
+                .add(4, ParkingType.BIKE, true)
+                .add(5, ParkingType.BIKE, true)
+                .build();
+    }
+
+    /**
+     * test the lowest available spot follows the availability updates
+     * given a parking with the first car spot taken
+     * when looking for the next car spot
+     * then the second car spot is returned
+     */
+    @Test
+    public void lowestAvailableSkipsOccupiedSpot() {
+        parkingSpotIndex.setAvailable(1, false);
+
+        assertEquals(2, parkingSpotIndex.lowestAvailable(ParkingType.CAR));
+        assertEquals(4, parkingSpotIndex.lowestAvailable(ParkingType.BIKE));
+        assertEquals(2, parkingSpotIndex.countAvailable(ParkingType.CAR));
+        assertEquals(3, parkingSpotIndex.capacity(ParkingType.CAR));
+    }
+
+    /**
+     * test a full parking type
+     * given every bike spot is claimed
+     * when looking for the next bike spot
+     * then no spot is returned and a released spot becomes available again
+     */
+    @Test
+    public void claimUntilFull() {
+        assertEquals(4, parkingSpotIndex.claimLowest(ParkingType.BIKE));
+        assertEquals(5, parkingSpotIndex.claimLowest(ParkingType.BIKE));
+
+        assertEquals(0, parkingSpotIndex.claimLowest(ParkingType.BIKE));
+        assertEquals(0, parkingSpotIndex.lowestAvailable(ParkingType.BIKE));
+
+        parkingSpotIndex.setAvailable(5, true);
+        assertEquals(5, parkingSpotIndex.lowestAvailable(ParkingType.BIKE));
+    }
+
+    /**
+     * test an unknown spot number is ignored
+     * given a parking of 5 spots
+     * when updating spot 99
+     * then the update is refused
+     */
+    @Test
+    public void setAvailableUnknownSpot() {
+        assertFalse(parkingSpotIndex.setAvailable(99, false));
+        assertFalse(parkingSpotIndex.isAvailable(99));
+        assertNull(parkingSpotIndex.getParkingType(99));
+    }
+
+    /**
+     * test concurrent claims never return the same spot twice
+     * given a parking of 1000 car spots spread over several words
+     * when 8 threads claim spots concurrently
+     * then every spot is claimed exactly once
+     */
+    @Test
+    public void concurrentClaimsAreUnique() throws Exception {
+        ParkingSpotIndex.Builder builder = new ParkingSpotIndex.Builder();
+        for (int i = 1; i <= 1000; i++) {
+            builder.add(i, ParkingType.CAR, true);
+        }
+        ParkingSpotIndex index = builder.build();
+        Set<Integer> claimed = ConcurrentHashMap.newKeySet();
+        AtomicInteger claims = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        for (int t = 0; t < 8; t++) {
+            executor.submit(() -> {
+                start.await();
+                int spot;
+                while ((spot = index.claimLowest(ParkingType.CAR)) > 0) {
+                    claimed.add(spot);
+                    claims.incrementAndGet();
+                }
+                return null;
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(1000, claims.get());
+        assertEquals(1000, claimed.size());
+        assertEquals(0, index.countAvailable(ParkingType.CAR));
+    }
+}
@@ -0,0 +1,121 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.config.DataBaseConfig;
+import com.parkit.parkingsystem.config.StaticShardMap;
+import com.parkit.parkingsystem.integration.config.EmbeddedDataBaseTestConfig;
+import com.parkit.parkingsystem.service.GateClient;
+import com.parkit.parkingsystem.service.GateServer;
+import com.parkit.parkingsystem.service.ParkingSystem;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ParkingSystemTest {
+
+    private static EmbeddedDataBaseTestConfig north;
+    private static EmbeddedDataBaseTestConfig south;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        north = new EmbeddedDataBaseTestConfig("lot-north");
+        north.createSchema();
+        north.resetParking(3, 1);
+        south = new EmbeddedDataBaseTestConfig("lot-south");
+        south.createSchema();
+        south.resetParking(2, 2);
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        north.shutdown();
+        south.shutdown();
+    }
+
+    /**
+     * test requests of several lots
+     * given a parking system serving a north and a south lot from two databases behind one gate server
+     * when the same car parks in both lots, a bike parks in the south lot and the car leaves the south lot
+     * then each request is run on the database of its lot, the requests without lot on the first lot
+     */
+    @Test
+    public void lotsAreRoutedToTheirOwnDatabase() throws Exception {
+        // given a parking system serving a north and a south lot from two databases behind one gate server
+        Map<String, DataBaseConfig> shards = new LinkedHashMap<>();
+        shards.put("north", north);
+        shards.put("south", south);
+        ParkingSystem parkingSystem = ParkingSystem.start(null, new StaticShardMap(shards));
+        GateServer gateServer = new GateServer(parkingSystem, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 4);
+        try {
+            gateServer.start();
+            try (GateClient client = new GateClient(InetAddress.getLoopbackAddress().getHostAddress(), gateServer.getPort())) {
+
+                // when the same car parks in both lots, a bike parks in the south lot and the car leaves the south lot
+                assertTrue(client.request("IN CAR AB-123 north").startsWith("OK 1 "));
+                assertTrue(client.request("IN CAR AB-123 south").startsWith("OK 1 "));
+                assertTrue(client.request("IN BIKE BK-1 south").startsWith("OK 3 "));
+                assertTrue(client.request("OUT AB-123 south").startsWith("OK "));
+
+                // then each request is run on the database of its lot, the requests without lot on the first lot
+                assertEquals("OK CAR 2 BIKE 1", client.request("FREE north"));
+                assertEquals("OK CAR 2 BIKE 1", client.request("FREE south"));
+                assertEquals("OK CAR 2 BIKE 1", client.request("FREE"));
+                assertTrue(client.request("OUT AB-123").startsWith("OK "));
+                assertEquals("OK CAR 3 BIKE 1", client.request("FREE"));
+                assertEquals("ERR Unknown lot east", client.request("IN CAR XY-9 east"));
+            }
+        } finally {
+            gateServer.close();
+            parkingSystem.shutdown();
+        }
+        assertEquals(1, count(north, "select count(*) from ticket where OUT_TIME is not null"));
+        assertEquals(2, count(south, "select count(*) from ticket"));
+        assertEquals(1, count(south, "select count(*) from ticket where OUT_TIME is null and VEHICLE_REG_NUMBER = 'BK-1'"));
+    }
+
+    /**
+     * test the shard map
+     * given lots sharing a database, or missing their database
+     * when the shard map is built, or an unknown lot asked for
+     * then it is refused
+     */
+    @Test
+    public void lotsNeedTheirOwnDatabase() {
+        // given lots sharing a database, or missing their database
+        Map<String, DataBaseConfig> shards = new LinkedHashMap<>();
+        shards.put("north", north);
+        shards.put("east", new EmbeddedDataBaseTestConfig("lot-north"));
+
+        // when the shard map is built, or an unknown lot asked for
+        // then it is refused
+        assertThrows(IllegalArgumentException.class, () -> new StaticShardMap(shards));
+        shards.remove("east");
+        assertThrows(IllegalArgumentException.class, () -> new StaticShardMap(shards).getShard("east"));
+        System.setProperty("parking.lots", "north, east");
+        System.setProperty("parking.lot.north.url", north.getJdbcUrl());
+        try {
+            assertThrows(IllegalArgumentException.class, StaticShardMap::fromSystemProperties);
+        } finally {
+            System.clearProperty("parking.lots");
+            System.clearProperty("parking.lot.north.url");
+        }
+    }
+
+    private static int count(DataBaseConfig dataBaseConfig, String query) throws Exception {
+        Connection con = dataBaseConfig.getConnection();
+        try (ResultSet rs = con.createStatement().executeQuery(query)) {
+            rs.next();
+            return rs.getInt(1);
+        } finally {
+            dataBaseConfig.closeConnection(con);
+        }
+    }
+}
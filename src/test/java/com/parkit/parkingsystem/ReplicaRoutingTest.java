@@ -0,0 +1,149 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.config.UnitOfWork;
+import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.integration.config.EmbeddedDataBaseTestConfig;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+import static com.parkit.parkingsystem.integration.service.DataBasePrepareService.newTicket;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReplicaRoutingTest {
+
+    private static EmbeddedDataBaseTestConfig primary;
+    private static EmbeddedDataBaseTestConfig replica;
+    private TicketDAO ticketDAO;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        primary = new EmbeddedDataBaseTestConfig("rw-primary", "rw-replica");
+        primary.createSchema();
+        replica = new EmbeddedDataBaseTestConfig("rw-replica");
+        replica.createSchema();
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        primary.shutdown();
+        replica.shutdown();
+    }
+
+    @BeforeEach
+    public void setUpPerTest() throws Exception {
+        primary.resetParking(2, 0);
+        replica.resetParking(2, 0);
+        // the replica is not replicated to: it holds a closed ticket the primary does not have
+        execute(replica, "insert into ticket(PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME) "
+                + "values(1, 'REPLICA', 1.5, '2024-03-05 08:00:00', '2024-03-05 10:00:00')");
+        ticketDAO = primary.newTicketDAO();
+    }
+
+    /**
+     * test reads from a replica up to date
+     * given a replica one second behind the primary
+     * when the tickets of a vehicle are counted allowing 5 seconds, then no staleness
+     * then the first count is read from the replica and the second one from the primary
+     */
+    @Test
+    public void readsGoToAFreshReplica() throws Exception {
+        // given a replica one second behind the primary
+        replicatedUpTo(System.currentTimeMillis() - 1_000);
+
+        // when the tickets of a vehicle are counted allowing 5 seconds, then no staleness
+        int fromReplica = ticketDAO.getNbTicket("REPLICA", 5_000);
+        int fromPrimary = ticketDAO.getNbTicket("REPLICA", 0);
+
+        // then the first count is read from the replica and the second one from the primary
+        assertEquals(1, fromReplica);
+        assertTrue(ticketDAO.hasVisitedBefore("REPLICA", 5_000));
+        assertEquals(0, fromPrimary);
+    }
+
+    /**
+     * test reads with a replica lagging
+     * given a replica ten minutes behind the primary
+     * when the tickets of a vehicle are counted allowing 5 seconds, then an hour
+     * then the first count is read from the primary and the second one from the replica
+     */
+    @Test
+    public void staleReplicaIsSkipped() throws Exception {
+        // given a replica ten minutes behind the primary
+        replicatedUpTo(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(10));
+
+        // when the tickets of a vehicle are counted allowing 5 seconds, then an hour
+        int withinSeconds = ticketDAO.getNbTicket("REPLICA", 5_000);
+        int withinAnHour = ticketDAO.getNbTicket("REPLICA", TimeUnit.HOURS.toMillis(1));
+
+        // then the first count is read from the primary and the second one from the replica
+        assertEquals(0, withinSeconds);
+        assertEquals(1, withinAnHour);
+    }
+
+    /**
+     * test a replica keeping up between heartbeats
+     * given a replica caught up at the last heartbeat
+     * when the tickets of a vehicle are counted allowing 200 ms, 300 ms after that heartbeat
+     * then the count is read from the replica
+     */
+    @Test
+    public void caughtUpReplicaIsChosenBetweenHeartbeats() throws Exception {
+        // given a replica caught up at the last heartbeat
+        replicatedUpTo(System.currentTimeMillis());
+
+        // when the tickets of a vehicle are counted allowing 200 ms, 300 ms after that heartbeat
+        Thread.sleep(300);
+        int count = ticketDAO.getNbTicket("REPLICA", 200);
+
+        // then the count is read from the replica
+        assertEquals(1, count);
+    }
+
+    /**
+     * test read-your-writes
+     * given a replica up to date
+     * when a unit of work reads, saves a ticket then reads it back
+     * then the read before the write goes to the replica, the one after it to the primary, and reads after the commit to the replica again
+     */
+    @Test
+    public void unitOfWorkReadsItsOwnWrites() throws Exception {
+        // given a replica up to date
+        replicatedUpTo(System.currentTimeMillis());
+
+        // when a unit of work reads, saves a ticket then reads it back
+        int[] counts = UnitOfWork.execute(() -> {
+            int before = ticketDAO.getNbTicket("REPLICA", 5_000);
+            assertTrue(ticketDAO.saveTicket(newTicket(2, "WRITER")));
+            return new int[]{before, ticketDAO.getNbTicket("WRITER", 5_000), ticketDAO.getNbTicket("REPLICA", 5_000)};
+        });
+
+        // then the read before the write goes to the replica, the one after it to the primary, and reads after the commit to the replica again
+        assertArrayEquals(new int[]{1, 1, 0}, counts);
+        assertEquals(0, ticketDAO.getNbTicket("WRITER", 5_000));
+        assertEquals(1, ticketDAO.getNbTicket("WRITER", 0));
+    }
+
+    /**
+     * set how far the replica has replicated, as the heartbeat would, and let the primary read it
+     */
+    private void replicatedUpTo(long time) throws Exception {
+        primary.checkReplicas();
+        execute(replica, "update replication_heartbeat set BEAT = " + time + " where ID = 1");
+        primary.checkReplicas();
+    }
+
+    private static void execute(EmbeddedDataBaseTestConfig dataBaseConfig, String sql) throws Exception {
+        Connection con = dataBaseConfig.getConnection();
+        try (Statement st = con.createStatement()) {
+            st.executeUpdate(sql);
+        } finally {
+            dataBaseConfig.closeConnection(con);
+        }
+    }
+}
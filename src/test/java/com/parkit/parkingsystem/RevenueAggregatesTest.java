@@ -0,0 +1,174 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.ParkingSpotDAO;
+import com.parkit.parkingsystem.dao.RevenueSummaryDAO;
+import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.integration.config.EmbeddedDataBaseTestConfig;
+import com.parkit.parkingsystem.model.RevenueSummary;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.service.ParkingService;
+import com.parkit.parkingsystem.service.RevenueAggregates;
+import com.parkit.parkingsystem.simulation.SimulatedClock;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RevenueAggregatesTest {
+
+    private static final ZoneId ZONE = ZoneId.of("Europe/Paris");
+    private static final long DAY_START = LocalDateTime.of(2024, 3, 5, 0, 0).atZone(ZONE).toInstant().toEpochMilli();
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    private static EmbeddedDataBaseTestConfig dataBaseConfig;
+    private RevenueSummaryDAO revenueSummaryDAO;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        dataBaseConfig = new EmbeddedDataBaseTestConfig("revenue");
+        dataBaseConfig.createSchema();
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        dataBaseConfig.shutdown();
+    }
+
+    @BeforeEach
+    public void setUpPerTest() throws Exception {
+        dataBaseConfig.resetParking(2, 1);
+        Connection con = dataBaseConfig.getConnection();
+        try (Statement st = con.createStatement()) {
+            st.execute("delete from revenue_summary");
+        } finally {
+            dataBaseConfig.closeConnection(con);
+        }
+        revenueSummaryDAO = new RevenueSummaryDAO();
+        revenueSummaryDAO.dataBaseConfig = dataBaseConfig;
+    }
+
+    /**
+     * test concurrent exits
+     * given 4 gates each recording 10 000 car exits over 2 hours, a fifth of them discounted and a tenth free
+     * when the aggregates are flushed
+     * then the summary table holds every exit and the revenue of each hour and of the day
+     */
+    @Test
+    public void concurrentExitsAreSummarized() throws Exception {
+        // given 4 gates each recording 10 000 car exits over 2 hours, a fifth of them discounted and a tenth free
+        RevenueAggregates aggregates = new RevenueAggregates(ZONE);
+        List<Thread> gates = new ArrayList<>();
+        for (int g = 0; g < 4; g++) {
+            gates.add(new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    long outTime = DAY_START + 10 * HOUR + (i % 2) * HOUR + i;
+                    double price = (i % 10 == 0) ? 0 : 1.5;
+                    aggregates.recordExit(ParkingType.CAR, outTime, price, i % 5 == 1);
+                }
+            }));
+        }
+        gates.forEach(Thread::start);
+        for (Thread gate : gates) {
+            gate.join();
+        }
+
+        // when the aggregates are flushed
+        assertTrue(aggregates.flush(revenueSummaryDAO));
+
+        // then the summary table holds every exit and the revenue of each hour and of the day
+        List<RevenueSummary> hours = revenueSummaryDAO.getSummaries(RevenueSummary.Period.HOUR, new Date(DAY_START), new Date(DAY_START + 24 * HOUR));
+        assertEquals(2, hours.size());
+        for (int h = 0; h < 2; h++) {
+            RevenueSummary hour = hours.get(h);
+            assertEquals(DAY_START + (10 + h) * HOUR, hour.getPeriodStart().getTime());
+            assertEquals(20_000, hour.getExits());
+            assertEquals(4_000 * (1 - h), hour.getFreeExits());
+            assertEquals(4_000, hour.getDiscountedExits());
+            assertEquals(1.5 * (hour.getExits() - hour.getFreeExits()), hour.getRevenue(), 1e-9);
+        }
+        List<RevenueSummary> days = revenueSummaryDAO.getSummaries(RevenueSummary.Period.DAY, new Date(DAY_START), new Date(DAY_START + 1));
+        assertEquals(1, days.size());
+        assertEquals(40_000, days.get(0).getExits());
+        assertEquals(1.5 * 36_000, days.get(0).getRevenue(), 1e-9);
+    }
+
+    /**
+     * test successive flushes
+     * given exits flushed, more exits in the same and the next hours, and flushes with no exit in between
+     * when the aggregates are flushed again
+     * then the table holds the totals, and the hours no longer changing are dropped from memory
+     */
+    @Test
+    public void flushesAddWhatChanged() {
+        // given exits flushed, more exits in the same and the next hours, and flushes with no exit in between
+        RevenueAggregates aggregates = new RevenueAggregates(ZONE);
+        aggregates.recordExit(ParkingType.BIKE, DAY_START + HOUR, 1, false);
+        assertTrue(aggregates.flush(revenueSummaryDAO));
+        aggregates.recordExit(ParkingType.BIKE, DAY_START + HOUR + 1, 2, true);
+        aggregates.recordExit(ParkingType.CAR, DAY_START + 3 * HOUR, 4.25, false);
+
+        // when the aggregates are flushed again
+        assertTrue(aggregates.flush(revenueSummaryDAO));
+        assertTrue(aggregates.flush(revenueSummaryDAO));
+        assertTrue(aggregates.flush(revenueSummaryDAO));
+
+        // then the table holds the totals, and the hours no longer changing are dropped from memory
+        List<RevenueSummary> hours = revenueSummaryDAO.getSummaries(RevenueSummary.Period.HOUR, new Date(DAY_START), new Date(DAY_START + 24 * HOUR));
+        assertEquals(2, hours.size());
+        assertEquals(ParkingType.BIKE, hours.get(0).getParkingType());
+        assertEquals(1, hours.get(0).getFullPriceExits());
+        assertEquals(1, hours.get(0).getDiscountedExits());
+        assertEquals(3, hours.get(0).getRevenue(), 1e-9);
+        assertEquals(4.25, hours.get(1).getRevenue(), 1e-9);
+        List<RevenueSummary> held = aggregates.getSummaries(RevenueSummary.Period.HOUR);
+        assertEquals(1, held.size());
+        assertEquals(DAY_START + 3 * HOUR, held.get(0).getPeriodStart().getTime());
+        assertEquals(7.25, revenueSummaryDAO.getSummaries(RevenueSummary.Period.DAY, new Date(DAY_START), new Date(DAY_START + 1))
+                .stream().mapToDouble(RevenueSummary::getRevenue).sum(), 1e-9);
+    }
+
+    /**
+     * test the exits of the parking service
+     * given a parking service counting its exits
+     * when a car parks for 2 hours and leaves
+     * then its exit and fare are counted in the hour it left
+     */
+    @Test
+    public void serviceExitsAreCounted() throws Exception {
+        // given a parking service counting its exits
+        ParkingSpotDAO parkingSpotDAO = dataBaseConfig.newParkingSpotDAO();
+        TicketDAO ticketDAO = dataBaseConfig.newTicketDAO();
+        ParkingService parkingService = new ParkingService(parkingSpotDAO, ticketDAO);
+        SimulatedClock clock = new SimulatedClock(ZONE);
+        parkingService.setClock(clock);
+        RevenueAggregates aggregates = new RevenueAggregates(ZONE);
+        parkingService.setRevenueAggregates(aggregates);
+
+        // when a car parks for 2 hours and leaves
+        clock.set(DAY_START + 8 * HOUR);
+        parkingService.processIncomingVehicle(ParkingType.CAR, "REVENUE");
+        clock.set(DAY_START + 10 * HOUR + 5);
+        Ticket ticket = parkingService.processExitingVehicle("REVENUE");
+
+        // then its exit and fare are counted in the hour it left
+        List<RevenueSummary> hours = aggregates.getSummaries(RevenueSummary.Period.HOUR);
+        assertEquals(1, hours.size());
+        assertEquals(DAY_START + 10 * HOUR, hours.get(0).getPeriodStart().getTime());
+        assertEquals(ParkingType.CAR, hours.get(0).getParkingType());
+        assertEquals(1, hours.get(0).getFullPriceExits());
+        assertTrue(ticket.getPrice() > 0);
+        assertEquals(ticket.getPrice(), hours.get(0).getRevenue(), 1e-9);
+    }
+}
@@ -0,0 +1,137 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.config.SchemaManager;
+import com.parkit.parkingsystem.integration.config.EmbeddedDataBaseTestConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SchemaManagerTest {
+
+    private EmbeddedDataBaseTestConfig dataBaseConfig;
+
+    @AfterEach
+    public void tearDownPerTest() {
+        dataBaseConfig.shutdown();
+    }
+
+    /**
+     * test migrating an empty database
+     * given an empty database
+     * when the schema is migrated twice
+     * then the scripts are applied once, the original spots are created and no query reads a whole table
+     */
+    @Test
+    public void migrateEmptyDatabase() throws Exception {
+        // given an empty database
+        dataBaseConfig = new EmbeddedDataBaseTestConfig("schemaempty");
+        SchemaManager schemaManager = new SchemaManager(dataBaseConfig);
+
+        // when the schema is migrated twice
+        int firstRun = schemaManager.migrate();
+        int secondRun = schemaManager.migrate();
+
+        // then the scripts are applied once, the original spots are created and no query reads a whole table
+        assertEquals(5, firstRun);
+        assertEquals(0, secondRun);
+        assertEquals(5, count("select count(*) from schema_version"));
+        assertEquals(5, count("select count(*) from parking"));
+        assertEquals(Collections.emptyList(), schemaManager.checkQueryPlans());
+    }
+
+    /**
+     * test migrating a database created with Data.sql and holding its own spots
+     * given the tables without indexes and 3 spots
+     * when the schema is migrated
+     * then the queries by vehicle were full scans before, the spots are kept and the indexes are added
+     */
+    @Test
+    public void migrateExistingDatabase() throws Exception {
+        // given the tables without indexes and 3 spots
+        dataBaseConfig = new EmbeddedDataBaseTestConfig("schemaexisting");
+        execute("create table parking(PARKING_NUMBER int PRIMARY KEY, AVAILABLE bool NOT NULL, TYPE varchar(10) NOT NULL)");
+        execute("create table ticket(ID int PRIMARY KEY AUTO_INCREMENT, PARKING_NUMBER int NOT NULL,"
+                + " VEHICLE_REG_NUMBER varchar(10) NOT NULL, PRICE double, IN_TIME DATETIME NOT NULL, OUT_TIME DATETIME,"
+                + " FOREIGN KEY (PARKING_NUMBER) REFERENCES parking(PARKING_NUMBER))");
+        execute("insert into parking values(1,true,'CAR'),(2,true,'CAR'),(3,true,'BIKE')");
+        SchemaManager schemaManager = new SchemaManager(dataBaseConfig);
+        List<String> fullScansBefore = schemaManager.checkQueryPlans();
+
+        // when the schema is migrated
+        schemaManager.migrate();
+
+        // then the queries by vehicle were full scans before, the spots are kept and the indexes are added
+        assertTrue(fullScansBefore.contains("GET_TICKET"));
+        assertTrue(fullScansBefore.contains("HAS_VISITED"));
+        assertEquals(3, count("select count(*) from parking"));
+        assertEquals(Collections.emptyList(), schemaManager.checkQueryPlans());
+    }
+
+    /**
+     * test an index created by a migration interrupted before being recorded
+     * given a database with the first script applied and two indexes of the second already created
+     * when the schema is migrated
+     * then the second script is applied without failing on the existing indexes and creates the missing one
+     */
+    @Test
+    public void migrateAfterInterruptedScript() throws Exception {
+        // given a database with the first script applied and two indexes of the second already created
+        dataBaseConfig = new EmbeddedDataBaseTestConfig("schemainterrupted");
+        SchemaManager schemaManager = new SchemaManager(dataBaseConfig);
+        schemaManager.migrate();
+        execute("delete from schema_version where VERSION = 2");
+        execute("drop index idx_ticket_out_time");
+
+        // when the schema is migrated
+        int applied = schemaManager.migrate();
+
+        // then the second script is applied without failing on the existing indexes and creates the missing one
+        assertEquals(1, applied);
+        assertEquals(5, count("select count(*) from schema_version"));
+        assertEquals(Collections.emptyList(), schemaManager.checkQueryPlans());
+    }
+
+    /**
+     * test a script changed after being applied
+     * given a migrated database whose recorded checksum differs from the script
+     * when the schema is migrated
+     * then the migration fails
+     */
+    @Test
+    public void changedScriptIsRejected() throws Exception {
+        // given a migrated database whose recorded checksum differs from the script
+        dataBaseConfig = new EmbeddedDataBaseTestConfig("schemachanged");
+        SchemaManager schemaManager = new SchemaManager(dataBaseConfig);
+        schemaManager.migrate();
+        execute("update schema_version set CHECKSUM = 'changed' where VERSION = 1");
+
+        // when the schema is migrated then the migration fails
+        assertThrows(IllegalStateException.class, schemaManager::migrate);
+    }
+
+    private void execute(String sql) throws Exception {
+        Connection con = dataBaseConfig.getConnection();
+        try (Statement st = con.createStatement()) {
+            st.execute(sql);
+        } finally {
+            dataBaseConfig.closeConnection(con);
+        }
+    }
+
+    private int count(String query) throws Exception {
+        Connection con = dataBaseConfig.getConnection();
+        try (ResultSet rs = con.createStatement().executeQuery(query)) {
+            rs.next();
+            return rs.getInt(1);
+        } finally {
+            dataBaseConfig.closeConnection(con);
+        }
+    }
+}
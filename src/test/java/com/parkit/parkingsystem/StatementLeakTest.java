@@ -0,0 +1,178 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.ParkingSpotDAO;
+import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.integration.config.EmbeddedDataBaseTestConfig;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.parkit.parkingsystem.integration.service.DataBasePrepareService.newTicket;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StatementLeakTest {
+
+    private static TrackingDataBaseConfig dataBaseConfig;
+    private TicketDAO ticketDAO;
+    private ParkingSpotDAO parkingSpotDAO;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        dataBaseConfig = new TrackingDataBaseConfig();
+        dataBaseConfig.createSchema();
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        dataBaseConfig.shutdown();
+    }
+
+    @BeforeEach
+    public void setUpPerTest() throws Exception {
+        dataBaseConfig.resetParking(3, 1);
+        dataBaseConfig.opened.clear();
+        ticketDAO = dataBaseConfig.newTicketDAO();
+        parkingSpotDAO = dataBaseConfig.newParkingSpotDAO();
+    }
+
+    /**
+     * test statements closed by every DAO method
+     * given an embedded database whose statements and result sets are tracked
+     * when every DAO method is called
+     * then every statement and result set opened has been closed
+     */
+    @Test
+    public void everyStatementIsClosed() {
+        // given an embedded database whose statements and result sets are tracked
+        Ticket ticket = new Ticket();
+        ticket.setParkingSpot(new ParkingSpot(1, ParkingType.CAR, false));
+        ticket.setVehicleRegNumber("ABCDEF");
+        ticket.setInTime(new Date(System.currentTimeMillis() - 3_600_000));
+
+        // when every DAO method is called
+        assertEquals(1, parkingSpotDAO.getNextAvailableSlot(ParkingType.CAR));
+        assertEquals(1, parkingSpotDAO.claimNextAvailableSlot(ParkingType.CAR));
+        assertTrue(ticketDAO.saveTicket(ticket));
+        assertTrue(ticketDAO.saveTickets(Arrays.asList(newTicket(2, "GHIJKL"), newTicket(3, "MNOPQR"))));
+        assertEquals(ticket.getId(), ticketDAO.getTicket("ABCDEF").getId());
+        ticket.setOutTime(new Date());
+        assertTrue(ticketDAO.updateTicket(ticket));
+        assertTrue(parkingSpotDAO.updateParking(new ParkingSpot(1, ParkingType.CAR, true)));
+        assertEquals(1, ticketDAO.getNbTicket("ABCDEF"));
+        assertTrue(ticketDAO.hasVisitedBefore("ABCDEF"));
+        assertTrue(parkingSpotDAO.loadParkingSpotIndex());
+        assertTrue(ticketDAO.loadOpenTicketIndex(4));
+        assertTrue(ticketDAO.loadVisitedVehicles());
+
+        // then every statement and result set opened has been closed
+        assertTrue(dataBaseConfig.count > 0);
+        assertEquals(Collections.emptySet(), dataBaseConfig.opened);
+    }
+
+    /**
+     * test statements closed on error
+     * given tickets failing to bind once their statement is prepared
+     * when they are saved and updated
+     * then the statements are closed although the calls failed
+     */
+    @Test
+    public void statementsAreClosedOnError() {
+        // given tickets failing to bind once their statement is prepared
+        Ticket noInTime = newTicket(1, "ABCDEF");
+        noInTime.setInTime(null);
+        Ticket noOutTime = newTicket(2, "GHIJKL");
+
+        // when they are saved and updated
+        assertFalse(ticketDAO.saveTicket(noInTime));
+        assertFalse(ticketDAO.saveTickets(Arrays.asList(newTicket(3, "MNOPQR"), noInTime)));
+        assertFalse(ticketDAO.updateTicket(noOutTime));
+
+        // then the statements are closed although the calls failed
+        assertTrue(dataBaseConfig.count > 0);
+        assertEquals(Collections.emptySet(), dataBaseConfig.opened);
+    }
+
+    /**
+     * hands out connections whose statements and result sets are tracked until closed
+     */
+    private static class TrackingDataBaseConfig extends EmbeddedDataBaseTestConfig {
+
+        private final Set<Object> opened = ConcurrentHashMap.newKeySet();
+        private final Map<Connection, Connection> connections = Collections.synchronizedMap(new IdentityHashMap<>());
+        private volatile int count;
+
+        TrackingDataBaseConfig() {
+            super("leaks");
+        }
+
+        @Override
+        public Connection getConnection() throws ClassNotFoundException, SQLException {
+            Connection con = super.getConnection();
+            Connection tracked = track(con, Connection.class);
+            connections.put(tracked, con);
+            return tracked;
+        }
+
+        /**
+         * close the tracked connection, the unit of work only knowing the connection behind it
+         */
+        @Override
+        public void closeConnection(Connection con) {
+            super.closeConnection((con == null) ? null : connections.remove(con));
+        }
+
+        @SuppressWarnings("unchecked")
+        private <T> T track(T target, Class<T> type) {
+            return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "close":
+                        opened.remove(proxy);
+                        break;
+                    default:
+                        break;
+                }
+                Object result;
+                try {
+                    result = method.invoke(target, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+                if (result instanceof PreparedStatement) {
+                    return opened(track((PreparedStatement) result, PreparedStatement.class));
+                }
+                if (result instanceof ResultSet) {
+                    return opened(track((ResultSet) result, ResultSet.class));
+                }
+                return result;
+            });
+        }
+
+        private Object opened(Object resource) {
+            count++;
+            opened.add(resource);
+            return resource;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.service.FareCalculatorService;
+import com.parkit.parkingsystem.service.Tariff;
+import com.parkit.parkingsystem.service.TariffTable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Date;
+import java.util.Properties;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TariffTest {
+
+    private static final ZoneId PARIS = ZoneId.of("Europe/Paris");
+    private static final long HOUR = 3_600_000L;
+
+    @AfterEach
+    public void tearDownPerTest() {
+        FareCalculatorService.setTariffs(TariffTable.defaults());
+    }
+
+    /**
+     * test a tariff with bands
+     * given weekday daytime and night bands in Paris
+     * when stays of random length up to 5 weeks are priced
+     * then each cost is the one of walking the stay minute by minute, and the bands are compiled in a few segments
+     */
+    @Test
+    public void bandsMatchMinuteByMinuteCost() {
+        // given weekday daytime and night bands in Paris
+        Tariff tariff = TariffTable.parse(properties(
+                "tariff.zone", "Europe/Paris",
+                "tariff.CAR.ratePerHour", "1.5",
+                "tariff.CAR.band.1", "MON-FRI 08:00-19:00 2.0",
+                "tariff.CAR.band.2", "* 22:30-06:00 0.5")).get(ParkingType.CAR);
+
+        // when stays of random length up to 5 weeks are priced
+        Random random = new Random(7);
+        long start = ZonedDateTime.of(2026, 1, 1, 0, 0, 0, 0, PARIS).toInstant().toEpochMilli();
+        for (int i = 0; i < 200; i++) {
+            long inTime = start + random.nextInt(365 * 24 * 60) * 60_000L;
+            long outTime = inTime + random.nextInt(5 * 7 * 24 * 60) * 60_000L;
+
+            // then each cost is the one of walking the stay minute by minute
+            assertEquals(walk(inTime, outTime), tariff.cost(inTime, outTime), 1e-6);
+        }
+        assertEquals(25, tariff.getSegmentCount());
+    }
+
+    /**
+     * test a stay over the change to summer time
+     * given a night band in Paris
+     * when a car stays from 01:00 to 04:00 on the night of the change
+     * then it pays the 2 hours it has stayed, at the night rate
+     */
+    @Test
+    public void stayOverChangeOfOffsetIsPricedOnElapsedTime() {
+        // given a night band in Paris
+        Tariff tariff = TariffTable.parse(properties(
+                "tariff.zone", "Europe/Paris",
+                "tariff.CAR.band.1", "* 22:00-06:00 0.5")).get(ParkingType.CAR);
+
+        // when a car stays from 01:00 to 04:00 on the night of the change
+        long inTime = ZonedDateTime.of(2026, 3, 29, 1, 0, 0, 0, PARIS).toInstant().toEpochMilli();
+        long outTime = ZonedDateTime.of(2026, 3, 29, 4, 0, 0, 0, PARIS).toInstant().toEpochMilli();
+
+        // then it pays the 2 hours it has stayed, at the night rate
+        assertEquals(2 * HOUR, outTime - inTime);
+        assertEquals(1.0, tariff.cost(inTime, outTime), 1e-9);
+    }
+
+    /**
+     * test the cap and the grace period
+     * given a car tariff of 2 per hour capped at 20 per 24 hours with 45 free minutes
+     * when stays of 40 minutes, 30 hours and 100 days are priced
+     * then the first is free, the second pays a capped day and 6 hours, the third 100 capped days
+     */
+    @Test
+    public void capAndGracePeriod() {
+        // given a car tariff of 2 per hour capped at 20 per 24 hours with 45 free minutes
+        FareCalculatorService.setTariffs(TariffTable.parse(properties(
+                "tariff.zone", "UTC",
+                "tariff.CAR.ratePerHour", "2",
+                "tariff.CAR.capPer24Hours", "20",
+                "tariff.CAR.graceMinutes", "45")));
+
+        // when stays of 40 minutes, 30 hours and 100 days are priced
+        double free = fare(40 * 60_000L);
+        double dayAndAHalf = fare(30 * HOUR);
+        double hundredDays = fare(100 * 24 * HOUR);
+
+        // then the first is free, the second pays a capped day and 6 hours, the third 100 capped days
+        assertEquals(0.0, free);
+        assertEquals(32.0, dayAndAHalf);
+        assertEquals(2000.0, hundredDays);
+    }
+
+    /**
+     * test an invalid tariff
+     * given a band without rate
+     * when the tariffs are compiled
+     * then they are rejected and the tariffs in use are kept
+     */
+    @Test
+    public void invalidBandIsRejected() {
+        // given a band without rate
+        Properties properties = properties("tariff.CAR.band.1", "MON-FRI 08:00-19:00");
+        TariffTable inUse = FareCalculatorService.getTariffs();
+
+        // when the tariffs are compiled then they are rejected and the tariffs in use are kept
+        assertThrows(IllegalArgumentException.class, () -> TariffTable.parse(properties));
+        assertSame(inUse, FareCalculatorService.getTariffs());
+    }
+
+    private double fare(long duration) {
+        Ticket ticket = new Ticket();
+        ticket.setParkingSpot(new ParkingSpot(1, ParkingType.CAR, false));
+        ticket.setInTime(new Date(1_700_000_000_000L));
+        ticket.setOutTime(new Date(1_700_000_000_000L + duration));
+        new FareCalculatorService().calculateFare(ticket);
+        return ticket.getPrice();
+    }
+
+    /**
+     * the cost of the bands of bandsMatchMinuteByMinuteCost, minute by minute
+     */
+    private static double walk(long inTime, long outTime) {
+        double cost = 0;
+        for (long minute = inTime; minute < outTime; minute += 60_000L) {
+            ZonedDateTime time = ZonedDateTime.ofInstant(Instant.ofEpochMilli(minute), PARIS);
+            int minuteOfDay = time.getHour() * 60 + time.getMinute();
+            double rate = 1.5;
+            if (time.getDayOfWeek().getValue() <= 5 && minuteOfDay >= 8 * 60 && minuteOfDay < 19 * 60) {
+                rate = 2.0;
+            }
+            if (minuteOfDay >= 22 * 60 + 30 || minuteOfDay < 6 * 60) {
+                rate = 0.5;
+            }
+            cost += rate / 60;
+        }
+        return cost;
+    }
+
+    private static Properties properties(String... keysAndValues) {
+        Properties properties = new Properties();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            properties.setProperty(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return properties;
+    }
+}
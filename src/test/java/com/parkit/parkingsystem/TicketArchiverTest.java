@@ -0,0 +1,118 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.dao.TicketArchiveDAO;
+import com.parkit.parkingsystem.dao.TicketArchiver;
+import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.integration.config.EmbeddedDataBaseTestConfig;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.tools.TimeTool;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.parkit.parkingsystem.integration.service.DataBasePrepareService.closedTicket;
+import static com.parkit.parkingsystem.integration.service.DataBasePrepareService.newTicket;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TicketArchiverTest {
+
+    private static EmbeddedDataBaseTestConfig dataBaseConfig;
+    private TicketDAO ticketDAO;
+    private TicketArchiveDAO ticketArchiveDAO;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        dataBaseConfig = new EmbeddedDataBaseTestConfig("archive");
+        dataBaseConfig.createSchema();
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        dataBaseConfig.shutdown();
+    }
+
+    @BeforeEach
+    public void setUpPerTest() throws Exception {
+        dataBaseConfig.resetParking(3, 0);
+        ticketDAO = dataBaseConfig.newTicketDAO();
+        ticketArchiveDAO = new TicketArchiveDAO();
+        ticketArchiveDAO.dataBaseConfig = dataBaseConfig;
+    }
+
+    /**
+     * test archiving closed tickets
+     * given 25 tickets closed 100 days ago, 2 closed an hour ago, an open one and the latest one closed 100 days ago
+     * when the archiver keeping 90 days runs with batches of 10
+     * then the 25 old tickets are moved, the recent, open and latest ones stay in ticket
+     */
+    @Test
+    public void oldClosedTicketsAreMovedInBatches() throws Exception {
+        // given 25 tickets closed 100 days ago, 2 closed an hour ago, an open one and the latest one closed 100 days ago
+        List<Ticket> tickets = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            tickets.add(closedTicket(1, "OLD" + i, 24 * 100));
+        }
+        tickets.add(closedTicket(1, "RECENT1", 1));
+        tickets.add(closedTicket(1, "RECENT2", 1));
+        tickets.add(newTicket(1, "PARKED"));
+        tickets.add(closedTicket(1, "LATEST", 24 * 100));
+        assertTrue(ticketDAO.saveTickets(tickets));
+        TicketArchiver archiver = new TicketArchiver(ticketArchiveDAO, TimeUnit.DAYS.toMillis(90), 10, 0);
+
+        // when the archiver keeping 90 days runs with batches of 10
+        int archived = archiver.runOnce();
+
+        // then the 25 old tickets are moved, the recent, open and latest ones stay in ticket
+        assertEquals(25, archived);
+        assertEquals(25, count("select count(*) from ticket_archive where VEHICLE_REG_NUMBER like 'OLD%'"));
+        assertEquals(4, count("select count(*) from ticket"));
+        assertEquals(1, count("select count(*) from ticket where VEHICLE_REG_NUMBER = 'LATEST'"));
+        assertEquals(1, count("select count(*) from ticket where OUT_TIME is null"));
+        assertEquals(0, archiver.runOnce());
+    }
+
+    /**
+     * test the history of an archived vehicle
+     * given a vehicle with an archived ticket and a recent one, and a vehicle with only an archived ticket
+     * when its history is read, with and without the filter loaded
+     * then the archived tickets are counted and are previous visits
+     */
+    @Test
+    public void archivedTicketsAreHistory() throws Exception {
+        // given a vehicle with an archived ticket and a recent one, and a vehicle with only an archived ticket
+        List<Ticket> tickets = new ArrayList<>();
+        tickets.add(closedTicket(1, "BOTH", 24 * 100));
+        tickets.add(closedTicket(1, "ARCHIVED", 24 * 100));
+        tickets.add(closedTicket(1, "BOTH", 1));
+        assertTrue(ticketDAO.saveTickets(tickets));
+        assertEquals(2, ticketArchiveDAO.archiveClosedTickets(TimeTool.now().minusHour(24 * 90).toDate(), 10));
+        assertEquals(1, count("select count(*) from ticket"));
+
+        // when its history is read, with and without the filter loaded
+        // then the archived tickets are counted and are previous visits
+        assertEquals(2, ticketDAO.getNbTicket("BOTH"));
+        assertEquals(1, ticketDAO.getNbTicket("ARCHIVED"));
+        assertTrue(ticketDAO.hasVisitedBefore("ARCHIVED"));
+        assertTrue(ticketDAO.loadVisitedVehicles());
+        assertTrue(ticketDAO.hasVisitedBefore("ARCHIVED"));
+        assertTrue(ticketDAO.hasVisitedBefore("BOTH"));
+        assertFalse(ticketDAO.hasVisitedBefore("NEVER"));
+    }
+
+    private int count(String query) throws Exception {
+        Connection con = dataBaseConfig.getConnection();
+        try (ResultSet rs = con.createStatement().executeQuery(query)) {
+            rs.next();
+            return rs.getInt(1);
+        } finally {
+            dataBaseConfig.closeConnection(con);
+        }
+    }
+}
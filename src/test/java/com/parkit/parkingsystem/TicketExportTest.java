@@ -0,0 +1,195 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.TicketArchiveDAO;
+import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.export.TicketExport;
+import com.parkit.parkingsystem.export.TicketFile;
+import com.parkit.parkingsystem.export.TicketFileReader;
+import com.parkit.parkingsystem.integration.config.EmbeddedDataBaseTestConfig;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.service.BulkFareCalculator;
+import com.parkit.parkingsystem.service.FareCalculatorService;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TicketExportTest {
+
+    private static final int VEHICLES = 7;
+    private static final int VISITS = 9;
+
+    private static EmbeddedDataBaseTestConfig source;
+    private static EmbeddedDataBaseTestConfig target;
+    private static long start;
+
+    @TempDir
+    Path directory;
+
+    /**
+     * 7 vehicles with 9 visits each, 3 hours apart and a year ago, the last one still parked;
+     * every fare is the tariff one, discounted from the second visit, and the tickets of the first half year archived
+     */
+    @BeforeAll
+    public static void setUp() throws Exception {
+        source = new EmbeddedDataBaseTestConfig("exportsource");
+        source.createSchema();
+        source.resetParking(3, 2);
+        target = new EmbeddedDataBaseTestConfig("exporttarget");
+        target.createSchema();
+        target.resetParking(3, 2);
+        start = TimeUnit.MINUTES.toMillis(TimeUnit.MILLISECONDS.toMinutes(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(365)));
+        FareCalculatorService fareCalculatorService = new FareCalculatorService();
+        List<Ticket> tickets = new ArrayList<>();
+        for (int visit = 0; visit < VISITS; visit++) {
+            for (int vehicle = 0; vehicle < VEHICLES; vehicle++) {
+                int parkingNumber = (vehicle % 5) + 1;
+                Ticket ticket = new Ticket();
+                ticket.setParkingSpot(new ParkingSpot(parkingNumber, parkingNumber <= 3 ? ParkingType.CAR : ParkingType.BIKE, false));
+                ticket.setVehicleRegNumber("PLATE" + vehicle);
+                ticket.setInTime(new Date(start + TimeUnit.HOURS.toMillis(3 * visit) + TimeUnit.MINUTES.toMillis(vehicle * 13)));
+                if (visit < VISITS - 1) {
+                    ticket.setOutTime(new Date(ticket.getInTime().getTime() + TimeUnit.MINUTES.toMillis(25 + vehicle * 17)));
+                    fareCalculatorService.calculateFare(ticket, visit > 0);
+                }
+                tickets.add(ticket);
+            }
+        }
+        TicketDAO ticketDAO = source.newTicketDAO();
+        assertTrue(ticketDAO.saveTickets(tickets));
+        TicketArchiveDAO ticketArchiveDAO = new TicketArchiveDAO();
+        ticketArchiveDAO.dataBaseConfig = source;
+        assertTrue(ticketArchiveDAO.archiveClosedTickets(new Date(start + TimeUnit.HOURS.toMillis(3 * 4)), 1_000) > 0);
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        source.shutdown();
+        target.shutdown();
+    }
+
+    /**
+     * test exporting and importing the ticket history
+     * given tickets in both the ticket and the archive tables
+     * when they are exported in blocks of 10 tickets and imported into an empty database
+     * then the file holds every ticket with its type and discount and the import restores them
+     */
+    @Test
+    public void exportAndImportEveryTicket() throws Exception {
+        // given tickets in both the ticket and the archive tables
+        Set<String> expected = rows(source, "select ID, PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME from ticket "
+                + "union all select ID, PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME from ticket_archive");
+        assertEquals(VEHICLES * VISITS, expected.size());
+        Path file = directory.resolve("tickets.pktx");
+
+        // when they are exported in blocks of 10 tickets and imported into an empty database
+        long exported = new TicketExport(source).exportTickets(file, 10);
+        long imported = new TicketExport(target).importTickets(file);
+
+        // then the file holds every ticket with its type and discount and the import restores them
+        assertEquals(VEHICLES * VISITS, exported);
+        assertEquals(VEHICLES * VISITS, imported);
+        Set<Integer> ids = new HashSet<>();
+        int blocks = 0;
+        try (TicketFileReader reader = new TicketFileReader(file)) {
+            while (reader.nextBlock()) {
+                blocks++;
+                for (int i = 0; i < reader.getRowCount(); i++) {
+                    int vehicle = reader.getVehicleRegNumber(i).charAt(5) - '0';
+                    boolean open = reader.getOutTimes()[i] == TicketFile.NO_OUT_TIME;
+                    boolean firstVisit = reader.getInTimes()[i] == start + TimeUnit.MINUTES.toMillis(vehicle * 13);
+                    assertTrue(ids.add(reader.getIds()[i]));
+                    assertEquals((vehicle % 5) < 3 ? ParkingType.CAR : ParkingType.BIKE, reader.getParkingType(i));
+                    assertEquals(!open && !firstVisit, reader.getDiscounts()[i], "ticket " + reader.getIds()[i]);
+                }
+            }
+        }
+        assertEquals(7, blocks);
+        assertEquals(expected, rows(target, "select ID, PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME from ticket"));
+    }
+
+    /**
+     * test re-pricing an export
+     * given an export in one block of tickets priced with the tariffs in use
+     * when it is re-priced
+     * then the export takes a few bytes per ticket and every closed ticket is re-priced to the price it was billed
+     */
+    @Test
+    public void rebillWithSameTariffsChangesNothing() throws Exception {
+        // given an export in one block of tickets priced with the tariffs in use
+        Path file = directory.resolve("rebill.pktx");
+        long exported = new TicketExport(source).exportTickets(file, 1_000);
+
+        // when it is re-priced
+        TicketExport.RebillReport report = TicketExport.rebill(file, new BulkFareCalculator());
+
+        // then the export takes a few bytes per ticket and every closed ticket is re-priced to the price it was billed
+        assertTrue(Files.size(file) < exported * 16, Files.size(file) + " bytes");
+        assertEquals(VEHICLES * (VISITS - 1), report.getTickets());
+        assertEquals(0, report.getChanged());
+        assertTrue(report.getBilled() > 0);
+        assertEquals(report.getBilled(), report.getRebilled(), 1e-6);
+    }
+
+    /**
+     * test a corrupted export
+     * given an export with one byte changed in its first block
+     * when it is read
+     * then the block is rejected
+     */
+    @Test
+    public void corruptedBlockIsRejected() throws Exception {
+        // given an export with one byte changed in its first block
+        Path file = directory.resolve("corrupted.pktx");
+        new TicketExport(source).exportTickets(file, 1_000);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer b = ByteBuffer.allocate(1);
+            channel.read(b, 40);
+            b.put(0, (byte) (b.get(0) ^ 0x10)).rewind();
+            channel.write(b, 40);
+        }
+
+        // when it is read then the block is rejected
+        try (TicketFileReader reader = new TicketFileReader(file)) {
+            assertThrows(IOException.class, reader::nextBlock);
+        }
+    }
+
+    private static Set<String> rows(EmbeddedDataBaseTestConfig dataBaseConfig, String query) throws Exception {
+        Set<String> rows = new TreeSet<>();
+        Connection con = dataBaseConfig.getConnection();
+        try (ResultSet rs = con.createStatement().executeQuery(query)) {
+            int columns = rs.getMetaData().getColumnCount();
+            while (rs.next()) {
+                StringBuilder row = new StringBuilder();
+                for (int i = 1; i <= columns; i++) {
+                    row.append(rs.getObject(i)).append('|');
+                }
+                rows.add(row.toString());
+            }
+        } finally {
+            dataBaseConfig.closeConnection(con);
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,112 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.config.UnitOfWork;
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.ParkingSpotDAO;
+import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.integration.config.EmbeddedDataBaseTestConfig;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.tools.TimeTool;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static com.parkit.parkingsystem.integration.service.DataBasePrepareService.newTicket;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UnitOfWorkTest {
+
+    private static EmbeddedDataBaseTestConfig dataBaseConfig;
+    private static ParkingSpotDAO parkingSpotDAO;
+    private static TicketDAO ticketDAO;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        dataBaseConfig = new EmbeddedDataBaseTestConfig("unitofwork");
+        dataBaseConfig.createSchema();
+        parkingSpotDAO = dataBaseConfig.newParkingSpotDAO();
+        ticketDAO = dataBaseConfig.newTicketDAO();
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        dataBaseConfig.shutdown();
+    }
+
+    @BeforeEach
+    public void setUpPerTest() throws Exception {
+        dataBaseConfig.resetParking(3, 2);
+        parkingSpotDAO.loadParkingSpotIndex();
+    }
+
+    /**
+     * test an entry committed as one unit of work
+     * given a parking with available spots
+     * when a spot is claimed and its ticket saved in a unit of work
+     * then both DAOs used the same connection and both writes are visible after commit
+     */
+    @Test
+    public void entryIsCommittedOnOneConnection() throws Exception {
+        // when a spot is claimed and its ticket saved in a unit of work
+        int activeConnections = UnitOfWork.execute(() -> {
+            int parkingNumber = parkingSpotDAO.claimNextAvailableSlot(ParkingType.CAR);
+            ticketDAO.saveTicket(newTicket(parkingNumber, "ABCDEF"));
+            return dataBaseConfig.getPoolMetrics().getActiveConnections();
+        });
+
+        // then both DAOs used the same connection and both writes are visible after commit
+        assertEquals(1, activeConnections);
+        assertEquals(0, dataBaseConfig.getPoolMetrics().getActiveConnections());
+        assertNotNull(ticketDAO.getTicket("ABCDEF"));
+        assertEquals(2, parkingSpotDAO.getNextAvailableSlot(ParkingType.CAR));
+    }
+
+    /**
+     * test an exit failing halfway
+     * given a car parked on spot 1
+     * when the ticket is closed but freeing the spot fails
+     * then the ticket stays open and the spot stays occupied
+     */
+    @Test
+    public void failedExitIsRolledBack() throws Exception {
+        // given a car parked on spot 1
+        UnitOfWork.execute(() -> ticketDAO.saveTicket(newTicket(parkingSpotDAO.claimNextAvailableSlot(ParkingType.CAR), "ABCDEF")));
+
+        // when the ticket is closed but freeing the spot fails
+        assertThrows(IllegalStateException.class, () -> UnitOfWork.execute(() -> {
+            Ticket ticket = ticketDAO.getTicket("ABCDEF");
+            ticket.setOutTime(TimeTool.now().toDate());
+            assertTrue(ticketDAO.updateTicket(ticket));
+            ticket.getParkingSpot().setAvailable(true);
+            assertTrue(parkingSpotDAO.updateParking(ticket.getParkingSpot()));
+            throw new IllegalStateException("failure after both updates");
+        }));
+
+        // then the ticket stays open and the spot stays occupied
+        assertNull(ticketDAO.getTicket("ABCDEF").getOutTime());
+        assertEquals(2, parkingSpotDAO.getNextAvailableSlot(ParkingType.CAR));
+        parkingSpotDAO.loadParkingSpotIndex();
+        assertEquals(2, parkingSpotDAO.getNextAvailableSlot(ParkingType.CAR));
+    }
+
+    /**
+     * test a claim rolled back
+     * given a parking with available spots
+     * when a spot is claimed in a unit of work that fails
+     * then the spot is available again in DB and in memory
+     */
+    @Test
+    public void rolledBackClaimReleasesSpot() {
+        // when a spot is claimed in a unit of work that fails
+        assertThrows(IllegalStateException.class, () -> UnitOfWork.execute(() -> {
+            assertEquals(4, parkingSpotDAO.claimNextAvailableSlot(ParkingType.BIKE));
+            throw new IllegalStateException("ticket could not be saved");
+        }));
+
+        // then the spot is available again in DB and in memory
+        assertEquals(4, parkingSpotDAO.getNextAvailableSlot(ParkingType.BIKE));
+        parkingSpotDAO.loadParkingSpotIndex();
+        assertEquals(4, parkingSpotDAO.getNextAvailableSlot(ParkingType.BIKE));
+    }
+}
@@ -0,0 +1,94 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.integration.config.EmbeddedDataBaseTestConfig;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * returning customer check on a large ticket table: COUNT of every ticket of the plate against
+ * the Bloom filter with its EXISTS fallback. Run with mvn test -Pbenchmark,
+ * the table size is set with -Dparking.benchmark.tickets (2 million by default).
+ */
+@Tag("benchmark")
+public class VisitedVehiclesBenchmarkTest {
+
+    private static final long TICKETS = Long.getLong("parking.benchmark.tickets", 2_000_000L);
+    private static final long VEHICLES = TICKETS / 10;
+    private static final int LOOKUPS = 20_000;
+
+    private static EmbeddedDataBaseTestConfig dataBaseConfig;
+    private static TicketDAO ticketDAO;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        dataBaseConfig = new EmbeddedDataBaseTestConfig("visitsbenchmark");
+        dataBaseConfig.createSchema();
+        dataBaseConfig.resetParking(1, 0);
+        Connection con = dataBaseConfig.getConnection();
+        try (Statement st = con.createStatement()) {
+            // ten closed tickets per vehicle
+            st.execute("insert into ticket(PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME) "
+                    + "select 1, concat('P', mod(X, " + VEHICLES + ")), 1.5, "
+                    + "dateadd('SECOND', -X * 60 - 3600, current_timestamp), dateadd('SECOND', -X * 60, current_timestamp) "
+                    + "from system_range(1, " + TICKETS + ")");
+        } finally {
+            dataBaseConfig.closeConnection(con);
+        }
+        ticketDAO = dataBaseConfig.newTicketDAO();
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        dataBaseConfig.shutdown();
+    }
+
+    /**
+     * compare both checks on half returning, half first-time vehicles
+     * given a ticket table of TICKETS closed tickets and a loaded filter
+     * when LOOKUPS vehicles are checked with each method
+     * then both agree and their cost per lookup is printed
+     */
+    @Test
+    public void bloomFilterAgainstCount() {
+        // given a ticket table of TICKETS closed tickets and a loaded filter
+        long loadStart = System.nanoTime();
+        assertTrue(ticketDAO.loadVisitedVehicles());
+        long loadNanos = System.nanoTime() - loadStart;
+        String[] vehicles = new String[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            vehicles[i] = (i % 2 == 0) ? "P" + (i * 7919L % VEHICLES) : "NEW" + i;
+        }
+
+        // when LOOKUPS vehicles are checked with each method, after a warm up round
+        boolean[] byCount = new boolean[LOOKUPS];
+        boolean[] byFilter = new boolean[LOOKUPS];
+        long countNanos = 0;
+        long filterNanos = 0;
+        for (int round = 0; round < 2; round++) {
+            long countStart = System.nanoTime();
+            for (int i = 0; i < LOOKUPS; i++) {
+                byCount[i] = ticketDAO.getNbTicket(vehicles[i]) > 0;
+            }
+            countNanos = System.nanoTime() - countStart;
+            long filterStart = System.nanoTime();
+            for (int i = 0; i < LOOKUPS; i++) {
+                byFilter[i] = ticketDAO.hasVisitedBefore(vehicles[i]);
+            }
+            filterNanos = System.nanoTime() - filterStart;
+        }
+
+        // then both agree and their cost per lookup is printed
+        assertArrayEquals(byCount, byFilter);
+        System.out.printf("tickets=%d vehicles=%d filter load=%dms%n", TICKETS, VEHICLES, loadNanos / 1_000_000);
+        System.out.printf("COUNT        : %8.1f us/lookup%n", countNanos / 1000.0 / LOOKUPS);
+        System.out.printf("Bloom+EXISTS : %8.1f us/lookup%n", filterNanos / 1000.0 / LOOKUPS);
+    }
+}
@@ -0,0 +1,77 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.integration.config.EmbeddedDataBaseTestConfig;
+import com.parkit.parkingsystem.model.Ticket;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+
+import static com.parkit.parkingsystem.integration.service.DataBasePrepareService.closedTicket;
+import static com.parkit.parkingsystem.integration.service.DataBasePrepareService.newTicket;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VisitedVehiclesTest {
+
+    private static EmbeddedDataBaseTestConfig dataBaseConfig;
+    private TicketDAO ticketDAO;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        dataBaseConfig = new EmbeddedDataBaseTestConfig("visits");
+        dataBaseConfig.createSchema();
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        dataBaseConfig.shutdown();
+    }
+
+    @BeforeEach
+    public void setUpPerTest() throws Exception {
+        dataBaseConfig.resetParking(3, 0);
+        ticketDAO = dataBaseConfig.newTicketDAO();
+    }
+
+    /**
+     * test a vehicle on its first visit
+     * given a vehicle with only its open ticket, with and without the filter loaded
+     * when checking if it has visited before
+     * then it has not
+     */
+    @Test
+    public void openTicketIsNotAPreviousVisit() {
+        // given a vehicle with only its open ticket, with and without the filter loaded
+        assertTrue(ticketDAO.saveTicket(newTicket(1, "FIRST")));
+
+        // when checking if it has visited before then it has not
+        assertFalse(ticketDAO.hasVisitedBefore("FIRST"));
+        assertTrue(ticketDAO.loadVisitedVehicles());
+        assertFalse(ticketDAO.hasVisitedBefore("FIRST"));
+    }
+
+    /**
+     * test returning vehicles
+     * given a vehicle with a closed ticket before loading and another closing its ticket after
+     * when checking if they have visited before
+     * then both have
+     */
+    @Test
+    public void closedTicketsAreVisits() {
+        // given a vehicle with a closed ticket before loading and another closing its ticket after
+        assertTrue(ticketDAO.saveTicket(closedTicket(1, "BEFORE", 1)));
+        assertTrue(ticketDAO.loadVisitedVehicles());
+        Ticket ticket = newTicket(2, "AFTER");
+        assertTrue(ticketDAO.saveTicket(ticket));
+        assertFalse(ticketDAO.hasVisitedBefore("AFTER"));
+        ticket.setOutTime(new Date());
+        assertTrue(ticketDAO.updateTicket(ticket));
+
+        // when checking if they have visited before then both have
+        assertTrue(ticketDAO.hasVisitedBefore("BEFORE"));
+        assertTrue(ticketDAO.hasVisitedBefore("AFTER"));
+    }
+}
@@ -0,0 +1,215 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.config.UnitOfWork;
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.ParkingSpotDAO;
+import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.dao.WriteBehindQueue;
+import com.parkit.parkingsystem.integration.config.EmbeddedDataBaseTestConfig;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.tools.TimeTool;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WriteBehindQueueTest {
+
+    private static EmbeddedDataBaseTestConfig dataBaseConfig;
+    private ParkingSpotDAO parkingSpotDAO;
+    private TicketDAO ticketDAO;
+    private WriteBehindQueue queue;
+
+    @TempDir
+    Path journalDir;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        dataBaseConfig = new EmbeddedDataBaseTestConfig("writebehind");
+        dataBaseConfig.createSchema();
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        dataBaseConfig.shutdown();
+    }
+
+    @BeforeEach
+    public void setUpPerTest() throws Exception {
+        dataBaseConfig.resetParking(10, 0);
+        parkingSpotDAO = dataBaseConfig.newParkingSpotDAO();
+        ticketDAO = dataBaseConfig.newTicketDAO();
+    }
+
+    @AfterEach
+    public void tearDownPerTest() throws Exception {
+        if (queue != null) {
+            queue.close();
+        }
+    }
+
+    /**
+     * test an entry and an exit written behind
+     * given DAOs writing through a started queue
+     * when a vehicle enters and exits
+     * then the reads see the queued changes and the database ends up with the closed ticket and the freed spot
+     */
+    @Test
+    public void entryAndExitAreWrittenBehind() throws Exception {
+        // given DAOs writing through a started queue
+        queue = startQueue(journalDir.resolve("journal"), 100);
+
+        // when a vehicle enters and exits
+        int parkingNumber = UnitOfWork.execute(() -> {
+            int claimed = parkingSpotDAO.claimNextAvailableSlot(ParkingType.CAR);
+            assertTrue(ticketDAO.saveTicket(newTicket(claimed, "ABCDEF")));
+            return claimed;
+        });
+        Ticket ticket = ticketDAO.getTicket("ABCDEF");
+        ticket.setOutTime(new Date());
+        ticket.setPrice(1.5);
+        ticket.getParkingSpot().setAvailable(true);
+        UnitOfWork.execute(() -> {
+            assertTrue(ticketDAO.updateTicket(ticket));
+            assertTrue(parkingSpotDAO.updateParking(ticket.getParkingSpot()));
+            return null;
+        });
+
+        // then the reads see the queued changes and the database ends up with the closed ticket and the freed spot
+        assertEquals(1, parkingNumber);
+        assertEquals(parkingNumber, ticket.getParkingSpot().getId());
+        assertTrue(queue.flush(5000));
+        assertEquals(1.5, ticketDAO.getTicket("ABCDEF").getPrice());
+        assertNotNull(ticketDAO.getTicket("ABCDEF").getOutTime());
+        assertEquals(10, countAvailableSpots());
+    }
+
+    /**
+     * test the recovery of a journal left by a crash
+     * given tickets acknowledged by a queue whose writer never ran
+     * when a new queue is started on the same journal
+     * then the tickets are written once to the database and the journal is emptied
+     */
+    @Test
+    public void journalIsReplayedAfterCrash() throws Exception {
+        // given tickets acknowledged by a queue whose writer never ran
+        Path journal = journalDir.resolve("journal");
+        WriteBehindQueue crashed = new WriteBehindQueue(dataBaseConfig, journal, 100, 16, 1000);
+        ticketDAO.setWriteBehindQueue(crashed);
+        assertTrue(ticketDAO.saveTicket(newTicket(1, "CRASH1")));
+        assertTrue(ticketDAO.saveTicket(newTicket(2, "CRASH2")));
+        assertEquals(0, countTickets());
+
+        // when a new queue is started on the same journal
+        queue = new WriteBehindQueue(dataBaseConfig, journal, 100, 16, 1000);
+        queue.start();
+
+        // then the tickets are written once to the database and the journal is emptied
+        assertTrue(queue.flush(5000));
+        assertEquals(2, countTickets());
+        assertEquals(0, queue.getPendingCount());
+        crashed.close();
+    }
+
+    /**
+     * test a restart before the journal is replayed
+     * given a spot claimed through a queue whose writer never ran
+     * when the lot restarts with a queue that cannot write its journal to the database yet
+     * then the claimed spot is not handed out again
+     */
+    @Test
+    public void unappliedClaimIsNotHandedOutAfterRestart() throws Exception {
+        // given a spot claimed through a queue whose writer never ran
+        Path journal = journalDir.resolve("journal");
+        WriteBehindQueue crashed = new WriteBehindQueue(dataBaseConfig, journal, 100, 16, 1000);
+        assertTrue(parkingSpotDAO.setWriteBehindQueue(crashed));
+        assertEquals(1, parkingSpotDAO.claimNextAvailableSlot(ParkingType.CAR));
+        assertEquals(10, countAvailableSpots());
+
+        // when the lot restarts with a queue that cannot write its journal to the database yet
+        EmbeddedDataBaseTestConfig unreachable = new EmbeddedDataBaseTestConfig("writebehind-noschema");
+        System.setProperty("parking.writeBehind.drainTimeoutMs", "100");
+        try {
+            queue = new WriteBehindQueue(unreachable, journal, 100, 16, 1000);
+            queue.start();
+            ParkingSpotDAO restarted = dataBaseConfig.newParkingSpotDAO();
+            assertFalse(queue.flush(200));
+            assertTrue(restarted.setWriteBehindQueue(queue));
+
+            // then the claimed spot is not handed out again
+            assertEquals(2, restarted.claimNextAvailableSlot(ParkingType.CAR));
+            queue.close();
+            queue = null;
+        } finally {
+            System.clearProperty("parking.writeBehind.drainTimeoutMs");
+            unreachable.shutdown();
+            crashed.close();
+        }
+    }
+
+    /**
+     * test backpressure
+     * given a queue of capacity 2 whose writer is not running
+     * when a third change is queued
+     * then the caller is rejected after the timeout
+     */
+    @Test
+    public void fullQueueRejectsAfterTimeout() throws Exception {
+        // given a queue of capacity 2 whose writer is not running
+        queue = new WriteBehindQueue(dataBaseConfig, journalDir.resolve("journal"), 2, 16, 50);
+        queue.updateParking(1, false);
+        queue.updateParking(2, false);
+
+        // when a third change is queued
+        long start = System.currentTimeMillis();
+
+        // then the caller is rejected after the timeout
+        assertThrows(IllegalStateException.class, () -> queue.updateParking(3, false));
+        assertTrue(System.currentTimeMillis() - start >= 50);
+        assertEquals(2, queue.getPendingCount());
+    }
+
+    private WriteBehindQueue startQueue(Path journal, int capacity) throws Exception {
+        WriteBehindQueue started = new WriteBehindQueue(dataBaseConfig, journal, capacity, 16, 1000);
+        started.start();
+        assertTrue(parkingSpotDAO.setWriteBehindQueue(started));
+        ticketDAO.setWriteBehindQueue(started);
+        return started;
+    }
+
+    private int countTickets() throws Exception {
+        return count("select count(*) from ticket");
+    }
+
+    private int countAvailableSpots() throws Exception {
+        return count("select count(*) from parking where AVAILABLE = true");
+    }
+
+    private int count(String query) throws Exception {
+        Connection con = dataBaseConfig.getConnection();
+        try (ResultSet rs = con.createStatement().executeQuery(query)) {
+            rs.next();
+            return rs.getInt(1);
+        } finally {
+            dataBaseConfig.closeConnection(con);
+        }
+    }
+
+    private Ticket newTicket(int parkingNumber, String vehicleRegNumber) {
+        Ticket ticket = new Ticket();
+        ticket.setParkingSpot(new ParkingSpot(parkingNumber, ParkingType.CAR, false));
+        ticket.setVehicleRegNumber(vehicleRegNumber);
+        ticket.setInTime(TimeTool.now().minusHour(1).toDate());
+        return ticket;
+    }
+}
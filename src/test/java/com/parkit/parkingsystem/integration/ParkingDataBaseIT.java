@@ -1,8 +1,12 @@
 package com.parkit.parkingsystem.integration;
 
+import com.parkit.parkingsystem.config.SchemaManager;
 import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.LogStore;
 import com.parkit.parkingsystem.dao.ParkingSpotDAO;
+import com.parkit.parkingsystem.dao.ParkingSpotStore;
 import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.dao.TicketStore;
 import com.parkit.parkingsystem.integration.config.DataBaseTestConfig;
 import com.parkit.parkingsystem.integration.service.DataBasePrepareService;
 import com.parkit.parkingsystem.model.ParkingSpot;
@@ -10,14 +14,19 @@ import com.parkit.parkingsystem.model.Ticket;
 import com.parkit.parkingsystem.service.ParkingService;
 import com.parkit.parkingsystem.tools.TimeTool;
 import com.parkit.parkingsystem.util.InputReaderUtil;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
-import org.junit.jupiter.api.BeforeEach;
-import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.when;
@@ -33,8 +42,16 @@ public class ParkingDataBaseIT {
     @Mock
     private static InputReaderUtil inputReaderUtil;
 
+    @TempDir
+    Path tempDir;
+
+    private LogStore logStore;
+    private ParkingSpotStore parkingSpotStore;
+    private TicketStore ticketStore;
+
     @BeforeAll
     public static void setUp() throws Exception{
+        new SchemaManager(dataBaseTestConfig).migrate();
         parkingSpotDAO = new ParkingSpotDAO();
         parkingSpotDAO.dataBaseConfig = dataBaseTestConfig;
         ticketDAO = new TicketDAO();
@@ -42,22 +59,47 @@ public class ParkingDataBaseIT {
         dataBasePrepareService = new DataBasePrepareService();
     }
 
-    @BeforeEach
-    public void setUpPerTest() throws Exception {
+    /**
+     * start from an empty parking on the given backend: the test database, or a new log store with the same spots
+     * @param backend jdbc or log
+     */
+    private void setUpBackend(String backend) throws Exception {
+        if ("log".equals(backend)) {
+            List<ParkingSpot> spots = new ArrayList<>();
+            for (int i = 1; i <= 5; i++) {
+                spots.add(new ParkingSpot(i, (i <= 3) ? ParkingType.CAR : ParkingType.BIKE, true));
+            }
+            logStore = LogStore.open(tempDir.resolve("parking.log"), spots, true);
+            parkingSpotStore = logStore;
+            ticketStore = logStore;
+            return;
+        }
         dataBasePrepareService.clearDataBaseEntries();
+        parkingSpotDAO.loadParkingSpotIndex();
+        parkingSpotStore = parkingSpotDAO;
+        ticketStore = ticketDAO;
+    }
 
+    @AfterEach
+    public void tearDownPerTest() throws Exception {
+        if (logStore != null) {
+            logStore.close();
+        }
     }
+
     /**
      * test parking a car
      * given a parking with available spots
      * when we process an incoming vehicle
      * then a ticket is actually saved in DB
      */
-    @Test
-    public void testParkingACar() throws Exception {
+    @ParameterizedTest(name = "{index} - {0} backend")
+    @ValueSource(strings = {"jdbc", "log"})
+    public void testParkingACar(String backend) throws Exception {
+        setUpBackend(backend);
         //given a parking with available spots
         final String vehicleRegistrationNumber ="ABCDEF";
-        final ParkingService parkingService = new ParkingService(inputReaderUtil, parkingSpotDAO, ticketDAO);
+        final ParkingService parkingService = new ParkingService(inputReaderUtil, parkingSpotStore, ticketStore);
 
         // when we process an incoming vehicle
         when(inputReaderUtil.readSelection()).thenReturn(1);
@@ -67,7 +109,7 @@ public class ParkingDataBaseIT {
 
         // then a ticket is actually saved in DB
 
-        final Ticket ticket = ticketDAO.getTicket(vehicleRegistrationNumber);
+        final Ticket ticket = ticketStore.getTicket(vehicleRegistrationNumber);
         assertNotNull(ticket);
         assertEquals(vehicleRegistrationNumber, ticket.getVehicleRegNumber());
         assertNotNull(ticket.getInTime());
@@ -83,26 +125,28 @@ public class ParkingDataBaseIT {
      * when the car exit the parking 60min later
      * then a ticket is actually saved in DB
      */
-    @Test
-    public void testParkingLotExit() throws Exception {
+    @ParameterizedTest(name = "{index} - {0} backend")
+    @ValueSource(strings = {"jdbc", "log"})
+    public void testParkingLotExit(String backend) throws Exception {
+        setUpBackend(backend);
         // given a CAR already parked
 
         final ParkingSpot parkingSpot = new ParkingSpot(1, ParkingType.CAR, false);
         final String vehicleRegNumber = "ABCDEF";
 
         final Ticket ticket = createIncomingTicket(parkingSpot, vehicleRegNumber, 60);
-        ticketDAO.saveTicket(ticket);
+        ticketStore.saveTicket(ticket);
 
 
         // when the car exit the parking 60min later
         when(inputReaderUtil.readVehicleRegistrationNumber()).thenReturn("ABCDEF");
 
-        ParkingService parkingService = new ParkingService(inputReaderUtil, parkingSpotDAO, ticketDAO);
+        ParkingService parkingService = new ParkingService(inputReaderUtil, parkingSpotStore, ticketStore);
         parkingService.processExitingVehicle();
 
 
         // then the fare are generated
-        final Ticket savedTicket = ticketDAO.getTicket(vehicleRegNumber);
+        final Ticket savedTicket = ticketStore.getTicket(vehicleRegNumber);
 
         assertNotNull(savedTicket.getOutTime());
         assertNotEquals(0, savedTicket.getPrice());
@@ -114,26 +158,28 @@ public class ParkingDataBaseIT {
      * when the car exit the parking 60min later
      * then the fare with 5% discount is generated
      */
-    @Test
-    public void testParkingLotExitRecurringUser() throws Exception {
+    @ParameterizedTest(name = "{index} - {0} backend")
+    @ValueSource(strings = {"jdbc", "log"})
+    public void testParkingLotExitRecurringUser(String backend) throws Exception {
+        setUpBackend(backend);
 
         final ParkingSpot parkingSpot = new ParkingSpot(1, ParkingType.CAR, false);
         final String vehicleRegNumber = "ABCDEF";
 
         final Ticket oldTicket = createExitingTicketOneHourAgo(parkingSpot, vehicleRegNumber, 120, 3);
-        ticketDAO.saveTicket(oldTicket);
+        ticketStore.saveTicket(oldTicket);
         // register a ticket with time and price
         final Ticket newTicket = createIncomingTicket(parkingSpot, vehicleRegNumber, 60);
-        ticketDAO.saveTicket(newTicket);
+        ticketStore.saveTicket(newTicket);
 
         // when the car exit the parking 60min later
         when(inputReaderUtil.readVehicleRegistrationNumber()).thenReturn("ABCDEF");
 
-        ParkingService parkingService = new ParkingService(inputReaderUtil, parkingSpotDAO, ticketDAO);
+        ParkingService parkingService = new ParkingService(inputReaderUtil, parkingSpotStore, ticketStore);
         parkingService.processExitingVehicle();
 
         // then the fare with discount is generated
-        final Ticket savedTicket = ticketDAO.getTicket(vehicleRegNumber);
+        final Ticket savedTicket = ticketStore.getTicket(vehicleRegNumber);
 
         assertNotNull(savedTicket.getOutTime());
         assertNotEquals(0, savedTicket.getPrice());
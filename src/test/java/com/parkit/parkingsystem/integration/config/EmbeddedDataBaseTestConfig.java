@@ -0,0 +1,97 @@
+package com.parkit.parkingsystem.integration.config;
+
+import com.parkit.parkingsystem.config.DataBaseConfig;
+import com.parkit.parkingsystem.config.SchemaManager;
+import com.parkit.parkingsystem.dao.ParkingSpotDAO;
+import com.parkit.parkingsystem.dao.TicketDAO;
+import org.h2.engine.Mode;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * pooled configuration against an in-memory H2 database in MySQL mode,
+ * used by the tests that need a real database without a MySQL server
+ */
+public class EmbeddedDataBaseTestConfig extends DataBaseConfig {
+
+    static {
+        // in MySQL mode H2 moves the identity sequence up to every inserted id, generated ones included, which races
+        // with concurrent inserts and hands out the same ticket id twice; MySQL itself never does
+        Mode.getInstance("MySQL").updateSequenceOnManualIdentityInsertion = false;
+    }
+
+    public EmbeddedDataBaseTestConfig(String databaseName) {
+        super(urlOf(databaseName), "sa", "");
+    }
+
+    /**
+     * @param replicaNames the in-memory databases standing for the read replicas, not replicated to
+     */
+    public EmbeddedDataBaseTestConfig(String databaseName, String... replicaNames) {
+        super(urlOf(databaseName), "sa", "", urlsOf(replicaNames));
+    }
+
+    private static String urlOf(String databaseName) {
+        return "jdbc:h2:mem:" + databaseName + ";MODE=MySQL;DB_CLOSE_DELAY=-1";
+    }
+
+    private static List<String> urlsOf(String[] databaseNames) {
+        List<String> urls = new ArrayList<>();
+        for (String databaseName : databaseNames) {
+            urls.add(urlOf(databaseName));
+        }
+        return urls;
+    }
+
+    /**
+     * create the schema with the migrations of the application
+     */
+    public void createSchema() throws Exception {
+        new SchemaManager(this).migrate();
+    }
+
+    /**
+     * @return a new DAO on this database
+     */
+    public TicketDAO newTicketDAO() {
+        TicketDAO ticketDAO = new TicketDAO();
+        ticketDAO.dataBaseConfig = this;
+        return ticketDAO;
+    }
+
+    /**
+     * @return a new DAO on this database
+     */
+    public ParkingSpotDAO newParkingSpotDAO() {
+        ParkingSpotDAO parkingSpotDAO = new ParkingSpotDAO();
+        parkingSpotDAO.dataBaseConfig = this;
+        return parkingSpotDAO;
+    }
+
+    /**
+     * empty the tables and create available spots, car spots first then bike spots
+     * @param carSpots number of car spots
+     * @param bikeSpots number of bike spots
+     */
+    public void resetParking(int carSpots, int bikeSpots) throws Exception {
+        Connection con = getConnection();
+        try (Statement st = con.createStatement();
+             PreparedStatement ps = con.prepareStatement("insert into parking(PARKING_NUMBER,AVAILABLE,TYPE) values(?,true,?)")) {
+            st.execute("delete from ticket_archive");
+            st.execute("delete from ticket");
+            st.execute("delete from parking");
+            for (int i = 1; i <= carSpots + bikeSpots; i++) {
+                ps.setInt(1, i);
+                ps.setString(2, i <= carSpots ? "CAR" : "BIKE");
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        } finally {
+            closeConnection(con);
+        }
+    }
+}
@@ -1,8 +1,13 @@
 package com.parkit.parkingsystem.integration.service;
 
+import com.parkit.parkingsystem.constants.ParkingType;
 import com.parkit.parkingsystem.integration.config.DataBaseTestConfig;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.tools.TimeTool;
 
 import java.sql.Connection;
+import java.util.Date;
 
 public class DataBasePrepareService {
 
@@ -18,6 +23,7 @@ public class DataBasePrepareService {
 
             //clear ticket entries;
             connection.prepareStatement("truncate table ticket").execute();
+            connection.prepareStatement("truncate table ticket_archive").execute();
 
         }catch(Exception e){
             e.printStackTrace();
@@ -26,5 +32,30 @@ public class DataBasePrepareService {
         }
     }
 
+    /**
+     * @return an open ticket of a car that entered an hour ago
+     */
+    public static Ticket newTicket(int parkingNumber, String vehicleRegNumber) {
+        return newTicket(parkingNumber, vehicleRegNumber, TimeTool.now().minusHour(1).toDate());
+    }
+
+    /**
+     * @return an open ticket of a car
+     */
+    public static Ticket newTicket(int parkingNumber, String vehicleRegNumber, Date inTime) {
+        Ticket ticket = new Ticket();
+        ticket.setParkingSpot(new ParkingSpot(parkingNumber, ParkingType.CAR, false));
+        ticket.setVehicleRegNumber(vehicleRegNumber);
+        ticket.setInTime(inTime);
+        return ticket;
+    }
 
+    /**
+     * @return the ticket of a car that left some hours ago, after an hour parked
+     */
+    public static Ticket closedTicket(int parkingNumber, String vehicleRegNumber, long closedHoursAgo) {
+        Ticket ticket = newTicket(parkingNumber, vehicleRegNumber, TimeTool.now().minusHour(closedHoursAgo + 1).toDate());
+        ticket.setOutTime(TimeTool.now().minusHour(closedHoursAgo).toDate());
+        return ticket;
+    }
 }